@@ -0,0 +1,144 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.FaceSimilar;
+import com.arcsoft.face.enums.DetectFaceOrientPriority;
+import com.arcsoft.face.enums.DetectMode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * IVF索引的召回率与速度测试，需要在已激活引擎并注册过人脸的设备上运行
+ * <p>
+ * 以已注册的人脸为种子扰动生成大人脸库，再以库中人脸的扰动作为查询，
+ * 统计不同探查类数下IVF搜索的top1与精确搜索的top1一致的比例（recall@1）及耗时
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeatureIvfIndexBenchmark {
+    private static final String TAG = "FeatureIvfIndexBenchmark";
+    private static final int GALLERY_SIZE = 50000;
+    private static final int QUERY_COUNT = 200;
+    private static final float GALLERY_NOISE = 0.5f;
+    private static final float QUERY_NOISE = 0.1f;
+    private static final int[] PROBE_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    private FaceEngine faceEngine;
+    private FeatureSlab gallery;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        FeatureSlab seeds = new FeatureSlab();
+        new FaceFeatureStore(new File(context.getFilesDir(), "register" + File.separator + "features.dat")).load(seeds);
+        assumeTrue("no registered face", seeds.size() > 0);
+        faceEngine = new FaceEngine();
+        int code = faceEngine.init(context, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, 1, FaceEngine.ASF_FACE_RECOGNITION);
+        assumeTrue("init engine failed: " + code, code == ErrorInfo.MOK);
+
+        Random random = new Random(0);
+        FeatureSlab.Reader reader = seeds.newReader();
+        gallery = new FeatureSlab(GALLERY_SIZE);
+        for (int i = 0; i < GALLERY_SIZE; i++) {
+            gallery.add(String.valueOf(i), perturb(reader.read(i % seeds.size()), GALLERY_NOISE, random));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (faceEngine != null) {
+            faceEngine.unInit();
+        }
+    }
+
+    @Test
+    public void recallAt1() {
+        long start = System.currentTimeMillis();
+        FeatureIvfIndex index = FeatureIvfIndex.train(gallery, GALLERY_SIZE, (int) Math.sqrt(GALLERY_SIZE), 10, 0);
+        Log.i(TAG, "train " + GALLERY_SIZE + " faces, " + index.getListCount() + " lists, cost " + (System.currentTimeMillis() - start) + "ms");
+
+        Random random = new Random(1);
+        FeatureSlab.Reader reader = gallery.newReader();
+        byte[][] queries = new byte[QUERY_COUNT][];
+        int[] exactTop = new int[QUERY_COUNT];
+        start = System.currentTimeMillis();
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            queries[q] = perturb(reader.read(random.nextInt(GALLERY_SIZE)), QUERY_NOISE, random);
+            exactTop[q] = top1(queries[q], null);
+        }
+        Log.i(TAG, "exact scan: " + (System.currentTimeMillis() - start) / (float) QUERY_COUNT + "ms/query");
+
+        float lastRecall = 0;
+        for (int probeCount : PROBE_COUNTS) {
+            int hit = 0;
+            long candidateCount = 0;
+            start = System.currentTimeMillis();
+            for (int q = 0; q < QUERY_COUNT; q++) {
+                int[] candidates = index.search(queries[q], probeCount);
+                candidateCount += candidates.length;
+                if (top1(queries[q], candidates) == exactTop[q]) {
+                    hit++;
+                }
+            }
+            float recall = hit / (float) QUERY_COUNT;
+            Log.i(TAG, "nprobe = " + probeCount + ", recall@1 = " + recall
+                    + ", candidates = " + candidateCount / QUERY_COUNT
+                    + ", " + (System.currentTimeMillis() - start) / (float) QUERY_COUNT + "ms/query");
+            lastRecall = recall;
+        }
+        assertTrue("recall@1 too low: " + lastRecall, lastRecall >= 0.9f);
+    }
+
+    private int top1(byte[] query, int[] candidates) {
+        FaceFeature queryFeature = new FaceFeature(query);
+        FaceFeature tempFeature = new FaceFeature();
+        FaceSimilar faceSimilar = new FaceSimilar();
+        FeatureSlab.Reader reader = gallery.newReader();
+        int count = candidates == null ? gallery.size() : candidates.length;
+        int top = -1;
+        float maxSimilar = -1;
+        for (int j = 0; j < count; j++) {
+            int i = candidates == null ? j : candidates[j];
+            tempFeature.setFeatureData(reader.read(i));
+            faceEngine.compareFaceFeature(queryFeature, tempFeature, faceSimilar);
+            if (faceSimilar.getScore() > maxSimilar) {
+                maxSimilar = faceSimilar.getScore();
+                top = i;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * 在特征向量上叠加高斯噪声，头部保持不变
+     */
+    private static byte[] perturb(byte[] feature, float noise, Random random) {
+        byte[] result = feature.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[FeatureIvfIndex.DIMENSION];
+        FeatureIvfIndex.toVector(feature, vector);
+        float scale = (float) (noise / Math.sqrt(FeatureIvfIndex.DIMENSION));
+        for (int d = 0; d < FeatureIvfIndex.DIMENSION; d++) {
+            buffer.putFloat(FeatureIvfIndex.FEATURE_HEADER_SIZE + d * 4, vector[d] + (float) random.nextGaussian() * scale);
+        }
+        return result;
+    }
+}
@@ -19,6 +19,7 @@ import com.arcsoft.arcfacedemo.util.ConfigUtil;
 import com.arcsoft.arcfacedemo.util.DrawHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraListener;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
 import com.arcsoft.arcfacedemo.util.face.RecognizeColor;
 import com.arcsoft.arcfacedemo.widget.FaceRectView;
 import com.arcsoft.face.AgeInfo;
@@ -124,7 +125,8 @@ public class FaceAttrPreviewActivity extends BaseActivity implements ViewTreeObs
 
 
             @Override
-            public void onPreview(byte[] nv21, Camera camera) {
+            public void onPreview(PreviewFrame frame, Camera camera) {
+                byte[] nv21 = frame.getData();
 
                 if (faceRectView != null) {
                     faceRectView.clearFaceInfo();
@@ -2,28 +2,21 @@ package com.arcsoft.arcfacedemo.activity;
 
 import android.Manifest;
 import android.content.DialogInterface;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Environment;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.TextView;
 
 import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.widget.ProgressDialog;
+import com.arcsoft.arcfacedemo.faceserver.FaceBatchRegister;
 import com.arcsoft.arcfacedemo.faceserver.FaceServer;
-import com.arcsoft.imageutil.ArcSoftImageFormat;
-import com.arcsoft.imageutil.ArcSoftImageUtil;
-import com.arcsoft.imageutil.ArcSoftImageUtilError;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * 批量注册页面
@@ -33,7 +26,7 @@ public class FaceManageActivity extends BaseActivity {
     private static final String ROOT_DIR = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "arcfacedemo";
     private static final String REGISTER_DIR = ROOT_DIR + File.separator + "register";
     private static final String REGISTER_FAILED_DIR = ROOT_DIR + File.separator + "failed";
-    private ExecutorService executorService;
+    private FaceBatchRegister faceBatchRegister;
 
     private TextView tvNotificationRegisterResult;
 
@@ -49,16 +42,16 @@ public class FaceManageActivity extends BaseActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_face_manage);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-        executorService = Executors.newSingleThreadExecutor();
         tvNotificationRegisterResult = findViewById(R.id.notification_register_result);
         progressDialog = new ProgressDialog(this);
-        FaceServer.getInstance().init(this);
+        FaceServer.getInstance().initAsync(this, 1, null);
     }
 
     @Override
     protected void onDestroy() {
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdownNow();
+        if (faceBatchRegister != null) {
+            faceBatchRegister.cancel();
+            faceBatchRegister = null;
         }
         if (progressDialog != null && progressDialog.isShowing()) {
             progressDialog.dismiss();
@@ -92,85 +85,49 @@ public class FaceManageActivity extends BaseActivity {
                 return name.endsWith(FaceServer.IMG_SUFFIX);
             }
         });
-        executorService.execute(new Runnable() {
-            @Override
-            public void run() {
-                final int totalCount = jpgFiles.length;
-
-                int successCount = 0;
-                runOnUiThread(new Runnable() {
+        if (faceBatchRegister != null) {
+            faceBatchRegister.cancel();
+        }
+        final int totalCount = jpgFiles.length;
+        progressDialog.setMaxProgress(totalCount);
+        progressDialog.show();
+        tvNotificationRegisterResult.setText("");
+        tvNotificationRegisterResult.append(getString(R.string.batch_process_processing_please_wait));
+        // 解码、转换、特征提取分阶段并行处理，进度回调限频
+        faceBatchRegister = new FaceBatchRegister.Builder()
+                .context(this)
+                .imageFiles(jpgFiles)
+                .failedDir(new File(REGISTER_FAILED_DIR))
+                // 已注册且未变化的图片直接跳过，中断后再次注册从中断处继续
+                .enrollManifest(FaceServer.getInstance().createEnrollManifest(this))
+                .batchRegisterListener(new FaceBatchRegister.BatchRegisterListener() {
                     @Override
-                    public void run() {
-                        progressDialog.setMaxProgress(totalCount);
-                        progressDialog.show();
-                        tvNotificationRegisterResult.setText("");
-                        tvNotificationRegisterResult.append(getString(R.string.batch_process_processing_please_wait));
-                    }
-                });
-                for (int i = 0; i < totalCount; i++) {
-                    final int finalI = i;
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (progressDialog != null) {
-                                progressDialog.refreshProgress(finalI);
-                            }
-                        }
-                    });
-                    final File jpgFile = jpgFiles[i];
-                    Bitmap bitmap = BitmapFactory.decodeFile(jpgFile.getAbsolutePath());
-                    if (bitmap == null) {
-                        File failedFile = new File(REGISTER_FAILED_DIR + File.separator + jpgFile.getName());
-                        if (!failedFile.getParentFile().exists()) {
-                            failedFile.getParentFile().mkdirs();
-                        }
-                        jpgFile.renameTo(failedFile);
-                        continue;
-                    }
-                    bitmap = ArcSoftImageUtil.getAlignedBitmap(bitmap, true);
-                    if (bitmap == null) {
-                        File failedFile = new File(REGISTER_FAILED_DIR + File.separator + jpgFile.getName());
-                        if (!failedFile.getParentFile().exists()) {
-                            failedFile.getParentFile().mkdirs();
+                    public void onProgress(int processedCount, int totalCount) {
+                        if (progressDialog != null) {
+                            progressDialog.refreshProgress(processedCount);
                         }
-                        jpgFile.renameTo(failedFile);
-                        continue;
                     }
-                    byte[] bgr24 = ArcSoftImageUtil.createImageData(bitmap.getWidth(), bitmap.getHeight(), ArcSoftImageFormat.BGR24);
-                    int transformCode = ArcSoftImageUtil.bitmapToImageData(bitmap, bgr24, ArcSoftImageFormat.BGR24);
-                    if (transformCode != ArcSoftImageUtilError.CODE_SUCCESS) {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                progressDialog.dismiss();
-                                tvNotificationRegisterResult.append("");
-                            }
-                        });
-                        return;
-                    }
-                    boolean success = FaceServer.getInstance().registerBgr24(FaceManageActivity.this, bgr24, bitmap.getWidth(), bitmap.getHeight(),
-                            jpgFile.getName().substring(0, jpgFile.getName().lastIndexOf(".")));
-                    if (!success) {
-                        File failedFile = new File(REGISTER_FAILED_DIR + File.separator + jpgFile.getName());
-                        if (!failedFile.getParentFile().exists()) {
-                            failedFile.getParentFile().mkdirs();
+
+                    @Override
+                    public void onFinished(int totalCount, int successCount, boolean canceled) {
+                        if (canceled || isFinishing()) {
+                            return;
                         }
-                        jpgFile.renameTo(failedFile);
-                    } else {
-                        successCount++;
+                        progressDialog.dismiss();
+                        tvNotificationRegisterResult.append(getString(R.string.batch_process_finished_info, totalCount, successCount, totalCount - successCount, REGISTER_FAILED_DIR));
                     }
-                }
-                final int finalSuccessCount = successCount;
-                runOnUiThread(new Runnable() {
+
                     @Override
-                    public void run() {
+                    public void onFailed(int errorCode) {
+                        if (isFinishing()) {
+                            return;
+                        }
                         progressDialog.dismiss();
-                        tvNotificationRegisterResult.append(getString(R.string.batch_process_finished_info, totalCount, finalSuccessCount, totalCount - finalSuccessCount, REGISTER_FAILED_DIR));
+                        tvNotificationRegisterResult.append(getString(R.string.init_failed, errorCode));
                     }
-                });
-                Log.i(FaceManageActivity.class.getSimpleName(), "run: " + executorService.isShutdown());
-            }
-        });
+                })
+                .build();
+        faceBatchRegister.start();
     }
 
     @Override
@@ -28,18 +28,25 @@ import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.common.Constants;
 import com.arcsoft.arcfacedemo.faceserver.CompareResult;
 import com.arcsoft.arcfacedemo.faceserver.FaceServer;
+import com.arcsoft.arcfacedemo.faceserver.InitListener;
 import com.arcsoft.arcfacedemo.model.DrawInfo;
 import com.arcsoft.arcfacedemo.model.FacePreviewInfo;
 import com.arcsoft.arcfacedemo.util.ConfigUtil;
 import com.arcsoft.arcfacedemo.util.DrawHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraListener;
 import com.arcsoft.arcfacedemo.util.camera.DualCameraHelper;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrameProcessor;
+import com.arcsoft.arcfacedemo.util.face.FaceEnginePool;
 import com.arcsoft.arcfacedemo.util.face.FaceHelper;
 import com.arcsoft.arcfacedemo.util.face.FaceListener;
 import com.arcsoft.arcfacedemo.util.face.LivenessType;
 import com.arcsoft.arcfacedemo.util.face.RecognizeColor;
 import com.arcsoft.arcfacedemo.util.face.RequestFeatureStatus;
 import com.arcsoft.arcfacedemo.util.face.RequestLivenessStatus;
+import com.arcsoft.arcfacedemo.util.face.TrackState;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineMetrics;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineTracer;
 import com.arcsoft.arcfacedemo.widget.FaceRectView;
 import com.arcsoft.arcfacedemo.widget.FaceSearchResultAdapter;
 import com.arcsoft.face.AgeInfo;
@@ -53,19 +60,15 @@ import com.arcsoft.face.VersionInfo;
 import com.arcsoft.face.enums.DetectFaceOrientPriority;
 import com.arcsoft.face.enums.DetectMode;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Observer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
@@ -87,10 +90,6 @@ import io.reactivex.schedulers.Schedulers;
 public class IrRegisterAndRecognizeActivity extends BaseActivity implements ViewTreeObserver.OnGlobalLayoutListener {
     private static final String TAG = "IrRegisterAndRecognize";
     private static final int MAX_DETECT_NUM = 10;
-    /**
-     * 当FR成功，活体未成功时，FR等待活体的时间
-     */
-    private static final int WAIT_LIVENESS_INTERVAL = 50;
     /**
      * 失败重试间隔时间（ms）
      */
@@ -99,9 +98,29 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      * 出错重试最大次数
      */
     private static final int MAX_RETRY_TIME = 3;
+    /**
+     * 画面静止时的最大人脸检测间隔（帧）
+     */
+    private static final int MAX_DETECT_INTERVAL = 3;
+    /**
+     * 特征提取的选帧窗口（帧），在窗口内挑选质量最好的一帧提取特征
+     */
+    private static final int FEATURE_FRAME_WINDOW = 5;
+    /**
+     * 性能统计显示的刷新间隔（ms）
+     */
+    private static final long METRICS_REFRESH_INTERVAL = 500;
+    /**
+     * 是否记录识别流程的耗时追踪，开启后点击性能统计或退出页面时将追踪导出为Chrome trace-event JSON，保存在应用的外部文件目录
+     */
+    private static final boolean PIPELINE_TRACE_ENABLED = false;
 
     private DualCameraHelper cameraHelper;
     private DualCameraHelper cameraHelperIr;
+    /**
+     * RGB预览帧处理线程，相机回调中只提交帧
+     */
+    private PreviewFrameProcessor previewFrameProcessor;
     private DrawHelper drawHelperRgb;
     private DrawHelper drawHelperIr;
     private Camera.Size previewSize;
@@ -115,8 +134,8 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
     private Integer cameraIrId = Camera.CameraInfo.CAMERA_FACING_FRONT;
 
     private FaceEngine ftEngine;
-    private FaceEngine frEngine;
-    private FaceEngine flEngine;
+    private FaceEnginePool frEnginePool;
+    private FaceEnginePool flEnginePool;
 
     private int ftInitCode = -1;
     private int frInitCode = -1;
@@ -129,6 +148,10 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      * 活体检测的开关
      */
     private boolean livenessDetect = true;
+    /**
+     * 推测搜索的开关，开启后特征提取完成即开始搜索，与活体检测并行，活体检测通过后才显示识别结果
+     */
+    private boolean speculativeSearch = false;
 
     /**
      * 注册人脸状态码，准备注册
@@ -143,28 +166,9 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      */
     private static final int REGISTER_STATUS_DONE = 2;
 
-    private int registerStatus = REGISTER_STATUS_DONE;
+    private volatile int registerStatus = REGISTER_STATUS_DONE;
 
 
-    /**
-     * 用于记录人脸识别相关状态
-     */
-    private ConcurrentHashMap<Integer, Integer> requestFeatureStatusMap = new ConcurrentHashMap<>();
-    /**
-     * 用于记录人脸特征提取出错重试次数
-     */
-    private ConcurrentHashMap<Integer, Integer> extractErrorRetryMap = new ConcurrentHashMap<>();
-    /**
-     * 用于存储活体值
-     */
-    private ConcurrentHashMap<Integer, Integer> livenessMap = new ConcurrentHashMap<>();
-    /**
-     * 用于存储活体检测出错重试次数
-     */
-    private ConcurrentHashMap<Integer, Integer> livenessErrorRetryMap = new ConcurrentHashMap<>();
-
-    private CompositeDisposable getFeatureDelayedDisposables = new CompositeDisposable();
-    private CompositeDisposable delayFaceTaskCompositeDisposable = new CompositeDisposable();
     /**
      * 相机预览显示的控件，可为SurfaceView或TextureView
      */
@@ -177,6 +181,21 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
     private FaceRectView faceRectViewIr;
 
     private Switch switchLivenessDetect;
+    /**
+     * 显示性能统计的控件，默认隐藏
+     */
+    private TextView tvMetrics;
+    /**
+     * 识别流程的性能统计
+     */
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private Runnable refreshMetricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tvMetrics.setText(pipelineMetrics.getSummary());
+            tvMetrics.postDelayed(this, METRICS_REFRESH_INTERVAL);
+        }
+    };
 
     private static final int ACTION_REQUEST_PERMISSIONS = 0x001;
 
@@ -195,13 +214,17 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
             Manifest.permission.WRITE_EXTERNAL_STORAGE
     };
 
-    private volatile byte[] rgbData;
-    private volatile byte[] irData;
+    /**
+     * 最新的IR预览帧，持有一个引用直到被新的帧替换，读写时对当前界面加锁
+     */
+    private PreviewFrame irFrame;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_register_and_recognize_ir);
+        PipelineTracer.getInstance().clear();
+        PipelineTracer.getInstance().setEnabled(PIPELINE_TRACE_ENABLED);
 
         //保持亮屏
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -214,8 +237,16 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
         // Activity启动后就锁定为启动时的方向
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LOCKED);
-        //本地人脸库初始化
-        FaceServer.getInstance().init(this);
+        //本地人脸库在后台初始化，不阻塞相机预览，人脸库按CPU核数分片并行搜索
+        FaceServer.getInstance().initAsync(this, Runtime.getRuntime().availableProcessors(), new InitListener() {
+            @Override
+            public void onInitFinished(boolean success, int faceCount) {
+                Log.i(TAG, "onInitFinished: success = " + success + ", faceCount = " + faceCount);
+                if (!success && !isFinishing()) {
+                    showToast(getString(R.string.face_lib_init_failed));
+                }
+            }
+        });
 
         initView();
     }
@@ -236,6 +267,15 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                 livenessDetect = isChecked;
             }
         });
+        tvMetrics = findViewById(R.id.dual_camera_tv_metrics);
+        tvMetrics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                logMetrics();
+                exportTrace();
+                showToast(getString(R.string.metrics_dumped));
+            }
+        });
         RecyclerView recyclerShowFaceInfo = findViewById(R.id.dual_camera_recycler_view_person);
         compareResultList = new ArrayList<>();
         adapter = new FaceSearchResultAdapter(compareResultList, this);
@@ -253,15 +293,17 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
     private void initEngine() {
         ftEngine = new FaceEngine();
         ftInitCode = ftEngine.init(this, DetectMode.ASF_DETECT_MODE_VIDEO, ConfigUtil.getFtOrient(this),
-                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_DETECT);
+                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_FACE3DANGLE);
 
-        frEngine = new FaceEngine();
-        frInitCode = frEngine.init(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
-                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_RECOGNITION);
+        // 每个特征提取、活体检测线程独占一个引擎，引擎数与CPU核数相同
+        int engineNum = Runtime.getRuntime().availableProcessors();
+        frEnginePool = new FaceEnginePool(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_RECOGNITION, engineNum);
+        frInitCode = frEnginePool.getInitCode();
 
-        flEngine = new FaceEngine();
-        flInitCode = flEngine.init(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
-                16, MAX_DETECT_NUM, FaceEngine.ASF_IR_LIVENESS);
+        flEnginePool = new FaceEnginePool(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, MAX_DETECT_NUM, FaceEngine.ASF_IR_LIVENESS, engineNum);
+        flInitCode = flEnginePool.getInitCode();
 
         Log.i(TAG, "initEngine:  init: " + ftInitCode);
 
@@ -271,12 +313,12 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
             showToast(error);
         }
         if (frInitCode != ErrorInfo.MOK) {
-            String error = getString(R.string.specific_engine_init_failed, "frEngine", ftInitCode);
+            String error = getString(R.string.specific_engine_init_failed, "frEngine", frInitCode);
             Log.i(TAG, "initEngine: " + error);
             showToast(error);
         }
         if (flInitCode != ErrorInfo.MOK) {
-            String error = getString(R.string.specific_engine_init_failed, "flEngine", ftInitCode);
+            String error = getString(R.string.specific_engine_init_failed, "flEngine", flInitCode);
             Log.i(TAG, "initEngine: " + error);
             showToast(error);
         }
@@ -292,17 +334,12 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                 Log.i(TAG, "unInitEngine: " + ftUnInitCode);
             }
         }
-        if (frInitCode == ErrorInfo.MOK && frEngine != null) {
-            synchronized (frEngine) {
-                int frUnInitCode = frEngine.unInit();
-                Log.i(TAG, "unInitEngine: " + frUnInitCode);
-            }
+        // 等待正在使用的引擎归还后销毁
+        if (frEnginePool != null) {
+            frEnginePool.unInit();
         }
-        if (flInitCode == ErrorInfo.MOK && flEngine != null) {
-            synchronized (flEngine) {
-                int flUnInitCode = flEngine.unInit();
-                Log.i(TAG, "unInitEngine: " + flUnInitCode);
-            }
+        if (flEnginePool != null) {
+            flEnginePool.unInit();
         }
     }
 
@@ -334,6 +371,9 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
     @Override
     protected void onDestroy() {
+        if (tvMetrics != null) {
+            tvMetrics.removeCallbacks(refreshMetricsRunnable);
+        }
 
         if (cameraHelper != null) {
             cameraHelper.release();
@@ -343,15 +383,15 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
             cameraHelperIr.release();
             cameraHelperIr = null;
         }
+        // 等待正在处理的帧完成后再销毁引擎
+        if (previewFrameProcessor != null) {
+            previewFrameProcessor.stop();
+            previewFrameProcessor = null;
+        }
+        releaseIrFrame();
 
         unInitEngine();
 
-        if (getFeatureDelayedDisposables != null) {
-            getFeatureDelayedDisposables.clear();
-        }
-        if (delayFaceTaskCompositeDisposable != null) {
-            delayFaceTaskCompositeDisposable.clear();
-        }
 
         if (faceHelperIr != null) {
             ConfigUtil.setTrackedFaceCount(this, faceHelperIr.getTrackedFaceCount());
@@ -360,6 +400,9 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
         }
 
         FaceServer.getInstance().unInit();
+        logMetrics();
+        exportTrace();
+        PipelineTracer.getInstance().setEnabled(false);
         super.onDestroy();
     }
 
@@ -375,55 +418,31 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
             //请求FR的回调
             @Override
             public void onFaceFeatureInfoGet(@Nullable final FaceFeature faceFeature, final Integer requestId, final Integer errorCode) {
+                TrackState trackState = getTrackState(requestId);
+                // 人脸已离开画面
+                if (trackState == null) {
+                    return;
+                }
                 //FR成功
                 if (faceFeature != null) {
 //                    Log.i(TAG, "onPreview: fr end = " + System.currentTimeMillis() + " trackId = " + requestId);
-                    Integer liveness = livenessMap.get(requestId);
-                    //不做活体检测的情况，直接搜索
-                    if (!livenessDetect) {
-                        searchFace(faceFeature, requestId);
-                    }
-                    //活体检测通过，搜索特征
-                    else if (liveness != null && liveness == LivenessInfo.ALIVE) {
+                    //不做活体检测，或开启推测搜索时，直接搜索，推测搜索的比对结果在活体检测通过后才显示
+                    if (!livenessDetect || speculativeSearch) {
                         searchFace(faceFeature, requestId);
                     }
-                    //活体检测未出结果，或者非活体，延迟执行该函数
+                    //活体检测已通过时直接搜索，否则暂存特征，活体检测通过时在活体检测的回调中搜索
                     else {
-
-                        if (requestFeatureStatusMap.containsKey(requestId)) {
-                            Observable.timer(WAIT_LIVENESS_INTERVAL, TimeUnit.MILLISECONDS)
-                                    .subscribe(new Observer<Long>() {
-                                        Disposable disposable;
-
-                                        @Override
-                                        public void onSubscribe(Disposable d) {
-                                            disposable = d;
-                                            getFeatureDelayedDisposables.add(disposable);
-                                        }
-
-                                        @Override
-                                        public void onNext(Long aLong) {
-                                            onFaceFeatureInfoGet(faceFeature, requestId, errorCode);
-                                        }
-
-                                        @Override
-                                        public void onError(Throwable e) {
-
-                                        }
-
-                                        @Override
-                                        public void onComplete() {
-                                            getFeatureDelayedDisposables.remove(disposable);
-                                        }
-                                    });
+                        FaceFeature readyFeature = trackState.offerFeature(faceFeature);
+                        if (readyFeature != null) {
+                            searchFace(readyFeature, requestId);
                         }
                     }
 
                 }
                 //特征提取失败
                 else {
-                    if (increaseAndGetValue(extractErrorRetryMap, requestId) > MAX_RETRY_TIME) {
-                        extractErrorRetryMap.put(requestId, 0);
+                    if (trackState.increaseExtractErrorRetryCount() > MAX_RETRY_TIME) {
+                        trackState.resetExtractErrorRetryCount();
                         String msg;
                         // 传入的FaceInfo在指定的图像上无法解析人脸，此处使用的是RGB人脸数据，一般是人脸模糊
                         if (errorCode != null && errorCode == ErrorInfo.MERR_FSDK_FACEFEATURE_LOW_CONFIDENCE_LEVEL) {
@@ -433,19 +452,28 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                         }
                         faceHelperIr.setName(requestId, getString(R.string.recognize_failed_notice, msg));
                         // 在尝试最大次数后，特征提取仍然失败，则认为识别未通过
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                        trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
                         retryRecognizeDelayed(requestId);
                     } else {
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.TO_RETRY);
+                        trackState.setFeatureStatus(RequestFeatureStatus.TO_RETRY);
                     }
                 }
             }
 
             @Override
             public void onFaceLivenessInfoGet(@Nullable LivenessInfo livenessInfo, final Integer requestId, Integer errorCode) {
+                TrackState trackState = getTrackState(requestId);
+                // 人脸已离开画面
+                if (trackState == null) {
+                    return;
+                }
                 if (livenessInfo != null) {
                     int liveness = livenessInfo.getLiveness();
-                    livenessMap.put(requestId, liveness);
+                    trackState.setLiveness(liveness);
+                    // 活体检测通过，继续处理暂存的特征或比对结果
+                    if (liveness == LivenessInfo.ALIVE) {
+                        resumePendingRecognition(trackState, requestId);
+                    }
                     // 非活体，重试
                     if (liveness == LivenessInfo.NOT_ALIVE) {
                         faceHelperIr.setName(requestId, getString(R.string.recognize_failed_notice, "NOT_ALIVE"));
@@ -453,8 +481,8 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                         retryLivenessDetectDelayed(requestId);
                     }
                 } else {
-                    if (increaseAndGetValue(livenessErrorRetryMap, requestId) > MAX_RETRY_TIME) {
-                        livenessErrorRetryMap.put(requestId, 0);
+                    if (trackState.increaseLivenessErrorRetryCount() > MAX_RETRY_TIME) {
+                        trackState.resetLivenessErrorRetryCount();
                         String msg;
                         // 传入的FaceInfo在指定的图像上无法解析人脸，此处使用RGB人脸框 + IR数据，一般是人脸模糊或画面中无人脸
                         if (errorCode != null && errorCode == ErrorInfo.MERR_FSDK_FACEFEATURE_LOW_CONFIDENCE_LEVEL) {
@@ -464,10 +492,10 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                         }
                         faceHelperIr.setName(requestId, getString(R.string.recognize_failed_notice, msg));
                         // 在尝试最大次数后，活体检测仍然失败，则认定为非活体
-                        livenessMap.put(requestId, LivenessInfo.NOT_ALIVE);
+                        trackState.setLiveness(LivenessInfo.NOT_ALIVE);
                         retryLivenessDetectDelayed(requestId);
                     } else {
-                        livenessMap.put(requestId, LivenessInfo.UNKNOWN);
+                        trackState.setLiveness(LivenessInfo.UNKNOWN);
                     }
                 }
             }
@@ -483,10 +511,14 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                 if (faceHelperIr == null) {
                     faceHelperIr = new FaceHelper.Builder()
                             .ftEngine(ftEngine)
-                            .frEngine(frEngine)
-                            .flEngine(flEngine)
+                            .frEnginePool(frEnginePool)
+                            .flEnginePool(flEnginePool)
                             .frQueueSize(MAX_DETECT_NUM)
                             .flQueueSize(MAX_DETECT_NUM)
+                            .maxDetectInterval(MAX_DETECT_INTERVAL)
+                            .cropFaceRoi(true)
+                            .featureFrameWindow(FEATURE_FRAME_WINDOW)
+                            .metrics(pipelineMetrics)
                             .previewSize(previewSize)
                             .faceListener(faceListener)
                             .trackedFaceCount(ConfigUtil.getTrackedFaceCount(IrRegisterAndRecognizeActivity.this.getApplicationContext()))
@@ -503,9 +535,8 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
 
             @Override
-            public void onPreview(final byte[] nv21, Camera camera) {
-                rgbData = nv21;
-                processPreviewData();
+            public void onPreview(final PreviewFrame frame, Camera camera) {
+                previewFrameProcessor.offer(frame);
             }
 
             @Override
@@ -526,6 +557,12 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
                 Log.i(TAG, "onCameraConfigurationChanged: " + cameraID + "  " + displayOrientation);
             }
         };
+        previewFrameProcessor = new PreviewFrameProcessor(TAG, pipelineMetrics, new PreviewFrameProcessor.FrameHandler() {
+            @Override
+            public void onFrame(PreviewFrame frame) {
+                processPreviewData(frame);
+            }
+        });
         cameraHelper = new DualCameraHelper.Builder()
                 .previewViewSize(new Point(previewViewRgb.getMeasuredWidth(), previewViewRgb.getMeasuredHeight()))
                 .rotation(getWindowManager().getDefaultDisplay().getRotation())
@@ -560,8 +597,8 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
 
             @Override
-            public void onPreview(final byte[] nv21, Camera camera) {
-                irData = nv21;
+            public void onPreview(final PreviewFrame frame, Camera camera) {
+                updateIrFrame(frame);
             }
 
             @Override
@@ -631,61 +668,105 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
         return layoutParams;
     }
 
+    /**
+     * 更新最新的IR预览帧
+     *
+     * @param frame IR预览帧
+     */
+    private synchronized void updateIrFrame(PreviewFrame frame) {
+        if (irFrame != null) {
+            irFrame.release();
+        }
+        irFrame = frame.retain();
+    }
+
+    /**
+     * 释放持有的IR预览帧
+     */
+    private synchronized void releaseIrFrame() {
+        if (irFrame != null) {
+            irFrame.release();
+            irFrame = null;
+        }
+    }
+
     /**
      * 处理预览数据
+     *
+     * @param rgbFrame RGB预览帧
      */
-    private synchronized void processPreviewData() {
-        if (rgbData != null && irData != null) {
-            final byte[] cloneNv21Rgb = rgbData.clone();
+    private void processPreviewData(PreviewFrame rgbFrame) {
+        // 没有新的IR帧时沿用最新的IR帧，每个RGB帧都进行检测和绘制。
+        // 只在增加引用时加锁，主线程中的updateIrFrame不会被整帧的处理阻塞，替换后旧帧在处理结束时才归还
+        PreviewFrame ir;
+        synchronized (this) {
+            if (irFrame == null) {
+                return;
+            }
+            ir = irFrame.retain();
+        }
+        try {
+            byte[] nv21Rgb = rgbFrame.getData();
+            int width = rgbFrame.getWidth();
+            int height = rgbFrame.getHeight();
             if (faceRectView != null) {
                 faceRectView.clearFaceInfo();
             }
             if (faceRectViewIr != null) {
                 faceRectViewIr.clearFaceInfo();
             }
-            List<FacePreviewInfo> facePreviewInfoList = faceHelperIr.onPreviewFrame(cloneNv21Rgb);
+            List<FacePreviewInfo> facePreviewInfoList = faceHelperIr.onPreviewFrame(nv21Rgb);
             if (facePreviewInfoList != null && faceRectView != null && drawHelperRgb != null
                     && faceRectViewIr != null && drawHelperIr != null) {
                 drawPreviewInfo(facePreviewInfoList);
             }
-            registerFace(cloneNv21Rgb, facePreviewInfoList);
+            registerFace(nv21Rgb, width, height, facePreviewInfoList);
             clearLeftFace(facePreviewInfoList);
 
-            if (facePreviewInfoList != null && facePreviewInfoList.size() > 0 && previewSize != null) {
+            // 推算的人脸框只用于绘制，不用于特征提取和活体检测
+            if (facePreviewInfoList != null && facePreviewInfoList.size() > 0 && faceHelperIr.isLastFrameDetected()) {
                 for (int i = 0; i < facePreviewInfoList.size(); i++) {
                     // 注意：这里虽然使用的是IR画面活体检测，RGB画面特征提取，但是考虑到成像接近，所以只用了RGB画面的图像质量检测
-                    Integer status = requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId());
+                    TrackState trackState = faceHelperIr.getTrackState(facePreviewInfoList.get(i).getTrackId());
+                    if (trackState == null) {
+                        continue;
+                    }
+                    // 活体检测关闭后不再等待活体结果
+                    if (!livenessDetect) {
+                        resumePendingRecognition(trackState, facePreviewInfoList.get(i).getTrackId());
+                    }
+                    int status = trackState.getFeatureStatus();
                     /**
                      * 在活体检测开启，在人脸活体状态不为处理中（ANALYZING）且不为处理完成（ALIVE、NOT_ALIVE）时重新进行活体检测
                      */
-                    if (livenessDetect && (status == null || status != RequestFeatureStatus.SUCCEED)) {
-                        Integer liveness = livenessMap.get(facePreviewInfoList.get(i).getTrackId());
-                        if (liveness == null
-                                || (liveness != LivenessInfo.ALIVE && liveness != LivenessInfo.NOT_ALIVE && liveness != RequestLivenessStatus.ANALYZING)) {
-                            livenessMap.put(facePreviewInfoList.get(i).getTrackId(), RequestLivenessStatus.ANALYZING);
+                    if (livenessDetect && status != RequestFeatureStatus.SUCCEED) {
+                        int liveness = trackState.getLiveness();
+                        if (liveness != LivenessInfo.ALIVE && liveness != LivenessInfo.NOT_ALIVE && liveness != RequestLivenessStatus.ANALYZING) {
+                            trackState.setLiveness(RequestLivenessStatus.ANALYZING);
                             // IR数据偏移
                             FaceInfo faceInfo = facePreviewInfoList.get(i).getFaceInfo().clone();
                             faceInfo.getRect().offset(Constants.HORIZONTAL_OFFSET, Constants.VERTICAL_OFFSET);
-                            faceHelperIr.requestFaceLiveness(irData.clone(), faceInfo, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId(), LivenessType.IR);
+                            faceHelperIr.requestFaceLiveness(ir, faceInfo, width, height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId(), LivenessType.IR);
                         }
                     }
                     /**
-                     * 对于每个人脸，若状态为空或者为失败，则请求特征提取（可根据需要添加其他判断以限制特征提取次数），
+                     * 对于每个人脸，若状态为空或者为失败，则在选帧窗口内挑选质量最好的一帧请求特征提取，
                      * 特征提取回传的人脸特征结果在{@link FaceListener#onFaceFeatureInfoGet(FaceFeature, Integer, Integer)}中回传
                      */
-                    if (status == null
-                            || status == RequestFeatureStatus.TO_RETRY) {
-                        requestFeatureStatusMap.put(facePreviewInfoList.get(i).getTrackId(), RequestFeatureStatus.SEARCHING);
-                        faceHelperIr.requestFaceFeature(cloneNv21Rgb, facePreviewInfoList.get(i).getFaceInfo(),
-                                previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21,
+                    if ((status == RequestFeatureStatus.NONE || status == RequestFeatureStatus.TO_RETRY)
+                            && faceHelperIr.selectFeatureFrame(rgbFrame, facePreviewInfoList.get(i).getFaceInfo(),
+                            width, height, FaceEngine.CP_PAF_NV21,
+                            facePreviewInfoList.get(i).getTrackId())) {
+                        trackState.setFeatureStatus(RequestFeatureStatus.SEARCHING);
+                        faceHelperIr.requestFaceFeature(rgbFrame, facePreviewInfoList.get(i).getFaceInfo(),
+                                width, height, FaceEngine.CP_PAF_NV21,
                                 facePreviewInfoList.get(i).getTrackId());
                     }
                 }
             }
-            rgbData = null;
-            irData = null;
+        } finally {
+            ir.release();
         }
-
     }
 
     /**
@@ -698,38 +779,37 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
         List<DrawInfo> drawInfoListIr = new ArrayList<>();
         for (int i = 0; i < facePreviewInfoList.size(); i++) {
             int trackId = facePreviewInfoList.get(i).getTrackId();
-            String name = faceHelperIr.getName(trackId);
-            Integer liveness = livenessMap.get(trackId);
+            TrackState trackState = faceHelperIr.getTrackState(trackId);
+            String name = trackState == null ? null : trackState.getName();
+            int liveness = trackState == null ? LivenessInfo.UNKNOWN : trackState.getLiveness();
             Rect ftRect = facePreviewInfoList.get(i).getFaceInfo().getRect();
 
 
-            Integer recognizeStatus = requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId());
+            int recognizeStatus = trackState == null ? RequestFeatureStatus.NONE : trackState.getFeatureStatus();
 
             // 根据识别结果和活体结果设置颜色
             int color = RecognizeColor.COLOR_UNKNOWN;
-            if (recognizeStatus != null) {
-                if (recognizeStatus == RequestFeatureStatus.FAILED) {
-                    color = RecognizeColor.COLOR_FAILED;
-                }
-                if (recognizeStatus == RequestFeatureStatus.SUCCEED) {
-                    color = RecognizeColor.COLOR_SUCCESS;
-                }
+            if (recognizeStatus == RequestFeatureStatus.FAILED) {
+                color = RecognizeColor.COLOR_FAILED;
             }
-            if (liveness != null && liveness == LivenessInfo.NOT_ALIVE) {
+            if (recognizeStatus == RequestFeatureStatus.SUCCEED) {
+                color = RecognizeColor.COLOR_SUCCESS;
+            }
+            if (liveness == LivenessInfo.NOT_ALIVE) {
                 color = RecognizeColor.COLOR_FAILED;
             }
 
 
             drawInfoList.add(new DrawInfo(drawHelperRgb.adjustRect(ftRect),
                     GenderInfo.UNKNOWN, AgeInfo.UNKNOWN_AGE,
-                    liveness != null ? liveness : LivenessInfo.UNKNOWN, color,
+                    liveness, color,
                     name == null ? String.valueOf(trackId) : name));
 
             Rect offsetFtRect = new Rect(ftRect);
             offsetFtRect.offset(Constants.HORIZONTAL_OFFSET, Constants.VERTICAL_OFFSET);
             drawInfoListIr.add(new DrawInfo(drawHelperIr.adjustRect(offsetFtRect),
                     GenderInfo.UNKNOWN, AgeInfo.UNKNOWN_AGE,
-                    liveness != null ? liveness : LivenessInfo.UNKNOWN, color,
+                    liveness, color,
                     name == null ? String.valueOf(trackId) : name));
         }
         drawHelperRgb.draw(faceRectView, drawInfoList);
@@ -740,17 +820,22 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      * 注册人脸
      *
      * @param nv21Rgb             RGB摄像头的帧数据
+     * @param width               帧宽度
+     * @param height              帧高度
      * @param facePreviewInfoList {@link FaceHelper#onPreviewFrame(byte[])}回传的处理结果
      */
-    private void registerFace(final byte[] nv21Rgb, final List<FacePreviewInfo> facePreviewInfoList) {
-        if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList != null && facePreviewInfoList.size() > 0) {
+    private void registerFace(final byte[] nv21Rgb, final int width, final int height, final List<FacePreviewInfo> facePreviewInfoList) {
+        if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList != null && facePreviewInfoList.size() > 0
+                && faceHelperIr.isLastFrameDetected()) {
             registerStatus = REGISTER_STATUS_PROCESSING;
+            // 预览帧在回调返回后会被重新填充，需在回调中复制
+            final byte[] registerNv21 = nv21Rgb.clone();
             Observable.create(new ObservableOnSubscribe<Boolean>() {
                 @Override
                 public void subscribe(ObservableEmitter<Boolean> emitter) {
                     boolean success = FaceServer.getInstance().registerNv21(
-                            IrRegisterAndRecognizeActivity.this, nv21Rgb,
-                            previewSize.width, previewSize.height, facePreviewInfoList.get(0).getFaceInfo(), "registered " + faceHelperIr.getTrackedFaceCount());
+                            IrRegisterAndRecognizeActivity.this, registerNv21,
+                            width, height, facePreviewInfoList.get(0).getFaceInfo(), "registered " + faceHelperIr.getTrackedFaceCount());
                     emitter.onNext(success);
                 }
             })
@@ -799,58 +884,46 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
 
     /**
-     * 删除已经离开的人脸
-     *
-     * @param facePreviewInfoList 人脸和trackId列表
+     * 删除已经离开的人脸的比对结果，在主线程中执行
      */
-    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList) {
-        if (compareResultList != null) {
-            for (int i = compareResultList.size() - 1; i >= 0; i--) {
-                if (!requestFeatureStatusMap.containsKey(compareResultList.get(i).getTrackId())) {
-                    compareResultList.remove(i);
-                    adapter.notifyItemRemoved(i);
-                }
-            }
-        }
-        if (facePreviewInfoList == null || facePreviewInfoList.size() == 0) {
-            requestFeatureStatusMap.clear();
-            livenessMap.clear();
-            livenessErrorRetryMap.clear();
-            extractErrorRetryMap.clear();
-            if (getFeatureDelayedDisposables != null) {
-                getFeatureDelayedDisposables.clear();
-            }
-            return;
-        }
-        Enumeration<Integer> keys = requestFeatureStatusMap.keys();
-        while (keys.hasMoreElements()) {
-            int key = keys.nextElement();
-            boolean contained = false;
-            for (FacePreviewInfo facePreviewInfo : facePreviewInfoList) {
-                if (facePreviewInfo.getTrackId() == key) {
-                    contained = true;
-                    break;
+    private Runnable clearLeftCompareResultRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (compareResultList != null) {
+                for (int i = compareResultList.size() - 1; i >= 0; i--) {
+                    if (getTrackState(compareResultList.get(i).getTrackId()) == null) {
+                        compareResultList.remove(i);
+                        adapter.notifyItemRemoved(i);
+                    }
                 }
             }
-            if (!contained) {
-                requestFeatureStatusMap.remove(key);
-                livenessMap.remove(key);
-                livenessErrorRetryMap.remove(key);
-                extractErrorRetryMap.remove(key);
-            }
         }
+    };
 
-
+    /**
+     * 删除已经离开的人脸
+     *
+     * @param facePreviewInfoList 人脸和trackId列表
+     */
+    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList) {
+        // 已离开的人脸的状态和延时任务已在FaceHelper中整体删除，比对结果列表只在主线程中修改
+        runOnUiThread(clearLeftCompareResultRunnable);
     }
 
     private void searchFace(final FaceFeature frFace, final Integer requestId) {
+        final PipelineTracer tracer = PipelineTracer.getInstance();
+        final long requestTime = tracer.begin();
         Observable
                 .create(new ObservableOnSubscribe<CompareResult>() {
                     @Override
                     public void subscribe(ObservableEmitter<CompareResult> emitter) {
-//                        Log.i(TAG, "subscribe: fr search start = " + System.currentTimeMillis() + " trackId = " + requestId);
-                        CompareResult compareResult = FaceServer.getInstance().getTopOfFaceLib(frFace);
-//                        Log.i(TAG, "subscribe: fr search end = " + System.currentTimeMillis() + " trackId = " + requestId);
+                        // 在computation线程池中的排队时间
+                        tracer.end("searchSchedule", requestId, requestTime);
+                        // 找到相似度达到识别阈值的人脸即可停止搜索
+                        long searchStartTime = PipelineMetrics.now();
+                        CompareResult compareResult = FaceServer.getInstance().getTopOfFaceLib(frFace, SIMILAR_THRESHOLD);
+                        pipelineMetrics.recordSince(PipelineMetrics.Stage.SEARCH, searchStartTime);
+                        tracer.end("search", requestId, searchStartTime);
                         emitter.onNext(compareResult);
 
                     }
@@ -865,40 +938,34 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
                     @Override
                     public void onNext(CompareResult compareResult) {
+                        // 从发起搜索到主线程收到结果，减去search区间即为排队和切换到主线程的时间
+                        tracer.end("searchFace", requestId, requestTime);
+                        TrackState trackState = getTrackState(requestId);
+                        // 人脸已离开画面
+                        if (trackState == null) {
+                            return;
+                        }
                         if (compareResult == null || compareResult.getUserName() == null) {
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                            // 人脸库仍在加载，稍后重试
+                            if (!FaceServer.getInstance().isFaceListLoaded()) {
+                                retryRecognizeDelayed(requestId);
+                                return;
+                            }
+                            trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
                             faceHelperIr.setName(requestId, "VISITOR " + requestId);
                             return;
                         }
 
 //                        Log.i(TAG, "onNext: fr search get result  = " + System.currentTimeMillis() + " trackId = " + requestId + "  similar = " + compareResult.getSimilar());
                         if (compareResult.getSimilar() > SIMILAR_THRESHOLD) {
-                            boolean isAdded = false;
-                            if (compareResultList == null) {
-                                requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                                faceHelperIr.setName(requestId, "VISITOR " + requestId);
-                                return;
-                            }
-                            for (CompareResult compareResult1 : compareResultList) {
-                                if (compareResult1.getTrackId() == requestId) {
-                                    isAdded = true;
-                                    break;
+                            // 推测搜索时活体检测可能尚未通过，暂存比对结果，活体检测通过后再显示
+                            if (livenessDetect) {
+                                compareResult = trackState.offerSearchResult(compareResult);
+                                if (compareResult == null) {
+                                    return;
                                 }
                             }
-                            if (!isAdded) {
-                                //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
-                                if (compareResultList.size() >= MAX_DETECT_NUM) {
-                                    compareResultList.remove(0);
-                                    adapter.notifyItemRemoved(0);
-                                }
-                                //添加显示人员时，保存其trackId
-                                compareResult.setTrackId(requestId);
-                                compareResultList.add(compareResult);
-                                adapter.notifyItemInserted(compareResultList.size() - 1);
-                            }
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.SUCCEED);
-                            faceHelperIr.setName(requestId, getString(R.string.recognize_success_notice, compareResult.getUserName()));
-
+                            publishCompareResult(trackState, compareResult, requestId);
                         } else {
                             faceHelperIr.setName(requestId, getString(R.string.recognize_failed_notice, "NOT_REGISTERED"));
                             retryRecognizeDelayed(requestId);
@@ -919,6 +986,67 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
     }
 
 
+    /**
+     * 显示识别成功的人脸，在主线程中执行
+     *
+     * @param trackState    人脸状态
+     * @param compareResult 比对结果
+     * @param requestId     人脸的trackId
+     */
+    private void publishCompareResult(TrackState trackState, CompareResult compareResult, int requestId) {
+        // 等待活体结果期间人脸已离开画面
+        if (getTrackState(requestId) != trackState) {
+            return;
+        }
+        boolean isAdded = false;
+        if (compareResultList == null) {
+            trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
+            trackState.setName("VISITOR " + requestId);
+            return;
+        }
+        for (CompareResult compareResult1 : compareResultList) {
+            if (compareResult1.getTrackId() == requestId) {
+                isAdded = true;
+                break;
+            }
+        }
+        if (!isAdded) {
+            //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
+            if (compareResultList.size() >= MAX_DETECT_NUM) {
+                compareResultList.remove(0);
+                adapter.notifyItemRemoved(0);
+            }
+            //添加显示人员时，保存其trackId
+            compareResult.setTrackId(requestId);
+            compareResultList.add(compareResult);
+            adapter.notifyItemInserted(compareResultList.size() - 1);
+        }
+        trackState.setFeatureStatus(RequestFeatureStatus.SUCCEED);
+        trackState.setName(getString(R.string.recognize_success_notice, compareResult.getUserName()));
+    }
+
+    /**
+     * 活体检测通过或关闭时，继续处理暂存的特征或比对结果
+     *
+     * @param trackState 人脸状态
+     * @param requestId  人脸的trackId
+     */
+    private void resumePendingRecognition(final TrackState trackState, final int requestId) {
+        FaceFeature faceFeature = trackState.takePendingFeature();
+        if (faceFeature != null) {
+            searchFace(faceFeature, requestId);
+        }
+        final CompareResult compareResult = trackState.takePendingResult();
+        if (compareResult != null) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    publishCompareResult(trackState, compareResult, requestId);
+                }
+            });
+        }
+    }
+
     /**
      * 将准备注册的状态置为{@link #REGISTER_STATUS_READY}
      *
@@ -930,6 +1058,45 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
         }
     }
 
+    /**
+     * 显示或隐藏性能统计，显示时每隔 METRICS_REFRESH_INTERVAL 刷新，点击统计信息可将完整信息输出到日志
+     *
+     * @param view 性能统计按钮
+     */
+    public void switchMetricsOverlay(View view) {
+        if (tvMetrics.getVisibility() == View.VISIBLE) {
+            tvMetrics.removeCallbacks(refreshMetricsRunnable);
+            tvMetrics.setVisibility(View.GONE);
+        } else {
+            tvMetrics.setVisibility(View.VISIBLE);
+            refreshMetricsRunnable.run();
+        }
+    }
+
+    /**
+     * 将完整的性能统计输出到日志，单条日志有长度限制，因此逐行输出
+     */
+    private void logMetrics() {
+        for (String line : pipelineMetrics.dump().split("\n")) {
+            Log.i(TAG, "metrics: " + line);
+        }
+    }
+
+    /**
+     * 开启耗时追踪时，将追踪导出到应用的外部文件目录
+     */
+    private void exportTrace() {
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        if (!tracer.isEnabled()) {
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        tracer.exportTo(new File(dir, "trace_" + System.currentTimeMillis() + ".json"));
+    }
+
     /**
      * 在{@link #previewViewRgb}第一次布局完成后，去除该监听，并且进行引擎和相机的初始化
      */
@@ -959,22 +1126,28 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
 
 
     /**
-     * 将map中key对应的value增1回传
+     * 获取人脸的识别状态
      *
-     * @param countMap map
-     * @param key      key
-     * @return 增1后的value
+     * @param trackId 人脸的trackId
+     * @return 人脸状态，人脸已离开画面时返回null
      */
-    public int increaseAndGetValue(Map<Integer, Integer> countMap, int key) {
-        if (countMap == null) {
-            return 0;
-        }
-        Integer value = countMap.get(key);
-        if (value == null) {
-            value = 0;
+    private TrackState getTrackState(int trackId) {
+        FaceHelper helper = faceHelperIr;
+        return helper == null ? null : helper.getTrackState(trackId);
+    }
+
+    /**
+     * 为人脸添加延时任务，人脸离开画面时自动取消
+     *
+     * @param trackId 人脸的trackId
+     * @param delayMs 延时（ms）
+     * @param task    任务，在定时器线程中执行
+     */
+    private void scheduleTrackTask(int trackId, long delayMs, Runnable task) {
+        FaceHelper helper = faceHelperIr;
+        if (helper != null) {
+            helper.scheduleTrackTask(trackId, delayMs, task);
         }
-        countMap.put(key, ++value);
-        return value;
     }
 
     /**
@@ -983,36 +1156,21 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      * @param requestId 人脸ID
      */
     private void retryLivenessDetectDelayed(final Integer requestId) {
-        Observable.timer(FAIL_RETRY_INTERVAL, TimeUnit.MILLISECONDS)
-                .subscribe(new Observer<Long>() {
-                    Disposable disposable;
-
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        disposable = d;
-                        delayFaceTaskCompositeDisposable.add(disposable);
-                    }
-
-                    @Override
-                    public void onNext(Long aLong) {
-
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        e.printStackTrace();
-                    }
-
-                    @Override
-                    public void onComplete() {
-                        // 将该人脸状态置为UNKNOWN，帧回调处理时会重新进行活体检测
-                        if (livenessDetect) {
-                            faceHelperIr.setName(requestId, Integer.toString(requestId));
-                        }
-                        livenessMap.put(requestId, LivenessInfo.UNKNOWN);
-                        delayFaceTaskCompositeDisposable.remove(disposable);
-                    }
-                });
+        final TrackState trackState = getTrackState(requestId);
+        if (trackState == null) {
+            return;
+        }
+        pipelineMetrics.increment(PipelineMetrics.Counter.LIVENESS_RETRY);
+        scheduleTrackTask(requestId, FAIL_RETRY_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                // 将该人脸状态置为UNKNOWN，帧回调处理时会重新进行活体检测
+                if (livenessDetect) {
+                    trackState.setName(Integer.toString(requestId));
+                }
+                trackState.setLiveness(LivenessInfo.UNKNOWN);
+            }
+        });
     }
 
     /**
@@ -1021,34 +1179,19 @@ public class IrRegisterAndRecognizeActivity extends BaseActivity implements View
      * @param requestId 人脸ID
      */
     private void retryRecognizeDelayed(final Integer requestId) {
-        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-        Observable.timer(FAIL_RETRY_INTERVAL, TimeUnit.MILLISECONDS)
-                .subscribe(new Observer<Long>() {
-                    Disposable disposable;
-
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        disposable = d;
-                        delayFaceTaskCompositeDisposable.add(disposable);
-                    }
-
-                    @Override
-                    public void onNext(Long aLong) {
-
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        e.printStackTrace();
-                    }
-
-                    @Override
-                    public void onComplete() {
-                        // 将该人脸特征提取状态置为FAILED，帧回调处理时会重新进行活体检测
-                        faceHelperIr.setName(requestId, Integer.toString(requestId));
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.TO_RETRY);
-                        delayFaceTaskCompositeDisposable.remove(disposable);
-                    }
-                });
+        final TrackState trackState = getTrackState(requestId);
+        if (trackState == null) {
+            return;
+        }
+        pipelineMetrics.increment(PipelineMetrics.Counter.RECOGNIZE_RETRY);
+        trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
+        scheduleTrackTask(requestId, FAIL_RETRY_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                // 将该人脸特征提取状态置为TO_RETRY，帧回调处理时会重新进行特征提取
+                trackState.setName(Integer.toString(requestId));
+                trackState.setFeatureStatus(RequestFeatureStatus.TO_RETRY);
+            }
+        });
     }
 }
@@ -18,22 +18,30 @@ import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.CompoundButton;
 import android.widget.Switch;
+import android.widget.TextView;
 
 import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.faceserver.CompareResult;
 import com.arcsoft.arcfacedemo.faceserver.FaceServer;
+import com.arcsoft.arcfacedemo.faceserver.InitListener;
 import com.arcsoft.arcfacedemo.model.DrawInfo;
 import com.arcsoft.arcfacedemo.model.FacePreviewInfo;
 import com.arcsoft.arcfacedemo.util.ConfigUtil;
 import com.arcsoft.arcfacedemo.util.DrawHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraListener;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrameProcessor;
+import com.arcsoft.arcfacedemo.util.face.FaceEnginePool;
 import com.arcsoft.arcfacedemo.util.face.FaceHelper;
 import com.arcsoft.arcfacedemo.util.face.FaceListener;
 import com.arcsoft.arcfacedemo.util.face.LivenessType;
 import com.arcsoft.arcfacedemo.util.face.RecognizeColor;
 import com.arcsoft.arcfacedemo.util.face.RequestFeatureStatus;
 import com.arcsoft.arcfacedemo.util.face.RequestLivenessStatus;
+import com.arcsoft.arcfacedemo.util.face.TrackState;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineMetrics;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineTracer;
 import com.arcsoft.arcfacedemo.widget.FaceRectView;
 import com.arcsoft.arcfacedemo.widget.FaceSearchResultAdapter;
 import com.arcsoft.face.AgeInfo;
@@ -46,29 +54,21 @@ import com.arcsoft.face.VersionInfo;
 import com.arcsoft.face.enums.DetectFaceOrientPriority;
 import com.arcsoft.face.enums.DetectMode;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Observer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTreeObserver.OnGlobalLayoutListener {
     private static final String TAG = "RegisterAndRecognize";
     private static final int MAX_DETECT_NUM = 10;
-    /**
-     * 当FR成功，活体未成功时，FR等待活体的时间
-     */
-    private static final int WAIT_LIVENESS_INTERVAL = 100;
     /**
      * 失败重试间隔时间（ms）
      */
@@ -77,9 +77,32 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
      * 出错重试最大次数
      */
     private static final int MAX_RETRY_TIME = 3;
+    /**
+     * 画面静止时的最大人脸检测间隔（帧）
+     */
+    private static final int MAX_DETECT_INTERVAL = 3;
+    /**
+     * 特征提取的选帧窗口（帧），在窗口内挑选质量最好的一帧提取特征
+     */
+    private static final int FEATURE_FRAME_WINDOW = 5;
+    /**
+     * 性能统计显示的刷新间隔（ms）
+     */
+    private static final long METRICS_REFRESH_INTERVAL = 500;
+    /**
+     * 是否记录识别流程的耗时追踪，开启后点击性能统计或退出页面时将追踪导出为Chrome trace-event JSON，保存在应用的外部文件目录
+     */
+    private static final boolean PIPELINE_TRACE_ENABLED = false;
 
     private CameraHelper cameraHelper;
-    private DrawHelper drawHelper;
+    /**
+     * 预览帧处理线程，相机回调中只提交帧
+     */
+    private PreviewFrameProcessor previewFrameProcessor;
+    /**
+     * 在主线程中替换，预览帧处理线程每帧只读取一次
+     */
+    private volatile DrawHelper drawHelper;
     private Camera.Size previewSize;
     /**
      * 优先打开的摄像头，本界面主要用于单目RGB摄像头设备，因此默认打开前置
@@ -91,24 +114,31 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
      */
     private FaceEngine ftEngine;
     /**
-     * 用于特征提取的引擎
+     * 用于特征提取的引擎池
      */
-    private FaceEngine frEngine;
+    private FaceEnginePool frEnginePool;
     /**
-     * IMAGE模式活体检测引擎，用于预览帧人脸活体检测
+     * IMAGE模式活体检测引擎池，用于预览帧人脸活体检测
      */
-    private FaceEngine flEngine;
+    private FaceEnginePool flEnginePool;
 
     private int ftInitCode = -1;
     private int frInitCode = -1;
     private int flInitCode = -1;
-    private FaceHelper faceHelper;
+    /**
+     * 在主线程中替换，预览帧处理线程每帧只读取一次
+     */
+    private volatile FaceHelper faceHelper;
     private List<CompareResult> compareResultList;
     private FaceSearchResultAdapter adapter;
     /**
      * 活体检测的开关
      */
     private boolean livenessDetect = true;
+    /**
+     * 推测搜索的开关，开启后特征提取完成即开始搜索，与活体检测并行，活体检测通过后才显示识别结果
+     */
+    private boolean speculativeSearch = false;
     /**
      * 注册人脸状态码，准备注册
      */
@@ -122,26 +152,7 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
      */
     private static final int REGISTER_STATUS_DONE = 2;
 
-    private int registerStatus = REGISTER_STATUS_DONE;
-    /**
-     * 用于记录人脸识别相关状态
-     */
-    private ConcurrentHashMap<Integer, Integer> requestFeatureStatusMap = new ConcurrentHashMap<>();
-    /**
-     * 用于记录人脸特征提取出错重试次数
-     */
-    private ConcurrentHashMap<Integer, Integer> extractErrorRetryMap = new ConcurrentHashMap<>();
-    /**
-     * 用于存储活体值
-     */
-    private ConcurrentHashMap<Integer, Integer> livenessMap = new ConcurrentHashMap<>();
-    /**
-     * 用于存储活体检测出错重试次数
-     */
-    private ConcurrentHashMap<Integer, Integer> livenessErrorRetryMap = new ConcurrentHashMap<>();
-
-    private CompositeDisposable getFeatureDelayedDisposables = new CompositeDisposable();
-    private CompositeDisposable delayFaceTaskCompositeDisposable = new CompositeDisposable();
+    private volatile int registerStatus = REGISTER_STATUS_DONE;
     /**
      * 相机预览显示的控件，可为SurfaceView或TextureView
      */
@@ -152,6 +163,21 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     private FaceRectView faceRectView;
 
     private Switch switchLivenessDetect;
+    /**
+     * 显示性能统计的控件，默认隐藏
+     */
+    private TextView tvMetrics;
+    /**
+     * 识别流程的性能统计
+     */
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private Runnable refreshMetricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tvMetrics.setText(pipelineMetrics.getSummary());
+            tvMetrics.postDelayed(this, METRICS_REFRESH_INTERVAL);
+        }
+    };
 
     private static final int ACTION_REQUEST_PERMISSIONS = 0x001;
     /**
@@ -171,6 +197,8 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_register_and_recognize);
+        PipelineTracer.getInstance().clear();
+        PipelineTracer.getInstance().setEnabled(PIPELINE_TRACE_ENABLED);
         //保持亮屏
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -182,8 +210,16 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
 
         // Activity启动后就锁定为启动时的方向
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LOCKED);
-        //本地人脸库初始化
-        FaceServer.getInstance().init(this);
+        //本地人脸库在后台初始化，不阻塞相机预览，人脸库按CPU核数分片并行搜索
+        FaceServer.getInstance().initAsync(this, Runtime.getRuntime().availableProcessors(), new InitListener() {
+            @Override
+            public void onInitFinished(boolean success, int faceCount) {
+                Log.i(TAG, "onInitFinished: success = " + success + ", faceCount = " + faceCount);
+                if (!success && !isFinishing()) {
+                    showToast(getString(R.string.face_lib_init_failed));
+                }
+            }
+        });
 
         initView();
     }
@@ -202,6 +238,15 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                 livenessDetect = isChecked;
             }
         });
+        tvMetrics = findViewById(R.id.single_camera_tv_metrics);
+        tvMetrics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                logMetrics();
+                exportTrace();
+                showToast(getString(R.string.metrics_dumped));
+            }
+        });
         RecyclerView recyclerShowFaceInfo = findViewById(R.id.single_camera_recycler_view_person);
         compareResultList = new ArrayList<>();
         adapter = new FaceSearchResultAdapter(compareResultList, this);
@@ -218,15 +263,17 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     private void initEngine() {
         ftEngine = new FaceEngine();
         ftInitCode = ftEngine.init(this, DetectMode.ASF_DETECT_MODE_VIDEO, ConfigUtil.getFtOrient(this),
-                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_DETECT);
+                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_FACE3DANGLE);
 
-        frEngine = new FaceEngine();
-        frInitCode = frEngine.init(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
-                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_RECOGNITION);
+        // 每个特征提取、活体检测线程独占一个引擎，引擎数与CPU核数相同
+        int engineNum = Runtime.getRuntime().availableProcessors();
+        frEnginePool = new FaceEnginePool(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_RECOGNITION, engineNum);
+        frInitCode = frEnginePool.getInitCode();
 
-        flEngine = new FaceEngine();
-        flInitCode = flEngine.init(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
-                16, MAX_DETECT_NUM, FaceEngine.ASF_LIVENESS);
+        flEnginePool = new FaceEnginePool(this, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, MAX_DETECT_NUM, FaceEngine.ASF_LIVENESS, engineNum);
+        flInitCode = flEnginePool.getInitCode();
 
         Log.i(TAG, "initEngine:  init: " + ftInitCode);
 
@@ -257,36 +304,33 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                 Log.i(TAG, "unInitEngine: " + ftUnInitCode);
             }
         }
-        if (frInitCode == ErrorInfo.MOK && frEngine != null) {
-            synchronized (frEngine) {
-                int frUnInitCode = frEngine.unInit();
-                Log.i(TAG, "unInitEngine: " + frUnInitCode);
-            }
+        // 等待正在使用的引擎归还后销毁
+        if (frEnginePool != null) {
+            frEnginePool.unInit();
         }
-        if (flInitCode == ErrorInfo.MOK && flEngine != null) {
-            synchronized (flEngine) {
-                int flUnInitCode = flEngine.unInit();
-                Log.i(TAG, "unInitEngine: " + flUnInitCode);
-            }
+        if (flEnginePool != null) {
+            flEnginePool.unInit();
         }
     }
 
 
     @Override
     protected void onDestroy() {
+        if (tvMetrics != null) {
+            tvMetrics.removeCallbacks(refreshMetricsRunnable);
+        }
 
         if (cameraHelper != null) {
             cameraHelper.release();
             cameraHelper = null;
         }
+        // 等待正在处理的帧完成后再销毁引擎
+        if (previewFrameProcessor != null) {
+            previewFrameProcessor.stop();
+            previewFrameProcessor = null;
+        }
 
         unInitEngine();
-        if (getFeatureDelayedDisposables != null) {
-            getFeatureDelayedDisposables.clear();
-        }
-        if (delayFaceTaskCompositeDisposable != null) {
-            delayFaceTaskCompositeDisposable.clear();
-        }
         if (faceHelper != null) {
             ConfigUtil.setTrackedFaceCount(this, faceHelper.getTrackedFaceCount());
             faceHelper.release();
@@ -294,6 +338,9 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
         }
 
         FaceServer.getInstance().unInit();
+        logMetrics();
+        exportTrace();
+        PipelineTracer.getInstance().setEnabled(false);
         super.onDestroy();
     }
 
@@ -310,54 +357,31 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
             //请求FR的回调
             @Override
             public void onFaceFeatureInfoGet(@Nullable final FaceFeature faceFeature, final Integer requestId, final Integer errorCode) {
+                TrackState trackState = getTrackState(requestId);
+                // 人脸已离开画面
+                if (trackState == null) {
+                    return;
+                }
                 //FR成功
                 if (faceFeature != null) {
 //                    Log.i(TAG, "onPreview: fr end = " + System.currentTimeMillis() + " trackId = " + requestId);
-                    Integer liveness = livenessMap.get(requestId);
-                    //不做活体检测的情况，直接搜索
-                    if (!livenessDetect) {
+                    //不做活体检测，或开启推测搜索时，直接搜索，推测搜索的比对结果在活体检测通过后才显示
+                    if (!livenessDetect || speculativeSearch) {
                         searchFace(faceFeature, requestId);
                     }
-                    //活体检测通过，搜索特征
-                    else if (liveness != null && liveness == LivenessInfo.ALIVE) {
-                        searchFace(faceFeature, requestId);
-                    }
-                    //活体检测未出结果，或者非活体，延迟执行该函数
+                    //活体检测已通过时直接搜索，否则暂存特征，活体检测通过时在活体检测的回调中搜索
                     else {
-                        if (requestFeatureStatusMap.containsKey(requestId)) {
-                            Observable.timer(WAIT_LIVENESS_INTERVAL, TimeUnit.MILLISECONDS)
-                                    .subscribe(new Observer<Long>() {
-                                        Disposable disposable;
-
-                                        @Override
-                                        public void onSubscribe(Disposable d) {
-                                            disposable = d;
-                                            getFeatureDelayedDisposables.add(disposable);
-                                        }
-
-                                        @Override
-                                        public void onNext(Long aLong) {
-                                            onFaceFeatureInfoGet(faceFeature, requestId, errorCode);
-                                        }
-
-                                        @Override
-                                        public void onError(Throwable e) {
-
-                                        }
-
-                                        @Override
-                                        public void onComplete() {
-                                            getFeatureDelayedDisposables.remove(disposable);
-                                        }
-                                    });
+                        FaceFeature readyFeature = trackState.offerFeature(faceFeature);
+                        if (readyFeature != null) {
+                            searchFace(readyFeature, requestId);
                         }
                     }
 
                 }
                 //特征提取失败
                 else {
-                    if (increaseAndGetValue(extractErrorRetryMap, requestId) > MAX_RETRY_TIME) {
-                        extractErrorRetryMap.put(requestId, 0);
+                    if (trackState.increaseExtractErrorRetryCount() > MAX_RETRY_TIME) {
+                        trackState.resetExtractErrorRetryCount();
 
                         String msg;
                         // 传入的FaceInfo在指定的图像上无法解析人脸，此处使用的是RGB人脸数据，一般是人脸模糊
@@ -368,19 +392,28 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                         }
                         faceHelper.setName(requestId, getString(R.string.recognize_failed_notice, msg));
                         // 在尝试最大次数后，特征提取仍然失败，则认为识别未通过
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                        trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
                         retryRecognizeDelayed(requestId);
                     } else {
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.TO_RETRY);
+                        trackState.setFeatureStatus(RequestFeatureStatus.TO_RETRY);
                     }
                 }
             }
 
             @Override
             public void onFaceLivenessInfoGet(@Nullable LivenessInfo livenessInfo, final Integer requestId, Integer errorCode) {
+                TrackState trackState = getTrackState(requestId);
+                // 人脸已离开画面
+                if (trackState == null) {
+                    return;
+                }
                 if (livenessInfo != null) {
                     int liveness = livenessInfo.getLiveness();
-                    livenessMap.put(requestId, liveness);
+                    trackState.setLiveness(liveness);
+                    // 活体检测通过，继续处理暂存的特征或比对结果
+                    if (liveness == LivenessInfo.ALIVE) {
+                        resumePendingRecognition(trackState, requestId);
+                    }
                     // 非活体，重试
                     if (liveness == LivenessInfo.NOT_ALIVE) {
                         faceHelper.setName(requestId, getString(R.string.recognize_failed_notice, "NOT_ALIVE"));
@@ -388,8 +421,8 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                         retryLivenessDetectDelayed(requestId);
                     }
                 } else {
-                    if (increaseAndGetValue(livenessErrorRetryMap, requestId) > MAX_RETRY_TIME) {
-                        livenessErrorRetryMap.put(requestId, 0);
+                    if (trackState.increaseLivenessErrorRetryCount() > MAX_RETRY_TIME) {
+                        trackState.resetLivenessErrorRetryCount();
                         String msg;
                         // 传入的FaceInfo在指定的图像上无法解析人脸，此处使用的是RGB人脸数据，一般是人脸模糊
                         if (errorCode != null && errorCode == ErrorInfo.MERR_FSDK_FACEFEATURE_LOW_CONFIDENCE_LEVEL) {
@@ -400,7 +433,7 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                         faceHelper.setName(requestId, getString(R.string.recognize_failed_notice, msg));
                         retryLivenessDetectDelayed(requestId);
                     } else {
-                        livenessMap.put(requestId, LivenessInfo.UNKNOWN);
+                        trackState.setLiveness(LivenessInfo.UNKNOWN);
                     }
                 }
             }
@@ -422,63 +455,39 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
                         lastPreviewSize == null ||
                         lastPreviewSize.width != previewSize.width || lastPreviewSize.height != previewSize.height) {
                     Integer trackedFaceCount = null;
+                    boolean processorStopped = false;
                     // 记录切换时的人脸序号
                     if (faceHelper != null) {
                         trackedFaceCount = faceHelper.getTrackedFaceCount();
+                        // 等待处理线程处理完当前帧后再释放，新的faceHelper创建后重新启动处理线程
+                        previewFrameProcessor.stop();
+                        processorStopped = true;
                         faceHelper.release();
                     }
                     faceHelper = new FaceHelper.Builder()
                             .ftEngine(ftEngine)
-                            .frEngine(frEngine)
-                            .flEngine(flEngine)
+                            .frEnginePool(frEnginePool)
+                            .flEnginePool(flEnginePool)
                             .frQueueSize(MAX_DETECT_NUM)
                             .flQueueSize(MAX_DETECT_NUM)
+                            .maxDetectInterval(MAX_DETECT_INTERVAL)
+                            .cropFaceRoi(true)
+                            .featureFrameWindow(FEATURE_FRAME_WINDOW)
+                            .metrics(pipelineMetrics)
                             .previewSize(previewSize)
                             .faceListener(faceListener)
                             .trackedFaceCount(trackedFaceCount == null ? ConfigUtil.getTrackedFaceCount(RegisterAndRecognizeActivity.this.getApplicationContext()) : trackedFaceCount)
                             .build();
+                    if (processorStopped) {
+                        previewFrameProcessor = newPreviewFrameProcessor();
+                    }
                 }
             }
 
 
             @Override
-            public void onPreview(final byte[] nv21, Camera camera) {
-                if (faceRectView != null) {
-                    faceRectView.clearFaceInfo();
-                }
-                List<FacePreviewInfo> facePreviewInfoList = faceHelper.onPreviewFrame(nv21);
-                if (facePreviewInfoList != null && faceRectView != null && drawHelper != null) {
-                    drawPreviewInfo(facePreviewInfoList);
-                }
-                registerFace(nv21, facePreviewInfoList);
-                clearLeftFace(facePreviewInfoList);
-
-                if (facePreviewInfoList != null && facePreviewInfoList.size() > 0 && previewSize != null) {
-                    for (int i = 0; i < facePreviewInfoList.size(); i++) {
-                        Integer status = requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId());
-                        /**
-                         * 在活体检测开启，在人脸识别状态不为成功或人脸活体状态不为处理中（ANALYZING）且不为处理完成（ALIVE、NOT_ALIVE）时重新进行活体检测
-                         */
-                        if (livenessDetect && (status == null || status != RequestFeatureStatus.SUCCEED)) {
-                            Integer liveness = livenessMap.get(facePreviewInfoList.get(i).getTrackId());
-                            if (liveness == null
-                                    || (liveness != LivenessInfo.ALIVE && liveness != LivenessInfo.NOT_ALIVE && liveness != RequestLivenessStatus.ANALYZING)) {
-                                livenessMap.put(facePreviewInfoList.get(i).getTrackId(), RequestLivenessStatus.ANALYZING);
-                                faceHelper.requestFaceLiveness(nv21, facePreviewInfoList.get(i).getFaceInfo(), previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId(), LivenessType.RGB);
-                            }
-                        }
-                        /**
-                         * 对于每个人脸，若状态为空或者为失败，则请求特征提取（可根据需要添加其他判断以限制特征提取次数），
-                         * 特征提取回传的人脸特征结果在{@link FaceListener#onFaceFeatureInfoGet(FaceFeature, Integer, Integer)}中回传
-                         */
-                        if (status == null
-                                || status == RequestFeatureStatus.TO_RETRY) {
-                            requestFeatureStatusMap.put(facePreviewInfoList.get(i).getTrackId(), RequestFeatureStatus.SEARCHING);
-                            faceHelper.requestFaceFeature(nv21, facePreviewInfoList.get(i).getFaceInfo(), previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId());
-//                            Log.i(TAG, "onPreview: fr start = " + System.currentTimeMillis() + " trackId = " + facePreviewInfoList.get(i).getTrackedFaceCount());
-                        }
-                    }
-                }
+            public void onPreview(final PreviewFrame frame, Camera camera) {
+                previewFrameProcessor.offer(frame);
             }
 
             @Override
@@ -500,6 +509,7 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
             }
         };
 
+        previewFrameProcessor = newPreviewFrameProcessor();
         cameraHelper = new CameraHelper.Builder()
                 .previewViewSize(new Point(previewView.getMeasuredWidth(), previewView.getMeasuredHeight()))
                 .rotation(getWindowManager().getDefaultDisplay().getRotation())
@@ -512,14 +522,94 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
         cameraHelper.start();
     }
 
-    private void registerFace(final byte[] nv21, final List<FacePreviewInfo> facePreviewInfoList) {
-        if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList != null && facePreviewInfoList.size() > 0) {
+    /**
+     * 创建并启动预览帧处理线程
+     *
+     * @return 预览帧处理线程
+     */
+    private PreviewFrameProcessor newPreviewFrameProcessor() {
+        return new PreviewFrameProcessor(TAG, pipelineMetrics, new PreviewFrameProcessor.FrameHandler() {
+            @Override
+            public void onFrame(PreviewFrame frame) {
+                processPreviewFrame(frame);
+            }
+        });
+    }
+
+    /**
+     * 处理预览帧，在预览帧处理线程中执行
+     *
+     * @param frame 预览帧
+     */
+    private void processPreviewFrame(PreviewFrame frame) {
+        // 切换相机时faceHelper和drawHelper在主线程中被替换，每帧只读取一次
+        FaceHelper faceHelper = this.faceHelper;
+        DrawHelper drawHelper = this.drawHelper;
+        // 尺寸与faceHelper不同的帧是切换相机前采集的
+        if (faceHelper == null || !faceHelper.matchesPreviewSize(frame.getWidth(), frame.getHeight())) {
+            return;
+        }
+        byte[] nv21 = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (faceRectView != null) {
+            faceRectView.clearFaceInfo();
+        }
+        List<FacePreviewInfo> facePreviewInfoList = faceHelper.onPreviewFrame(nv21);
+        if (facePreviewInfoList != null && faceRectView != null && drawHelper != null) {
+            drawPreviewInfo(faceHelper, drawHelper, facePreviewInfoList);
+        }
+        registerFace(faceHelper, nv21, width, height, facePreviewInfoList);
+        clearLeftFace(facePreviewInfoList);
+
+        // 推算的人脸框只用于绘制，不用于特征提取和活体检测
+        if (facePreviewInfoList != null && facePreviewInfoList.size() > 0 && faceHelper.isLastFrameDetected()) {
+            for (int i = 0; i < facePreviewInfoList.size(); i++) {
+                TrackState trackState = faceHelper.getTrackState(facePreviewInfoList.get(i).getTrackId());
+                if (trackState == null) {
+                    continue;
+                }
+                // 活体检测关闭后不再等待活体结果
+                if (!livenessDetect) {
+                    resumePendingRecognition(trackState, facePreviewInfoList.get(i).getTrackId());
+                }
+                int status = trackState.getFeatureStatus();
+                /**
+                 * 在活体检测开启，在人脸识别状态不为成功或人脸活体状态不为处理中（ANALYZING）且不为处理完成（ALIVE、NOT_ALIVE）时重新进行活体检测
+                 */
+                if (livenessDetect && status != RequestFeatureStatus.SUCCEED) {
+                    int liveness = trackState.getLiveness();
+                    if (liveness != LivenessInfo.ALIVE && liveness != LivenessInfo.NOT_ALIVE && liveness != RequestLivenessStatus.ANALYZING) {
+                        trackState.setLiveness(RequestLivenessStatus.ANALYZING);
+                        faceHelper.requestFaceLiveness(frame, facePreviewInfoList.get(i).getFaceInfo(), width, height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId(), LivenessType.RGB);
+                    }
+                }
+                /**
+                 * 对于每个人脸，若状态为空或者为失败，则在选帧窗口内挑选质量最好的一帧请求特征提取，
+                 * 特征提取回传的人脸特征结果在{@link FaceListener#onFaceFeatureInfoGet(FaceFeature, Integer, Integer)}中回传
+                 */
+                if ((status == RequestFeatureStatus.NONE || status == RequestFeatureStatus.TO_RETRY)
+                        && faceHelper.selectFeatureFrame(frame, facePreviewInfoList.get(i).getFaceInfo(), width, height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId())) {
+                    trackState.setFeatureStatus(RequestFeatureStatus.SEARCHING);
+                    faceHelper.requestFaceFeature(frame, facePreviewInfoList.get(i).getFaceInfo(), width, height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId());
+//                            Log.i(TAG, "onPreview: fr start = " + System.currentTimeMillis() + " trackId = " + facePreviewInfoList.get(i).getTrackedFaceCount());
+                }
+            }
+        }
+    }
+
+    private void registerFace(final FaceHelper faceHelper, final byte[] nv21, final int width, final int height,
+                              final List<FacePreviewInfo> facePreviewInfoList) {
+        if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList != null && facePreviewInfoList.size() > 0
+                && faceHelper.isLastFrameDetected()) {
             registerStatus = REGISTER_STATUS_PROCESSING;
+            // 预览帧在回调返回后会被重新填充，需在回调中复制
+            final byte[] registerNv21 = nv21.clone();
             Observable.create(new ObservableOnSubscribe<Boolean>() {
                 @Override
                 public void subscribe(ObservableEmitter<Boolean> emitter) {
 
-                    boolean success = FaceServer.getInstance().registerNv21(RegisterAndRecognizeActivity.this, nv21.clone(), previewSize.width, previewSize.height,
+                    boolean success = FaceServer.getInstance().registerNv21(RegisterAndRecognizeActivity.this, registerNv21, width, height,
                             facePreviewInfoList.get(0).getFaceInfo(), "registered " + faceHelper.getTrackedFaceCount());
                     emitter.onNext(success);
                 }
@@ -554,29 +644,28 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
         }
     }
 
-    private void drawPreviewInfo(List<FacePreviewInfo> facePreviewInfoList) {
+    private void drawPreviewInfo(FaceHelper faceHelper, DrawHelper drawHelper, List<FacePreviewInfo> facePreviewInfoList) {
         List<DrawInfo> drawInfoList = new ArrayList<>();
         for (int i = 0; i < facePreviewInfoList.size(); i++) {
-            String name = faceHelper.getName(facePreviewInfoList.get(i).getTrackId());
-            Integer liveness = livenessMap.get(facePreviewInfoList.get(i).getTrackId());
-            Integer recognizeStatus = requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId());
+            TrackState trackState = faceHelper.getTrackState(facePreviewInfoList.get(i).getTrackId());
+            String name = trackState == null ? null : trackState.getName();
+            int liveness = trackState == null ? LivenessInfo.UNKNOWN : trackState.getLiveness();
+            int recognizeStatus = trackState == null ? RequestFeatureStatus.NONE : trackState.getFeatureStatus();
 
             // 根据识别结果和活体结果设置颜色
             int color = RecognizeColor.COLOR_UNKNOWN;
-            if (recognizeStatus != null) {
-                if (recognizeStatus == RequestFeatureStatus.FAILED) {
-                    color = RecognizeColor.COLOR_FAILED;
-                }
-                if (recognizeStatus == RequestFeatureStatus.SUCCEED) {
-                    color = RecognizeColor.COLOR_SUCCESS;
-                }
+            if (recognizeStatus == RequestFeatureStatus.FAILED) {
+                color = RecognizeColor.COLOR_FAILED;
+            }
+            if (recognizeStatus == RequestFeatureStatus.SUCCEED) {
+                color = RecognizeColor.COLOR_SUCCESS;
             }
-            if (liveness != null && liveness == LivenessInfo.NOT_ALIVE) {
+            if (liveness == LivenessInfo.NOT_ALIVE) {
                 color = RecognizeColor.COLOR_FAILED;
             }
 
             drawInfoList.add(new DrawInfo(drawHelper.adjustRect(facePreviewInfoList.get(i).getFaceInfo().getRect()),
-                    GenderInfo.UNKNOWN, AgeInfo.UNKNOWN_AGE, liveness == null ? LivenessInfo.UNKNOWN : liveness, color,
+                    GenderInfo.UNKNOWN, AgeInfo.UNKNOWN_AGE, liveness, color,
                     name == null ? String.valueOf(facePreviewInfoList.get(i).getTrackId()) : name));
         }
         drawHelper.draw(faceRectView, drawInfoList);
@@ -595,58 +684,46 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     }
 
     /**
-     * 删除已经离开的人脸
-     *
-     * @param facePreviewInfoList 人脸和trackId列表
+     * 删除已经离开的人脸的比对结果，在主线程中执行
      */
-    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList) {
-        if (compareResultList != null) {
-            for (int i = compareResultList.size() - 1; i >= 0; i--) {
-                if (!requestFeatureStatusMap.containsKey(compareResultList.get(i).getTrackId())) {
-                    compareResultList.remove(i);
-                    adapter.notifyItemRemoved(i);
+    private Runnable clearLeftCompareResultRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (compareResultList != null) {
+                for (int i = compareResultList.size() - 1; i >= 0; i--) {
+                    if (getTrackState(compareResultList.get(i).getTrackId()) == null) {
+                        compareResultList.remove(i);
+                        adapter.notifyItemRemoved(i);
+                    }
                 }
             }
         }
-        if (facePreviewInfoList == null || facePreviewInfoList.size() == 0) {
-            requestFeatureStatusMap.clear();
-            livenessMap.clear();
-            livenessErrorRetryMap.clear();
-            extractErrorRetryMap.clear();
-            if (getFeatureDelayedDisposables != null) {
-                getFeatureDelayedDisposables.clear();
-            }
-            return;
-        }
-        Enumeration<Integer> keys = requestFeatureStatusMap.keys();
-        while (keys.hasMoreElements()) {
-            int key = keys.nextElement();
-            boolean contained = false;
-            for (FacePreviewInfo facePreviewInfo : facePreviewInfoList) {
-                if (facePreviewInfo.getTrackId() == key) {
-                    contained = true;
-                    break;
-                }
-            }
-            if (!contained) {
-                requestFeatureStatusMap.remove(key);
-                livenessMap.remove(key);
-                livenessErrorRetryMap.remove(key);
-                extractErrorRetryMap.remove(key);
-            }
-        }
-
+    };
 
+    /**
+     * 删除已经离开的人脸
+     *
+     * @param facePreviewInfoList 人脸和trackId列表
+     */
+    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList) {
+        // 已离开的人脸的状态和延时任务已在FaceHelper中整体删除，比对结果列表只在主线程中修改
+        runOnUiThread(clearLeftCompareResultRunnable);
     }
 
     private void searchFace(final FaceFeature frFace, final Integer requestId) {
+        final PipelineTracer tracer = PipelineTracer.getInstance();
+        final long requestTime = tracer.begin();
         Observable
                 .create(new ObservableOnSubscribe<CompareResult>() {
                     @Override
                     public void subscribe(ObservableEmitter<CompareResult> emitter) {
-//                        Log.i(TAG, "subscribe: fr search start = " + System.currentTimeMillis() + " trackId = " + requestId);
-                        CompareResult compareResult = FaceServer.getInstance().getTopOfFaceLib(frFace);
-//                        Log.i(TAG, "subscribe: fr search end = " + System.currentTimeMillis() + " trackId = " + requestId);
+                        // 在computation线程池中的排队时间
+                        tracer.end("searchSchedule", requestId, requestTime);
+                        // 找到相似度达到识别阈值的人脸即可停止搜索
+                        long searchStartTime = PipelineMetrics.now();
+                        CompareResult compareResult = FaceServer.getInstance().getTopOfFaceLib(frFace, SIMILAR_THRESHOLD);
+                        pipelineMetrics.recordSince(PipelineMetrics.Stage.SEARCH, searchStartTime);
+                        tracer.end("search", requestId, searchStartTime);
                         emitter.onNext(compareResult);
 
                     }
@@ -661,40 +738,34 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
 
                     @Override
                     public void onNext(CompareResult compareResult) {
+                        // 从发起搜索到主线程收到结果，减去search区间即为排队和切换到主线程的时间
+                        tracer.end("searchFace", requestId, requestTime);
+                        TrackState trackState = getTrackState(requestId);
+                        // 人脸已离开画面
+                        if (trackState == null) {
+                            return;
+                        }
                         if (compareResult == null || compareResult.getUserName() == null) {
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                            // 人脸库仍在加载，稍后重试
+                            if (!FaceServer.getInstance().isFaceListLoaded()) {
+                                retryRecognizeDelayed(requestId);
+                                return;
+                            }
+                            trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
                             faceHelper.setName(requestId, "VISITOR " + requestId);
                             return;
                         }
 
 //                        Log.i(TAG, "onNext: fr search get result  = " + System.currentTimeMillis() + " trackId = " + requestId + "  similar = " + compareResult.getSimilar());
                         if (compareResult.getSimilar() > SIMILAR_THRESHOLD) {
-                            boolean isAdded = false;
-                            if (compareResultList == null) {
-                                requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                                faceHelper.setName(requestId, "VISITOR " + requestId);
-                                return;
-                            }
-                            for (CompareResult compareResult1 : compareResultList) {
-                                if (compareResult1.getTrackId() == requestId) {
-                                    isAdded = true;
-                                    break;
-                                }
-                            }
-                            if (!isAdded) {
-                                //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
-                                if (compareResultList.size() >= MAX_DETECT_NUM) {
-                                    compareResultList.remove(0);
-                                    adapter.notifyItemRemoved(0);
+                            // 推测搜索时活体检测可能尚未通过，暂存比对结果，活体检测通过后再显示
+                            if (livenessDetect) {
+                                compareResult = trackState.offerSearchResult(compareResult);
+                                if (compareResult == null) {
+                                    return;
                                 }
-                                //添加显示人员时，保存其trackId
-                                compareResult.setTrackId(requestId);
-                                compareResultList.add(compareResult);
-                                adapter.notifyItemInserted(compareResultList.size() - 1);
                             }
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.SUCCEED);
-                            faceHelper.setName(requestId, getString(R.string.recognize_success_notice, compareResult.getUserName()));
-
+                            publishCompareResult(trackState, compareResult, requestId);
                         } else {
                             faceHelper.setName(requestId, getString(R.string.recognize_failed_notice, "NOT_REGISTERED"));
                             retryRecognizeDelayed(requestId);
@@ -715,6 +786,67 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     }
 
 
+    /**
+     * 显示识别成功的人脸，在主线程中执行
+     *
+     * @param trackState    人脸状态
+     * @param compareResult 比对结果
+     * @param requestId     人脸的trackId
+     */
+    private void publishCompareResult(TrackState trackState, CompareResult compareResult, int requestId) {
+        // 等待活体结果期间人脸已离开画面
+        if (getTrackState(requestId) != trackState) {
+            return;
+        }
+        boolean isAdded = false;
+        if (compareResultList == null) {
+            trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
+            trackState.setName("VISITOR " + requestId);
+            return;
+        }
+        for (CompareResult compareResult1 : compareResultList) {
+            if (compareResult1.getTrackId() == requestId) {
+                isAdded = true;
+                break;
+            }
+        }
+        if (!isAdded) {
+            //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
+            if (compareResultList.size() >= MAX_DETECT_NUM) {
+                compareResultList.remove(0);
+                adapter.notifyItemRemoved(0);
+            }
+            //添加显示人员时，保存其trackId
+            compareResult.setTrackId(requestId);
+            compareResultList.add(compareResult);
+            adapter.notifyItemInserted(compareResultList.size() - 1);
+        }
+        trackState.setFeatureStatus(RequestFeatureStatus.SUCCEED);
+        trackState.setName(getString(R.string.recognize_success_notice, compareResult.getUserName()));
+    }
+
+    /**
+     * 活体检测通过或关闭时，继续处理暂存的特征或比对结果
+     *
+     * @param trackState 人脸状态
+     * @param requestId  人脸的trackId
+     */
+    private void resumePendingRecognition(final TrackState trackState, final int requestId) {
+        FaceFeature faceFeature = trackState.takePendingFeature();
+        if (faceFeature != null) {
+            searchFace(faceFeature, requestId);
+        }
+        final CompareResult compareResult = trackState.takePendingResult();
+        if (compareResult != null) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    publishCompareResult(trackState, compareResult, requestId);
+                }
+            });
+        }
+    }
+
     /**
      * 将准备注册的状态置为{@link #REGISTER_STATUS_READY}
      *
@@ -726,6 +858,45 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
         }
     }
 
+    /**
+     * 显示或隐藏性能统计，显示时每隔 METRICS_REFRESH_INTERVAL 刷新，点击统计信息可将完整信息输出到日志
+     *
+     * @param view 性能统计按钮
+     */
+    public void switchMetricsOverlay(View view) {
+        if (tvMetrics.getVisibility() == View.VISIBLE) {
+            tvMetrics.removeCallbacks(refreshMetricsRunnable);
+            tvMetrics.setVisibility(View.GONE);
+        } else {
+            tvMetrics.setVisibility(View.VISIBLE);
+            refreshMetricsRunnable.run();
+        }
+    }
+
+    /**
+     * 将完整的性能统计输出到日志，单条日志有长度限制，因此逐行输出
+     */
+    private void logMetrics() {
+        for (String line : pipelineMetrics.dump().split("\n")) {
+            Log.i(TAG, "metrics: " + line);
+        }
+    }
+
+    /**
+     * 开启耗时追踪时，将追踪导出到应用的外部文件目录
+     */
+    private void exportTrace() {
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        if (!tracer.isEnabled()) {
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        tracer.exportTo(new File(dir, "trace_" + System.currentTimeMillis() + ".json"));
+    }
+
     /**
      * 切换相机。注意：若切换相机发现检测不到人脸，则极有可能是检测角度导致的，需要销毁引擎重新创建或者在设置界面修改配置的检测角度
      *
@@ -757,22 +928,28 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
     }
 
     /**
-     * 将map中key对应的value增1回传
+     * 获取人脸的识别状态
      *
-     * @param countMap map
-     * @param key      key
-     * @return 增1后的value
+     * @param trackId 人脸的trackId
+     * @return 人脸状态，人脸已离开画面时返回null
      */
-    public int increaseAndGetValue(Map<Integer, Integer> countMap, int key) {
-        if (countMap == null) {
-            return 0;
-        }
-        Integer value = countMap.get(key);
-        if (value == null) {
-            value = 0;
+    private TrackState getTrackState(int trackId) {
+        FaceHelper helper = faceHelper;
+        return helper == null ? null : helper.getTrackState(trackId);
+    }
+
+    /**
+     * 为人脸添加延时任务，人脸离开画面时自动取消
+     *
+     * @param trackId 人脸的trackId
+     * @param delayMs 延时（ms）
+     * @param task    任务，在定时器线程中执行
+     */
+    private void scheduleTrackTask(int trackId, long delayMs, Runnable task) {
+        FaceHelper helper = faceHelper;
+        if (helper != null) {
+            helper.scheduleTrackTask(trackId, delayMs, task);
         }
-        countMap.put(key, ++value);
-        return value;
     }
 
     /**
@@ -781,36 +958,21 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
      * @param requestId 人脸ID
      */
     private void retryLivenessDetectDelayed(final Integer requestId) {
-        Observable.timer(FAIL_RETRY_INTERVAL, TimeUnit.MILLISECONDS)
-                .subscribe(new Observer<Long>() {
-                    Disposable disposable;
-
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        disposable = d;
-                        delayFaceTaskCompositeDisposable.add(disposable);
-                    }
-
-                    @Override
-                    public void onNext(Long aLong) {
-
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        e.printStackTrace();
-                    }
-
-                    @Override
-                    public void onComplete() {
-                        // 将该人脸状态置为UNKNOWN，帧回调处理时会重新进行活体检测
-                        if (livenessDetect) {
-                            faceHelper.setName(requestId, Integer.toString(requestId));
-                        }
-                        livenessMap.put(requestId, LivenessInfo.UNKNOWN);
-                        delayFaceTaskCompositeDisposable.remove(disposable);
-                    }
-                });
+        final TrackState trackState = getTrackState(requestId);
+        if (trackState == null) {
+            return;
+        }
+        pipelineMetrics.increment(PipelineMetrics.Counter.LIVENESS_RETRY);
+        scheduleTrackTask(requestId, FAIL_RETRY_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                // 将该人脸状态置为UNKNOWN，帧回调处理时会重新进行活体检测
+                if (livenessDetect) {
+                    trackState.setName(Integer.toString(requestId));
+                }
+                trackState.setLiveness(LivenessInfo.UNKNOWN);
+            }
+        });
     }
 
     /**
@@ -819,34 +981,19 @@ public class RegisterAndRecognizeActivity extends BaseActivity implements ViewTr
      * @param requestId 人脸ID
      */
     private void retryRecognizeDelayed(final Integer requestId) {
-        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-        Observable.timer(FAIL_RETRY_INTERVAL, TimeUnit.MILLISECONDS)
-                .subscribe(new Observer<Long>() {
-                    Disposable disposable;
-
-                    @Override
-                    public void onSubscribe(Disposable d) {
-                        disposable = d;
-                        delayFaceTaskCompositeDisposable.add(disposable);
-                    }
-
-                    @Override
-                    public void onNext(Long aLong) {
-
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        e.printStackTrace();
-                    }
-
-                    @Override
-                    public void onComplete() {
-                        // 将该人脸特征提取状态置为FAILED，帧回调处理时会重新进行活体检测
-                        faceHelper.setName(requestId, Integer.toString(requestId));
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.TO_RETRY);
-                        delayFaceTaskCompositeDisposable.remove(disposable);
-                    }
-                });
+        final TrackState trackState = getTrackState(requestId);
+        if (trackState == null) {
+            return;
+        }
+        pipelineMetrics.increment(PipelineMetrics.Counter.RECOGNIZE_RETRY);
+        trackState.setFeatureStatus(RequestFeatureStatus.FAILED);
+        scheduleTrackTask(requestId, FAIL_RETRY_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                // 将该人脸特征提取状态置为TO_RETRY，帧回调处理时会重新进行特征提取
+                trackState.setName(Integer.toString(requestId));
+                trackState.setFeatureStatus(RequestFeatureStatus.TO_RETRY);
+            }
+        });
     }
 }
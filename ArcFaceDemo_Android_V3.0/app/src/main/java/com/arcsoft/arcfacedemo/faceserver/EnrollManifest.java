@@ -0,0 +1,237 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 批量注册清单，记录已成功注册的图片的大小、修改时间及内容摘要
+ * <p>
+ * 再次批量注册时，大小和修改时间都未变化的图片直接跳过；只有修改时间变化的图片计算摘要，内容未变化同样跳过。
+ * 每注册成功一张图片就追加一条记录，中途退出后再次运行会从中断处继续。
+ * <pre>
+ * 文件头：MAGIC(int) | VERSION(int)
+ * 记录（重复）：文件名(UTF) | 大小(long) | 修改时间(long) | SHA-1摘要(20字节)
+ * </pre>
+ * 同名记录以最后一条为准，尾部不完整的记录在加载时截掉
+ */
+public class EnrollManifest {
+    private static final int MAGIC = 0x4146454D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int HASH_SIZE = 20;
+
+    private final File manifestFile;
+    private final Map<String, Entry> entryMap = new HashMap<>();
+    private RandomAccessFile randomAccessFile;
+    /**
+     * 文件中的记录数（包含同名记录），用于判断是否需要压缩
+     */
+    private int recordCount = 0;
+
+    /**
+     * 已注册图片的记录
+     */
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private Entry(long size, long lastModified, byte[] hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    public EnrollManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * 加载清单并打开文件用于追加，被覆盖的旧记录较多时先压缩
+     *
+     * @throws IOException 读写失败
+     */
+    public synchronized void open() throws IOException {
+        if (randomAccessFile != null) {
+            return;
+        }
+        File parentFile = manifestFile.getParentFile();
+        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs()) {
+            throw new IOException("can not create directory " + parentFile);
+        }
+        entryMap.clear();
+        recordCount = 0;
+        randomAccessFile = new RandomAccessFile(manifestFile, "rw");
+        // 一次读入整个文件再解析，避免逐字段读取文件
+        byte[] content = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.readFully(content);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(content));
+        long validLength = 0;
+        if (content.length >= HEADER_SIZE && dis.readInt() == MAGIC && dis.readInt() == VERSION) {
+            validLength = HEADER_SIZE;
+            try {
+                while (dis.available() > 0) {
+                    String name = dis.readUTF();
+                    long size = dis.readLong();
+                    long lastModified = dis.readLong();
+                    byte[] hash = new byte[HASH_SIZE];
+                    dis.readFully(hash);
+                    entryMap.put(name, new Entry(size, lastModified, hash));
+                    recordCount++;
+                    validLength = content.length - dis.available();
+                }
+            } catch (EOFException e) {
+                // 不完整的记录
+            } catch (UTFDataFormatException e) {
+                // 不完整的记录
+            }
+        }
+        if (validLength == 0 || recordCount >= entryMap.size() * 2 + 1000) {
+            rewrite();
+        } else {
+            randomAccessFile.setLength(validLength);
+            randomAccessFile.seek(validLength);
+        }
+    }
+
+    /**
+     * 关闭清单文件
+     */
+    public synchronized void close() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * 删除清单，人脸库清空后调用
+     */
+    public synchronized void delete() {
+        close();
+        entryMap.clear();
+        recordCount = 0;
+        manifestFile.delete();
+    }
+
+    /**
+     * 图片是否已注册且大小和修改时间都未变化，无需读取文件内容
+     *
+     * @param file 图片文件
+     * @return 是否可以跳过
+     */
+    public synchronized boolean isUnchanged(File file) {
+        Entry entry = entryMap.get(file.getName());
+        return entry != null && entry.size == file.length() && entry.lastModified == file.lastModified();
+    }
+
+    /**
+     * 图片是否已注册且内容未变化，内容未变化时同时更新记录中的修改时间，下次无需再计算摘要
+     *
+     * @param file 图片文件
+     * @param hash 图片内容的摘要
+     * @return 是否可以跳过
+     */
+    public synchronized boolean isSameContent(File file, byte[] hash) {
+        Entry entry = entryMap.get(file.getName());
+        if (entry == null || !Arrays.equals(entry.hash, hash)) {
+            return false;
+        }
+        put(file, hash);
+        return true;
+    }
+
+    /**
+     * 记录注册成功的图片
+     *
+     * @param file 图片文件
+     * @param hash 图片内容的摘要
+     */
+    public synchronized void put(File file, byte[] hash) {
+        Entry entry = new Entry(file.length(), file.lastModified(), hash);
+        entryMap.put(file.getName(), entry);
+        if (randomAccessFile == null) {
+            return;
+        }
+        try {
+            randomAccessFile.write(toRecord(file.getName(), entry));
+            recordCount++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 计算图片内容的摘要
+     *
+     * @param data 图片文件内容
+     * @return 摘要
+     */
+    public static byte[] hash(byte[] data) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 只写入每个文件名的最后一条记录。先写入临时文件再替换，中途退出时原清单不受影响
+     */
+    private void rewrite() throws IOException {
+        File tempFile = new File(manifestFile.getAbsolutePath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            for (Map.Entry<String, Entry> mapEntry : entryMap.entrySet()) {
+                dos.write(toRecord(mapEntry.getKey(), mapEntry.getValue()));
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        randomAccessFile.close();
+        randomAccessFile = null;
+        if (!tempFile.renameTo(manifestFile)) {
+            tempFile.delete();
+            throw new IOException("can not rename " + tempFile + " to " + manifestFile);
+        }
+        randomAccessFile = new RandomAccessFile(manifestFile, "rw");
+        randomAccessFile.seek(randomAccessFile.length());
+        recordCount = entryMap.size();
+    }
+
+    private static byte[] toRecord(String name, Entry entry) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeUTF(name);
+        dos.writeLong(entry.size);
+        dos.writeLong(entry.lastModified);
+        dos.write(entry.hash);
+        dos.flush();
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,554 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.FaceInfo;
+import com.arcsoft.face.enums.DetectFaceOrientPriority;
+import com.arcsoft.face.enums.DetectMode;
+import com.arcsoft.imageutil.ArcSoftImageFormat;
+import com.arcsoft.imageutil.ArcSoftImageUtil;
+import com.arcsoft.imageutil.ArcSoftImageUtilError;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量注册流水线
+ * <p>
+ * 解码、转换、检测及特征提取三个阶段各有若干线程，阶段之间通过有界队列传递，下游处理不过来时上游阻塞等待，
+ * 内存中同时存在的图片数量有上限。特征提取阶段每个线程使用独立的引擎，提取出的特征通过{@link FaceServer#registerFeature}
+ * 交给写入线程，多个线程的注册记录由写入线程一并写入（组提交）。
+ * 设置了{@link EnrollManifest}时，已注册且未变化的图片直接跳过，不再解码和提取特征。
+ * 引擎初始化失败的提取线程直接退出，由其余线程处理队列；所有引擎都初始化失败时整批失败，不移动任何图片
+ */
+public class FaceBatchRegister {
+    private static final String TAG = "FaceBatchRegister";
+
+    private final Context context;
+    private final File[] imageFiles;
+    private final File failedDir;
+    private final int decodeThreadNum;
+    private final int convertThreadNum;
+    private final int engineNum;
+    private final long progressInterval;
+    private final BatchRegisterListener batchRegisterListener;
+    private final EnrollManifest enrollManifest;
+    private boolean manifestOpened = false;
+    private boolean manifestOpenFailed = false;
+
+    private final BlockingQueue<RegisterItem> decodedQueue;
+    private final BlockingQueue<RegisterItem> convertedQueue;
+    private final List<Thread> workerList = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicInteger nextFileIndex = new AtomicInteger();
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger runningDecodeThreads;
+    private final AtomicInteger runningConvertThreads;
+    private final AtomicInteger runningEngineThreads;
+    private final AtomicInteger failedEngineCount = new AtomicInteger();
+    private volatile boolean canceled = false;
+    /**
+     * 所有引擎都初始化失败
+     */
+    private volatile boolean engineFailed = false;
+    private volatile int engineErrorCode = ErrorInfo.MOK;
+    private long lastProgressTime = 0;
+
+    /**
+     * 流水线中的一张图片
+     */
+    private static class RegisterItem {
+        private static final RegisterItem END = new RegisterItem(null);
+
+        private final File file;
+        private byte[] hash;
+        private Bitmap bitmap;
+        private byte[] bgr24;
+        private int width;
+        private int height;
+
+        private RegisterItem(File file) {
+            this.file = file;
+        }
+    }
+
+    private FaceBatchRegister(Builder builder) {
+        context = builder.context.getApplicationContext();
+        imageFiles = builder.imageFiles;
+        failedDir = builder.failedDir;
+        decodeThreadNum = Math.max(builder.decodeThreadNum, 1);
+        convertThreadNum = Math.max(builder.convertThreadNum, 1);
+        engineNum = Math.max(builder.engineNum, 1);
+        progressInterval = builder.progressInterval;
+        batchRegisterListener = builder.batchRegisterListener;
+        enrollManifest = builder.enrollManifest;
+        int queueCapacity = Math.max(builder.queueCapacity, 1);
+        decodedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        convertedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        runningDecodeThreads = new AtomicInteger(decodeThreadNum);
+        runningConvertThreads = new AtomicInteger(convertThreadNum);
+        runningEngineThreads = new AtomicInteger(engineNum);
+    }
+
+    /**
+     * 启动流水线，立即返回
+     */
+    public void start() {
+        if (!workerList.isEmpty()) {
+            throw new IllegalStateException("batch register already started");
+        }
+        for (int i = 0; i < decodeThreadNum; i++) {
+            workerList.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    decodeLoop();
+                }
+            }, TAG + "-decode-" + i));
+        }
+        for (int i = 0; i < convertThreadNum; i++) {
+            workerList.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    convertLoop();
+                }
+            }, TAG + "-convert-" + i));
+        }
+        for (int i = 0; i < engineNum; i++) {
+            workerList.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    extractLoop();
+                }
+            }, TAG + "-extract-" + i));
+        }
+        for (Thread worker : workerList) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 取消，立即返回。不中断工作线程：正在提取特征或等待写入的图片照常完成并记入清单，
+     * 队列中其余的图片直接丢弃，不计为失败
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    private void decodeLoop() {
+        boolean useManifest = openManifest();
+        try {
+            int index;
+            while (!isStopped() && (index = nextFileIndex.getAndIncrement()) < imageFiles.length) {
+                RegisterItem item = new RegisterItem(imageFiles[index]);
+                // 大小和修改时间都未变化，无需读取
+                if (useManifest && enrollManifest.isUnchanged(item.file)) {
+                    onItemSkipped();
+                    continue;
+                }
+                byte[] data = readFile(item.file);
+                if (data == null) {
+                    onItemFinished(item, false);
+                    continue;
+                }
+                // 摘要只用于清单，不使用清单时不计算
+                if (useManifest) {
+                    item.hash = EnrollManifest.hash(data);
+                    if (enrollManifest.isSameContent(item.file, item.hash)) {
+                        onItemSkipped();
+                        continue;
+                    }
+                }
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+                if (bitmap != null) {
+                    bitmap = ArcSoftImageUtil.getAlignedBitmap(bitmap, true);
+                }
+                if (bitmap == null) {
+                    onItemFinished(item, false);
+                    continue;
+                }
+                item.bitmap = bitmap;
+                decodedQueue.put(item);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "decodeLoop: interrupted");
+        } finally {
+            if (runningDecodeThreads.decrementAndGet() == 0) {
+                putEnd(decodedQueue);
+            }
+        }
+    }
+
+    /**
+     * 由第一个解码线程打开清单，打开失败时不再重试，所有解码线程都不使用清单
+     *
+     * @return 清单是否可用
+     */
+    private synchronized boolean openManifest() {
+        if (enrollManifest == null || manifestOpenFailed) {
+            return false;
+        }
+        if (!manifestOpened) {
+            try {
+                enrollManifest.open();
+                manifestOpened = true;
+            } catch (IOException e) {
+                Log.e(TAG, "openManifest: open enroll manifest failed, register all images", e);
+                manifestOpenFailed = true;
+                enrollManifest.close();
+            }
+        }
+        return manifestOpened;
+    }
+
+    /**
+     * 已取消或所有引擎都初始化失败，队列中其余的图片直接丢弃
+     */
+    private boolean isStopped() {
+        return canceled || engineFailed;
+    }
+
+    private static byte[] readFile(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) randomAccessFile.length()];
+                randomAccessFile.readFully(data);
+                return data;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "readFile: read " + file.getName() + " failed", e);
+            return null;
+        }
+    }
+
+    private void convertLoop() {
+        try {
+            RegisterItem item;
+            while ((item = take(decodedQueue)) != RegisterItem.END) {
+                Bitmap bitmap = item.bitmap;
+                item.bitmap = null;
+                // 取消后继续取出队列中的图片直到结束标记，上游不会阻塞
+                if (isStopped()) {
+                    bitmap.recycle();
+                    continue;
+                }
+                byte[] bgr24 = ArcSoftImageUtil.createImageData(bitmap.getWidth(), bitmap.getHeight(), ArcSoftImageFormat.BGR24);
+                int transformCode = ArcSoftImageUtil.bitmapToImageData(bitmap, bgr24, ArcSoftImageFormat.BGR24);
+                item.width = bitmap.getWidth();
+                item.height = bitmap.getHeight();
+                bitmap.recycle();
+                if (transformCode != ArcSoftImageUtilError.CODE_SUCCESS) {
+                    Log.e(TAG, "convertLoop: transform " + item.file.getName() + " failed, code is " + transformCode);
+                    onItemFinished(item, false);
+                    continue;
+                }
+                item.bgr24 = bgr24;
+                convertedQueue.put(item);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "convertLoop: interrupted");
+        } finally {
+            if (runningConvertThreads.decrementAndGet() == 0) {
+                putEnd(convertedQueue);
+            }
+        }
+    }
+
+    private void extractLoop() {
+        FaceEngine faceEngine = new FaceEngine();
+        int engineCode = faceEngine.init(context, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY,
+                16, 1, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT);
+        try {
+            if (engineCode != ErrorInfo.MOK) {
+                Log.e(TAG, "extractLoop: init engine failed, code is " + engineCode);
+                engineErrorCode = engineCode;
+                // 还有其他引擎时不再取出图片，由其他引擎处理；最后一个失败的线程负责清空队列，上游不会阻塞
+                if (failedEngineCount.incrementAndGet() < engineNum) {
+                    return;
+                }
+                engineFailed = true;
+            }
+            RegisterItem item;
+            while ((item = take(convertedQueue)) != RegisterItem.END) {
+                if (isStopped()) {
+                    item.bgr24 = null;
+                    continue;
+                }
+                boolean success;
+                try {
+                    success = extract(faceEngine, item);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "extractLoop: register " + item.file.getName() + " failed", e);
+                    success = false;
+                }
+                onItemFinished(item, success);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "extractLoop: interrupted");
+        } finally {
+            if (engineCode == ErrorInfo.MOK) {
+                faceEngine.unInit();
+            }
+            if (runningEngineThreads.decrementAndGet() == 0) {
+                onAllFinished();
+            }
+        }
+    }
+
+    private boolean extract(FaceEngine faceEngine, RegisterItem item) {
+        List<FaceInfo> faceInfoList = new ArrayList<>();
+        int code = faceEngine.detectFaces(item.bgr24, item.width, item.height, FaceEngine.CP_PAF_BGR24, faceInfoList);
+        if (code != ErrorInfo.MOK || faceInfoList.isEmpty()) {
+            Log.e(TAG, "extract: no face detected in " + item.file.getName() + ", code is " + code);
+            return false;
+        }
+        FaceFeature faceFeature = new FaceFeature();
+        code = faceEngine.extractFaceFeature(item.bgr24, item.width, item.height, FaceEngine.CP_PAF_BGR24, faceInfoList.get(0), faceFeature);
+        if (code != ErrorInfo.MOK) {
+            Log.e(TAG, "extract: extract face feature of " + item.file.getName() + " failed, code is " + code);
+            return false;
+        }
+        Bitmap headBmp = FaceServer.cropHeadImage(item.bgr24, item.width, item.height, faceInfoList.get(0), ArcSoftImageFormat.BGR24);
+        item.bgr24 = null;
+        String fileName = item.file.getName();
+        int dotIndex = fileName.lastIndexOf(".");
+        String name = dotIndex > 0 ? fileName.substring(0, dotIndex) : fileName;
+        // 阻塞到特征写入完成，多个提取线程的记录一并写入
+        return FaceServer.getInstance().registerFeature(context, name, faceFeature.getFeatureData(), headBmp);
+    }
+
+    private void putEnd(BlockingQueue<RegisterItem> queue) {
+        // 取消时下游线程同样依靠结束标记退出
+        try {
+            queue.put(RegisterItem.END);
+        } catch (InterruptedException e) {
+            Log.i(TAG, "putEnd: interrupted");
+        }
+    }
+
+    /**
+     * 取出一张图片，取到结束标记时放回队列，同一阶段的其他线程同样依靠它退出。
+     * 结束标记之后上游不再放入图片，放回时队列不会满
+     */
+    private static RegisterItem take(BlockingQueue<RegisterItem> queue) throws InterruptedException {
+        RegisterItem item = queue.take();
+        if (item == RegisterItem.END) {
+            queue.put(item);
+        }
+        return item;
+    }
+
+    private void onItemSkipped() {
+        skippedCount.incrementAndGet();
+        successCount.incrementAndGet();
+        onProcessed();
+    }
+
+    private void onItemFinished(RegisterItem item, boolean success) {
+        if (success) {
+            successCount.incrementAndGet();
+            // 特征已写入特征库后才记入清单，中途退出时未记入的图片会重新注册
+            if (manifestOpened && item.hash != null) {
+                enrollManifest.put(item.file, item.hash);
+            }
+        } else if (failedDir != null && !isStopped()) {
+            // 取消后的失败可能是人脸库已销毁导致的，不移动图片，下次重新注册
+            if (!failedDir.exists()) {
+                failedDir.mkdirs();
+            }
+            item.file.renameTo(new File(failedDir, item.file.getName()));
+        }
+        onProcessed();
+    }
+
+    private void onProcessed() {
+        int processed = processedCount.incrementAndGet();
+        // 限制进度回调的频率
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            if (now - lastProgressTime < progressInterval && processed < imageFiles.length) {
+                return;
+            }
+            lastProgressTime = now;
+        }
+        postProgress(processed);
+    }
+
+    private void postProgress(final int processed) {
+        if (batchRegisterListener == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                batchRegisterListener.onProgress(processed, imageFiles.length);
+            }
+        });
+    }
+
+    private void onAllFinished() {
+        if (enrollManifest != null) {
+            enrollManifest.close();
+        }
+        Log.i(TAG, "onAllFinished: total = " + imageFiles.length + ", success = " + successCount.get()
+                + ", skipped = " + skippedCount.get() + ", canceled = " + canceled + ", engineFailed = " + engineFailed);
+        if (batchRegisterListener == null) {
+            return;
+        }
+        if (engineFailed) {
+            final int errorCode = engineErrorCode;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    batchRegisterListener.onFailed(errorCode);
+                }
+            });
+            return;
+        }
+        final int success = successCount.get();
+        final boolean isCanceled = canceled;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                batchRegisterListener.onFinished(imageFiles.length, success, isCanceled);
+            }
+        });
+    }
+
+    /**
+     * 批量注册回调，在主线程执行
+     */
+    public interface BatchRegisterListener {
+        /**
+         * 注册进度，调用频率受{@link Builder#progressInterval(long)}限制
+         *
+         * @param processedCount 已处理的图片数
+         * @param totalCount     图片总数
+         */
+        void onProgress(int processedCount, int totalCount);
+
+        /**
+         * 批量注册结束
+         *
+         * @param totalCount   图片总数
+         * @param successCount 注册成功的图片数，包含已注册而跳过的图片
+         * @param canceled     是否被取消
+         */
+        void onFinished(int totalCount, int successCount, boolean canceled);
+
+        /**
+         * 所有引擎都初始化失败，批量注册未执行，图片保持原样
+         *
+         * @param errorCode 引擎初始化的错误码
+         */
+        void onFailed(int errorCode);
+    }
+
+    public static final class Builder {
+        private Context context;
+        private File[] imageFiles;
+        private File failedDir;
+        private int decodeThreadNum = 2;
+        private int convertThreadNum = 1;
+        private int engineNum = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
+        private int queueCapacity = 8;
+        private long progressInterval = 200;
+        private BatchRegisterListener batchRegisterListener;
+        private EnrollManifest enrollManifest;
+
+        public Builder() {
+        }
+
+        public Builder context(Context val) {
+            context = val;
+            return this;
+        }
+
+        public Builder imageFiles(File[] val) {
+            imageFiles = val;
+            return this;
+        }
+
+        /**
+         * 注册失败的图片移动到该目录，为null时不移动
+         */
+        public Builder failedDir(File val) {
+            failedDir = val;
+            return this;
+        }
+
+        public Builder decodeThreadNum(int val) {
+            decodeThreadNum = val;
+            return this;
+        }
+
+        public Builder convertThreadNum(int val) {
+            convertThreadNum = val;
+            return this;
+        }
+
+        /**
+         * 特征提取线程数，每个线程使用一个独立的引擎
+         */
+        public Builder engineNum(int val) {
+            engineNum = val;
+            return this;
+        }
+
+        /**
+         * 阶段之间队列的容量，决定内存中同时存在的图片数量
+         */
+        public Builder queueCapacity(int val) {
+            queueCapacity = val;
+            return this;
+        }
+
+        /**
+         * 进度回调的最小间隔，单位为毫秒
+         */
+        public Builder progressInterval(long val) {
+            progressInterval = val;
+            return this;
+        }
+
+        public Builder batchRegisterListener(BatchRegisterListener val) {
+            batchRegisterListener = val;
+            return this;
+        }
+
+        /**
+         * 批量注册清单，为null时注册所有图片
+         */
+        public Builder enrollManifest(EnrollManifest val) {
+            enrollManifest = val;
+            return this;
+        }
+
+        public FaceBatchRegister build() {
+            if (context == null || imageFiles == null) {
+                throw new RuntimeException("context and imageFiles are required");
+            }
+            return new FaceBatchRegister(this);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.arcfacedemo.model.FaceRegisterInfo;
+import com.arcsoft.face.FaceFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 人脸特征库文件，所有注册人脸的特征数据保存在同一个只追加写入的文件中，启动时一次映射读取即可加载全部特征
+ * <p>
+ * 文件结构：
+ * <pre>
+ * 文件头（{@link #HEADER_SIZE}字节）：MAGIC(int) | VERSION(int) | 特征长度(int) | 保留(int)
+ * 记录（重复）：特征数据（固定{@link FaceFeature#FEATURE_SIZE}字节） | 名字长度(unsigned short) | 名字（UTF-8）
+ * </pre>
+ * 同名记录以最后一条为准；若上次写入时异常退出导致文件尾部记录不完整，加载时会忽略该记录，下次追加时将其覆盖。
+ * 每次追加写入后都会调用fsync，被同名记录覆盖的旧记录在{@link #compact()}时清除
+ */
+public class FaceFeatureStore {
+    private static final int MAGIC = 0x41464653;
+    private static final int VERSION = 1;
+    /**
+     * 文件头大小
+     */
+    public static final int HEADER_SIZE = 16;
+    /**
+     * 名字的最大字节数
+     */
+    public static final int MAX_NAME_LENGTH = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File storeFile;
+    /**
+     * 文件中有效数据的长度，-1表示尚未扫描
+     */
+    private long validLength = -1;
+    /**
+     * 文件中完整记录的数量
+     */
+    private int recordCount = 0;
+    /**
+     * 文件中的所有名字，加载后才可用，用于统计有效记录数
+     */
+    private Set<String> nameSet = null;
+    /**
+     * {@link #nameSet}的大小，-1表示尚未加载，读取时不加锁
+     */
+    private volatile int nameCount = -1;
+
+    public FaceFeatureStore(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    public File getStoreFile() {
+        return storeFile;
+    }
+
+    /**
+     * 加载所有人脸特征，特征数据直接从映射的文件复制到人脸库中。
+     * 人脸库只追加写入，因此加载过程中可以同时搜索已加载的部分
+     *
+     * @param featureSlab 人脸库，同名人脸只保留最后注册的一条
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public synchronized void load(FeatureSlab featureSlab) throws IOException {
+        load(featureSlab, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只加载前maxRecordCount条记录中的人脸特征，用于在不持有人脸库的锁时加载：
+     * 加载开始前已发布人脸库，之后注册的人脸由注册方加入人脸库，不应再次加载
+     *
+     * @param featureSlab    人脸库，同名人脸只保留前maxRecordCount条记录中的最后一条
+     * @param maxRecordCount 加载的记录数上限
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public synchronized void load(final FeatureSlab featureSlab, int maxRecordCount) throws IOException {
+        final Map<String, Integer> lastRecordMap = findLastRecords(maxRecordCount);
+        final int[] recordIndex = {0};
+        scan(new RecordVisitor() {
+            @Override
+            public void visit(ByteBuffer buffer, String name) {
+                Integer lastRecord = lastRecordMap.get(name);
+                if (lastRecord != null && lastRecord == recordIndex[0]) {
+                    featureSlab.add(name, buffer);
+                }
+                recordIndex[0]++;
+            }
+        });
+    }
+
+    /**
+     * 只读取名字，找出每个名字在前maxRecordCount条记录中的最后一条，同时用所有记录刷新{@link #nameSet}
+     *
+     * @param maxRecordCount 查找的记录数上限
+     * @return 名字及其最后一条记录的序号
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    private Map<String, Integer> findLastRecords(final int maxRecordCount) throws IOException {
+        final Map<String, Integer> lastRecordMap = new HashMap<>();
+        final Set<String> names = new HashSet<>();
+        final int[] recordIndex = {0};
+        scan(new RecordVisitor() {
+            @Override
+            public void visit(ByteBuffer buffer, String name) {
+                names.add(name);
+                if (recordIndex[0] < maxRecordCount) {
+                    lastRecordMap.put(name, recordIndex[0]);
+                }
+                recordIndex[0]++;
+            }
+        });
+        nameSet = names;
+        nameCount = names.size();
+        return lastRecordMap;
+    }
+
+    /**
+     * 获取特征库中的所有名字
+     *
+     * @return 名字集合的副本
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public synchronized Set<String> getNames() throws IOException {
+        if (nameSet == null) {
+            findLastRecords(Integer.MAX_VALUE);
+        }
+        return new HashSet<>(nameSet);
+    }
+
+    /**
+     * 获取特征库中不同名字的数量，即同名记录只计一次的人脸数。不加锁，加载或写入过程中也可以立即返回
+     *
+     * @return 名字数量，尚未加载时返回-1
+     */
+    public int getNameCount() {
+        return nameCount;
+    }
+
+    /**
+     * 被覆盖的旧记录是否已经足够多，需要压缩
+     *
+     * @param minGarbageCount 至少需要清除的记录数
+     * @return 旧记录不少于minGarbageCount且不少于有效记录数时返回true，尚未加载时返回false
+     */
+    public synchronized boolean needsCompaction(int minGarbageCount) {
+        if (nameSet == null) {
+            return false;
+        }
+        int garbageCount = recordCount - nameSet.size();
+        return garbageCount >= minGarbageCount && garbageCount >= nameSet.size();
+    }
+
+    /**
+     * 压缩特征库，只保留每个名字的最后一条记录。先写入临时文件，fsync后再替换原文件，压缩过程中异常退出不会丢失数据
+     *
+     * @return 清除的记录数
+     * @throws IOException 读写失败
+     */
+    public synchronized int compact() throws IOException {
+        final Map<String, Integer> lastRecordMap = findLastRecords(Integer.MAX_VALUE);
+        int oldRecordCount = recordCount;
+        if (lastRecordMap.size() == oldRecordCount) {
+            return 0;
+        }
+        File tempFile = new File(storeFile.getAbsolutePath() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(FaceFeature.FEATURE_SIZE);
+            dos.writeInt(0);
+            final byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+            final IOException[] writeException = {null};
+            final int[] recordIndex = {0};
+            scan(new RecordVisitor() {
+                @Override
+                public void visit(ByteBuffer buffer, String name) {
+                    if (lastRecordMap.get(name) != recordIndex[0]++ || writeException[0] != null) {
+                        return;
+                    }
+                    buffer.get(feature);
+                    byte[] nameBytes = name.getBytes(UTF_8);
+                    try {
+                        dos.write(feature);
+                        dos.writeShort(nameBytes.length);
+                        dos.write(nameBytes);
+                    } catch (IOException e) {
+                        writeException[0] = e;
+                    }
+                }
+            });
+            if (writeException[0] != null) {
+                throw writeException[0];
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tempFile.renameTo(storeFile)) {
+            tempFile.delete();
+            throw new IOException("can not rename " + tempFile + " to " + storeFile);
+        }
+        scan(null);
+        return oldRecordCount - recordCount;
+    }
+
+    /**
+     * 获取特征库中的记录数量（包含同名记录）
+     *
+     * @return 记录数量
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public synchronized int getRecordCount() throws IOException {
+        if (validLength < 0) {
+            scan(null);
+        }
+        return recordCount;
+    }
+
+    /**
+     * 追加一条人脸特征
+     *
+     * @param name    名字
+     * @param feature 特征数据
+     * @throws IOException 写入失败
+     */
+    public synchronized void append(String name, byte[] feature) throws IOException {
+        List<FaceRegisterInfo> faceRegisterInfoList = new ArrayList<>(1);
+        faceRegisterInfoList.add(new FaceRegisterInfo(feature, name));
+        appendAll(faceRegisterInfoList);
+    }
+
+    /**
+     * 批量追加人脸特征，只进行一次写入和一次fsync
+     *
+     * @param faceRegisterInfoList 需要追加的人脸
+     * @throws IOException 写入失败
+     */
+    public synchronized void appendAll(List<FaceRegisterInfo> faceRegisterInfoList) throws IOException {
+        if (faceRegisterInfoList == null || faceRegisterInfoList.isEmpty()) {
+            return;
+        }
+        byte[][] nameBytesArray = new byte[faceRegisterInfoList.size()][];
+        int totalLength = 0;
+        for (int i = 0; i < faceRegisterInfoList.size(); i++) {
+            FaceRegisterInfo faceRegisterInfo = faceRegisterInfoList.get(i);
+            byte[] feature = faceRegisterInfo.getFeatureData();
+            if (feature == null || feature.length != FaceFeature.FEATURE_SIZE) {
+                throw new IllegalArgumentException("invalid feature data of " + faceRegisterInfo.getName());
+            }
+            nameBytesArray[i] = faceRegisterInfo.getName().getBytes(UTF_8);
+            if (nameBytesArray[i].length > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("name is too long: " + faceRegisterInfo.getName());
+            }
+            totalLength += FaceFeature.FEATURE_SIZE + 2 + nameBytesArray[i].length;
+        }
+        if (validLength < 0) {
+            scan(null);
+        }
+        File parentFile = storeFile.getParentFile();
+        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs()) {
+            throw new IOException("can not create directory " + parentFile);
+        }
+        boolean writeHeader = validLength < HEADER_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength + (writeHeader ? HEADER_SIZE : 0));
+        if (writeHeader) {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(FaceFeature.FEATURE_SIZE).putInt(0);
+        }
+        for (int i = 0; i < faceRegisterInfoList.size(); i++) {
+            buffer.put(faceRegisterInfoList.get(i).getFeatureData());
+            buffer.putShort((short) nameBytesArray[i].length);
+            buffer.put(nameBytesArray[i]);
+        }
+        buffer.flip();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(storeFile, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long position = writeHeader ? 0 : validLength;
+            // 截掉上次异常退出时残留的不完整记录
+            channel.truncate(position);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            validLength = position;
+            recordCount += faceRegisterInfoList.size();
+            if (nameSet != null) {
+                for (FaceRegisterInfo faceRegisterInfo : faceRegisterInfoList) {
+                    nameSet.add(faceRegisterInfo.getName());
+                }
+                nameCount = nameSet.size();
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 删除特征库文件
+     *
+     * @return 删除前的记录数量
+     */
+    public synchronized int delete() {
+        int count = 0;
+        try {
+            count = getRecordCount();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (storeFile.exists() && !storeFile.delete()) {
+            return 0;
+        }
+        validLength = 0;
+        recordCount = 0;
+        nameSet = new HashSet<>();
+        nameCount = 0;
+        return count;
+    }
+
+    /**
+     * 映射整个文件并依次遍历其中的完整记录，同时刷新{@link #validLength}和{@link #recordCount}
+     *
+     * @param visitor 记录访问者，为空时只统计数量
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    private void scan(RecordVisitor visitor) throws IOException {
+        validLength = 0;
+        recordCount = 0;
+        if (!storeFile.exists() || storeFile.length() < HEADER_SIZE) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(storeFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("unknown feature store format: " + storeFile);
+            }
+            int featureSize = buffer.getInt();
+            if (featureSize != FaceFeature.FEATURE_SIZE) {
+                throw new IOException("feature size mismatch, expected " + FaceFeature.FEATURE_SIZE + " but was " + featureSize);
+            }
+            buffer.getInt();
+            int count = 0;
+            while (buffer.remaining() >= featureSize + 2) {
+                int recordStart = buffer.position();
+                int nameLength = buffer.getShort(recordStart + featureSize) & 0xFFFF;
+                if (buffer.remaining() < featureSize + 2 + nameLength) {
+                    break;
+                }
+                if (visitor != null) {
+                    byte[] nameBytes = new byte[nameLength];
+                    buffer.position(recordStart + featureSize + 2);
+                    buffer.get(nameBytes);
+                    buffer.position(recordStart);
+                    visitor.visit(buffer, new String(nameBytes, UTF_8));
+                }
+                buffer.position(recordStart + featureSize + 2 + nameLength);
+                count++;
+            }
+            validLength = buffer.position();
+            recordCount = count;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 特征记录访问者
+     */
+    private interface RecordVisitor {
+        /**
+         * @param buffer 文件数据，position位于该记录的特征数据起始处
+         * @param name   该记录的名字
+         */
+        void visit(ByteBuffer buffer, String name);
+    }
+}
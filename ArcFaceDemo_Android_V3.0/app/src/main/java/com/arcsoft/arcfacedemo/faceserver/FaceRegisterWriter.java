@@ -0,0 +1,313 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.arcsoft.arcfacedemo.model.FaceRegisterInfo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 注册数据的写入线程，所有对特征库和注册图的写入都在该线程中按提交顺序执行
+ * <p>
+ * 特征库即日志：写入线程每次取出队列中所有待写入的特征，一次追加写入并fsync（组提交），
+ * 随后唤醒等待的注册请求，再写入注册图。注册图先写入临时文件再重命名，异常退出时不会留下不完整的图片，
+ * 没有对应特征记录的注册图在{@link #deleteOrphanImages()}时删除，删除同样在写入线程中按提交顺序执行，不会删除正在写入的注册图
+ */
+public class FaceRegisterWriter {
+    private static final String TAG = "FaceRegisterWriter";
+    /**
+     * 一次组提交最多写入的特征数
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+    /**
+     * 被覆盖的旧记录至少达到该数量才压缩特征库
+     */
+    private static final int MIN_COMPACT_GARBAGE = 1000;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final FaceFeatureStore featureStore;
+    private final File imgDir;
+    private final LinkedBlockingQueue<WriteRequest> requestQueue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private boolean shutdown = false;
+
+    public FaceRegisterWriter(FaceFeatureStore featureStore, File imgDir) {
+        this.featureStore = featureStore;
+        this.imgDir = imgDir;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        writerThread.start();
+    }
+
+    /**
+     * 提交一条注册记录
+     *
+     * @param name    名字
+     * @param feature 特征数据
+     * @param headBmp 注册图，写入后回收，可为null
+     * @return 写入请求，{@link WriteRequest#await()}在特征数据写入并fsync后返回
+     */
+    public WriteRequest register(String name, byte[] feature, Bitmap headBmp) {
+        WriteRequest request = new WriteRequest(WriteRequest.TYPE_REGISTER, name, feature, headBmp);
+        enqueue(request);
+        return request;
+    }
+
+    /**
+     * 清空特征库和注册图，在此之前提交的注册记录会先写入再被删除
+     *
+     * @return 写入请求，{@link WriteRequest#await()}返回删除的人脸数
+     */
+    public WriteRequest clear() {
+        WriteRequest request = new WriteRequest(WriteRequest.TYPE_CLEAR, null, null, null);
+        enqueue(request);
+        return request;
+    }
+
+    /**
+     * 写入所有已提交的数据后结束写入线程
+     */
+    public void shutdown() {
+        enqueue(new WriteRequest(WriteRequest.TYPE_STOP, null, null, null));
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 删除没有对应特征记录的注册图及未写完的临时文件，用于清理上次异常退出时留下的文件。
+     * 在写入线程中执行，此前提交的注册记录和注册图先写入完成
+     *
+     * @return 写入请求，{@link WriteRequest#await()}返回删除的文件数
+     */
+    public WriteRequest deleteOrphanImages() {
+        WriteRequest request = new WriteRequest(WriteRequest.TYPE_CLEANUP, null, null, null);
+        enqueue(request);
+        return request;
+    }
+
+    private int deleteOrphanImagesInWriter() {
+        File[] imgFiles = imgDir.listFiles();
+        if (imgFiles == null) {
+            return 0;
+        }
+        Set<String> names;
+        try {
+            names = featureStore.getNames();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        int deletedCount = 0;
+        for (File imgFile : imgFiles) {
+            String fileName = imgFile.getName();
+            boolean orphan = fileName.endsWith(TEMP_SUFFIX)
+                    || (fileName.endsWith(FaceServer.IMG_SUFFIX)
+                    && !names.contains(fileName.substring(0, fileName.length() - FaceServer.IMG_SUFFIX.length())));
+            if (orphan && imgFile.delete()) {
+                deletedCount++;
+            }
+        }
+        if (deletedCount > 0) {
+            Log.i(TAG, "deleteOrphanImages: " + deletedCount + " files deleted");
+        }
+        return deletedCount;
+    }
+
+    private synchronized void enqueue(WriteRequest request) {
+        // 结束后提交的请求直接失败
+        if (shutdown) {
+            request.finish(0);
+            return;
+        }
+        if (request.type == WriteRequest.TYPE_STOP) {
+            shutdown = true;
+        }
+        requestQueue.offer(request);
+    }
+
+    private void writeLoop() {
+        List<WriteRequest> batch = new ArrayList<>();
+        List<WriteRequest> registerBatch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(requestQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            requestQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            for (WriteRequest request : batch) {
+                if (request.type == WriteRequest.TYPE_REGISTER) {
+                    registerBatch.add(request);
+                    continue;
+                }
+                // 清空、清理和结束前，先提交之前的注册记录
+                commit(registerBatch);
+                if (request.type == WriteRequest.TYPE_CLEAR) {
+                    request.finish(deleteAll());
+                } else if (request.type == WriteRequest.TYPE_CLEANUP) {
+                    request.finish(deleteOrphanImagesInWriter());
+                } else {
+                    request.finish(0);
+                    stopped = true;
+                    break;
+                }
+            }
+            commit(registerBatch);
+            batch.clear();
+            compactIfNeeded();
+        }
+        List<WriteRequest> remaining = new ArrayList<>();
+        requestQueue.drainTo(remaining);
+        for (WriteRequest request : remaining) {
+            request.finish(0);
+        }
+    }
+
+    /**
+     * 组提交：一次写入并fsync所有特征数据，唤醒等待的注册请求后再写入注册图
+     */
+    private void commit(List<WriteRequest> registerBatch) {
+        if (registerBatch.isEmpty()) {
+            return;
+        }
+        List<FaceRegisterInfo> faceRegisterInfoList = new ArrayList<>(registerBatch.size());
+        for (WriteRequest request : registerBatch) {
+            faceRegisterInfoList.add(new FaceRegisterInfo(request.feature, request.name));
+        }
+        boolean success;
+        try {
+            featureStore.appendAll(faceRegisterInfoList);
+            success = true;
+        } catch (IOException e) {
+            Log.e(TAG, "commit: append " + registerBatch.size() + " features failed", e);
+            success = false;
+        }
+        for (WriteRequest request : registerBatch) {
+            request.finish(success ? 1 : 0);
+        }
+        for (WriteRequest request : registerBatch) {
+            if (success && request.headBmp != null) {
+                writeImage(request.name, request.headBmp);
+            }
+            if (request.headBmp != null) {
+                request.headBmp.recycle();
+            }
+        }
+        registerBatch.clear();
+    }
+
+    private void writeImage(String name, Bitmap headBmp) {
+        if (!imgDir.exists() && !imgDir.mkdirs()) {
+            Log.e(TAG, "writeImage: can not create image directory");
+            return;
+        }
+        File imgFile = new File(imgDir, name + FaceServer.IMG_SUFFIX);
+        File tempFile = new File(imgDir, name + FaceServer.IMG_SUFFIX + TEMP_SUFFIX);
+        try {
+            FileOutputStream fosImage = new FileOutputStream(tempFile);
+            headBmp.compress(Bitmap.CompressFormat.JPEG, 100, fosImage);
+            fosImage.close();
+            if (!tempFile.renameTo(imgFile)) {
+                Log.e(TAG, "writeImage: can not rename " + tempFile);
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+    }
+
+    private int deleteAll() {
+        int deletedFeatureCount = featureStore.delete();
+        int deletedImageCount = 0;
+        File[] imgFiles = imgDir.listFiles();
+        if (imgFiles != null) {
+            for (File imgFile : imgFiles) {
+                if (imgFile.delete() && imgFile.getName().endsWith(FaceServer.IMG_SUFFIX)) {
+                    deletedImageCount++;
+                }
+            }
+        }
+        return deletedFeatureCount > deletedImageCount ? deletedImageCount : deletedFeatureCount;
+    }
+
+    private void compactIfNeeded() {
+        if (!requestQueue.isEmpty() || !featureStore.needsCompaction(MIN_COMPACT_GARBAGE)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int removedCount = featureStore.compact();
+            Log.i(TAG, "compactIfNeeded: " + removedCount + " records removed, cost " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            Log.e(TAG, "compactIfNeeded: compact failed", e);
+        }
+    }
+
+    /**
+     * 写入请求
+     */
+    public static class WriteRequest {
+        private static final int TYPE_REGISTER = 0;
+        private static final int TYPE_CLEAR = 1;
+        private static final int TYPE_STOP = 2;
+        private static final int TYPE_CLEANUP = 3;
+
+        private final int type;
+        private final String name;
+        private final byte[] feature;
+        private final Bitmap headBmp;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile int result;
+
+        private WriteRequest(int type, String name, byte[] feature, Bitmap headBmp) {
+            this.type = type;
+            this.name = name;
+            this.feature = feature;
+            this.headBmp = headBmp;
+        }
+
+        private void finish(int result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        /**
+         * 等待写入完成，不响应中断：请求提交后一定会被写入，中途返回会使调用方与特征库不一致。
+         * 等待期间被中断时，返回前恢复中断状态
+         *
+         * @return 注册请求成功时返回1，失败时返回0；清空请求返回删除的人脸数；清理请求返回删除的文件数
+         */
+        public int await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
+        }
+    }
+}
@@ -3,14 +3,22 @@ package com.arcsoft.arcfacedemo.faceserver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.arcsoft.arcfacedemo.core.Engine;
+import com.arcsoft.arcfacedemo.core.FeatureGallery;
+import com.arcsoft.arcfacedemo.core.GallerySearcher;
+import com.arcsoft.arcfacedemo.core.Match;
+import com.arcsoft.arcfacedemo.core.ShardedGallerySearcher;
 import com.arcsoft.arcfacedemo.model.FaceRegisterInfo;
+import com.arcsoft.arcfacedemo.util.face.ArcSoftEngine;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineTracer;
 import com.arcsoft.face.ErrorInfo;
 import com.arcsoft.face.FaceEngine;
 import com.arcsoft.face.FaceFeature;
 import com.arcsoft.face.FaceInfo;
-import com.arcsoft.face.FaceSimilar;
 import com.arcsoft.face.enums.DetectFaceOrientPriority;
 import com.arcsoft.face.enums.DetectMode;
 import com.arcsoft.imageutil.ArcSoftImageFormat;
@@ -21,10 +29,17 @@ import com.arcsoft.imageutil.ArcSoftRotateDegree;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 人脸库操作类，包含注册和搜索
@@ -32,23 +47,85 @@ import java.util.List;
 public class FaceServer {
     private static final String TAG = "FaceServer";
     public static final String IMG_SUFFIX = ".jpg";
-    private static FaceEngine faceEngine = null;
+    private static volatile FaceEngine faceEngine = null;
     private static FaceServer faceServer = null;
-    private static List<FaceRegisterInfo> faceRegisterInfoList;
+    private static volatile FeatureSlab featureSlab;
+    /**
+     * 人脸库是否已加载完成，加载过程中搜索的是已加载的部分
+     */
+    private static volatile boolean faceListLoaded = false;
+    /**
+     * 异步初始化时，引擎初始化完成、人脸库开始加载后计数归零，此前到达的搜索请求在此等待
+     */
+    private static volatile CountDownLatch searchReadyLatch = null;
+    /**
+     * 搜索请求等待引擎初始化的最长时间
+     */
+    private static final long SEARCH_READY_TIMEOUT = 3000;
     public static String ROOT_PATH;
     /**
      * 存放注册图的目录
      */
     public static final String SAVE_IMG_DIR = "register" + File.separator + "imgs";
     /**
-     * 存放特征的目录
+     * 旧版本存放特征的目录（每个人脸一个文件），仅用于迁移到{@link #SAVE_FEATURE_FILE}
      */
     private static final String SAVE_FEATURE_DIR = "register" + File.separator + "features";
+    /**
+     * 存放特征的文件
+     */
+    private static final String SAVE_FEATURE_FILE = "register" + File.separator + "features.dat";
+    private static FaceFeatureStore faceFeatureStore;
+    /**
+     * 批量注册清单文件，清空人脸库时一并删除
+     */
+    private static final String SAVE_ENROLL_MANIFEST_FILE = "register" + File.separator + "enroll_manifest.dat";
+    /**
+     * 特征库和注册图的写入线程
+     */
+    private static FaceRegisterWriter registerWriter;
+    /**
+     * 每次清空人脸库后加1，清空前提交、清空后才写入完成的注册不再加入内存中的人脸库
+     */
+    private static int galleryGeneration = 0;
+    /**
+     * 存放IVF索引的文件
+     */
+    private static final String SAVE_IVF_INDEX_FILE = "register" + File.separator + "features.ivf";
+    /**
+     * 人脸数不少于该值时才建立IVF索引，人脸库较小时精确搜索已足够快
+     */
+    private static final int MIN_FACES_FOR_IVF_INDEX = 10000;
+    /**
+     * 人脸数增长到训练时的该倍数后重新训练IVF索引
+     */
+    private static final int IVF_RETRAIN_FACTOR = 4;
+    private static final int IVF_TRAIN_ITERATIONS = 10;
+    /**
+     * IVF近似搜索索引，为null时精确搜索整个人脸库
+     */
+    private static volatile FeatureIvfIndex ivfIndex = null;
+    /**
+     * IVF搜索时探查的类数，为0时不使用IVF索引
+     */
+    private static volatile int ivfProbeCount = 0;
+    /**
+     * IVF索引的训练在后台进行，训练完成前使用精确搜索
+     */
+    private static ExecutorService ivfBuildExecutor = null;
 
     /**
-     * 是否正在搜索人脸，保证搜索操作单线程进行
+     * 分片并行搜索，每个分片使用一个独立的比对引擎
+     */
+    private static volatile ShardedGallerySearcher shardedSearcher = null;
+    /**
+     * 分片并行搜索线程池，第0个分片在调用线程中执行
      */
-    private boolean isProcessing = false;
+    private static ExecutorService searchExecutor = null;
+    /**
+     * 不提前结束搜索
+     */
+    public static final float NO_CERTAIN_SIMILAR = GallerySearcher.NO_CERTAIN_SIMILAR;
 
     public static FaceServer getInstance() {
         if (faceServer == null) {
@@ -62,27 +139,91 @@ public class FaceServer {
     }
 
     /**
-     * 初始化
+     * 初始化，搜索时在单个引擎上顺序比对
      *
      * @param context 上下文对象
      * @return 是否初始化成功
      */
     public boolean init(Context context) {
+        return init(context, 1);
+    }
+
+    /**
+     * 初始化
+     *
+     * @param context         上下文对象
+     * @param searchThreadNum 搜索线程数，大于1时将人脸库分片，每个分片在独立的比对引擎和线程上并行搜索，一般传入CPU核数
+     * @return 是否初始化成功
+     */
+    public boolean init(Context context, int searchThreadNum) {
         synchronized (this) {
-            if (faceEngine == null && context != null) {
-                faceEngine = new FaceEngine();
-                int engineCode = faceEngine.init(context, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY, 16, 1, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT);
-                if (engineCode == ErrorInfo.MOK) {
-                    initFaceList(context);
-                    return true;
-                } else {
-                    faceEngine = null;
-                    Log.e(TAG, "init: failed! code = " + engineCode);
-                    return false;
-                }
+            if (faceEngine != null || context == null) {
+                return false;
+            }
+            faceEngine = new FaceEngine();
+            int engineCode = faceEngine.init(context, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY, 16, 1, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT);
+            if (engineCode != ErrorInfo.MOK) {
+                faceEngine = null;
+                Log.e(TAG, "init: failed! code = " + engineCode);
+                return false;
+            }
+            if (searchThreadNum > 1) {
+                initSearchEngines(context, searchThreadNum);
             }
-            return false;
         }
+        // 人脸库的加载不持有锁，加载期间可以注册、清空、获取人脸数或销毁
+        initFaceList(context);
+        return true;
+    }
+
+    /**
+     * 在后台线程中初始化，立即返回。引擎初始化完成后即可搜索，人脸库加载完成前搜索的是已加载的部分
+     *
+     * @param context         上下文对象
+     * @param searchThreadNum 搜索线程数，见{@link #init(Context, int)}
+     * @param listener        初始化完成的回调，可为null
+     * @return 初始化结果，get()返回是否初始化成功
+     */
+    public Future<Boolean> initAsync(Context context, final int searchThreadNum, final InitListener listener) {
+        final Context appContext = context.getApplicationContext();
+        final CountDownLatch latch = new CountDownLatch(1);
+        searchReadyLatch = latch;
+        ExecutorService initExecutor = Executors.newSingleThreadExecutor();
+        Future<Boolean> future = initExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final boolean success;
+                try {
+                    success = init(appContext, searchThreadNum);
+                } finally {
+                    latch.countDown();
+                    if (searchReadyLatch == latch) {
+                        searchReadyLatch = null;
+                    }
+                }
+                if (listener != null) {
+                    final FeatureSlab slab = featureSlab;
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onInitFinished(success, slab == null ? 0 : slab.size());
+                        }
+                    });
+                }
+                return success;
+            }
+        });
+        initExecutor.shutdown();
+        return future;
+    }
+
+    /**
+     * 人脸库是否已加载完成
+     *
+     * @return 人脸库是否已加载完成，未初始化时返回false
+     */
+    public boolean isFaceListLoaded() {
+        return faceListLoaded;
     }
 
     /**
@@ -90,50 +231,329 @@ public class FaceServer {
      */
     public void unInit() {
         synchronized (this) {
-            if (faceRegisterInfoList != null) {
-                faceRegisterInfoList.clear();
-                faceRegisterInfoList = null;
+            unInitIvfIndex();
+            if (registerWriter != null) {
+                // 写入所有已提交的注册数据
+                registerWriter.shutdown();
+                registerWriter = null;
             }
+            faceListLoaded = false;
+            featureSlab = null;
+            galleryGeneration++;
             if (faceEngine != null) {
-                faceEngine.unInit();
+                // 等待正在进行的搜索结束
+                synchronized (faceEngine) {
+                    faceEngine.unInit();
+                }
                 faceEngine = null;
             }
+            unInitSearchEngines();
+        }
+    }
+
+    /**
+     * 设置IVF近似搜索的探查类数。人脸库较大时，只在与待搜索特征最接近的几个类中精确比对，探查的类越多，召回率越高，速度越慢。
+     * 索引在后台训练并保存在特征库文件旁，训练完成前使用精确搜索
+     *
+     * @param probeCount 探查的类数，传入0则关闭IVF搜索
+     */
+    public void setIvfProbeCount(int probeCount) {
+        synchronized (this) {
+            ivfProbeCount = Math.max(probeCount, 0);
+            // 人脸库加载完成时会初始化IVF索引
+            if (faceListLoaded) {
+                initIvfIndex();
+            }
+        }
+    }
+
+    /**
+     * IVF索引是否可用
+     *
+     * @return IVF索引是否已训练完成并在搜索时使用
+     */
+    public boolean isIvfIndexReady() {
+        return ivfProbeCount > 0 && ivfIndex != null;
+    }
+
+    /**
+     * 加载已保存的IVF索引，保存后注册或槽位变化的人脸按名字对应后增量加入，若索引不存在或人脸库增长较多，则在后台重新训练
+     */
+    private void initIvfIndex() {
+        if (ivfProbeCount <= 0 || ivfIndex != null || featureSlab == null
+                || featureSlab.size() < MIN_FACES_FOR_IVF_INDEX) {
+            return;
+        }
+        File indexFile = new File(ROOT_PATH + File.separator + SAVE_IVF_INDEX_FILE);
+        FeatureSlab.Snapshot snapshot = featureSlab.snapshot();
+        FeatureIvfIndex index = null;
+        try {
+            // 同名记录在加载时被合并，槽位可能与保存索引时不同，索引按名字对应到当前的槽位
+            index = FeatureIvfIndex.load(indexFile, snapshot);
+        } catch (IOException e) {
+            Log.e(TAG, "initIvfIndex: load ivf index failed", e);
+        }
+        if (index != null && snapshot.size() < index.getTrainedCount() * IVF_RETRAIN_FACTOR) {
+            ivfIndex = index;
+        } else {
+            buildIvfIndexAsync();
+        }
+    }
+
+    private void buildIvfIndexAsync() {
+        if (ivfBuildExecutor == null) {
+            ivfBuildExecutor = Executors.newSingleThreadExecutor();
+        }
+        ivfBuildExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                rebuildIvfIndex();
+            }
+        });
+    }
+
+    /**
+     * 在当前人脸库上训练IVF索引并保存，耗时操作，不要在主线程调用
+     *
+     * @return 是否训练成功
+     */
+    public boolean rebuildIvfIndex() {
+        FeatureSlab slab = featureSlab;
+        if (slab == null || slab.size() == 0) {
+            return false;
+        }
+        // 人脸库只追加写入，训练时无需加锁
+        int trainCount = slab.size();
+        long start = System.currentTimeMillis();
+        int listCount = (int) Math.sqrt(trainCount);
+        FeatureIvfIndex index = FeatureIvfIndex.train(slab, trainCount, listCount, IVF_TRAIN_ITERATIONS, trainCount);
+        Log.i(TAG, "rebuildIvfIndex: " + trainCount + " faces, " + listCount + " lists, cost " + (System.currentTimeMillis() - start) + "ms");
+        synchronized (this) {
+            // 人脸库在训练过程中被清空或销毁
+            if (featureSlab != slab) {
+                return false;
+            }
+            // 补充训练过程中注册的人脸
+            FeatureSlab.Snapshot snapshot = slab.snapshot();
+            FeatureSlab.Reader reader = snapshot.newReader();
+            for (int i = trainCount; i < snapshot.size(); i++) {
+                index.add(i, reader.read(i));
+            }
+            ivfIndex = index;
+            try {
+                index.save(new File(ROOT_PATH + File.separator + SAVE_IVF_INDEX_FILE), snapshot);
+            } catch (IOException e) {
+                Log.e(TAG, "rebuildIvfIndex: save ivf index failed", e);
+            }
+            return true;
+        }
+    }
+
+    private void unInitIvfIndex() {
+        if (ivfBuildExecutor != null) {
+            ivfBuildExecutor.shutdownNow();
+            ivfBuildExecutor = null;
+        }
+        if (ivfIndex != null && ivfIndex.isDirty() && featureSlab != null) {
+            try {
+                ivfIndex.save(new File(ROOT_PATH + File.separator + SAVE_IVF_INDEX_FILE), featureSlab.snapshot());
+            } catch (IOException e) {
+                Log.e(TAG, "unInitIvfIndex: save ivf index failed", e);
+            }
+        }
+        ivfIndex = null;
+    }
+
+    /**
+     * 将注册成功的人脸同步到内存中的人脸库和IVF索引
+     *
+     * @param name    名字
+     * @param feature 特征数据
+     */
+    private void addToFaceList(String name, byte[] feature) {
+        if (featureSlab == null) {
+            featureSlab = new FeatureSlab();
+        }
+        int faceCount = featureSlab.add(name, feature) + 1;
+        if (ivfIndex != null) {
+            ivfIndex.add(faceCount - 1, feature);
+            if (faceCount >= ivfIndex.getTrainedCount() * IVF_RETRAIN_FACTOR) {
+                buildIvfIndexAsync();
+            }
+        } else if (ivfProbeCount > 0 && faceListLoaded && faceCount == MIN_FACES_FOR_IVF_INDEX) {
+            buildIvfIndexAsync();
+        }
+    }
+
+    /**
+     * 初始化分片搜索使用的比对引擎和线程池，若部分引擎初始化失败，则使用已成功初始化的引擎
+     *
+     * @param context         上下文对象
+     * @param searchThreadNum 搜索线程数
+     */
+    private void initSearchEngines(Context context, int searchThreadNum) {
+        List<FaceEngine> engineList = new ArrayList<>();
+        for (int i = 0; i < searchThreadNum; i++) {
+            FaceEngine searchEngine = new FaceEngine();
+            int engineCode = searchEngine.init(context, DetectMode.ASF_DETECT_MODE_IMAGE, DetectFaceOrientPriority.ASF_OP_0_ONLY, 16, 1, FaceEngine.ASF_FACE_RECOGNITION);
+            if (engineCode != ErrorInfo.MOK) {
+                Log.e(TAG, "initSearchEngines: init search engine " + i + " failed! code = " + engineCode);
+                break;
+            }
+            engineList.add(searchEngine);
+        }
+        if (engineList.size() > 1) {
+            Engine[] searchEngines = new Engine[engineList.size()];
+            for (int i = 0; i < searchEngines.length; i++) {
+                searchEngines[i] = new ArcSoftEngine(engineList.get(i));
+            }
+            searchExecutor = Executors.newFixedThreadPool(searchEngines.length - 1);
+            shardedSearcher = new ShardedGallerySearcher(searchEngines, searchExecutor, ShardedGallerySearcher.DEFAULT_MIN_FACES_PER_SHARD) {
+                @Override
+                protected PriorityQueue<Match> searchShard(Engine engine, byte[] feature, FeatureGallery.Snapshot snapshot,
+                                                           int[] candidateIndexes, int from, int to, int topK,
+                                                           float minSimilar, float certainSimilar, AtomicBoolean certainFound) {
+                    return FaceServer.searchShard(engine, engine, feature, snapshot, candidateIndexes, from, to,
+                            topK, minSimilar, certainSimilar, certainFound);
+                }
+
+                @Override
+                protected void onShardFailed(Throwable cause) {
+                    Log.e(TAG, "getTopKOfFaceLib: shard search failed", cause);
+                }
+            };
+        } else {
+            for (FaceEngine searchEngine : engineList) {
+                searchEngine.unInit();
+            }
+        }
+    }
+
+    private void unInitSearchEngines() {
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
+        ShardedGallerySearcher searcher = shardedSearcher;
+        if (searcher != null) {
+            shardedSearcher = null;
+            // 可能仍有分片在比对，对分片搜索加锁的对象加锁防止crash
+            for (int i = 0; i < searcher.getEngineCount(); i++) {
+                Engine searchEngine = searcher.getEngine(i);
+                synchronized (searchEngine) {
+                    ((ArcSoftEngine) searchEngine).getFaceEngine().unInit();
+                }
+            }
         }
     }
 
     /**
      * 初始化人脸特征数据以及人脸特征数据对应的注册图
+     * <p>
+     * 先在锁内发布空的人脸库，再在锁外加载发布时特征库中已有的记录，之后注册的人脸由注册方加入人脸库。
+     * 加载期间人脸库被清空或销毁时，加载的结果不再使用
      *
      * @param context 上下文对象
      */
     private void initFaceList(Context context) {
+        FeatureSlab slab;
+        FaceFeatureStore featureStore;
+        int recordCount;
         synchronized (this) {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            if (!featureDir.exists() || !featureDir.isDirectory()) {
-                return;
+            migrateFeatureDir();
+            featureStore = getFeatureStore();
+            try {
+                recordCount = featureStore.getRecordCount();
+            } catch (IOException e) {
+                e.printStackTrace();
+                recordCount = 0;
+            }
+            slab = new FeatureSlab(recordCount);
+            // 先发布空的人脸库，加载过程中的搜索请求使用已加载的部分
+            featureSlab = slab;
+            CountDownLatch latch = searchReadyLatch;
+            if (latch != null) {
+                latch.countDown();
             }
-            File[] featureFiles = featureDir.listFiles();
-            if (featureFiles == null || featureFiles.length == 0) {
+        }
+        try {
+            featureStore.load(slab, recordCount);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            if (featureSlab != slab) {
                 return;
             }
-            faceRegisterInfoList = new ArrayList<>();
+            faceListLoaded = true;
+            // 在写入线程中按提交顺序清理，不等待，加载过程中提交的注册图先写入完成
+            getRegisterWriter().deleteOrphanImages();
+            initIvfIndex();
+        }
+    }
+
+    private FaceFeatureStore getFeatureStore() {
+        if (faceFeatureStore == null) {
+            faceFeatureStore = new FaceFeatureStore(new File(ROOT_PATH + File.separator + SAVE_FEATURE_FILE));
+        }
+        return faceFeatureStore;
+    }
+
+    private FaceRegisterWriter getRegisterWriter() {
+        if (registerWriter == null) {
+            registerWriter = new FaceRegisterWriter(getFeatureStore(), new File(ROOT_PATH + File.separator + SAVE_IMG_DIR));
+        }
+        return registerWriter;
+    }
+
+    /**
+     * 将旧版本每个人脸一个文件的特征目录一次性迁移到特征库文件中，迁移成功后删除旧目录
+     */
+    private void migrateFeatureDir() {
+        File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
+        if (!featureDir.exists() || !featureDir.isDirectory()) {
+            return;
+        }
+        File[] featureFiles = featureDir.listFiles();
+        if (featureFiles != null && featureFiles.length > 0) {
+            List<FaceRegisterInfo> legacyFaceList = new ArrayList<>();
             for (File featureFile : featureFiles) {
                 try {
                     FileInputStream fis = new FileInputStream(featureFile);
                     byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
-                    fis.read(feature);
+                    int readLength = fis.read(feature);
                     fis.close();
-                    faceRegisterInfoList.add(new FaceRegisterInfo(feature, featureFile.getName()));
+                    if (readLength == FaceFeature.FEATURE_SIZE) {
+                        legacyFaceList.add(new FaceRegisterInfo(feature, featureFile.getName()));
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            try {
+                getFeatureStore().appendAll(legacyFaceList);
+            } catch (IOException e) {
+                Log.e(TAG, "migrateFeatureDir: failed, keep the feature directory", e);
+                return;
+            }
+            for (File featureFile : featureFiles) {
+                featureFile.delete();
+            }
+        }
+        if (featureDir.delete()) {
+            Log.i(TAG, "migrateFeatureDir: " + (featureFiles == null ? 0 : featureFiles.length) + " features migrated");
         }
     }
 
+    /**
+     * 获取已注册的人脸数，同名人脸只计一次
+     *
+     * @param context 上下文对象
+     * @return 人脸数，人脸库加载过程中返回已加载的人脸数
+     */
     public int getFaceNumber(Context context) {
         synchronized (this) {
             if (context == null) {
@@ -143,19 +563,36 @@ public class FaceServer {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
 
-            File featureFileDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            int featureCount = 0;
-            if (featureFileDir.exists() && featureFileDir.isDirectory()) {
-                String[] featureFiles = featureFileDir.list();
-                featureCount = featureFiles == null ? 0 : featureFiles.length;
+            // 以特征库为准，注册图由写入线程异步写入。内存中的人脸库包含同名的旧特征，不能直接使用其大小
+            int nameCount = getFeatureStore().getNameCount();
+            if (nameCount >= 0) {
+                return nameCount;
             }
-            int imageCount = 0;
-            File imgFileDir = new File(ROOT_PATH + File.separator + SAVE_IMG_DIR);
-            if (imgFileDir.exists() && imgFileDir.isDirectory()) {
-                String[] imageFiles = imgFileDir.list();
-                imageCount = imageFiles == null ? 0 : imageFiles.length;
+            // 加载过程中特征库被加载线程占用，不等待
+            if (featureSlab != null) {
+                return featureSlab.size();
+            }
+            try {
+                return getFeatureStore().getNames().size();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return 0;
             }
-            return featureCount > imageCount ? imageCount : featureCount;
+        }
+    }
+
+    /**
+     * 创建批量注册清单，用于跳过已注册的图片
+     *
+     * @param context 上下文对象
+     * @return 批量注册清单
+     */
+    public EnrollManifest createEnrollManifest(Context context) {
+        synchronized (this) {
+            if (ROOT_PATH == null) {
+                ROOT_PATH = context.getFilesDir().getAbsolutePath();
+            }
+            return new EnrollManifest(new File(ROOT_PATH + File.separator + SAVE_ENROLL_MANIFEST_FILE));
         }
     }
 
@@ -167,34 +604,21 @@ public class FaceServer {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            if (faceRegisterInfoList != null) {
-                faceRegisterInfoList.clear();
-            }
-            File featureFileDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            int deletedFeatureCount = 0;
-            if (featureFileDir.exists() && featureFileDir.isDirectory()) {
-                File[] featureFiles = featureFileDir.listFiles();
-                if (featureFiles != null && featureFiles.length > 0) {
-                    for (File featureFile : featureFiles) {
-                        if (featureFile.delete()) {
-                            deletedFeatureCount++;
-                        }
-                    }
-                }
+            if (ivfBuildExecutor != null) {
+                ivfBuildExecutor.shutdownNow();
+                ivfBuildExecutor = null;
             }
-            int deletedImageCount = 0;
-            File imgFileDir = new File(ROOT_PATH + File.separator + SAVE_IMG_DIR);
-            if (imgFileDir.exists() && imgFileDir.isDirectory()) {
-                File[] imgFiles = imgFileDir.listFiles();
-                if (imgFiles != null && imgFiles.length > 0) {
-                    for (File imgFile : imgFiles) {
-                        if (imgFile.delete()) {
-                            deletedImageCount++;
-                        }
-                    }
-                }
+            ivfIndex = null;
+            new File(ROOT_PATH + File.separator + SAVE_IVF_INDEX_FILE).delete();
+            if (featureSlab != null) {
+                // 正在进行的搜索仍使用原人脸库，正在进行的加载不再使用
+                featureSlab = new FeatureSlab();
+                faceListLoaded = true;
             }
-            return deletedFeatureCount > deletedImageCount ? deletedImageCount : deletedFeatureCount;
+            galleryGeneration++;
+            new File(ROOT_PATH + File.separator + SAVE_ENROLL_MANIFEST_FILE).delete();
+            // 由写入线程在已提交的注册写入后清空
+            return getRegisterWriter().clear().await();
         }
     }
 
@@ -210,6 +634,10 @@ public class FaceServer {
      * @return 是否注册成功
      */
     public boolean registerNv21(Context context, byte[] nv21, int width, int height, FaceInfo faceInfo, String name) {
+        FaceRegisterWriter.WriteRequest writeRequest;
+        String userName;
+        byte[] feature;
+        int generation;
         synchronized (this) {
             if (faceEngine == null || context == null || nv21 == null || width % 4 != 0 || nv21.length != width * height * 3 / 2) {
                 Log.e(TAG, "registerNv21: invalid params");
@@ -219,69 +647,29 @@ public class FaceServer {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            //特征存储的文件夹
-            File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            if (!featureDir.exists() && !featureDir.mkdirs()) {
-                Log.e(TAG, "registerNv21: can not create feature directory");
-                return false;
-            }
-            //图片存储的文件夹
-            File imgDir = new File(ROOT_PATH + File.separator + SAVE_IMG_DIR);
-            if (!imgDir.exists() && !imgDir.mkdirs()) {
-                Log.e(TAG, "registerNv21: can not create image directory");
-                return false;
-            }
             FaceFeature faceFeature = new FaceFeature();
-            //特征提取
-            int code = faceEngine.extractFaceFeature(nv21, width, height, FaceEngine.CP_PAF_NV21, faceInfo, faceFeature);
+            //特征提取，引擎同时用于搜索，需加锁
+            int code;
+            synchronized (faceEngine) {
+                code = faceEngine.extractFaceFeature(nv21, width, height, FaceEngine.CP_PAF_NV21, faceInfo, faceFeature);
+            }
             if (code != ErrorInfo.MOK) {
                 Log.e(TAG, "registerNv21: extractFaceFeature failed , code is " + code);
                 return false;
-            } else {
-
-                String userName = name == null ? String.valueOf(System.currentTimeMillis()) : name;
-                try {
-                    // 保存注册结果（注册图、特征数据）
-                    // 为了美观，扩大rect截取注册图
-                    Rect cropRect = getBestRect(width, height, faceInfo.getRect());
-                    if (cropRect == null) {
-                        Log.e(TAG, "registerNv21: cropRect is null!");
-                        return false;
-                    }
-
-                    cropRect.left &= ~3;
-                    cropRect.top &= ~3;
-                    cropRect.right &= ~3;
-                    cropRect.bottom &= ~3;
-
-                    File file = new File(imgDir + File.separator + userName + IMG_SUFFIX);
-
-
-                    // 创建一个头像的Bitmap，存放旋转结果图
-                    Bitmap headBmp = getHeadImage(nv21, width, height, faceInfo.getOrient(), cropRect, ArcSoftImageFormat.NV21);
-
-                    FileOutputStream fosImage = new FileOutputStream(file);
-                    headBmp.compress(Bitmap.CompressFormat.JPEG, 100, fosImage);
-                    fosImage.close();
-
-
-                    FileOutputStream fosFeature = new FileOutputStream(featureDir + File.separator + userName);
-                    fosFeature.write(faceFeature.getFeatureData());
-                    fosFeature.close();
-
-                    //内存中的数据同步
-                    if (faceRegisterInfoList == null) {
-                        faceRegisterInfoList = new ArrayList<>();
-                    }
-                    faceRegisterInfoList.add(new FaceRegisterInfo(faceFeature.getFeatureData(), userName));
-                    return true;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-                }
             }
-        }
+            userName = name == null ? String.valueOf(System.currentTimeMillis()) : name;
+            Bitmap headBmp = cropHeadImage(nv21, width, height, faceInfo, ArcSoftImageFormat.NV21);
+            if (headBmp == null) {
+                Log.e(TAG, "registerNv21: cropRect is null!");
+                return false;
+            }
 
+            // 保存注册结果（注册图、特征数据）由写入线程完成
+            feature = faceFeature.getFeatureData();
+            writeRequest = getRegisterWriter().register(userName, feature, headBmp);
+            generation = galleryGeneration;
+        }
+        return commitRegister(writeRequest, userName, feature, generation);
     }
 
     /**
@@ -295,6 +683,10 @@ public class FaceServer {
      * @return 是否注册成功
      */
     public boolean registerBgr24(Context context, byte[] bgr24, int width, int height, String name) {
+        FaceRegisterWriter.WriteRequest writeRequest;
+        String userName;
+        byte[] feature;
+        int generation;
         synchronized (this) {
             if (faceEngine == null || context == null || bgr24 == null || width % 4 != 0 || bgr24.length != width * height * 3) {
                 Log.e(TAG, "registerBgr24:  invalid params");
@@ -304,77 +696,115 @@ public class FaceServer {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            //特征存储的文件夹
-            File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            if (!featureDir.exists() && !featureDir.mkdirs()) {
-                Log.e(TAG, "registerBgr24: can not create feature directory");
+            //人脸检测，引擎同时用于搜索，需加锁
+            List<FaceInfo> faceInfoList = new ArrayList<>();
+            FaceFeature faceFeature = new FaceFeature();
+            int code;
+            synchronized (faceEngine) {
+                code = faceEngine.detectFaces(bgr24, width, height, FaceEngine.CP_PAF_BGR24, faceInfoList);
+                if (code != ErrorInfo.MOK || faceInfoList.size() == 0) {
+                    Log.e(TAG, "registerBgr24: no face detected, code is " + code);
+                    return false;
+                }
+                //特征提取
+                code = faceEngine.extractFaceFeature(bgr24, width, height, FaceEngine.CP_PAF_BGR24, faceInfoList.get(0), faceFeature);
+            }
+            if (code != ErrorInfo.MOK) {
+                Log.e(TAG, "registerBgr24: extract face feature failed, code is " + code);
                 return false;
             }
-            //图片存储的文件夹
-            File imgDir = new File(ROOT_PATH + File.separator + SAVE_IMG_DIR);
-            if (!imgDir.exists() && !imgDir.mkdirs()) {
-                Log.e(TAG, "registerBgr24: can not create image directory");
+            userName = name == null ? String.valueOf(System.currentTimeMillis()) : name;
+            Bitmap headBmp = cropHeadImage(bgr24, width, height, faceInfoList.get(0), ArcSoftImageFormat.BGR24);
+            if (headBmp == null) {
+                Log.e(TAG, "registerBgr24: cropRect is null");
                 return false;
             }
-            //人脸检测
-            List<FaceInfo> faceInfoList = new ArrayList<>();
-            int code = faceEngine.detectFaces(bgr24, width, height, FaceEngine.CP_PAF_BGR24, faceInfoList);
-            if (code == ErrorInfo.MOK && faceInfoList.size() > 0) {
-                FaceFeature faceFeature = new FaceFeature();
-
-                //特征提取
-                code = faceEngine.extractFaceFeature(bgr24, width, height, FaceEngine.CP_PAF_BGR24, faceInfoList.get(0), faceFeature);
-                String userName = name == null ? String.valueOf(System.currentTimeMillis()) : name;
-                try {
-                    //保存注册结果（注册图、特征数据）
-                    if (code == ErrorInfo.MOK) {
-                        //为了美观，扩大rect截取注册图
-                        Rect cropRect = getBestRect(width, height, faceInfoList.get(0).getRect());
-                        if (cropRect == null) {
-                            Log.e(TAG, "registerBgr24: cropRect is null");
-                            return false;
-                        }
-
-                        cropRect.left &= ~3;
-                        cropRect.top &= ~3;
-                        cropRect.right &= ~3;
-                        cropRect.bottom &= ~3;
-
-                        File file = new File(imgDir + File.separator + userName + IMG_SUFFIX);
-                        FileOutputStream fosImage = new FileOutputStream(file);
 
+            // 保存注册结果（注册图、特征数据）由写入线程完成
+            feature = faceFeature.getFeatureData();
+            writeRequest = getRegisterWriter().register(userName, feature, headBmp);
+            generation = galleryGeneration;
+        }
+        return commitRegister(writeRequest, userName, feature, generation);
+    }
 
-                        // 创建一个头像的Bitmap，存放旋转结果图
-                        Bitmap headBmp = getHeadImage(bgr24, width, height, faceInfoList.get(0).getOrient(), cropRect, ArcSoftImageFormat.BGR24);
-                        // 保存到本地
-                        headBmp.compress(Bitmap.CompressFormat.JPEG, 100, fosImage);
-                        fosImage.close();
-
-                        // 保存特征数据
-                        FileOutputStream fosFeature = new FileOutputStream(featureDir + File.separator + userName);
-                        fosFeature.write(faceFeature.getFeatureData());
-                        fosFeature.close();
-
-                        // 内存中的数据同步
-                        if (faceRegisterInfoList == null) {
-                            faceRegisterInfoList = new ArrayList<>();
-                        }
-                        faceRegisterInfoList.add(new FaceRegisterInfo(faceFeature.getFeatureData(), userName));
-                        return true;
-                    } else {
-                        Log.e(TAG, "registerBgr24: extract face feature failed, code is " + code);
-                        return false;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-                }
-            } else {
-                Log.e(TAG, "registerBgr24: no face detected, code is " + code);
+    /**
+     * 注册已提取的特征，用于在其他引擎上完成特征提取的场景，如批量注册。
+     * 未初始化或已销毁时返回false，销毁后仍在运行的批量注册不会重新创建写入线程
+     *
+     * @param context 上下文对象
+     * @param name    保存的名字
+     * @param feature 特征数据
+     * @param headBmp 注册图，写入后回收，可为null
+     * @return 是否注册成功
+     */
+    public boolean registerFeature(Context context, String name, byte[] feature, Bitmap headBmp) {
+        FaceRegisterWriter.WriteRequest writeRequest;
+        int generation;
+        synchronized (this) {
+            if (context == null || name == null || feature == null || feature.length != FaceFeature.FEATURE_SIZE) {
+                Log.e(TAG, "registerFeature: invalid params");
+                return false;
+            }
+            if (faceEngine == null) {
+                Log.e(TAG, "registerFeature: face server is not initialized");
                 return false;
             }
+            if (ROOT_PATH == null) {
+                ROOT_PATH = context.getFilesDir().getAbsolutePath();
+            }
+            writeRequest = getRegisterWriter().register(name, feature, headBmp);
+            generation = galleryGeneration;
+        }
+        return commitRegister(writeRequest, name, feature, generation);
+    }
+
+    /**
+     * 等待特征数据写入特征库后，将人脸加入内存中的人脸库。等待期间不持有锁，其他注册请求可以同时提交，由写入线程一并写入
+     *
+     * @param writeRequest 写入请求
+     * @param userName     名字
+     * @param feature      特征数据
+     * @param generation   提交时的{@link #galleryGeneration}
+     * @return 是否注册成功
+     */
+    private boolean commitRegister(FaceRegisterWriter.WriteRequest writeRequest, String userName, byte[] feature, int generation) {
+        if (writeRequest.await() == 0) {
+            Log.e(TAG, "commitRegister: write feature of " + userName + " failed");
+            return false;
+        }
+        synchronized (this) {
+            // 内存中的数据同步，写入期间人脸库被清空或销毁则不再加入
+            if (generation == galleryGeneration && featureSlab != null) {
+                addToFaceList(userName, feature);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 为了美观，扩大人脸框截取注册图并旋转
+     *
+     * @param imageData   图像数据
+     * @param width       图像宽度
+     * @param height      图像高度
+     * @param faceInfo    人脸信息
+     * @param imageFormat 图像格式
+     * @return 注册图，人脸框无效时返回null
+     */
+    static Bitmap cropHeadImage(byte[] imageData, int width, int height, FaceInfo faceInfo, ArcSoftImageFormat imageFormat) {
+        Rect cropRect = getBestRect(width, height, faceInfo.getRect());
+        if (cropRect == null) {
+            return null;
         }
 
+        cropRect.left &= ~3;
+        cropRect.top &= ~3;
+        cropRect.right &= ~3;
+        cropRect.bottom &= ~3;
+
+        // 创建一个头像的Bitmap，存放旋转结果图
+        return getHeadImage(imageData, width, height, faceInfo.getOrient(), cropRect, imageFormat);
     }
 
     /**
@@ -388,7 +818,7 @@ public class FaceServer {
      * @param imageFormat     图像格式
      * @return 头像的图像数据
      */
-    private Bitmap getHeadImage(byte[] originImageData, int width, int height, int orient, Rect cropRect, ArcSoftImageFormat imageFormat) {
+    private static Bitmap getHeadImage(byte[] originImageData, int width, int height, int orient, Rect cropRect, ArcSoftImageFormat imageFormat) {
         byte[] headImageData = ArcSoftImageUtil.createImageData(cropRect.width(), cropRect.height(), imageFormat);
         int cropCode = ArcSoftImageUtil.cropImage(originImageData, headImageData, width, height, cropRect, imageFormat);
         if (cropCode != ArcSoftImageUtilError.CODE_SUCCESS) {
@@ -447,27 +877,138 @@ public class FaceServer {
      * @return 比对结果
      */
     public CompareResult getTopOfFaceLib(FaceFeature faceFeature) {
-        if (faceEngine == null || isProcessing || faceFeature == null || faceRegisterInfoList == null || faceRegisterInfoList.size() == 0) {
+        return getTopOfFaceLib(faceFeature, NO_CERTAIN_SIMILAR);
+    }
+
+    /**
+     * 在特征库中搜索，找到相似度不低于certainSimilar的人脸后立即停止搜索并返回该人脸
+     *
+     * @param faceFeature    传入特征数据
+     * @param certainSimilar 可确定为同一人的相似度，传入{@link #NO_CERTAIN_SIMILAR}则搜索整个人脸库
+     * @return 比对结果
+     */
+    public CompareResult getTopOfFaceLib(FaceFeature faceFeature, float certainSimilar) {
+        // 与之前保持一致，相似度需大于0
+        List<CompareResult> compareResultList = getTopKOfFaceLib(faceFeature, 1, Float.MIN_VALUE, certainSimilar);
+        if (compareResultList == null || compareResultList.isEmpty()) {
             return null;
         }
-        FaceFeature tempFaceFeature = new FaceFeature();
-        FaceSimilar faceSimilar = new FaceSimilar();
-        float maxSimilar = 0;
-        int maxSimilarIndex = -1;
-        isProcessing = true;
-        for (int i = 0; i < faceRegisterInfoList.size(); i++) {
-            tempFaceFeature.setFeatureData(faceRegisterInfoList.get(i).getFeatureData());
-            faceEngine.compareFaceFeature(faceFeature, tempFaceFeature, faceSimilar);
-            if (faceSimilar.getScore() > maxSimilar) {
-                maxSimilar = faceSimilar.getScore();
-                maxSimilarIndex = i;
+        return compareResultList.get(0);
+    }
+
+    /**
+     * 在特征库中搜索相似度最高的K个人脸
+     *
+     * @param faceFeature 传入特征数据
+     * @param topK        最多返回的人脸数
+     * @param minSimilar  最低相似度，低于该值的人脸不会被返回
+     * @return 按相似度从高到低排列的比对结果
+     */
+    public List<CompareResult> getTopKOfFaceLib(FaceFeature faceFeature, int topK, float minSimilar) {
+        return getTopKOfFaceLib(faceFeature, topK, minSimilar, NO_CERTAIN_SIMILAR);
+    }
+
+    /**
+     * 在特征库中搜索相似度最高的K个人脸，使用大小为K的最小堆保存候选结果
+     *
+     * @param faceFeature    传入特征数据
+     * @param topK           最多返回的人脸数
+     * @param minSimilar     最低相似度，低于该值的人脸不会被返回
+     * @param certainSimilar 可确定为同一人的相似度，找到不低于该值的人脸后立即停止搜索，传入{@link #NO_CERTAIN_SIMILAR}则搜索整个人脸库
+     * @return 按相似度从高到低排列的比对结果
+     */
+    public List<CompareResult> getTopKOfFaceLib(FaceFeature faceFeature, int topK, float minSimilar, float certainSimilar) {
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        long searchStartTime = tracer.begin();
+        try {
+            return searchTopK(faceFeature, topK, minSimilar, certainSimilar);
+        } finally {
+            tracer.end("getTopKOfFaceLib", PipelineTracer.NO_TRACK, searchStartTime);
+        }
+    }
+
+    /**
+     * {@link #getTopKOfFaceLib(FaceFeature, int, float, float)}的实现，各步骤的耗时区间记录在{@link PipelineTracer}中
+     */
+    private List<CompareResult> searchTopK(FaceFeature faceFeature, int topK, float minSimilar, float certainSimilar) {
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        CountDownLatch latch = searchReadyLatch;
+        if (latch != null) {
+            long waitStartTime = tracer.begin();
+            try {
+                latch.await(SEARCH_READY_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                tracer.end("searchReadyWait", PipelineTracer.NO_TRACK, waitStartTime);
             }
         }
-        isProcessing = false;
-        if (maxSimilarIndex != -1) {
-            return new CompareResult(faceRegisterInfoList.get(maxSimilarIndex).getName(), maxSimilar);
+        // 在当前版本的快照上搜索，搜索过程中注册或清空的人脸不影响本次结果
+        FeatureSlab slab = featureSlab;
+        FeatureSlab.Snapshot snapshot = slab == null ? null : slab.snapshot();
+        FaceEngine engine = faceEngine;
+        if (engine == null || faceFeature == null || topK <= 0 || snapshot == null || snapshot.size() == 0) {
+            return null;
+        }
+        // 使用IVF索引时，只精确比对候选人脸
+        int[] candidateIndexes = null;
+        FeatureIvfIndex index = ivfIndex;
+        int probeCount = ivfProbeCount;
+        if (index != null && probeCount > 0) {
+            long ivfStartTime = tracer.begin();
+            candidateIndexes = index.search(faceFeature.getFeatureData(), probeCount);
+            tracer.end("ivfSearch", PipelineTracer.NO_TRACK, ivfStartTime);
+        }
+        ShardedGallerySearcher searcher = shardedSearcher;
+        if (searcher != null) {
+            List<Match> matchList = searcher.search(faceFeature.getFeatureData(), snapshot, candidateIndexes, topK, minSimilar, certainSimilar);
+            return matchList == null ? null : toCompareResultList(matchList);
+        }
+        // 同时到达的搜索请求在引擎上排队
+        int candidateCount = candidateIndexes == null ? snapshot.size() : candidateIndexes.length;
+        PriorityQueue<Match> topKQueue = searchShard(engine, new ArcSoftEngine(engine), faceFeature.getFeatureData(), snapshot,
+                candidateIndexes, 0, candidateCount, topK, minSimilar, certainSimilar, new AtomicBoolean(false));
+        return toCompareResultList(GallerySearcher.sortDescending(topKQueue));
+    }
+
+    /**
+     * 在人脸库的一个分片中搜索，比对逻辑见{@link GallerySearcher#searchRange}
+     *
+     * @param lock             搜索时加锁的对象，销毁引擎前也对其加锁
+     * @param engine           该分片使用的比对引擎
+     * @param feature          传入特征数据
+     * @param snapshot         人脸库快照
+     * @param candidateIndexes 候选人脸的下标，为null时分片下标即人脸库下标
+     * @param from             分片起始下标（包含）
+     * @param to               分片结束下标（不包含）
+     * @param topK             最多保留的人脸数
+     * @param minSimilar       最低相似度
+     * @param certainSimilar   可确定为同一人的相似度
+     * @param certainFound     各分片共享的标志，已找到可确定的人脸时所有分片停止搜索
+     * @return 该分片中相似度最高的K个人脸，以最小堆的形式保存
+     */
+    private static PriorityQueue<Match> searchShard(Object lock, Engine engine, byte[] feature, FeatureGallery.Snapshot snapshot,
+                                                    int[] candidateIndexes, int from, int to, int topK, float minSimilar, float certainSimilar,
+                                                    AtomicBoolean certainFound) {
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        long lockStartTime = tracer.begin();
+        synchronized (lock) {
+            tracer.end("searchEngineLock", PipelineTracer.NO_TRACK, lockStartTime);
+            long shardStartTime = tracer.begin();
+            PriorityQueue<Match> topKQueue = GallerySearcher.searchRange(engine, feature, snapshot,
+                    candidateIndexes, from, to, topK, minSimilar, certainSimilar, certainFound);
+            tracer.end("searchShard", PipelineTracer.NO_TRACK, shardStartTime);
+            return topKQueue;
+        }
+    }
+
+    private static List<CompareResult> toCompareResultList(List<Match> matchList) {
+        List<CompareResult> compareResultList = new ArrayList<>(matchList.size());
+        for (Match match : matchList) {
+            compareResultList.add(new CompareResult(match.getName(), match.getSimilar()));
         }
-        return null;
+        return compareResultList;
     }
 
     /**
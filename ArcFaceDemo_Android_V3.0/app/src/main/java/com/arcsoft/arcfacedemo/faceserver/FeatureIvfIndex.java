@@ -0,0 +1,405 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.arcfacedemo.core.FeatureGallery;
+import com.arcsoft.face.FaceFeature;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 人脸特征的IVF（倒排文件）近似最近邻索引
+ * <p>
+ * 使用球面k-means将特征向量聚为若干类，搜索时只取出与查询向量最接近的若干个类中的人脸作为候选，
+ * 候选人脸再由{@link com.arcsoft.face.FaceEngine#compareFaceFeature}精确比对排序。
+ * 探查的类越多，召回率越高，速度越慢。
+ * <p>
+ * 特征数据的前{@link #FEATURE_HEADER_SIZE}字节为头部，其后为小端序的float向量，
+ * 索引只用于筛选候选，向量的内积与引擎的相似度不需要完全一致
+ * <p>
+ * 索引中保存的是人脸库的槽位，重新加载特征库时同名记录只保留最后一条，槽位可能与保存时不同，
+ * 因此保存时按槽位记录名字、特征数据的摘要和所属的类，加载时按名字对应到当前的槽位。
+ * 保存后新注册的人脸和重复注册后特征变化的人脸分配到最近的类，不需要重新训练
+ */
+public class FeatureIvfIndex {
+    private static final int MAGIC = 0x41464956;
+    private static final int VERSION = 3;
+    /**
+     * 特征数据头部长度
+     */
+    public static final int FEATURE_HEADER_SIZE = 8;
+    /**
+     * 特征向量维数
+     */
+    public static final int DIMENSION = (FaceFeature.FEATURE_SIZE - FEATURE_HEADER_SIZE) / 4;
+    /**
+     * k-means训练时每个类最多使用的样本数
+     */
+    private static final int MAX_TRAIN_SAMPLES_PER_LIST = 64;
+
+    /**
+     * 聚类中心，nlist * DIMENSION
+     */
+    private final float[] centroids;
+    private final int listCount;
+    /**
+     * 每个类中的人脸下标
+     */
+    private final int[][] lists;
+    private final int[] listSizes;
+    /**
+     * 每个槽位所属的类，未加入的槽位为-1
+     */
+    private int[] slotLists = new int[0];
+    /**
+     * 每个槽位特征数据的摘要，加载时判断特征是否变化
+     */
+    private int[] slotFingerprints = new int[0];
+    private int vectorCount;
+    /**
+     * 训练时的人脸数，人脸库增长较多时需要重新训练
+     */
+    private final int trainedCount;
+    /**
+     * 是否有尚未保存的修改
+     */
+    private boolean dirty;
+
+    private FeatureIvfIndex(float[] centroids, int listCount, int trainedCount) {
+        this.centroids = centroids;
+        this.listCount = listCount;
+        this.trainedCount = trainedCount;
+        this.lists = new int[listCount][];
+        this.listSizes = new int[listCount];
+        for (int i = 0; i < listCount; i++) {
+            lists[i] = new int[4];
+        }
+    }
+
+    /**
+     * 将特征数据转换为单位长度的特征向量
+     *
+     * @param feature 特征数据
+     * @param vector  输出的特征向量，长度为{@link #DIMENSION}
+     */
+    public static void toVector(byte[] feature, float[] vector) {
+        ByteBuffer buffer = ByteBuffer.wrap(feature, FEATURE_HEADER_SIZE, DIMENSION * 4).order(ByteOrder.LITTLE_ENDIAN);
+        float norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            float value = buffer.getFloat();
+            // 异常数据按0处理，避免污染聚类中心
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                value = 0;
+            }
+            vector[i] = value;
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * 训练索引并加入所有人脸
+     *
+     * @param featureSlab 人脸库
+     * @param count       参与训练的人脸数，即人脸库中的前count个人脸
+     * @param listCount   聚类数，一般取人脸数的平方根
+     * @param iterations  k-means迭代次数
+     * @param seed        随机数种子
+     * @return 训练好的索引
+     */
+    public static FeatureIvfIndex train(FeatureSlab featureSlab, int count, int listCount, int iterations, long seed) {
+        if (count == 0 || listCount <= 0) {
+            throw new IllegalArgumentException("no feature to train, count = " + count + ", listCount = " + listCount);
+        }
+        listCount = Math.min(listCount, count);
+        Random random = new Random(seed);
+
+        // 采样
+        int sampleCount = Math.min(count, listCount * MAX_TRAIN_SAMPLES_PER_LIST);
+        int[] sampleIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sampleIndexes[i] = i;
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            int j = i + random.nextInt(count - i);
+            int temp = sampleIndexes[i];
+            sampleIndexes[i] = sampleIndexes[j];
+            sampleIndexes[j] = temp;
+        }
+        float[] samples = new float[sampleCount * DIMENSION];
+        float[] vector = new float[DIMENSION];
+        FeatureSlab.Reader reader = featureSlab.newReader();
+        for (int i = 0; i < sampleCount; i++) {
+            toVector(reader.read(sampleIndexes[i]), vector);
+            System.arraycopy(vector, 0, samples, i * DIMENSION, DIMENSION);
+        }
+
+        // 以前listCount个样本作为初始聚类中心
+        float[] centroids = Arrays.copyOf(samples, listCount * DIMENSION);
+        int[] assignments = new int[sampleCount];
+        float[] sums = new float[listCount * DIMENSION];
+        int[] sizes = new int[listCount];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int i = 0; i < sampleCount; i++) {
+                assignments[i] = nearestCentroid(centroids, listCount, samples, i * DIMENSION);
+            }
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < sampleCount; i++) {
+                int offset = assignments[i] * DIMENSION;
+                for (int d = 0; d < DIMENSION; d++) {
+                    sums[offset + d] += samples[i * DIMENSION + d];
+                }
+                sizes[assignments[i]]++;
+            }
+            for (int c = 0; c < listCount; c++) {
+                int offset = c * DIMENSION;
+                if (sizes[c] == 0) {
+                    // 空类，随机选一个样本作为新的中心
+                    System.arraycopy(samples, random.nextInt(sampleCount) * DIMENSION, centroids, offset, DIMENSION);
+                    continue;
+                }
+                float norm = 0;
+                for (int d = 0; d < DIMENSION; d++) {
+                    norm += sums[offset + d] * sums[offset + d];
+                }
+                float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+                for (int d = 0; d < DIMENSION; d++) {
+                    centroids[offset + d] = sums[offset + d] * scale;
+                }
+            }
+        }
+
+        FeatureIvfIndex index = new FeatureIvfIndex(centroids, listCount, count);
+        for (int i = 0; i < count; i++) {
+            index.add(i, reader.read(i));
+        }
+        return index;
+    }
+
+    /**
+     * 加入一个人脸，每个槽位只能加入一次
+     *
+     * @param faceIndex 人脸在人脸库中的下标
+     * @param feature   特征数据
+     */
+    public synchronized void add(int faceIndex, byte[] feature) {
+        float[] vector = new float[DIMENSION];
+        toVector(feature, vector);
+        assign(faceIndex, nearestCentroid(centroids, listCount, vector, 0), fingerprintOf(feature));
+        dirty = true;
+    }
+
+    private void assign(int faceIndex, int list, int fingerprint) {
+        if (faceIndex >= slotLists.length) {
+            int oldLength = slotLists.length;
+            int newLength = Math.max(faceIndex + 1, oldLength * 2);
+            slotLists = Arrays.copyOf(slotLists, newLength);
+            Arrays.fill(slotLists, oldLength, newLength, -1);
+            slotFingerprints = Arrays.copyOf(slotFingerprints, newLength);
+        }
+        slotLists[faceIndex] = list;
+        slotFingerprints[faceIndex] = fingerprint;
+        if (listSizes[list] == lists[list].length) {
+            lists[list] = Arrays.copyOf(lists[list], lists[list].length * 2);
+        }
+        lists[list][listSizes[list]++] = faceIndex;
+        vectorCount++;
+    }
+
+    private static int fingerprintOf(byte[] feature) {
+        return Arrays.hashCode(feature);
+    }
+
+    /**
+     * 搜索候选人脸
+     *
+     * @param feature    查询的特征数据
+     * @param probeCount 探查的类数
+     * @return 候选人脸在人脸库中的下标
+     */
+    public int[] search(byte[] feature, int probeCount) {
+        float[] vector = new float[DIMENSION];
+        toVector(feature, vector);
+        probeCount = Math.max(1, Math.min(probeCount, listCount));
+        // 选出内积最大的probeCount个类
+        int[] probeLists = new int[probeCount];
+        float[] probeScores = new float[probeCount];
+        Arrays.fill(probeScores, -Float.MAX_VALUE);
+        for (int c = 0; c < listCount; c++) {
+            float score = dot(centroids, c * DIMENSION, vector, 0);
+            if (score <= probeScores[probeCount - 1]) {
+                continue;
+            }
+            int position = probeCount - 1;
+            while (position > 0 && probeScores[position - 1] < score) {
+                probeScores[position] = probeScores[position - 1];
+                probeLists[position] = probeLists[position - 1];
+                position--;
+            }
+            probeScores[position] = score;
+            probeLists[position] = c;
+        }
+        synchronized (this) {
+            int candidateCount = 0;
+            for (int list : probeLists) {
+                candidateCount += listSizes[list];
+            }
+            int[] candidates = new int[candidateCount];
+            int offset = 0;
+            for (int list : probeLists) {
+                System.arraycopy(lists[list], 0, candidates, offset, listSizes[list]);
+                offset += listSizes[list];
+            }
+            return candidates;
+        }
+    }
+
+    public synchronized int getVectorCount() {
+        return vectorCount;
+    }
+
+    public int getTrainedCount() {
+        return trainedCount;
+    }
+
+    public int getListCount() {
+        return listCount;
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * 保存索引
+     *
+     * @param indexFile 索引文件
+     * @param snapshot  建立索引的人脸库快照，至少包含索引中的所有槽位，用于记录各槽位的名字
+     * @throws IOException 写入失败
+     */
+    public synchronized void save(File indexFile, FeatureGallery.Snapshot snapshot) throws IOException {
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(DIMENSION);
+            dos.writeInt(listCount);
+            dos.writeInt(trainedCount);
+            dos.writeInt(vectorCount);
+            for (float value : centroids) {
+                dos.writeFloat(value);
+            }
+            // 按槽位顺序写入，同名的槽位加载时以最后一个为准，与特征库相同
+            for (int slot = 0; slot < slotLists.length; slot++) {
+                if (slotLists[slot] < 0) {
+                    continue;
+                }
+                dos.writeUTF(snapshot.getName(slot));
+                dos.writeInt(slotFingerprints[slot]);
+                dos.writeInt(slotLists[slot]);
+            }
+        } finally {
+            dos.close();
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("can not rename " + tempFile + " to " + indexFile);
+        }
+        dirty = false;
+    }
+
+    /**
+     * 加载索引，并按名字将保存时的槽位对应到人脸库当前的槽位。
+     * 名字和特征数据都与保存时相同的人脸沿用保存的类，其余人脸（保存后注册、重复注册后特征变化的人脸）
+     * 分配到最近的类，此时索引有尚未保存的修改
+     *
+     * @param indexFile 索引文件
+     * @param snapshot  当前的人脸库快照，其中的所有人脸都会加入索引
+     * @return 索引，文件不存在时返回null
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public static FeatureIvfIndex load(File indexFile, FeatureGallery.Snapshot snapshot) throws IOException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        FeatureIvfIndex index;
+        // 名字对应保存时的特征摘要和所属的类
+        Map<String, int[]> savedSlotMap;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || dis.readInt() != DIMENSION) {
+                throw new IOException("unknown ivf index format: " + indexFile);
+            }
+            int listCount = dis.readInt();
+            int trainedCount = dis.readInt();
+            int savedCount = dis.readInt();
+            float[] centroids = new float[listCount * DIMENSION];
+            for (int i = 0; i < centroids.length; i++) {
+                centroids[i] = dis.readFloat();
+            }
+            index = new FeatureIvfIndex(centroids, listCount, trainedCount);
+            savedSlotMap = new HashMap<>(savedCount * 2);
+            for (int i = 0; i < savedCount; i++) {
+                String name = dis.readUTF();
+                int fingerprint = dis.readInt();
+                int list = dis.readInt();
+                if (list < 0 || list >= listCount) {
+                    throw new IOException("invalid list " + list + " in ivf index: " + indexFile);
+                }
+                savedSlotMap.put(name, new int[]{fingerprint, list});
+            }
+        } finally {
+            dis.close();
+        }
+        FeatureGallery.Reader reader = snapshot.newReader();
+        for (int slot = 0; slot < snapshot.size(); slot++) {
+            byte[] feature = reader.read(slot);
+            int[] savedSlot = savedSlotMap.get(snapshot.getName(slot));
+            int fingerprint = fingerprintOf(feature);
+            if (savedSlot != null && savedSlot[0] == fingerprint) {
+                index.assign(slot, savedSlot[1], fingerprint);
+            } else {
+                index.add(slot, feature);
+            }
+        }
+        return index;
+    }
+
+    private static int nearestCentroid(float[] centroids, int listCount, float[] vector, int vectorOffset) {
+        int nearest = 0;
+        float maxScore = -Float.MAX_VALUE;
+        for (int c = 0; c < listCount; c++) {
+            float score = dot(centroids, c * DIMENSION, vector, vectorOffset);
+            if (score > maxScore) {
+                maxScore = score;
+                nearest = c;
+            }
+        }
+        return nearest;
+    }
+
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        float sum = 0;
+        for (int d = 0; d < DIMENSION; d++) {
+            sum += a[aOffset + d] * b[bOffset + d];
+        }
+        return sum;
+    }
+}
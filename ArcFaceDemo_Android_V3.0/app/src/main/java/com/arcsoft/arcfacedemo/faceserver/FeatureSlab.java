@@ -0,0 +1,23 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.arcfacedemo.core.FeatureGallery;
+import com.arcsoft.face.FaceFeature;
+
+/**
+ * ArcSoft引擎特征长度的人脸库，实现见{@link FeatureGallery}
+ * <p>
+ * 所有特征按槽位连续存放在同一块堆外内存中，读取方通过{@link #snapshot()}取得某一版本后无需加锁即可读取
+ */
+public class FeatureSlab extends FeatureGallery {
+
+    public FeatureSlab() {
+        super(FaceFeature.FEATURE_SIZE);
+    }
+
+    /**
+     * @param capacity 初始容量，容量不足时自动扩容
+     */
+    public FeatureSlab(int capacity) {
+        super(FaceFeature.FEATURE_SIZE, capacity);
+    }
+}
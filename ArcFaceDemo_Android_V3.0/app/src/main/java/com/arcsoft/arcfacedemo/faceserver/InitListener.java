@@ -0,0 +1,14 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+/**
+ * 人脸库异步初始化回调
+ */
+public interface InitListener {
+    /**
+     * 人脸库加载完成后在主线程执行
+     *
+     * @param success   是否初始化成功
+     * @param faceCount 人脸库中的人脸数
+     */
+    void onInitFinished(boolean success, int faceCount);
+}
@@ -0,0 +1,49 @@
+package com.arcsoft.arcfacedemo.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 字节数组池，按长度复用数组，空闲数组超过上限时丢弃最早归还的
+ */
+public class ByteArrayPool {
+    private final int maxFreeCount;
+    private final ArrayDeque<byte[]> freeArrays = new ArrayDeque<>();
+
+    /**
+     * @param maxFreeCount 最多保留的空闲数组数
+     */
+    public ByteArrayPool(int maxFreeCount) {
+        this.maxFreeCount = maxFreeCount;
+    }
+
+    /**
+     * 获取指定长度的数组，没有空闲数组时新建，内容未清零
+     *
+     * @param length 数组长度
+     * @return 数组
+     */
+    public synchronized byte[] obtain(int length) {
+        Iterator<byte[]> iterator = freeArrays.iterator();
+        while (iterator.hasNext()) {
+            byte[] array = iterator.next();
+            if (array.length == length) {
+                iterator.remove();
+                return array;
+            }
+        }
+        return new byte[length];
+    }
+
+    /**
+     * 归还数组
+     *
+     * @param array 不再使用的数组
+     */
+    public synchronized void recycle(byte[] array) {
+        if (freeArrays.size() >= maxFreeCount) {
+            freeArrays.pollFirst();
+        }
+        freeArrays.addLast(array);
+    }
+}
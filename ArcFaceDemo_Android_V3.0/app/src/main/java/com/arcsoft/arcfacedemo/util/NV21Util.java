@@ -0,0 +1,111 @@
+package com.arcsoft.arcfacedemo.util;
+
+import android.graphics.Rect;
+
+/**
+ * NV21数据处理工具类，纯Java实现
+ */
+public class NV21Util {
+    /**
+     * 裁剪区域宽高的取整单位，相近大小的人脸使用相同大小的缓冲区，便于复用
+     */
+    private static final int ROI_SIZE_ALIGNMENT = 32;
+    /**
+     * 计算清晰度时每个方向的最大采样数
+     */
+    private static final int SHARPNESS_SAMPLE_COUNT = 64;
+
+    private NV21Util() {
+    }
+
+    /**
+     * 获取人脸的裁剪区域：人脸框四周各扩大人脸高度的一半，宽度取4的倍数，高度和左上角取2的倍数，且不超出图像范围
+     *
+     * @param width    图像宽度
+     * @param height   图像高度
+     * @param faceRect 人脸框
+     * @return 裁剪区域
+     */
+    public static Rect getFaceRoi(int width, int height, Rect faceRect) {
+        int padding = faceRect.height() / 2;
+        int roiWidth = alignUp(faceRect.width() + padding * 2, ROI_SIZE_ALIGNMENT);
+        int roiHeight = alignUp(faceRect.height() + padding * 2, ROI_SIZE_ALIGNMENT);
+        roiWidth = Math.min(roiWidth, width & ~3);
+        roiHeight = Math.min(roiHeight, height & ~1);
+        // 以人脸中心为中心，超出图像时向内平移
+        int left = faceRect.centerX() - roiWidth / 2;
+        int top = faceRect.centerY() - roiHeight / 2;
+        left = Math.max(0, Math.min(left, width - roiWidth)) & ~1;
+        top = Math.max(0, Math.min(top, height - roiHeight)) & ~1;
+        return new Rect(left, top, left + roiWidth, top + roiHeight);
+    }
+
+    /**
+     * 裁剪NV21数据
+     *
+     * @param nv21   原图数据
+     * @param width  原图宽度
+     * @param height 原图高度
+     * @param roi    裁剪区域，left和top需为偶数，宽高需为偶数
+     * @param dst    裁剪结果，长度需为roi.width() * roi.height() * 3 / 2
+     */
+    public static void crop(byte[] nv21, int width, int height, Rect roi, byte[] dst) {
+        int roiWidth = roi.width();
+        int roiHeight = roi.height();
+        if ((roi.left & 1) != 0 || (roi.top & 1) != 0 || (roiWidth & 1) != 0 || (roiHeight & 1) != 0
+                || roi.left < 0 || roi.top < 0 || roi.right > width || roi.bottom > height) {
+            throw new IllegalArgumentException("invalid roi " + roi + " for " + width + "x" + height);
+        }
+        if (dst.length != roiWidth * roiHeight * 3 / 2) {
+            throw new IllegalArgumentException("invalid dst length " + dst.length);
+        }
+        // Y
+        for (int y = 0; y < roiHeight; y++) {
+            System.arraycopy(nv21, (roi.top + y) * width + roi.left, dst, y * roiWidth, roiWidth);
+        }
+        // VU交错，每两行Y共用一行VU
+        int srcUvOffset = width * height;
+        int dstUvOffset = roiWidth * roiHeight;
+        for (int y = 0; y < roiHeight / 2; y++) {
+            System.arraycopy(nv21, srcUvOffset + (roi.top / 2 + y) * width + roi.left,
+                    dst, dstUvOffset + y * roiWidth, roiWidth);
+        }
+    }
+
+    /**
+     * 估算区域内亮度的清晰度：在Y平面上均匀采样，计算水平和垂直方向相邻像素差的绝对值的平均值，模糊的图像值较小
+     *
+     * @param nv21   原图数据
+     * @param width  原图宽度
+     * @param height 原图高度
+     * @param rect   计算的区域，超出图像的部分被忽略
+     * @return 平均梯度，区域为空时返回0
+     */
+    public static float getSharpness(byte[] nv21, int width, int height, Rect rect) {
+        int left = Math.max(rect.left, 0);
+        int top = Math.max(rect.top, 0);
+        int right = Math.min(rect.right, width) - 1;
+        int bottom = Math.min(rect.bottom, height) - 1;
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+        // 每个方向最多采样SHARPNESS_SAMPLE_COUNT个点，大脸的计算量不随人脸大小增长
+        int stepX = (right - left + SHARPNESS_SAMPLE_COUNT - 1) / SHARPNESS_SAMPLE_COUNT;
+        int stepY = (bottom - top + SHARPNESS_SAMPLE_COUNT - 1) / SHARPNESS_SAMPLE_COUNT;
+        long sum = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y += stepY) {
+            int offset = y * width;
+            for (int x = left; x < right; x += stepX) {
+                int luma = nv21[offset + x] & 0xFF;
+                sum += Math.abs((nv21[offset + x + 1] & 0xFF) - luma) + Math.abs((nv21[offset + width + x] & 0xFF) - luma);
+                count++;
+            }
+        }
+        return (float) sum / (count * 2);
+    }
+
+    private static int alignUp(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
@@ -14,11 +14,11 @@ public interface CameraListener {
     void onCameraOpened(Camera camera, int cameraId, int displayOrientation, boolean isMirror);
 
     /**
-     * 预览数据回调
-     * @param data 预览数据
+     * 预览数据回调，回调返回后帧数据会被重新填充，在回调之外使用需先{@link PreviewFrame#retain()}
+     * @param frame 预览帧
      * @param camera 相机实例
      */
-    void onPreview(byte[] data, Camera camera);
+    void onPreview(PreviewFrame frame, Camera camera);
 
     /**
      * 当相机关闭时执行
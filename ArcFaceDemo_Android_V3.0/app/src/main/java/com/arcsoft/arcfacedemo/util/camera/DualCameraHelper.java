@@ -42,11 +42,14 @@ public class DualCameraHelper implements Camera.PreviewCallback {
 
     private Integer specificCameraId = null;
     private CameraListener cameraListener;
+    private int previewBufferCount;
+    private PreviewBufferPool previewBufferPool;
 
     private DualCameraHelper(DualCameraHelper.Builder builder) {
         previewDisplayView = builder.previewDisplayView;
         specificCameraId = builder.specificCameraId;
         cameraListener = builder.cameraListener;
+        previewBufferCount = builder.previewBufferCount;
         rotation = builder.rotation;
         additionalRotation = builder.additionalRotation;
         previewViewSize = builder.previewViewSize;
@@ -149,7 +152,8 @@ public class DualCameraHelper implements Camera.PreviewCallback {
                 } else {
                     mCamera.setPreviewDisplay(((SurfaceView) previewDisplayView).getHolder());
                 }
-                mCamera.setPreviewCallback(this);
+                previewBufferPool = new PreviewBufferPool(mCamera, previewSize.width, previewSize.height, previewBufferCount);
+                mCamera.setPreviewCallbackWithBuffer(this);
                 mCamera.startPreview();
                 if (cameraListener != null) {
                     cameraListener.onCameraOpened(mCamera, mCameraId, displayOrientation, isMirror);
@@ -203,7 +207,11 @@ public class DualCameraHelper implements Camera.PreviewCallback {
             if (mCamera == null) {
                 return;
             }
-            mCamera.setPreviewCallback(null);
+            mCamera.setPreviewCallbackWithBuffer(null);
+            if (previewBufferPool != null) {
+                previewBufferPool.release();
+                previewBufferPool = null;
+            }
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
@@ -309,9 +317,15 @@ public class DualCameraHelper implements Camera.PreviewCallback {
 
     @Override
     public void onPreviewFrame(byte[] nv21, Camera camera) {
+        PreviewBufferPool bufferPool = previewBufferPool;
+        PreviewFrame frame = bufferPool == null ? null : bufferPool.obtain(nv21);
+        if (frame == null) {
+            return;
+        }
         if (cameraListener != null) {
-            cameraListener.onPreview(nv21, camera);
+            cameraListener.onPreview(frame, camera);
         }
+        frame.release();
     }
 
     private TextureView.SurfaceTextureListener textureListener = new TextureView.SurfaceTextureListener() {
@@ -415,6 +429,11 @@ public class DualCameraHelper implements Camera.PreviewCallback {
          */
         private int additionalRotation;
 
+        /**
+         * 预览缓冲区数量，被占用的缓冲区过多时相机会丢帧
+         */
+        private int previewBufferCount = 4;
+
         public Builder() {
         }
 
@@ -464,6 +483,11 @@ public class DualCameraHelper implements Camera.PreviewCallback {
             return this;
         }
 
+        public Builder previewBufferCount(int val) {
+            previewBufferCount = val;
+            return this;
+        }
+
         public DualCameraHelper build() {
             if (previewViewSize == null) {
                 Log.e(TAG, "previewViewSize is null, now use default previewSize");
@@ -474,6 +498,9 @@ public class DualCameraHelper implements Camera.PreviewCallback {
             if (previewDisplayView == null) {
                 throw new RuntimeException("you must preview on a textureView or a surfaceView");
             }
+            if (previewBufferCount < 2) {
+                throw new RuntimeException("previewBufferCount must >= 2");
+            }
             return new DualCameraHelper(this);
         }
     }
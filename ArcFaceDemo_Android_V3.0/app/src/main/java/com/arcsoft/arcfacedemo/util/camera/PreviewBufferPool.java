@@ -0,0 +1,67 @@
+package com.arcsoft.arcfacedemo.util.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+/**
+ * 预览缓冲区池，配合{@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}使用
+ * <p>
+ * 打开相机时一次分配固定数量的缓冲区交给相机，预览帧释放后再通过{@link Camera#addCallbackBuffer(byte[])}归还，
+ * 预览过程中不再分配内存。所有缓冲区都被占用时相机会丢弃新的帧，直到有帧被释放
+ */
+public class PreviewBufferPool {
+    private Camera camera;
+    private final PreviewFrame[] frames;
+
+    /**
+     * 分配缓冲区并交给相机，需在{@link Camera#startPreview()}前调用
+     *
+     * @param camera      相机实例
+     * @param width       预览宽度
+     * @param height      预览高度
+     * @param bufferCount 缓冲区数量
+     */
+    public PreviewBufferPool(Camera camera, int width, int height, int bufferCount) {
+        this.camera = camera;
+        int bufferSize = width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        frames = new PreviewFrame[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            frames[i] = new PreviewFrame(new byte[bufferSize], width, height, this);
+            camera.addCallbackBuffer(frames[i].getData());
+        }
+    }
+
+    /**
+     * 获取相机回传的数据对应的预览帧，引用计数为1
+     *
+     * @param data 预览回调中的数据
+     * @return 预览帧，数据不属于该池时返回null
+     */
+    public PreviewFrame obtain(byte[] data) {
+        for (PreviewFrame frame : frames) {
+            if (frame.getData() == data) {
+                frame.reset();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 将缓冲区归还给相机，池释放后不再归还
+     *
+     * @param frame 引用已全部释放的预览帧
+     */
+    synchronized void recycle(PreviewFrame frame) {
+        if (camera != null) {
+            camera.addCallbackBuffer(frame.getData());
+        }
+    }
+
+    /**
+     * 释放池，需在{@link Camera#release()}前调用，之后释放的帧不再归还给相机
+     */
+    public synchronized void release() {
+        camera = null;
+    }
+}
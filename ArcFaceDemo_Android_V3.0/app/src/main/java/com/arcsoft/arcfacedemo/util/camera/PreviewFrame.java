@@ -0,0 +1,83 @@
+package com.arcsoft.arcfacedemo.util.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的预览帧，数据来自{@link PreviewBufferPool}
+ * <p>
+ * {@link CameraListener#onPreview(PreviewFrame, android.hardware.Camera)}返回后帧数据即被重新交给相机填充，
+ * 需要在回调之外（如其他线程）使用数据时，先调用{@link #retain()}，使用完毕后调用{@link #release()}，
+ * 所有使用者都释放后缓冲区才会归还给相机
+ */
+public class PreviewFrame {
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final PreviewBufferPool bufferPool;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    PreviewFrame(byte[] data, int width, int height, PreviewBufferPool bufferPool) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 获取NV21数据，释放后不可再使用
+     *
+     * @return NV21数据
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * 获取帧宽度，切换相机后仍在处理的旧帧保持采集时的尺寸
+     *
+     * @return 帧宽度
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 获取帧高度
+     *
+     * @return 帧高度
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 增加一次引用
+     *
+     * @return 当前帧
+     */
+    public PreviewFrame retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("frame has been released");
+        }
+        return this;
+    }
+
+    /**
+     * 释放一次引用，引用全部释放后缓冲区归还给相机
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            bufferPool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("frame released too many times");
+        }
+    }
+
+    /**
+     * 相机填充数据后重置引用计数，由预览回调持有第一个引用
+     */
+    void reset() {
+        refCount.set(1);
+    }
+}
@@ -0,0 +1,154 @@
+package com.arcsoft.arcfacedemo.util.camera;
+
+import android.util.Log;
+
+import com.arcsoft.arcfacedemo.util.metrics.PipelineMetrics;
+
+/**
+ * 预览帧处理线程，将人脸检测等耗时操作从相机回调线程中移出
+ * <p>
+ * 相机回调只将帧放入单槽信箱，处理线程每次取出信箱中最新的一帧处理，处理期间到达的旧帧直接丢弃并计数。
+ * 检测比采集慢时不会积压帧，从采集到处理完成的延迟最多为一次处理的耗时，与相机帧率无关
+ */
+public class PreviewFrameProcessor {
+    private static final String TAG = "PreviewFrameProcessor";
+
+    private final FrameHandler frameHandler;
+    private final PipelineMetrics metrics;
+    private final Thread processThread;
+    /**
+     * 信箱中等待处理的帧，持有一个引用
+     */
+    private PreviewFrame pendingFrame;
+    private boolean stopped = false;
+    private long processedFrameCount = 0;
+    private long droppedFrameCount = 0;
+
+    /**
+     * 帧处理回调
+     */
+    public interface FrameHandler {
+        /**
+         * 在处理线程中执行，返回后帧被释放，需要在其他线程中使用时先{@link PreviewFrame#retain()}
+         *
+         * @param frame 预览帧
+         */
+        void onFrame(PreviewFrame frame);
+    }
+
+    /**
+     * 创建并启动处理线程
+     *
+     * @param name         线程名
+     * @param frameHandler 帧处理回调
+     */
+    public PreviewFrameProcessor(String name, FrameHandler frameHandler) {
+        this(name, null, frameHandler);
+    }
+
+    /**
+     * 创建并启动处理线程，丢弃的帧同时计入性能统计
+     *
+     * @param name         线程名
+     * @param metrics      性能统计，可为null
+     * @param frameHandler 帧处理回调
+     */
+    public PreviewFrameProcessor(String name, PipelineMetrics metrics, FrameHandler frameHandler) {
+        this.frameHandler = frameHandler;
+        this.metrics = metrics;
+        processThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processLoop();
+            }
+        }, name);
+        processThread.start();
+    }
+
+    /**
+     * 提交一帧，替换信箱中尚未处理的帧，在相机回调中调用
+     *
+     * @param frame 预览帧
+     */
+    public synchronized void offer(PreviewFrame frame) {
+        if (stopped) {
+            return;
+        }
+        if (pendingFrame != null) {
+            pendingFrame.release();
+            droppedFrameCount++;
+            if (metrics != null) {
+                metrics.increment(PipelineMetrics.Counter.DROPPED_FRAME);
+            }
+        }
+        pendingFrame = frame.retain();
+        notifyAll();
+    }
+
+    /**
+     * 停止处理线程并等待正在处理的帧完成，之后可以安全地销毁引擎
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (pendingFrame != null) {
+                pendingFrame.release();
+                pendingFrame = null;
+            }
+            notifyAll();
+        }
+        if (Thread.currentThread() != processThread) {
+            try {
+                processThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Log.i(TAG, "stop: processed = " + getProcessedFrameCount() + ", dropped = " + getDroppedFrameCount());
+    }
+
+    /**
+     * @return 已处理的帧数
+     */
+    public synchronized long getProcessedFrameCount() {
+        return processedFrameCount;
+    }
+
+    /**
+     * @return 未处理就被更新的帧替换的帧数
+     */
+    public synchronized long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    private void processLoop() {
+        while (true) {
+            PreviewFrame frame;
+            synchronized (this) {
+                while (pendingFrame == null && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                frame = pendingFrame;
+                pendingFrame = null;
+            }
+            try {
+                frameHandler.onFrame(frame);
+            } finally {
+                frame.release();
+            }
+            synchronized (this) {
+                processedFrameCount++;
+            }
+        }
+    }
+}
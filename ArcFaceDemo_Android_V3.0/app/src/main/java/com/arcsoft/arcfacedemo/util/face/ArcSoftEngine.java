@@ -0,0 +1,124 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.arcfacedemo.core.Engine;
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.Frame;
+import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.FaceInfo;
+import com.arcsoft.face.FaceSimilar;
+import com.arcsoft.face.LivenessInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将ArcSoft引擎适配为core模块的{@link Engine}
+ * <p>
+ * 比对时复用内部的特征和相似度对象，因此与引擎一样不是线程安全的，多线程共用同一个引擎时由调用方加锁。
+ * 引擎需按所用的功能初始化，如比对需要{@link FaceEngine#ASF_FACE_RECOGNITION}
+ */
+public class ArcSoftEngine implements Engine {
+    private final FaceEngine faceEngine;
+    private final List<FaceInfo> faceInfoList = new ArrayList<>();
+    private final List<LivenessInfo> livenessInfoList = new ArrayList<>();
+    private final FaceFeature faceFeature1 = new FaceFeature();
+    private final FaceFeature faceFeature2 = new FaceFeature();
+    private final FaceSimilar faceSimilar = new FaceSimilar();
+
+    /**
+     * @param faceEngine 已初始化的引擎，由调用方负责销毁
+     */
+    public ArcSoftEngine(FaceEngine faceEngine) {
+        if (faceEngine == null) {
+            throw new IllegalArgumentException("faceEngine must not be null");
+        }
+        this.faceEngine = faceEngine;
+    }
+
+    public FaceEngine getFaceEngine() {
+        return faceEngine;
+    }
+
+    @Override
+    public int detect(Frame frame, List<FaceBox> faceList) {
+        faceList.clear();
+        faceInfoList.clear();
+        int code = faceEngine.detectFaces(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat(), faceInfoList);
+        if (code == ErrorInfo.MOK) {
+            for (FaceInfo faceInfo : faceInfoList) {
+                faceList.add(toFaceBox(faceInfo));
+            }
+        }
+        return code;
+    }
+
+    @Override
+    public int getFeatureSize() {
+        return FaceFeature.FEATURE_SIZE;
+    }
+
+    @Override
+    public int extract(Frame frame, FaceBox face, byte[] feature) {
+        FaceFeature faceFeature = new FaceFeature();
+        int code = faceEngine.extractFaceFeature(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat(), toFaceInfo(face), faceFeature);
+        if (code == ErrorInfo.MOK) {
+            System.arraycopy(faceFeature.getFeatureData(), 0, feature, 0, FaceFeature.FEATURE_SIZE);
+        }
+        return code;
+    }
+
+    @Override
+    public int compare(byte[] feature1, byte[] feature2, float[] similar) {
+        faceFeature1.setFeatureData(feature1);
+        faceFeature2.setFeatureData(feature2);
+        int code = faceEngine.compareFaceFeature(faceFeature1, faceFeature2, faceSimilar);
+        if (code == ErrorInfo.MOK) {
+            similar[0] = faceSimilar.getScore();
+        }
+        return code;
+    }
+
+    @Override
+    public int liveness(Frame frame, FaceBox face, int[] liveness) {
+        faceInfoList.clear();
+        faceInfoList.add(toFaceInfo(face));
+        int code = faceEngine.process(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat(), faceInfoList, FaceEngine.ASF_LIVENESS);
+        if (code == ErrorInfo.MOK) {
+            livenessInfoList.clear();
+            code = faceEngine.getLiveness(livenessInfoList);
+        }
+        return fillLiveness(code, liveness);
+    }
+
+    @Override
+    public int irLiveness(Frame frame, FaceBox face, int[] liveness) {
+        faceInfoList.clear();
+        faceInfoList.add(toFaceInfo(face));
+        int code = faceEngine.processIr(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat(), faceInfoList, FaceEngine.ASF_IR_LIVENESS);
+        if (code == ErrorInfo.MOK) {
+            livenessInfoList.clear();
+            code = faceEngine.getIrLiveness(livenessInfoList);
+        }
+        return fillLiveness(code, liveness);
+    }
+
+    private int fillLiveness(int code, int[] liveness) {
+        liveness[0] = code == ErrorInfo.MOK && !livenessInfoList.isEmpty() ? livenessInfoList.get(0).getLiveness() : LIVENESS_UNKNOWN;
+        return code;
+    }
+
+    public static FaceBox toFaceBox(FaceInfo faceInfo) {
+        Rect rect = faceInfo.getRect();
+        return new FaceBox(rect.left, rect.top, rect.right, rect.bottom, faceInfo.getOrient(), faceInfo.getFaceId());
+    }
+
+    public static FaceInfo toFaceInfo(FaceBox faceBox) {
+        FaceInfo faceInfo = new FaceInfo(new Rect(faceBox.getLeft(), faceBox.getTop(), faceBox.getRight(), faceBox.getBottom()), faceBox.getOrient());
+        faceInfo.setFaceId(faceBox.getFaceId());
+        return faceInfo;
+    }
+}
@@ -0,0 +1,155 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.face.FaceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 人脸检测调度，决定每一帧是否执行完整的人脸检测，未检测的帧根据前两次检测结果推算人脸框
+ * <p>
+ * 检测间隔在1到{@link #maxDetectInterval}之间自适应：
+ * 1. 人脸数量变化、出现新的人脸或人脸移动较快时，下一帧立即检测；
+ * 2. 画面静止时每次检测后间隔加1；
+ * 3. 检测耗时超过帧间隔时，间隔不小于检测耗时与帧间隔之比，使检测的平均耗时不超过帧间隔。
+ * 未检测的帧按匀速运动推算人脸框的四条边，画框在两次检测之间也能保持平滑
+ */
+public class DetectScheduler {
+    /**
+     * 人脸中心每帧移动的距离超过人脸宽度的该比例时视为快速移动
+     */
+    private static final float MOTION_THRESHOLD = 0.02f;
+    /**
+     * 耗时统计的平滑系数
+     */
+    private static final float EMA_ALPHA = 0.2f;
+
+    private final int maxDetectInterval;
+    private int detectInterval = 1;
+    /**
+     * 距上次检测的帧数
+     */
+    private int framesSinceDetect = 0;
+    private long lastFrameTime = 0;
+    private float frameIntervalMs = 0;
+    private float detectCostMs = 0;
+    /**
+     * 上次检测的结果及对应的人脸框四条边每帧的移动速度（left, top, right, bottom）
+     */
+    private List<FaceInfo> lastFaceInfoList = new ArrayList<>();
+    private List<float[]> velocityList = new ArrayList<>();
+
+    /**
+     * @param maxDetectInterval 最大检测间隔，为1时每帧都检测
+     */
+    public DetectScheduler(int maxDetectInterval) {
+        if (maxDetectInterval < 1) {
+            throw new IllegalArgumentException("maxDetectInterval must >= 1");
+        }
+        this.maxDetectInterval = maxDetectInterval;
+    }
+
+    /**
+     * 每帧调用一次，判断该帧是否需要检测
+     *
+     * @return 需要检测时返回true，检测后调用{@link #onDetected(List, long)}，否则调用{@link #predict(List)}
+     */
+    public boolean shouldDetect() {
+        long now = System.currentTimeMillis();
+        if (lastFrameTime != 0) {
+            frameIntervalMs = ema(frameIntervalMs, now - lastFrameTime);
+        }
+        lastFrameTime = now;
+        framesSinceDetect++;
+        return framesSinceDetect >= detectInterval;
+    }
+
+    /**
+     * 记录检测结果并调整检测间隔
+     *
+     * @param faceInfoList 检测结果
+     * @param costMs       检测耗时
+     */
+    public void onDetected(List<FaceInfo> faceInfoList, long costMs) {
+        detectCostMs = ema(detectCostMs, costMs);
+        List<float[]> newVelocityList = new ArrayList<>(faceInfoList.size());
+        boolean moving = faceInfoList.size() != lastFaceInfoList.size();
+        for (FaceInfo faceInfo : faceInfoList) {
+            FaceInfo lastFaceInfo = findFace(lastFaceInfoList, faceInfo.getFaceId());
+            float[] velocity = new float[4];
+            if (lastFaceInfo == null) {
+                moving = true;
+            } else {
+                Rect rect = faceInfo.getRect();
+                Rect lastRect = lastFaceInfo.getRect();
+                velocity[0] = (float) (rect.left - lastRect.left) / framesSinceDetect;
+                velocity[1] = (float) (rect.top - lastRect.top) / framesSinceDetect;
+                velocity[2] = (float) (rect.right - lastRect.right) / framesSinceDetect;
+                velocity[3] = (float) (rect.bottom - lastRect.bottom) / framesSinceDetect;
+                float dx = (velocity[0] + velocity[2]) / 2;
+                float dy = (velocity[1] + velocity[3]) / 2;
+                if (Math.sqrt(dx * dx + dy * dy) > Math.max(rect.width(), 1) * MOTION_THRESHOLD) {
+                    moving = true;
+                }
+            }
+            newVelocityList.add(velocity);
+        }
+        if (moving) {
+            detectInterval = 1;
+        } else if (detectInterval < maxDetectInterval) {
+            detectInterval++;
+        }
+        // 检测比采集慢时，按耗时与帧间隔之比拉长间隔
+        if (frameIntervalMs > 0) {
+            int minInterval = (int) Math.ceil(detectCostMs / frameIntervalMs);
+            detectInterval = Math.max(detectInterval, Math.min(minInterval, maxDetectInterval));
+        }
+        lastFaceInfoList = new ArrayList<>(faceInfoList.size());
+        for (FaceInfo faceInfo : faceInfoList) {
+            lastFaceInfoList.add(new FaceInfo(faceInfo));
+        }
+        velocityList = newVelocityList;
+        framesSinceDetect = 0;
+    }
+
+    /**
+     * 推算当前帧的人脸框
+     *
+     * @param faceInfoList 推算结果，人脸ID与上次检测相同
+     */
+    public void predict(List<FaceInfo> faceInfoList) {
+        faceInfoList.clear();
+        for (int i = 0; i < lastFaceInfoList.size(); i++) {
+            FaceInfo faceInfo = new FaceInfo(lastFaceInfoList.get(i));
+            float[] velocity = velocityList.get(i);
+            Rect rect = faceInfo.getRect();
+            rect.set(rect.left + Math.round(velocity[0] * framesSinceDetect),
+                    rect.top + Math.round(velocity[1] * framesSinceDetect),
+                    rect.right + Math.round(velocity[2] * framesSinceDetect),
+                    rect.bottom + Math.round(velocity[3] * framesSinceDetect));
+            faceInfoList.add(faceInfo);
+        }
+    }
+
+    /**
+     * @return 当前的检测间隔
+     */
+    public int getDetectInterval() {
+        return detectInterval;
+    }
+
+    private static FaceInfo findFace(List<FaceInfo> faceInfoList, int faceId) {
+        for (FaceInfo faceInfo : faceInfoList) {
+            if (faceInfo.getFaceId() == faceId) {
+                return faceInfo;
+            }
+        }
+        return null;
+    }
+
+    private static float ema(float average, float value) {
+        return average == 0 ? value : average + EMA_ALPHA * (value - average);
+    }
+}
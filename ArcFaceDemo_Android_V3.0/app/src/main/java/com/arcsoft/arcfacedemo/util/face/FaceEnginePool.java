@@ -0,0 +1,150 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.enums.DetectFaceOrientPriority;
+import com.arcsoft.face.enums.DetectMode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 引擎池，包含多个独立初始化的引擎，每个线程取出一个引擎独占使用，用完后归还，多个线程可以同时处理
+ */
+public class FaceEnginePool {
+    private static final String TAG = "FaceEnginePool";
+
+    private final List<FaceEngine> engines;
+    private final ArrayDeque<FaceEngine> idleEngines;
+    private int initCode = ErrorInfo.MOK;
+    private boolean closed = false;
+    /**
+     * 销毁后才归还、在归还时销毁的引擎数
+     */
+    private int destroyedCount = 0;
+
+    /**
+     * 初始化engineNum个引擎，初始化失败的引擎不加入池中
+     *
+     * @param context                  上下文对象
+     * @param detectMode               检测模式
+     * @param detectFaceOrientPriority 人脸检测角度
+     * @param detectFaceScaleVal       识别的最小人脸比例
+     * @param detectFaceMaxNum         最大需要检测的人脸个数
+     * @param combinedMask             需要启用的功能组合
+     * @param engineNum                引擎数量
+     */
+    public FaceEnginePool(Context context, DetectMode detectMode, DetectFaceOrientPriority detectFaceOrientPriority,
+                          int detectFaceScaleVal, int detectFaceMaxNum, int combinedMask, int engineNum) {
+        List<FaceEngine> engineList = new ArrayList<>(engineNum);
+        for (int i = 0; i < engineNum; i++) {
+            FaceEngine faceEngine = new FaceEngine();
+            int code = faceEngine.init(context, detectMode, detectFaceOrientPriority, detectFaceScaleVal, detectFaceMaxNum, combinedMask);
+            if (code == ErrorInfo.MOK) {
+                engineList.add(faceEngine);
+            } else {
+                Log.e(TAG, "FaceEnginePool: init engine failed, code is " + code);
+                initCode = code;
+            }
+        }
+        engines = Collections.unmodifiableList(engineList);
+        idleEngines = new ArrayDeque<>(engines);
+    }
+
+    /**
+     * 使用已初始化的引擎创建引擎池
+     *
+     * @param engines 已初始化的引擎
+     */
+    public FaceEnginePool(List<FaceEngine> engines) {
+        this.engines = Collections.unmodifiableList(new ArrayList<>(engines));
+        idleEngines = new ArrayDeque<>(this.engines);
+    }
+
+    /**
+     * @return 所有引擎都初始化成功时返回{@link ErrorInfo#MOK}，否则返回最后一个失败的错误码
+     */
+    public int getInitCode() {
+        return initCode;
+    }
+
+    /**
+     * @return 池中的引擎数
+     */
+    public int size() {
+        return engines.size();
+    }
+
+    /**
+     * 取出一个空闲的引擎，没有空闲引擎时等待
+     *
+     * @return 引擎，池为空或已销毁时返回null
+     * @throws InterruptedException 等待时被中断
+     */
+    public synchronized FaceEngine acquire() throws InterruptedException {
+        if (engines.isEmpty()) {
+            return null;
+        }
+        while (!closed && idleEngines.isEmpty()) {
+            wait();
+        }
+        return closed ? null : idleEngines.poll();
+    }
+
+    /**
+     * 归还引擎，引擎池已销毁时直接销毁该引擎
+     *
+     * @param faceEngine {@link #acquire()}取出的引擎
+     */
+    public void release(FaceEngine faceEngine) {
+        synchronized (this) {
+            if (!closed) {
+                idleEngines.offer(faceEngine);
+                notifyAll();
+                return;
+            }
+            destroyedCount++;
+            notifyAll();
+        }
+        unInitEngine(faceEngine);
+    }
+
+    /**
+     * 等待所有引擎归还后销毁，之后{@link #acquire()}返回null
+     * <p>
+     * 等待时被中断则只销毁空闲的引擎，仍在使用的引擎由使用方归还时销毁，不会销毁正在使用的引擎
+     */
+    public void unInit() {
+        List<FaceEngine> idleEngineList;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            while (idleEngines.size() + destroyedCount < engines.size()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            idleEngineList = new ArrayList<>(idleEngines);
+            idleEngines.clear();
+        }
+        for (FaceEngine faceEngine : idleEngineList) {
+            unInitEngine(faceEngine);
+        }
+    }
+
+    private static void unInitEngine(FaceEngine faceEngine) {
+        int unInitCode = faceEngine.unInit();
+        Log.i(TAG, "unInit: " + unInitCode);
+    }
+}
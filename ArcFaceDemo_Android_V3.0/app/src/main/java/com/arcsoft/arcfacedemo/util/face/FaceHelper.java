@@ -4,21 +4,21 @@ import android.hardware.Camera;
 import android.util.Log;
 
 import com.arcsoft.arcfacedemo.model.FacePreviewInfo;
+import com.arcsoft.arcfacedemo.util.ByteArrayPool;
 import com.arcsoft.arcfacedemo.util.TrackUtil;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineMetrics;
+import com.arcsoft.arcfacedemo.util.metrics.PipelineTracer;
 import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.Face3DAngle;
 import com.arcsoft.face.FaceEngine;
 import com.arcsoft.face.FaceFeature;
 import com.arcsoft.face.FaceInfo;
 import com.arcsoft.face.LivenessInfo;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 人脸操作辅助类
@@ -37,38 +37,39 @@ public class FaceHelper {
      * 活体检测引擎为空
      */
     private static final int ERROR_FL_ENGINE_IS_NULL = -3;
+    /**
+     * 人脸区域缓冲区池最多保留的空闲缓冲区数
+     */
+    private static final int ROI_BUFFER_POOL_SIZE = 16;
+    /**
+     * 延时任务时间轮的tick时长（ms）和槽位数，一轮约2.5秒
+     */
+    private static final long TRACK_TIMER_TICK_MS = 20;
+    private static final int TRACK_TIMER_WHEEL_SIZE = 128;
     /**
      * 人脸追踪引擎
      */
     private FaceEngine ftEngine;
     /**
-     * 特征提取引擎
+     * 特征提取引擎池
      */
-    private FaceEngine frEngine;
+    private FaceEnginePool frEnginePool;
     /**
-     * 活体检测引擎
+     * 活体检测引擎池
      */
-    private FaceEngine flEngine;
+    private FaceEnginePool flEnginePool;
 
     private Camera.Size previewSize;
 
     private List<FaceInfo> faceInfoList = new ArrayList<>();
     /**
-     * 特征提取线程池
-     */
-    private ExecutorService frExecutor;
-    /**
-     * 活体检测线程池
-     */
-    private ExecutorService flExecutor;
-    /**
-     * 特征提取线程队列
+     * 特征提取任务调度
      */
-    private LinkedBlockingQueue<Runnable> frThreadQueue = null;
+    private FaceTaskScheduler frScheduler;
     /**
-     * 活体检测线程队列
+     * 活体检测任务调度
      */
-    private LinkedBlockingQueue<Runnable> flThreadQueue = null;
+    private FaceTaskScheduler flScheduler;
 
     private FaceListener faceListener;
     /**
@@ -80,20 +81,63 @@ public class FaceHelper {
      */
     private int currentMaxFaceId = 0;
 
-    private List<Integer> currentTrackIdList = new ArrayList<>();
+    /**
+     * 当前人脸列表中各人脸的trackId，与人脸列表的下标对应
+     */
+    private int[] currentTrackIds = new int[0];
     private List<FacePreviewInfo> facePreviewInfoList = new ArrayList<>();
     /**
-     * 用于存储人脸对应的姓名，KEY为trackId，VALUE为name
+     * 画面中每个人脸的识别状态，人脸离开画面时整体删除
+     */
+    private TrackRegistry trackRegistry;
+    /**
+     * 人脸的延时任务，如失败重试、等待活体结果，人脸离开画面时自动取消
+     */
+    private TrackTimer trackTimer;
+    /**
+     * 检测调度，决定每帧是否执行人脸检测
+     */
+    private DetectScheduler detectScheduler;
+    /**
+     * 最近一帧的人脸框是否由检测得到，为false时人脸框由前几次检测推算
+     */
+    private boolean lastFrameDetected = false;
+    /**
+     * 人脸区域缓冲区池，为null时不裁剪
+     */
+    private ByteArrayPool roiBufferPool;
+    /**
+     * 特征提取的选帧，为null时不选帧
+     */
+    private FeatureFrameSelector featureFrameSelector;
+    private List<FaceInfo> angleFaceInfoList = new ArrayList<>(1);
+    private List<Face3DAngle> face3DAngleList = new ArrayList<>(1);
+    /**
+     * 性能统计
+     */
+    private PipelineMetrics metrics;
+    /**
+     * 耗时追踪，未开启时不记录
      */
-    private ConcurrentHashMap<Integer, String> nameMap = new ConcurrentHashMap<>();
+    private PipelineTracer tracer = PipelineTracer.getInstance();
+
 
     private FaceHelper(Builder builder) {
         ftEngine = builder.ftEngine;
         faceListener = builder.faceListener;
         trackedFaceCount = builder.trackedFaceCount;
         previewSize = builder.previewSize;
-        frEngine = builder.frEngine;
-        flEngine = builder.flEngine;
+        frEnginePool = builder.frEnginePool;
+        flEnginePool = builder.flEnginePool;
+        metrics = builder.metrics != null ? builder.metrics : new PipelineMetrics();
+        if (builder.cropFaceRoi) {
+            roiBufferPool = new ByteArrayPool(ROI_BUFFER_POOL_SIZE);
+        }
+        if (builder.featureFrameWindow > 1) {
+            featureFrameSelector = new FeatureFrameSelector(builder.featureFrameWindow);
+        }
+        trackTimer = new TrackTimer("FaceHelper-timer", TRACK_TIMER_TICK_MS, TRACK_TIMER_WHEEL_SIZE);
+        detectScheduler = new DetectScheduler(builder.maxDetectInterval > 0 ? builder.maxDetectInterval : 1);
         /**
          * fr 线程队列大小
          */
@@ -103,8 +147,9 @@ public class FaceHelper {
         } else {
             Log.e(TAG, "frThread num must > 0,now using default value:" + frQueueSize);
         }
-        frThreadQueue = new LinkedBlockingQueue<>(frQueueSize);
-        frExecutor = new ThreadPoolExecutor(1, frQueueSize, 0, TimeUnit.MILLISECONDS, frThreadQueue);
+        // 每个线程独占一个引擎，线程数与引擎数相同
+        int frThreadNum = frEnginePool == null ? 1 : Math.max(frEnginePool.size(), 1);
+        frScheduler = new FaceTaskScheduler("FaceHelper-fr", frThreadNum, frQueueSize);
 
         /**
          * fl 线程队列大小
@@ -115,28 +160,84 @@ public class FaceHelper {
         } else {
             Log.e(TAG, "flThread num must > 0,now using default value:" + flQueueSize);
         }
-        flThreadQueue = new LinkedBlockingQueue<Runnable>(flQueueSize);
-        flExecutor = new ThreadPoolExecutor(1, flQueueSize, 0, TimeUnit.MILLISECONDS, flThreadQueue);
+        int flThreadNum = flEnginePool == null ? 1 : Math.max(flEnginePool.size(), 1);
+        flScheduler = new FaceTaskScheduler("FaceHelper-fl", flThreadNum, flQueueSize);
+        // 人脸离开画面时一次取消其延时任务、等待中的任务和候选帧，不需要每帧遍历
+        trackRegistry = new TrackRegistry(trackTimer, frScheduler, flScheduler, featureFrameSelector);
         if (previewSize == null) {
             throw new RuntimeException("previewSize must be specified!");
         }
     }
 
     /**
-     * 请求获取人脸特征数据
+     * 提交特征提取的候选帧，开启选帧时每个人脸在短窗口内挑选质量最好的一帧，返回true后再调用
+     * {@link #requestFaceFeature(PreviewFrame, FaceInfo, int, int, int, Integer)}，对选中的帧提取特征
+     *
+     * @param frame    预览帧
+     * @param faceInfo 人脸信息
+     * @param width    图像宽度
+     * @param height   图像高度
+     * @param format   图像格式
+     * @param trackId  人脸的trackId
+     * @return 是否可以请求特征提取，未开启选帧或图像格式不是NV21时总是返回true
+     */
+    public boolean selectFeatureFrame(PreviewFrame frame, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
+        if (featureFrameSelector == null || format != FaceEngine.CP_PAF_NV21) {
+            return true;
+        }
+        float score = FeatureFrameSelector.score(frame.getData(), width, height, faceInfo, getFace3DAngle(frame.getData(), width, height, faceInfo));
+        return featureFrameSelector.offer(trackId, frame, width, height, faceInfo, score);
+    }
+
+    /**
+     * 获取人脸角度，需要ftEngine初始化时包含{@link FaceEngine#ASF_FACE3DANGLE}，在预览帧处理线程中调用
+     *
+     * @return 人脸角度，获取失败时返回null
+     */
+    private Face3DAngle getFace3DAngle(byte[] nv21, int width, int height, FaceInfo faceInfo) {
+        if (ftEngine == null) {
+            return null;
+        }
+        angleFaceInfoList.clear();
+        angleFaceInfoList.add(faceInfo);
+        face3DAngleList.clear();
+        if (ftEngine.process(nv21, width, height, FaceEngine.CP_PAF_NV21, angleFaceInfoList, FaceEngine.ASF_FACE3DANGLE) != ErrorInfo.MOK
+                || ftEngine.getFace3DAngle(face3DAngleList) != ErrorInfo.MOK || face3DAngleList.isEmpty()) {
+            return null;
+        }
+        return face3DAngleList.get(0);
+    }
+
+    /**
+     * 请求获取人脸特征数据，处理期间持有预览帧的一个引用，开启人脸区域裁剪时只复制人脸区域，不持有预览帧
+     * <p>
+     * 开启选帧时使用{@link #selectFeatureFrame(PreviewFrame, FaceInfo, int, int, int, Integer)}选中的帧，没有选中的帧时使用当前帧
+     * <p>
+     * 同一人脸尚未执行的请求会被新的请求替换，首次请求的人脸和大脸优先处理，队列已满且优先级不够时回传{@link #ERROR_BUSY}
      *
-     * @param nv21     图像数据
+     * @param frame    预览帧
      * @param faceInfo 人脸信息
      * @param width    图像宽度
      * @param height   图像高度
      * @param format   图像格式
      * @param trackId  请求人脸特征的唯一请求码，一般使用trackId
      */
-    public void requestFaceFeature(byte[] nv21, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
+    public void requestFaceFeature(PreviewFrame frame, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
         if (faceListener != null) {
-            if (frEngine != null && frThreadQueue.remainingCapacity() > 0) {
-                frExecutor.execute(new FaceRecognizeRunnable(nv21, faceInfo, width, height, format, trackId));
+            FaceImage faceImage = featureFrameSelector == null ? null : featureFrameSelector.take(trackId);
+            if (frEnginePool != null) {
+                if (faceImage == null) {
+                    faceImage = createFaceImage(frame, faceInfo, width, height, format);
+                }
+                if (!frScheduler.submit(new FaceRecognizeRunnable(faceImage, format, trackId, getArea(faceImage.getFaceInfo())))) {
+                    faceImage.release();
+                    metrics.increment(PipelineMetrics.Counter.FR_BUSY);
+                    faceListener.onFaceFeatureInfoGet(null, trackId, ERROR_BUSY);
+                }
             } else {
+                if (faceImage != null) {
+                    faceImage.release();
+                }
                 faceListener.onFaceFeatureInfoGet(null, trackId, ERROR_BUSY);
             }
         }
@@ -145,7 +246,7 @@ public class FaceHelper {
     /**
      * 请求获取活体检测结果，需要传入活体的参数，以下参数同
      *
-     * @param nv21         NV21格式的图像数据
+     * @param frame        预览帧，处理期间持有一个引用，开启人脸区域裁剪时只复制人脸区域
      * @param faceInfo     人脸信息
      * @param width        图像宽度
      * @param height       图像高度
@@ -153,10 +254,15 @@ public class FaceHelper {
      * @param trackId      请求人脸特征的唯一请求码，一般使用trackId
      * @param livenessType 活体检测类型
      */
-    public void requestFaceLiveness(byte[] nv21, FaceInfo faceInfo, int width, int height, int format, Integer trackId, LivenessType livenessType) {
+    public void requestFaceLiveness(PreviewFrame frame, FaceInfo faceInfo, int width, int height, int format, Integer trackId, LivenessType livenessType) {
         if (faceListener != null) {
-            if (flEngine != null && flThreadQueue.remainingCapacity() > 0) {
-                flExecutor.execute(new FaceLivenessDetectRunnable(nv21, faceInfo, width, height, format, trackId, livenessType));
+            if (flEnginePool != null) {
+                FaceImage faceImage = createFaceImage(frame, faceInfo, width, height, format);
+                if (!flScheduler.submit(new FaceLivenessDetectRunnable(faceImage, format, trackId, getArea(faceInfo), livenessType))) {
+                    faceImage.release();
+                    metrics.increment(PipelineMetrics.Counter.FL_BUSY);
+                    faceListener.onFaceLivenessInfoGet(null, trackId, ERROR_BUSY);
+                }
             } else {
                 faceListener.onFaceLivenessInfoGet(null, trackId, ERROR_BUSY);
             }
@@ -167,31 +273,61 @@ public class FaceHelper {
      * 释放对象
      */
     public void release() {
-        if (!frExecutor.isShutdown()) {
-            frExecutor.shutdownNow();
-            frThreadQueue.clear();
-        }
-        if (!flExecutor.isShutdown()) {
-            flExecutor.shutdownNow();
-            flThreadQueue.clear();
+        frScheduler.shutdownNow();
+        flScheduler.shutdownNow();
+        if (featureFrameSelector != null) {
+            featureFrameSelector.clear();
         }
         if (faceInfoList != null) {
             faceInfoList.clear();
         }
-        if (frThreadQueue != null) {
-            frThreadQueue.clear();
-            frThreadQueue = null;
+        trackTimer.stop();
+        trackRegistry.clear();
+        faceListener = null;
+        faceInfoList = null;
+    }
+
+    /**
+     * 创建任务使用的图像，开启人脸区域裁剪时只复制人脸区域，否则持有整个预览帧
+     */
+    private FaceImage createFaceImage(PreviewFrame frame, FaceInfo faceInfo, int width, int height, int format) {
+        if (roiBufferPool != null && format == FaceEngine.CP_PAF_NV21) {
+            return FaceImage.cropOf(frame, width, height, faceInfo, roiBufferPool);
         }
-        if (flThreadQueue != null) {
-            flThreadQueue.clear();
-            flThreadQueue = null;
+        return FaceImage.ofFrame(frame, width, height, faceInfo);
+    }
+
+    /**
+     * 从引擎池中取出引擎
+     *
+     * @param enginePool 引擎池
+     * @return 引擎，引擎池为空、已销毁或等待时被中断时返回null
+     */
+    private static FaceEngine acquireEngine(FaceEnginePool enginePool) {
+        if (enginePool == null) {
+            return null;
         }
-        if (nameMap != null) {
-            nameMap.clear();
+        try {
+            return enginePool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
-        nameMap = null;
-        faceListener = null;
-        faceInfoList = null;
+    }
+
+    private static long getArea(FaceInfo faceInfo) {
+        return (long) faceInfo.getRect().width() * faceInfo.getRect().height();
+    }
+
+    /**
+     * 判断帧尺寸是否与人脸检测使用的预览尺寸相同
+     *
+     * @param width  帧宽度
+     * @param height 帧高度
+     * @return 不同时（如切换相机前采集的帧）该帧不能交给{@link #onPreviewFrame(byte[])}处理
+     */
+    public boolean matchesPreviewSize(int width, int height) {
+        return previewSize.width == width && previewSize.height == height;
     }
 
     /**
@@ -202,25 +338,37 @@ public class FaceHelper {
      */
     public List<FacePreviewInfo> onPreviewFrame(byte[] nv21) {
         if (faceListener != null) {
+            metrics.increment(PipelineMetrics.Counter.PROCESSED_FRAME);
+            long frameStartTime = tracer.begin();
             if (ftEngine != null) {
-                faceInfoList.clear();
-                long ftStartTime = System.currentTimeMillis();
-                int code = ftEngine.detectFaces(nv21, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, faceInfoList);
-                if (code != ErrorInfo.MOK) {
-                    faceListener.onFail(new Exception("ft failed,code is " + code));
+                lastFrameDetected = detectScheduler.shouldDetect();
+                if (lastFrameDetected) {
+                    faceInfoList.clear();
+                    long ftStartTime = System.currentTimeMillis();
+                    long ftStartNanos = PipelineMetrics.now();
+                    int code = ftEngine.detectFaces(nv21, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, faceInfoList);
+                    if (code != ErrorInfo.MOK) {
+                        faceListener.onFail(new Exception("ft failed,code is " + code));
+                    } else {
+                        metrics.recordSince(PipelineMetrics.Stage.DETECT, ftStartNanos);
+                    }
+                    tracer.end("detectFaces", PipelineTracer.NO_TRACK, ftStartNanos);
+                    /*
+                     * 若需要多人脸搜索，删除此行代码
+                     */
+                    TrackUtil.keepMaxFace(faceInfoList);
+                    detectScheduler.onDetected(faceInfoList, System.currentTimeMillis() - ftStartTime);
                 } else {
-//                    Log.i(TAG, "onPreviewFrame: ft costTime = " + (System.currentTimeMillis() - ftStartTime) + "ms");
+                    // 未检测的帧使用推算的人脸框
+                    detectScheduler.predict(faceInfoList);
                 }
-                /*
-                 * 若需要多人脸搜索，删除此行代码
-                 */
-                TrackUtil.keepMaxFace(faceInfoList);
                 refreshTrackId(faceInfoList);
             }
             facePreviewInfoList.clear();
             for (int i = 0; i < faceInfoList.size(); i++) {
-                facePreviewInfoList.add(new FacePreviewInfo(faceInfoList.get(i), currentTrackIdList.get(i)));
+                facePreviewInfoList.add(new FacePreviewInfo(faceInfoList.get(i), currentTrackIds[i]));
             }
+            tracer.end("onPreviewFrame", PipelineTracer.NO_TRACK, frameStartTime);
 
             return facePreviewInfoList;
         } else {
@@ -229,41 +377,73 @@ public class FaceHelper {
         }
     }
 
+    /**
+     * 最近一次{@link #onPreviewFrame(byte[])}的人脸框是否由检测得到，
+     * 推算的人脸框只用于绘制，特征提取和活体检测应在检测得到人脸框的帧上进行
+     *
+     * @return 是否由检测得到
+     */
+    public boolean isLastFrameDetected() {
+        return lastFrameDetected;
+    }
+
     /**
      * 人脸特征提取线程
      */
-    public class FaceRecognizeRunnable implements Runnable {
-        private FaceInfo faceInfo;
-        private int width;
-        private int height;
+    public class FaceRecognizeRunnable extends FaceTask {
+        private FaceImage faceImage;
         private int format;
         private Integer trackId;
-        private byte[] nv21Data;
 
-        private FaceRecognizeRunnable(byte[] nv21Data, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
-            if (nv21Data == null) {
-                return;
-            }
-            this.nv21Data = nv21Data;
-            this.faceInfo = new FaceInfo(faceInfo);
-            this.width = width;
-            this.height = height;
+        private FaceRecognizeRunnable(FaceImage faceImage, int format, Integer trackId, long faceArea) {
+            super(trackId, faceArea);
+            this.faceImage = faceImage;
             this.format = format;
             this.trackId = trackId;
         }
 
+        @Override
+        void onBusy() {
+            metrics.increment(PipelineMetrics.Counter.FR_BUSY);
+            FaceListener listener = faceListener;
+            if (listener != null) {
+                listener.onFaceFeatureInfoGet(null, trackId, ERROR_BUSY);
+            }
+        }
+
+        @Override
+        void discard() {
+            faceImage.release();
+        }
+
         @Override
         public void run() {
-            if (faceListener != null && nv21Data != null) {
+            try {
+                recognize();
+            } finally {
+                faceImage.release();
+            }
+        }
+
+        private void recognize() {
+            if (faceListener != null) {
+                FaceEngine frEngine = acquireEngine(frEnginePool);
                 if (frEngine != null) {
+                    metrics.recordSince(PipelineMetrics.Stage.FR_QUEUE_WAIT, submitTime);
+                    tracer.end("frQueue", trackId, submitTime);
                     FaceFeature faceFeature = new FaceFeature();
-                    long frStartTime = System.currentTimeMillis();
+                    long frStartTime;
                     int frCode;
-                    synchronized (frEngine) {
-                        frCode = frEngine.extractFaceFeature(nv21Data, width, height, format, faceInfo, faceFeature);
+                    // 从引擎池取出的引擎由当前线程独占，无需加锁
+                    try {
+                        frStartTime = PipelineMetrics.now();
+                        frCode = frEngine.extractFaceFeature(faceImage.getData(), faceImage.getWidth(), faceImage.getHeight(), format, faceImage.getFaceInfo(), faceFeature);
+                        tracer.end("extractFaceFeature", trackId, frStartTime);
+                    } finally {
+                        frEnginePool.release(frEngine);
                     }
                     if (frCode == ErrorInfo.MOK) {
-//                        Log.i(TAG, "run: fr costTime = " + (System.currentTimeMillis() - frStartTime) + "ms");
+                        metrics.recordSince(PipelineMetrics.Stage.EXTRACT, frStartTime);
                         faceListener.onFaceFeatureInfoGet(faceFeature, trackId, frCode);
                     } else {
                         faceListener.onFaceFeatureInfoGet(null, trackId, frCode);
@@ -274,57 +454,84 @@ public class FaceHelper {
                     faceListener.onFail(new Exception("fr failed ,frEngine is null"));
                 }
             }
-            nv21Data = null;
         }
     }
 
     /**
      * 活体检测的线程
      */
-    public class FaceLivenessDetectRunnable implements Runnable {
-        private FaceInfo faceInfo;
-        private int width;
-        private int height;
+    public class FaceLivenessDetectRunnable extends FaceTask {
+        private FaceImage faceImage;
         private int format;
         private Integer trackId;
-        private byte[] nv21Data;
         private LivenessType livenessType;
 
-        private FaceLivenessDetectRunnable(byte[] nv21Data, FaceInfo faceInfo, int width, int height, int format, Integer trackId, LivenessType livenessType) {
-            if (nv21Data == null) {
-                return;
-            }
-            this.nv21Data = nv21Data;
-            this.faceInfo = new FaceInfo(faceInfo);
-            this.width = width;
-            this.height = height;
+        private FaceLivenessDetectRunnable(FaceImage faceImage, int format, Integer trackId, long faceArea, LivenessType livenessType) {
+            super(trackId, faceArea);
+            this.faceImage = faceImage;
             this.format = format;
             this.trackId = trackId;
             this.livenessType = livenessType;
         }
 
+        @Override
+        void onBusy() {
+            metrics.increment(PipelineMetrics.Counter.FL_BUSY);
+            FaceListener listener = faceListener;
+            if (listener != null) {
+                listener.onFaceLivenessInfoGet(null, trackId, ERROR_BUSY);
+            }
+        }
+
+        @Override
+        void discard() {
+            faceImage.release();
+        }
+
         @Override
         public void run() {
-            if (faceListener != null && nv21Data != null) {
+            try {
+                detectLiveness();
+            } finally {
+                faceImage.release();
+            }
+        }
+
+        private void detectLiveness() {
+            if (faceListener != null) {
+                FaceEngine flEngine = acquireEngine(flEnginePool);
                 if (flEngine != null) {
+                    metrics.recordSince(PipelineMetrics.Stage.FL_QUEUE_WAIT, submitTime);
+                    tracer.end("flQueue", trackId, submitTime);
+                    byte[] nv21Data = faceImage.getData();
+                    int width = faceImage.getWidth();
+                    int height = faceImage.getHeight();
+                    List<FaceInfo> faceInfoList = Arrays.asList(faceImage.getFaceInfo());
                     List<LivenessInfo> livenessInfoList = new ArrayList<>();
                     int flCode;
-                    synchronized (flEngine) {
+                    long flStartTime;
+                    // 处理和获取结果需在同一个引擎上完成，引擎在归还前由当前线程独占
+                    try {
+                        flStartTime = PipelineMetrics.now();
                         if (livenessType == LivenessType.RGB) {
-                            flCode = flEngine.process(nv21Data, width, height, format, Arrays.asList(faceInfo), FaceEngine.ASF_LIVENESS);
+                            flCode = flEngine.process(nv21Data, width, height, format, faceInfoList, FaceEngine.ASF_LIVENESS);
                         } else {
-                            flCode = flEngine.processIr(nv21Data, width, height, format, Arrays.asList(faceInfo), FaceEngine.ASF_IR_LIVENESS);
+                            flCode = flEngine.processIr(nv21Data, width, height, format, faceInfoList, FaceEngine.ASF_IR_LIVENESS);
                         }
-                    }
-                    if (flCode == ErrorInfo.MOK) {
-                        if (livenessType == LivenessType.RGB) {
-                            flCode = flEngine.getLiveness(livenessInfoList);
-                        } else {
-                            flCode = flEngine.getIrLiveness(livenessInfoList);
+                        if (flCode == ErrorInfo.MOK) {
+                            if (livenessType == LivenessType.RGB) {
+                                flCode = flEngine.getLiveness(livenessInfoList);
+                            } else {
+                                flCode = flEngine.getIrLiveness(livenessInfoList);
+                            }
                         }
+                        tracer.end("liveness", trackId, flStartTime);
+                    } finally {
+                        flEnginePool.release(flEngine);
                     }
 
                     if (flCode == ErrorInfo.MOK && livenessInfoList.size() > 0) {
+                        metrics.recordSince(PipelineMetrics.Stage.LIVENESS, flStartTime);
                         faceListener.onFaceLivenessInfoGet(livenessInfoList.get(0), trackId, flCode);
                     } else {
                         faceListener.onFaceLivenessInfoGet(null, trackId, flCode);
@@ -335,7 +542,6 @@ public class FaceHelper {
                     faceListener.onFail(new Exception("fl failed ,frEngine is null"));
                 }
             }
-            nv21Data = null;
         }
     }
 
@@ -346,17 +552,10 @@ public class FaceHelper {
      * @param ftFaceList 传入的人脸列表
      */
     private void refreshTrackId(List<FaceInfo> ftFaceList) {
-        currentTrackIdList.clear();
-
-        for (FaceInfo faceInfo : ftFaceList) {
-            currentTrackIdList.add(faceInfo.getFaceId() + trackedFaceCount);
-        }
+        currentTrackIds = trackRegistry.refresh(ftFaceList, trackedFaceCount, System.currentTimeMillis());
         if (ftFaceList.size() > 0) {
             currentMaxFaceId = ftFaceList.get(ftFaceList.size() - 1).getFaceId();
         }
-
-        //刷新nameMap
-        clearLeftName(currentTrackIdList);
     }
 
     /**
@@ -369,6 +568,29 @@ public class FaceHelper {
         return trackedFaceCount + currentMaxFaceId + 1;
     }
 
+    /**
+     * 获取人脸的识别状态，人脸出现在画面中时由{@link #onPreviewFrame(byte[])}创建，离开画面后删除
+     *
+     * @param trackId 人脸的trackId
+     * @return 人脸状态，人脸已离开画面时返回null
+     */
+    public TrackState getTrackState(int trackId) {
+        return trackRegistry.get(trackId);
+    }
+
+    /**
+     * 为人脸添加延时任务，任务在定时器线程中执行，人脸离开画面时自动取消
+     *
+     * @param trackId 人脸的trackId
+     * @param delayMs 延时（ms）
+     * @param task    任务
+     * @return 是否添加成功，人脸已离开画面或已释放时返回false
+     */
+    public boolean scheduleTrackTask(int trackId, long delayMs, Runnable task) {
+        TrackState trackState = trackRegistry.get(trackId);
+        return trackState != null && trackTimer.schedule(trackState, delayMs, task) != null;
+    }
+
     /**
      * 新增搜索成功的人脸
      *
@@ -376,39 +598,39 @@ public class FaceHelper {
      * @param name    trackId对应的人脸
      */
     public void setName(int trackId, String name) {
-        if (nameMap != null) {
-            nameMap.put(trackId, name);
+        TrackState trackState = trackRegistry.get(trackId);
+        if (trackState != null) {
+            trackState.setName(name);
         }
     }
 
     public String getName(int trackId) {
-        return nameMap == null ? null : nameMap.get(trackId);
+        TrackState trackState = trackRegistry.get(trackId);
+        return trackState == null ? null : trackState.getName();
     }
 
     /**
-     * 清除map中已经离开的人脸
+     * 获取性能统计，未通过{@link Builder#metrics(PipelineMetrics)}指定时为内部创建的实例
      *
-     * @param trackIdList 最新的trackIdList
-     */
-    private void clearLeftName(List<Integer> trackIdList) {
-        Enumeration<Integer> keys = nameMap.keys();
-        while (keys.hasMoreElements()) {
-            int value = keys.nextElement();
-            if (!trackIdList.contains(value)) {
-                nameMap.remove(value);
-            }
-        }
+     * @return 性能统计
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
     }
 
     public static final class Builder {
         private FaceEngine ftEngine;
-        private FaceEngine frEngine;
-        private FaceEngine flEngine;
+        private FaceEnginePool frEnginePool;
+        private FaceEnginePool flEnginePool;
         private Camera.Size previewSize;
         private FaceListener faceListener;
         private int frQueueSize;
         private int flQueueSize;
         private int trackedFaceCount;
+        private int maxDetectInterval;
+        private boolean cropFaceRoi;
+        private int featureFrameWindow;
+        private PipelineMetrics metrics;
 
         public Builder() {
         }
@@ -419,13 +641,35 @@ public class FaceHelper {
             return this;
         }
 
+        /**
+         * 单个特征提取引擎，所有特征提取串行执行，需要并行时使用{@link #frEnginePool(FaceEnginePool)}
+         */
         public Builder frEngine(FaceEngine val) {
-            frEngine = val;
+            frEnginePool = val == null ? null : new FaceEnginePool(Collections.singletonList(val));
             return this;
         }
 
+        /**
+         * 单个活体检测引擎，所有活体检测串行执行，需要并行时使用{@link #flEnginePool(FaceEnginePool)}
+         */
         public Builder flEngine(FaceEngine val) {
-            flEngine = val;
+            flEnginePool = val == null ? null : new FaceEnginePool(Collections.singletonList(val));
+            return this;
+        }
+
+        /**
+         * 特征提取引擎池，特征提取线程数与引擎数相同
+         */
+        public Builder frEnginePool(FaceEnginePool val) {
+            frEnginePool = val;
+            return this;
+        }
+
+        /**
+         * 活体检测引擎池，活体检测线程数与引擎数相同
+         */
+        public Builder flEnginePool(FaceEnginePool val) {
+            flEnginePool = val;
             return this;
         }
 
@@ -456,6 +700,38 @@ public class FaceHelper {
             return this;
         }
 
+        /**
+         * 最大检测间隔，画面静止时每隔若干帧才执行一次人脸检测，默认为1，即每帧都检测
+         */
+        public Builder maxDetectInterval(int val) {
+            maxDetectInterval = val;
+            return this;
+        }
+
+        /**
+         * 是否在提交特征提取和活体检测任务前裁剪出人脸区域，任务只持有人脸区域的小缓冲区而不是整个预览帧
+         */
+        public Builder cropFaceRoi(boolean val) {
+            cropFaceRoi = val;
+            return this;
+        }
+
+        /**
+         * 特征提取的选帧窗口（候选帧数），每个人脸在窗口内挑选质量最好的一帧提取特征，默认为1，即不选帧
+         */
+        public Builder featureFrameWindow(int val) {
+            featureFrameWindow = val;
+            return this;
+        }
+
+        /**
+         * 性能统计，多个FaceHelper可共用同一个实例，不指定时内部创建
+         */
+        public Builder metrics(PipelineMetrics val) {
+            metrics = val;
+            return this;
+        }
+
         public FaceHelper build() {
             return new FaceHelper(this);
         }
@@ -0,0 +1,80 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.arcfacedemo.util.ByteArrayPool;
+import com.arcsoft.arcfacedemo.util.NV21Util;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
+import com.arcsoft.face.FaceInfo;
+
+/**
+ * 特征提取和活体检测任务使用的图像，可以是整个预览帧，也可以是从预览帧中裁剪出的人脸区域
+ */
+class FaceImage {
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final FaceInfo faceInfo;
+    private PreviewFrame frame;
+    private ByteArrayPool bufferPool;
+
+    private FaceImage(byte[] data, int width, int height, FaceInfo faceInfo) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.faceInfo = faceInfo;
+    }
+
+    /**
+     * 使用整个预览帧，持有预览帧的一个引用
+     */
+    static FaceImage ofFrame(PreviewFrame frame, int width, int height, FaceInfo faceInfo) {
+        FaceImage faceImage = new FaceImage(frame.getData(), width, height, new FaceInfo(faceInfo));
+        faceImage.frame = frame.retain();
+        return faceImage;
+    }
+
+    /**
+     * 将人脸区域裁剪到池中的缓冲区，人脸框换算到裁剪后的坐标，不持有预览帧
+     */
+    static FaceImage cropOf(PreviewFrame frame, int width, int height, FaceInfo faceInfo, ByteArrayPool bufferPool) {
+        Rect roi = NV21Util.getFaceRoi(width, height, faceInfo.getRect());
+        byte[] roiData = bufferPool.obtain(roi.width() * roi.height() * 3 / 2);
+        NV21Util.crop(frame.getData(), width, height, roi, roiData);
+        FaceInfo roiFaceInfo = new FaceInfo(faceInfo);
+        roiFaceInfo.getRect().offset(-roi.left, -roi.top);
+        FaceImage faceImage = new FaceImage(roiData, roi.width(), roi.height(), roiFaceInfo);
+        faceImage.bufferPool = bufferPool;
+        return faceImage;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    FaceInfo getFaceInfo() {
+        return faceInfo;
+    }
+
+    /**
+     * 释放预览帧或归还缓冲区，可重复调用
+     */
+    synchronized void release() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+        if (bufferPool != null) {
+            bufferPool.recycle(data);
+            bufferPool = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+/**
+ * {@link FaceTaskScheduler}调度的特征提取或活体检测任务
+ */
+abstract class FaceTask implements Runnable {
+    final int trackId;
+    /**
+     * 人脸面积，同一轮次中面积大的人脸优先
+     */
+    final long faceArea;
+    /**
+     * 该人脸的第几次请求，从0开始，次数少的优先，由调度器设置
+     */
+    int attempt;
+    /**
+     * 提交顺序，优先级相同时先提交的优先，由调度器设置
+     */
+    long sequence;
+    /**
+     * 提交时间（ns），用于统计排队时间，由调度器设置
+     */
+    long submitTime;
+
+    FaceTask(int trackId, long faceArea) {
+        this.trackId = trackId;
+        this.faceArea = faceArea;
+    }
+
+    /**
+     * 优先级是否高于另一个任务
+     */
+    boolean isPriorTo(FaceTask other) {
+        if (attempt != other.attempt) {
+            return attempt < other.attempt;
+        }
+        if (faceArea != other.faceArea) {
+            return faceArea > other.faceArea;
+        }
+        return sequence < other.sequence;
+    }
+
+    /**
+     * 任务因队列已满被挤出时调用，需回传忙碌的结果
+     */
+    abstract void onBusy();
+
+    /**
+     * 任务未执行就被丢弃时调用，需释放任务持有的资源，可能在{@link #onBusy()}之前调用。
+     * {@link #run()}抛出RuntimeException后也会调用，因此需可以重复调用
+     */
+    abstract void discard();
+}
@@ -0,0 +1,199 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按人脸调度的任务队列，替代先进先出的线程池
+ * <p>
+ * 1. 每个trackId最多只有一个等待中的任务，同一人脸的新任务替换旧任务，旧任务直接丢弃；
+ * 2. 首次请求的人脸优先于重试的人脸，请求次数相同时大脸优先；
+ * 3. 队列已满时，新任务优先级更高则挤出优先级最低的任务，否则拒绝新任务；
+ * 4. 人脸离开画面后通过{@link #cancelTrack(int)}取消其等待中的任务，不再为已离开的人脸执行任务；
+ * 5. 任务抛出的RuntimeException被捕获，工作线程继续执行后续任务，线程数不会因个别任务失败而减少。
+ * <p>
+ * 每个人脸的等待任务和请求次数保存在以trackId为键的{@link IntMap}中，提交和取消时不装箱
+ */
+class FaceTaskScheduler {
+    private final int capacity;
+    private final IntMap<TrackTasks> trackTasksMap = new IntMap<>();
+    private int pendingCount = 0;
+    private final Thread[] workers;
+    private long nextSequence = 0;
+    private boolean shutdown = false;
+
+    /**
+     * 某个人脸的调度状态，人脸离开画面前一直保留
+     */
+    private static class TrackTasks {
+        private FaceTask pendingTask;
+        /**
+         * 已提交的任务数
+         */
+        private int attempt;
+    }
+
+    /**
+     * @param name      线程名
+     * @param threadNum 执行任务的线程数
+     * @param capacity  最多等待的任务数
+     */
+    FaceTaskScheduler(String name, int threadNum, int capacity) {
+        this.capacity = capacity;
+        workers = new Thread[threadNum];
+        for (int i = 0; i < threadNum; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workLoop();
+                }
+            }, name + "-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task 任务
+     * @return 是否接受，未接受的任务由调用方处理
+     */
+    boolean submit(FaceTask task) {
+        FaceTask replacedTask;
+        FaceTask evictedTask = null;
+        synchronized (this) {
+            if (shutdown) {
+                return false;
+            }
+            task.sequence = nextSequence++;
+            task.submitTime = System.nanoTime();
+            TrackTasks trackTasks = trackTasksMap.get(task.trackId);
+            replacedTask = trackTasks == null ? null : trackTasks.pendingTask;
+            if (replacedTask != null) {
+                // 替换未执行的任务不计入请求次数
+                task.attempt = replacedTask.attempt;
+            } else {
+                task.attempt = trackTasks == null ? 0 : trackTasks.attempt;
+            }
+            if (replacedTask == null && pendingCount >= capacity) {
+                TrackTasks lowestTasks = null;
+                for (int i = 0; i < trackTasksMap.slotCount(); i++) {
+                    TrackTasks pendingTasks = trackTasksMap.valueAt(i);
+                    if (pendingTasks != null && pendingTasks.pendingTask != null
+                            && (lowestTasks == null || lowestTasks.pendingTask.isPriorTo(pendingTasks.pendingTask))) {
+                        lowestTasks = pendingTasks;
+                    }
+                }
+                if (lowestTasks == null || !task.isPriorTo(lowestTasks.pendingTask)) {
+                    return false;
+                }
+                evictedTask = lowestTasks.pendingTask;
+                lowestTasks.pendingTask = null;
+                pendingCount--;
+            }
+            if (trackTasks == null) {
+                trackTasks = new TrackTasks();
+                trackTasksMap.put(task.trackId, trackTasks);
+            }
+            if (replacedTask == null) {
+                pendingCount++;
+            }
+            trackTasks.pendingTask = task;
+            trackTasks.attempt = task.attempt + 1;
+            notify();
+        }
+        // 被替换的任务由新任务回传结果
+        if (replacedTask != null) {
+            replacedTask.discard();
+        }
+        if (evictedTask != null) {
+            evictedTask.discard();
+            evictedTask.onBusy();
+        }
+        return true;
+    }
+
+    /**
+     * 人脸离开画面时取消其等待中的任务，并清除其请求次数
+     *
+     * @param trackId 离开画面的人脸
+     */
+    void cancelTrack(int trackId) {
+        FaceTask canceledTask;
+        synchronized (this) {
+            TrackTasks trackTasks = trackTasksMap.remove(trackId);
+            canceledTask = trackTasks == null ? null : trackTasks.pendingTask;
+            if (canceledTask != null) {
+                pendingCount--;
+            }
+        }
+        if (canceledTask != null) {
+            canceledTask.discard();
+        }
+    }
+
+    /**
+     * 结束所有线程，等待中的任务被丢弃，正在执行的任务会被中断
+     */
+    void shutdownNow() {
+        List<FaceTask> canceledTasks;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            canceledTasks = new ArrayList<>(pendingCount);
+            for (int i = 0; i < trackTasksMap.slotCount(); i++) {
+                TrackTasks trackTasks = trackTasksMap.valueAt(i);
+                if (trackTasks != null && trackTasks.pendingTask != null) {
+                    canceledTasks.add(trackTasks.pendingTask);
+                }
+            }
+            trackTasksMap.clear();
+            pendingCount = 0;
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (FaceTask task : canceledTasks) {
+            task.discard();
+        }
+    }
+
+    private void workLoop() {
+        while (true) {
+            FaceTask task;
+            synchronized (this) {
+                while (!shutdown && pendingCount == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                TrackTasks highestTasks = null;
+                for (int i = 0; i < trackTasksMap.slotCount(); i++) {
+                    TrackTasks pendingTasks = trackTasksMap.valueAt(i);
+                    if (pendingTasks != null && pendingTasks.pendingTask != null
+                            && (highestTasks == null || pendingTasks.pendingTask.isPriorTo(highestTasks.pendingTask))) {
+                        highestTasks = pendingTasks;
+                    }
+                }
+                task = highestTasks.pendingTask;
+                highestTasks.pendingTask = null;
+                pendingCount--;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // 与线程池不同，工作线程结束后不会被替换，不能让异常结束线程
+                e.printStackTrace();
+                task.discard();
+            }
+        }
+    }
+}
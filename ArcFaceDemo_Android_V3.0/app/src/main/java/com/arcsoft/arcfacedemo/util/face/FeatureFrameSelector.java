@@ -0,0 +1,161 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.arcfacedemo.util.ByteArrayPool;
+import com.arcsoft.arcfacedemo.util.NV21Util;
+import com.arcsoft.arcfacedemo.util.camera.PreviewFrame;
+import com.arcsoft.face.Face3DAngle;
+import com.arcsoft.face.FaceInfo;
+
+/**
+ * 特征提取的选帧：每个人脸在连续若干个候选帧中保留质量最好的一帧，窗口结束或遇到足够好的帧时才提取特征，
+ * 避免在模糊、侧脸或过小的人脸上提取特征导致低置信度失败和反复重试
+ * <p>
+ * 质量分数由人脸大小、姿态角度和人脸区域的清晰度相乘得到，取值范围[0, 1]。
+ * 保留的候选帧只复制人脸区域，不持有预览帧。选帧状态以trackId为键保存在{@link IntMap}中，窗口结束后复用，
+ * 每帧提交候选帧时不装箱
+ */
+class FeatureFrameSelector {
+    /**
+     * 人脸框短边达到该值（像素）时大小得分为1
+     */
+    private static final int FACE_SIZE_REFERENCE = 160;
+    /**
+     * 偏航角或俯仰角达到该值（度）时姿态得分为0
+     */
+    private static final float MAX_POSE_ANGLE = 45f;
+    /**
+     * 平均亮度梯度达到该值时清晰度得分为1
+     */
+    private static final float SHARPNESS_REFERENCE = 12f;
+    /**
+     * 得分达到该值时不再等待，直接提取特征
+     */
+    private static final float GOOD_SCORE = 0.8f;
+    private static final int BUFFER_POOL_SIZE = 8;
+
+    private final int window;
+    private final ByteArrayPool bufferPool = new ByteArrayPool(BUFFER_POOL_SIZE);
+    private final IntMap<Selection> selectionMap = new IntMap<>();
+
+    /**
+     * 某个人脸当前窗口的选帧状态
+     */
+    private static class Selection {
+        private int frameCount;
+        private float bestScore = -1;
+        private FaceImage bestImage;
+
+        private void release() {
+            if (bestImage != null) {
+                bestImage.release();
+                bestImage = null;
+            }
+        }
+
+        /**
+         * 开始下一个窗口
+         *
+         * @return 当前窗口选中的帧
+         */
+        private FaceImage reset() {
+            FaceImage image = bestImage;
+            bestImage = null;
+            bestScore = -1;
+            frameCount = 0;
+            return image;
+        }
+    }
+
+    /**
+     * @param window 每个人脸最多等待的候选帧数
+     */
+    FeatureFrameSelector(int window) {
+        this.window = window;
+    }
+
+    /**
+     * 计算候选帧的质量分数
+     *
+     * @param nv21        预览帧数据
+     * @param width       图像宽度
+     * @param height      图像高度
+     * @param faceInfo    人脸信息
+     * @param face3DAngle 人脸角度，为null时不考虑姿态
+     * @return 质量分数
+     */
+    static float score(byte[] nv21, int width, int height, FaceInfo faceInfo, Face3DAngle face3DAngle) {
+        Rect rect = faceInfo.getRect();
+        float sizeScore = Math.min(1f, (float) Math.min(rect.width(), rect.height()) / FACE_SIZE_REFERENCE);
+        float poseScore = 1f;
+        if (face3DAngle != null && face3DAngle.getStatus() == 0) {
+            float angle = Math.max(Math.abs(face3DAngle.getYaw()), Math.abs(face3DAngle.getPitch()));
+            poseScore = Math.max(0f, 1f - angle / MAX_POSE_ANGLE);
+        }
+        float sharpnessScore = Math.min(1f, NV21Util.getSharpness(nv21, width, height, rect) / SHARPNESS_REFERENCE);
+        return sizeScore * poseScore * sharpnessScore;
+    }
+
+    /**
+     * 提交候选帧，得分高于当前保留的帧时复制其人脸区域
+     *
+     * @param trackId  人脸的trackId
+     * @param frame    预览帧
+     * @param width    图像宽度
+     * @param height   图像高度
+     * @param faceInfo 人脸信息
+     * @param score    质量分数
+     * @return 是否已选出，为true时通过{@link #take(int)}取出选中的帧
+     */
+    synchronized boolean offer(int trackId, PreviewFrame frame, int width, int height, FaceInfo faceInfo, float score) {
+        Selection selection = selectionMap.get(trackId);
+        if (selection == null) {
+            selection = new Selection();
+            selectionMap.put(trackId, selection);
+        }
+        selection.frameCount++;
+        if (score > selection.bestScore) {
+            selection.release();
+            selection.bestImage = FaceImage.cropOf(frame, width, height, faceInfo, bufferPool);
+            selection.bestScore = score;
+        }
+        return score >= GOOD_SCORE || selection.frameCount >= window;
+    }
+
+    /**
+     * 取出选中的帧并开始下一个窗口，取出的图像由调用方释放
+     *
+     * @param trackId 人脸的trackId
+     * @return 选中的帧，没有候选帧时返回null
+     */
+    synchronized FaceImage take(int trackId) {
+        Selection selection = selectionMap.get(trackId);
+        return selection == null ? null : selection.reset();
+    }
+
+    /**
+     * 人脸离开画面时丢弃其候选帧
+     *
+     * @param trackId 离开画面的人脸
+     */
+    synchronized void removeTrack(int trackId) {
+        Selection selection = selectionMap.remove(trackId);
+        if (selection != null) {
+            selection.release();
+        }
+    }
+
+    /**
+     * 丢弃所有候选帧
+     */
+    synchronized void clear() {
+        for (int i = 0; i < selectionMap.slotCount(); i++) {
+            Selection selection = selectionMap.valueAt(i);
+            if (selection != null) {
+                selection.release();
+            }
+        }
+        selectionMap.clear();
+    }
+}
@@ -0,0 +1,163 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+/**
+ * 以int为键的散列表，开放寻址、线性探测，查找、插入和删除时键不装箱，除扩容外不分配内存
+ * <p>
+ * 删除时将后续探测链上的元素前移填补空位，不使用删除标记，表中不会积累无效槽位。
+ * 值不能为null，值为null的槽位为空。不是线程安全的，由调用方加锁。
+ * 遍历时通过{@link #slotCount()}和{@link #valueAt(int)}逐个访问槽位，遍历过程中只能通过{@link #removeAt(int)}删除
+ *
+ * @param <V> 值的类型
+ */
+class IntMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * 查找
+     *
+     * @param key 键
+     * @return 值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = values.length - 1;
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 插入或替换
+     *
+     * @param key   键
+     * @param value 值，不能为null
+     * @return 被替换的值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value can not be null");
+        }
+        int mask = values.length - 1;
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V oldValue = (V) values[i];
+                values[i] = value;
+                return oldValue;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        // 负载因子不超过0.5
+        if (++size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * 删除
+     *
+     * @param key 键
+     * @return 被删除的值，不存在时返回null
+     */
+    V remove(int key) {
+        int mask = values.length - 1;
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return removeAt(i);
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return 槽位数，遍历时使用
+     */
+    int slotCount() {
+        return values.length;
+    }
+
+    /**
+     * 获取槽位中的值
+     *
+     * @param slot 槽位
+     * @return 值，槽位为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * 删除槽位中的值。删除后可能有后续元素前移到该槽位，遍历时需要再次检查该槽位
+     *
+     * @param slot 非空的槽位
+     * @return 被删除的值
+     */
+    @SuppressWarnings("unchecked")
+    V removeAt(int slot) {
+        V removed = (V) values[slot];
+        int mask = values.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            // home不在(hole, i]之间时，该元素可以前移到空位而不中断其探测链
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        // trackId连续递增，打散后再取低位
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,6 +1,10 @@
 package com.arcsoft.arcfacedemo.util.face;
 
 public class RequestFeatureStatus {
+    /**
+     * 尚未请求特征提取
+     */
+    public static final int NONE = -1;
     public static final int SEARCHING = 0;
     public static final int SUCCEED = 1;
     public static final int FAILED = 2;
@@ -0,0 +1,98 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.face.FaceInfo;
+
+import java.util.List;
+
+/**
+ * 每帧的人脸状态维护：为画面中的人脸分配trackId并刷新其状态，删除已离开的人脸，
+ * 同时一次取消该人脸的延时任务、等待中的特征提取和活体检测任务以及候选帧
+ * <p>
+ * 由{@link FaceHelper}在预览帧处理线程中调用，不依赖Android，可以直接在JVM上做基准测试
+ */
+class TrackRegistry {
+    private final TrackStateTable trackStateTable;
+    /**
+     * 最近一次刷新中各人脸的trackId，与人脸列表的下标对应，只在人脸数增加时扩容
+     */
+    private int[] trackIds = new int[0];
+    /**
+     * 人脸列表的刷新序号
+     */
+    private long refreshGeneration = 0;
+
+    /**
+     * @param trackTimer           人脸的延时任务，为null时不取消
+     * @param frScheduler          特征提取任务调度，为null时不取消
+     * @param flScheduler          活体检测任务调度，为null时不取消
+     * @param featureFrameSelector 特征提取的选帧，为null时不取消
+     */
+    TrackRegistry(final TrackTimer trackTimer, final FaceTaskScheduler frScheduler, final FaceTaskScheduler flScheduler,
+                  final FeatureFrameSelector featureFrameSelector) {
+        trackStateTable = new TrackStateTable(new TrackStateTable.OnTrackRemovedListener() {
+            @Override
+            public void onTrackRemoved(TrackState trackState) {
+                int trackId = trackState.getTrackId();
+                if (trackTimer != null) {
+                    trackTimer.cancelAll(trackState);
+                }
+                if (frScheduler != null) {
+                    frScheduler.cancelTrack(trackId);
+                }
+                if (flScheduler != null) {
+                    flScheduler.cancelTrack(trackId);
+                }
+                if (featureFrameSelector != null) {
+                    featureFrameSelector.removeTrack(trackId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 刷新人脸列表：trackId为faceId加上偏移，出现的人脸创建或更新状态，未出现的人脸被删除
+     *
+     * @param faceList      当前帧的人脸
+     * @param trackIdOffset trackId相对faceId的偏移
+     * @param now           当前时间（ms）
+     * @return 各人脸的trackId，只有前faceList.size()个有效，下次刷新时被覆盖
+     */
+    int[] refresh(List<FaceInfo> faceList, int trackIdOffset, long now) {
+        int faceCount = faceList.size();
+        if (trackIds.length < faceCount) {
+            trackIds = new int[faceCount];
+        }
+        long generation = ++refreshGeneration;
+        for (int i = 0; i < faceCount; i++) {
+            int trackId = faceList.get(i).getFaceId() + trackIdOffset;
+            trackIds[i] = trackId;
+            TrackState trackState = trackStateTable.obtain(trackId, now);
+            trackState.generation = generation;
+            trackState.setUpdateTime(now);
+        }
+        trackStateTable.removeStale(generation);
+        return trackIds;
+    }
+
+    /**
+     * @param trackId 人脸的trackId
+     * @return 人脸状态，人脸已离开画面时返回null
+     */
+    TrackState get(int trackId) {
+        return trackStateTable.get(trackId);
+    }
+
+    /**
+     * @return 画面中的人脸数
+     */
+    int size() {
+        return trackStateTable.size();
+    }
+
+    /**
+     * 删除所有人脸状态
+     */
+    void clear() {
+        trackStateTable.clear();
+    }
+}
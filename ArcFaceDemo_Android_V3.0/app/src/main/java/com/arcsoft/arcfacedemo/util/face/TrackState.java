@@ -0,0 +1,181 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.arcfacedemo.faceserver.CompareResult;
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.LivenessInfo;
+
+/**
+ * 单个人脸（trackId）的识别状态，包括特征提取状态、活体结果、出错重试次数和显示的名字
+ * <p>
+ * 由{@link FaceHelper}在人脸出现时创建、离开画面时整体删除，人脸离开后回调中通过
+ * {@link FaceHelper#getTrackState(int)}取到null，不会再为已离开的人脸写入状态。
+ * 各字段可能在预览帧处理线程、特征提取和活体检测线程及主线程中读写，因此均为volatile
+ * <p>
+ * 特征提取和活体检测的结果在此汇合：先到的一方暂存结果，后到的一方取出并继续处理，不需要轮询等待
+ */
+public class TrackState {
+    private final int trackId;
+    private final long createTime;
+    private volatile long updateTime;
+    /**
+     * 特征提取状态，取值见{@link RequestFeatureStatus}
+     */
+    private volatile int featureStatus = RequestFeatureStatus.NONE;
+    /**
+     * 活体结果，取值见{@link LivenessInfo}和{@link RequestLivenessStatus}
+     */
+    private volatile int liveness = LivenessInfo.UNKNOWN;
+    private volatile int extractErrorRetryCount;
+    private volatile int livenessErrorRetryCount;
+    private volatile String name;
+    /**
+     * 等待活体结果的人脸特征，由本对象的锁保护
+     */
+    private FaceFeature pendingFeature;
+    /**
+     * 等待活体结果的比对结果，推测搜索时使用，由本对象的锁保护
+     */
+    private CompareResult pendingResult;
+    /**
+     * 最近一次出现在画面中时的刷新序号，由{@link TrackStateTable}用于删除已离开的人脸
+     */
+    long generation;
+    /**
+     * 是否已离开画面，由{@link TrackTimer}的锁保护
+     */
+    boolean removed;
+    /**
+     * 该人脸未执行的延时任务链表，由{@link TrackTimer}的锁保护
+     */
+    TrackTimer.Timeout timeoutHead;
+
+    TrackState(int trackId, long createTime) {
+        this.trackId = trackId;
+        this.createTime = createTime;
+        this.updateTime = createTime;
+    }
+
+    public int getTrackId() {
+        return trackId;
+    }
+
+    /**
+     * @return 人脸第一次出现的时间
+     */
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * @return 人脸最近一次出现在画面中的时间
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    public int getFeatureStatus() {
+        return featureStatus;
+    }
+
+    public void setFeatureStatus(int featureStatus) {
+        this.featureStatus = featureStatus;
+    }
+
+    public int getLiveness() {
+        return liveness;
+    }
+
+    public synchronized void setLiveness(int liveness) {
+        this.liveness = liveness;
+    }
+
+    /**
+     * 特征提取成功时调用，活体检测已通过时返回特征供立即搜索，否则暂存，
+     * 活体检测通过时通过{@link #takePendingFeature()}取出
+     *
+     * @param feature 人脸特征
+     * @return 可立即搜索的特征，暂存时返回null
+     */
+    public synchronized FaceFeature offerFeature(FaceFeature feature) {
+        if (liveness == LivenessInfo.ALIVE) {
+            return feature;
+        }
+        pendingFeature = feature;
+        return null;
+    }
+
+    /**
+     * 取出暂存的人脸特征
+     *
+     * @return 人脸特征，没有时返回null
+     */
+    public synchronized FaceFeature takePendingFeature() {
+        FaceFeature feature = pendingFeature;
+        pendingFeature = null;
+        return feature;
+    }
+
+    /**
+     * 搜索成功时调用，活体检测已通过时返回比对结果供立即显示，否则暂存，
+     * 活体检测通过时通过{@link #takePendingResult()}取出
+     *
+     * @param result 比对结果
+     * @return 可立即显示的比对结果，暂存时返回null
+     */
+    public synchronized CompareResult offerSearchResult(CompareResult result) {
+        if (liveness == LivenessInfo.ALIVE) {
+            return result;
+        }
+        pendingResult = result;
+        return null;
+    }
+
+    /**
+     * 取出暂存的比对结果
+     *
+     * @return 比对结果，没有时返回null
+     */
+    public synchronized CompareResult takePendingResult() {
+        CompareResult result = pendingResult;
+        pendingResult = null;
+        return result;
+    }
+
+    /**
+     * 特征提取出错次数增1，同一人脸同时只有一个特征提取任务，无需加锁
+     *
+     * @return 增1后的次数
+     */
+    public int increaseExtractErrorRetryCount() {
+        return ++extractErrorRetryCount;
+    }
+
+    public void resetExtractErrorRetryCount() {
+        extractErrorRetryCount = 0;
+    }
+
+    /**
+     * 活体检测出错次数增1，同一人脸同时只有一个活体检测任务，无需加锁
+     *
+     * @return 增1后的次数
+     */
+    public int increaseLivenessErrorRetryCount() {
+        return ++livenessErrorRetryCount;
+    }
+
+    public void resetLivenessErrorRetryCount() {
+        livenessErrorRetryCount = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
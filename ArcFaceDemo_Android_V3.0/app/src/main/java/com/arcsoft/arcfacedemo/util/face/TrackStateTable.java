@@ -0,0 +1,91 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+/**
+ * 以trackId为键的{@link TrackState}表，基于{@link IntMap}，查找时不装箱、不分配内存
+ * <p>
+ * 每次刷新人脸列表时为出现的人脸记录刷新序号，再通过{@link #removeStale(long)}一次删除所有已离开的人脸，
+ * 删除时通过{@link OnTrackRemovedListener}通知调用方，一次取消该人脸的延时任务、等待中的任务和候选帧
+ */
+class TrackStateTable {
+    private final IntMap<TrackState> stateMap = new IntMap<>();
+    private final OnTrackRemovedListener onTrackRemovedListener;
+
+    /**
+     * 人脸状态被删除时的回调，在表的锁内调用，不能再访问该表
+     */
+    interface OnTrackRemovedListener {
+        /**
+         * @param trackState 被删除的人脸状态
+         */
+        void onTrackRemoved(TrackState trackState);
+    }
+
+    /**
+     * @param onTrackRemovedListener 人脸状态被删除时的回调，为null时不回调
+     */
+    TrackStateTable(OnTrackRemovedListener onTrackRemovedListener) {
+        this.onTrackRemovedListener = onTrackRemovedListener;
+    }
+
+    /**
+     * 查找人脸状态
+     *
+     * @param trackId 人脸的trackId
+     * @return 人脸状态，不存在时返回null
+     */
+    synchronized TrackState get(int trackId) {
+        return stateMap.get(trackId);
+    }
+
+    /**
+     * 查找人脸状态，不存在时创建
+     *
+     * @param trackId 人脸的trackId
+     * @param time    创建时间
+     * @return 人脸状态
+     */
+    synchronized TrackState obtain(int trackId, long time) {
+        TrackState state = stateMap.get(trackId);
+        if (state == null) {
+            state = new TrackState(trackId, time);
+            stateMap.put(trackId, state);
+        }
+        return state;
+    }
+
+    /**
+     * 删除刷新序号不等于generation的人脸，即最近一次刷新中未出现的人脸
+     *
+     * @param generation 最近一次刷新的序号
+     */
+    synchronized void removeStale(long generation) {
+        for (int i = 0; i < stateMap.slotCount(); i++) {
+            // 删除后可能有元素前移到当前槽位，需要再次检查
+            TrackState state;
+            while ((state = stateMap.valueAt(i)) != null && state.generation != generation) {
+                stateMap.removeAt(i);
+                onRemoved(state);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return stateMap.size();
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < stateMap.slotCount(); i++) {
+            TrackState state = stateMap.valueAt(i);
+            if (state != null) {
+                onRemoved(state);
+            }
+        }
+        stateMap.clear();
+    }
+
+    private void onRemoved(TrackState state) {
+        if (onTrackRemovedListener != null) {
+            onTrackRemovedListener.onTrackRemoved(state);
+        }
+    }
+}
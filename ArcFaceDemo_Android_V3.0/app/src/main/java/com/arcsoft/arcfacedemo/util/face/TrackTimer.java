@@ -0,0 +1,224 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 人脸的延时任务，使用时间轮实现，所有人脸共用一个线程
+ * <p>
+ * 时间轮共wheelSize个槽位，每个槽位对应一个tick，任务按到期的tick放入对应槽位的双向链表，
+ * 线程每个tick只检查一个槽位，添加和取消任务都是O(1)。
+ * 同一人脸的任务另外串成一条链表，人脸离开画面时由{@link TrackStateTable}调用{@link #cancelAll(TrackState)}一次全部取消。
+ * 没有任务时线程一直等待，不会空转
+ */
+class TrackTimer {
+    private final long tickMs;
+    private final int mask;
+    private final Timeout[] wheel;
+    private final Thread worker;
+    private final long startTime;
+    /**
+     * 下一个要处理的tick
+     */
+    private long tick = 0;
+    private int pendingCount = 0;
+    private boolean stopped = false;
+
+    /**
+     * 延时任务，由{@link #schedule(TrackState, long, Runnable)}返回，可通过{@link #cancel(Timeout)}取消
+     */
+    static final class Timeout {
+        private final TrackState trackState;
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout trackPrev;
+        private Timeout trackNext;
+        /**
+         * 是否仍在时间轮中
+         */
+        private boolean pending = true;
+
+        private Timeout(TrackState trackState, Runnable task, long deadlineTick) {
+            this.trackState = trackState;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * @param name      线程名
+     * @param tickMs    每个tick的时长（ms），任务最多延迟一个tick执行
+     * @param wheelSize 时间轮槽位数，需为2的幂
+     */
+    TrackTimer(String name, long tickMs, int wheelSize) {
+        if (tickMs <= 0 || wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("invalid tickMs " + tickMs + " or wheelSize " + wheelSize);
+        }
+        this.tickMs = tickMs;
+        this.mask = wheelSize - 1;
+        this.wheel = new Timeout[wheelSize];
+        this.startTime = now();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                workLoop();
+            }
+        }, name);
+        worker.start();
+    }
+
+    /**
+     * 添加延时任务，任务在定时器线程中执行
+     *
+     * @param trackState 任务所属的人脸
+     * @param delayMs    延时（ms）
+     * @param task       任务
+     * @return 任务，人脸已离开画面或定时器已停止时返回null
+     */
+    synchronized Timeout schedule(TrackState trackState, long delayMs, Runnable task) {
+        if (stopped || trackState.removed) {
+            return null;
+        }
+        long elapsed = now() - startTime;
+        if (pendingCount == 0) {
+            // 时间轮为空时线程不计数，从当前tick开始
+            tick = Math.max(tick, elapsed / tickMs);
+        }
+        long deadlineTick = Math.max((elapsed + Math.max(delayMs, 0) + tickMs - 1) / tickMs, tick);
+        Timeout timeout = new Timeout(trackState, task, deadlineTick);
+        int index = (int) (deadlineTick & mask);
+        timeout.next = wheel[index];
+        if (wheel[index] != null) {
+            wheel[index].prev = timeout;
+        }
+        wheel[index] = timeout;
+        timeout.trackNext = trackState.timeoutHead;
+        if (trackState.timeoutHead != null) {
+            trackState.timeoutHead.trackPrev = timeout;
+        }
+        trackState.timeoutHead = timeout;
+        if (pendingCount++ == 0) {
+            notify();
+        }
+        return timeout;
+    }
+
+    /**
+     * 取消任务，任务已执行或已取消时无效果
+     *
+     * @param timeout 任务
+     */
+    synchronized void cancel(Timeout timeout) {
+        if (timeout != null && timeout.pending) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * 将人脸标记为已离开，并取消其所有任务，此后该人脸不能再添加任务
+     *
+     * @param trackState 人脸
+     */
+    synchronized void cancelAll(TrackState trackState) {
+        trackState.removed = true;
+        while (trackState.timeoutHead != null) {
+            unlink(trackState.timeoutHead);
+        }
+    }
+
+    /**
+     * 停止定时器，未执行的任务全部丢弃
+     */
+    void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            for (int i = 0; i < wheel.length; i++) {
+                while (wheel[i] != null) {
+                    unlink(wheel[i]);
+                }
+            }
+            notify();
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int index = (int) (timeout.deadlineTick & mask);
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        TrackState trackState = timeout.trackState;
+        if (timeout.trackPrev != null) {
+            timeout.trackPrev.trackNext = timeout.trackNext;
+        } else {
+            trackState.timeoutHead = timeout.trackNext;
+        }
+        if (timeout.trackNext != null) {
+            timeout.trackNext.trackPrev = timeout.trackPrev;
+        }
+        timeout.prev = timeout.next = timeout.trackPrev = timeout.trackNext = null;
+        timeout.pending = false;
+        pendingCount--;
+    }
+
+    private void workLoop() {
+        List<Runnable> expiredTasks = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!stopped) {
+                        if (pendingCount == 0) {
+                            wait();
+                            continue;
+                        }
+                        long waitTime = startTime + tick * tickMs - now();
+                        if (waitTime > 0) {
+                            wait(waitTime);
+                            continue;
+                        }
+                        // 同一槽位中可能有之后几轮才到期的任务
+                        Timeout timeout = wheel[(int) (tick & mask)];
+                        while (timeout != null) {
+                            Timeout next = timeout.next;
+                            if (timeout.deadlineTick <= tick) {
+                                unlink(timeout);
+                                expiredTasks.add(timeout.task);
+                            }
+                            timeout = next;
+                        }
+                        tick++;
+                        if (!expiredTasks.isEmpty()) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped) {
+                    return;
+                }
+            }
+            for (Runnable task : expiredTasks) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            expiredTasks.clear();
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
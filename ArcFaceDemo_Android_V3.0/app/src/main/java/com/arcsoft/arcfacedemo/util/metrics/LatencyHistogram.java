@@ -0,0 +1,159 @@
+package com.arcsoft.arcfacedemo.util.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定桶的耗时直方图，单位为微秒，记录时只做原子加法，不加锁，可在任意线程中调用
+ * <p>
+ * 64μs以下为一个桶，之后每个2的幂区间等分为{@link #SUB_BUCKET_COUNT}个桶，直到约4.2秒，超出的计入最后一个桶，
+ * 分位数的相对误差不超过25%。读取时各桶之间不是同一时刻的快照，用于调优足够
+ */
+public class LatencyHistogram {
+    /**
+     * 第一个桶的上界为2^MIN_EXPONENT微秒
+     */
+    private static final int MIN_EXPONENT = 6;
+    /**
+     * 最后一个正常桶的上界为2^MAX_EXPONENT微秒
+     */
+    private static final int MAX_EXPONENT = 22;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 1 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKET_COUNT + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     *
+     * @param costMicros 耗时（μs），小于0时按0记录
+     */
+    public void record(long costMicros) {
+        if (costMicros < 0) {
+            costMicros = 0;
+        }
+        buckets.incrementAndGet(indexOf(costMicros));
+        count.incrementAndGet();
+        sum.addAndGet(costMicros);
+        long currentMax;
+        while (costMicros > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, costMicros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 清空记录，与{@link #record(long)}同时执行时可能残留少量记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return 记录次数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return 平均耗时（μs），没有记录时返回0
+     */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @return 最大耗时（μs）
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 获取分位数，返回所在桶的上界，不超过最大耗时
+     *
+     * @param percentile 分位，取值范围(0, 100]
+     * @return 耗时（μs），没有记录时返回0
+     */
+    public long getPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100], but was " + percentile);
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * 各桶的分布，每行为桶的上界和记录次数，跳过空桶
+     *
+     * @return 分布文本
+     */
+    public String getDistribution() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = buckets.get(i);
+            if (bucketCount == 0) {
+                continue;
+            }
+            if (i == BUCKET_COUNT - 1) {
+                builder.append(String.format(Locale.US, "  >%8.2fms %d%n", upperBoundOf(i - 1) / 1000f, bucketCount));
+            } else {
+                builder.append(String.format(Locale.US, "  <=%7.2fms %d%n", upperBoundOf(i) / 1000f, bucketCount));
+            }
+        }
+        return builder.toString();
+    }
+
+    static int indexOf(long micros) {
+        if (micros < (1L << MIN_EXPONENT)) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        if (index >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (index - 1) / SUB_BUCKET_COUNT + MIN_EXPONENT;
+        int subBucket = (index - 1) % SUB_BUCKET_COUNT;
+        return (1L << exponent) + (long) (subBucket + 1) * (1L << (exponent - SUB_BUCKET_BITS));
+    }
+}
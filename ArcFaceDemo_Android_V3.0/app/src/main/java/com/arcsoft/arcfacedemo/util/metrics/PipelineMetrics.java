@@ -0,0 +1,209 @@
+package com.arcsoft.arcfacedemo.util.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 识别流程的性能统计：各阶段的耗时直方图和计数器，记录时不加锁，可在任意线程中调用
+ * <p>
+ * 通过{@link #getSummary()}获取简要信息用于界面显示，通过{@link #dump()}获取包含耗时分布的完整信息
+ */
+public class PipelineMetrics {
+
+    /**
+     * 耗时统计的阶段
+     */
+    public enum Stage {
+        /**
+         * 人脸检测
+         */
+        DETECT("detect"),
+        /**
+         * 活体检测，不含排队
+         */
+        LIVENESS("liveness"),
+        /**
+         * 特征提取，不含排队
+         */
+        EXTRACT("extract"),
+        /**
+         * 人脸库搜索
+         */
+        SEARCH("search"),
+        /**
+         * 特征提取任务从提交到取得引擎的等待时间
+         */
+        FR_QUEUE_WAIT("frQueue"),
+        /**
+         * 活体检测任务从提交到取得引擎的等待时间
+         */
+        FL_QUEUE_WAIT("flQueue");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * 计数项
+     */
+    public enum Counter {
+        /**
+         * 已处理的预览帧
+         */
+        PROCESSED_FRAME("frames"),
+        /**
+         * 未处理就被更新的帧替换的预览帧
+         */
+        DROPPED_FRAME("dropped"),
+        /**
+         * 因队列已满被拒绝或挤出的特征提取请求
+         */
+        FR_BUSY("frBusy"),
+        /**
+         * 因队列已满被拒绝或挤出的活体检测请求
+         */
+        FL_BUSY("flBusy"),
+        /**
+         * 特征提取或搜索失败后的重试
+         */
+        RECOGNIZE_RETRY("frRetry"),
+        /**
+         * 活体检测失败后的重试
+         */
+        LIVENESS_RETRY("flRetry");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private volatile long startTime;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * 当前时间，用于{@link #recordSince(Stage, long)}
+     *
+     * @return 纳秒时间戳
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录某阶段的耗时
+     *
+     * @param stage      阶段
+     * @param costMicros 耗时（μs）
+     */
+    public void record(Stage stage, long costMicros) {
+        histograms[stage.ordinal()].record(costMicros);
+    }
+
+    /**
+     * 记录某阶段从startNanos到现在的耗时
+     *
+     * @param stage      阶段
+     * @param startNanos 开始时间，由{@link #now()}获取
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        record(stage, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * 计数加1
+     *
+     * @param counter 计数项
+     */
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * @param counter 计数项
+     * @return 计数
+     */
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @param stage 阶段
+     * @return 该阶段的耗时直方图
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * 清空所有统计，吞吐量从此刻重新计算
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * 简要信息，每个阶段一行，包括每秒次数和p50、p95耗时，最后一行为计数
+     *
+     * @return 文本
+     */
+    public String getSummary() {
+        float seconds = getElapsedSeconds();
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            builder.append(String.format(Locale.US, "%-8s %5.1f/s p50 %6.1f p95 %6.1fms%n", stage.label,
+                    histogram.getCount() / seconds, histogram.getPercentile(50) / 1000f, histogram.getPercentile(95) / 1000f));
+        }
+        for (Counter counter : Counter.values()) {
+            builder.append(counter.label).append(' ').append(getCount(counter)).append(' ');
+        }
+        return builder.toString().trim();
+    }
+
+    /**
+     * 完整信息，包括各阶段的平均值、分位数、最大值和耗时分布，以及各计数和每秒次数
+     *
+     * @return 文本
+     */
+    public String dump() {
+        float seconds = getElapsedSeconds();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "elapsed %.1fs%n", seconds));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            builder.append(String.format(Locale.US, "%s: count %d, %.1f/s, mean %.2fms, p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms%n",
+                    stage.label, histogram.getCount(), histogram.getCount() / seconds, histogram.getMean() / 1000f,
+                    histogram.getPercentile(50) / 1000f, histogram.getPercentile(90) / 1000f,
+                    histogram.getPercentile(99) / 1000f, histogram.getMax() / 1000f));
+            builder.append(histogram.getDistribution());
+        }
+        for (Counter counter : Counter.values()) {
+            long count = getCount(counter);
+            builder.append(String.format(Locale.US, "%s: %d, %.1f/s%n", counter.label, count, count / seconds));
+        }
+        return builder.toString();
+    }
+
+    private float getElapsedSeconds() {
+        return Math.max((System.nanoTime() - startTime) / 1e9f, 0.001f);
+    }
+}
@@ -0,0 +1,233 @@
+package com.arcsoft.arcfacedemo.util.metrics;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 识别流程的耗时追踪，记录各线程上按人脸（trackId）区分的耗时区间，导出为Chrome trace-event JSON，
+ * 可在chrome://tracing或Perfetto中查看
+ * <p>
+ * 区间记录在预分配的环形缓冲区中，写满后覆盖最早的记录，记录时不加锁、不分配内存。
+ * 默认关闭，关闭时{@link #begin()}和{@link #end(String, int, long)}只读取一个volatile变量
+ * <p>
+ * 使用方式：
+ * <pre>
+ * long beginTime = tracer.begin();
+ * ...
+ * tracer.end("extractFaceFeature", trackId, beginTime);
+ * </pre>
+ * 开始和结束可在不同线程中，区间显示在结束的线程上
+ */
+public class PipelineTracer {
+    private static final String TAG = "PipelineTracer";
+    /**
+     * 不属于某个人脸的区间使用的trackId
+     */
+    public static final int NO_TRACK = -1;
+    /**
+     * 环形缓冲区的容量，需为2的幂
+     */
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    private static volatile PipelineTracer pipelineTracer;
+
+    private volatile boolean enabled = false;
+    /**
+     * 下一条记录的序号
+     */
+    private final AtomicLong cursor = new AtomicLong();
+    /**
+     * 每个槽位已写完的记录序号，正在写入时为-1，导出时据此跳过正在写入或已被覆盖的槽位
+     */
+    private final AtomicLongArray publishedSequences = new AtomicLongArray(CAPACITY);
+    private final String[] names = new String[CAPACITY];
+    private final int[] trackIds = new int[CAPACITY];
+    private final int[] threadIds = new int[CAPACITY];
+    private final long[] beginTimes = new long[CAPACITY];
+    private final long[] durations = new long[CAPACITY];
+    /**
+     * 线程名，下标为记录中的线程ID
+     */
+    private final List<String> threadNames = new ArrayList<>();
+    private final ThreadLocal<Integer> threadId = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            synchronized (threadNames) {
+                threadNames.add(Thread.currentThread().getName());
+                return threadNames.size() - 1;
+            }
+        }
+    };
+    private final long baseTime = System.nanoTime();
+
+    private PipelineTracer() {
+        for (int i = 0; i < CAPACITY; i++) {
+            publishedSequences.set(i, -1);
+        }
+    }
+
+    public static PipelineTracer getInstance() {
+        if (pipelineTracer == null) {
+            synchronized (PipelineTracer.class) {
+                if (pipelineTracer == null) {
+                    pipelineTracer = new PipelineTracer();
+                }
+            }
+        }
+        return pipelineTracer;
+    }
+
+    /**
+     * 开启或关闭追踪，关闭后已记录的区间仍可导出
+     *
+     * @param enabled 是否开启
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 区间开始
+     *
+     * @return 开始时间（ns），未开启时返回0
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 区间结束，记录从beginNanos到现在的区间，未开启或beginNanos为0时不记录
+     *
+     * @param name       区间名，需为常量，导出时直接写入JSON
+     * @param trackId    人脸的trackId，不属于某个人脸时为{@link #NO_TRACK}
+     * @param beginNanos 开始时间，由{@link #begin()}或{@link System#nanoTime()}获取
+     */
+    public void end(String name, int trackId, long beginNanos) {
+        if (!enabled || beginNanos == 0) {
+            return;
+        }
+        long endNanos = System.nanoTime();
+        long sequence = cursor.getAndIncrement();
+        int slot = (int) (sequence & MASK);
+        publishedSequences.set(slot, -1);
+        names[slot] = name;
+        trackIds[slot] = trackId;
+        threadIds[slot] = threadId.get();
+        beginTimes[slot] = beginNanos;
+        durations[slot] = endNanos - beginNanos;
+        publishedSequences.set(slot, sequence);
+    }
+
+    /**
+     * 丢弃已记录的区间
+     */
+    public void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            publishedSequences.set(i, -1);
+        }
+    }
+
+    /**
+     * 以Chrome trace-event JSON格式导出缓冲区中的区间，导出期间的新记录可能不包含在内
+     *
+     * @param writer 输出
+     * @return 导出的区间数
+     * @throws IOException 写入失败
+     */
+    public int export(Writer writer) throws IOException {
+        long end = cursor.get();
+        long start = Math.max(0, end - CAPACITY);
+        int count = 0;
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        List<String> threadNameList;
+        synchronized (threadNames) {
+            threadNameList = new ArrayList<>(threadNames);
+        }
+        for (int i = 0; i < threadNameList.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + i
+                    + ",\"args\":{\"name\":\"" + escape(threadNameList.get(i)) + "\"}}");
+        }
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & MASK);
+            if (publishedSequences.get(slot) != sequence) {
+                continue;
+            }
+            String name = names[slot];
+            int trackId = trackIds[slot];
+            int tid = threadIds[slot];
+            long beginTime = beginTimes[slot];
+            long duration = durations[slot];
+            // 读取期间被覆盖
+            if (publishedSequences.get(slot) != sequence) {
+                continue;
+            }
+            if (count > 0 || !threadNameList.isEmpty()) {
+                writer.write(',');
+            }
+            writer.write("{\"name\":\"" + name + "\",\"cat\":\"pipeline\",\"ph\":\"X\",\"pid\":1,\"tid\":" + tid
+                    + ",\"ts\":" + (beginTime - baseTime) / 1000 + ",\"dur\":" + duration / 1000);
+            if (trackId != NO_TRACK) {
+                writer.write(",\"args\":{\"trackId\":" + trackId + "}");
+            }
+            writer.write('}');
+            count++;
+        }
+        writer.write("]}");
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * 导出到文件
+     *
+     * @param file 文件，已存在时覆盖
+     * @return 是否成功
+     */
+    public boolean exportTo(File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(TAG, "exportTo: failed to create " + parent);
+            return false;
+        }
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            int count = export(writer);
+            Log.i(TAG, "exportTo: " + count + " events exported to " + file);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,187 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 批量注册清单的加载、同名记录去重、尾部不完整记录的截断和重写
+ */
+public class EnrollManifestTest {
+    /**
+     * 文件头大小
+     */
+    private static final int HEADER_SIZE = 8;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File manifestFile;
+    private File imageDir;
+    private EnrollManifest manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        manifestFile = new File(temporaryFolder.newFolder(), "manifest.bin");
+        imageDir = temporaryFolder.newFolder();
+        manifest = new EnrollManifest(manifestFile);
+    }
+
+    @After
+    public void tearDown() {
+        manifest.close();
+    }
+
+    private static void write(File file, byte[] data, boolean append) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file, append);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private File newImage(String name, String content, long lastModified) throws IOException {
+        File file = new File(imageDir, name);
+        write(file, content.getBytes("UTF-8"), false);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private static byte[] hashOf(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream dis = new DataInputStream(new FileInputStream(file));
+        try {
+            dis.readFully(data);
+        } finally {
+            dis.close();
+        }
+        return EnrollManifest.hash(data);
+    }
+
+    /**
+     * 关闭后用新的实例打开，模拟再次批量注册
+     *
+     * @return 新的清单
+     */
+    private EnrollManifest reopen() throws IOException {
+        manifest.close();
+        manifest = new EnrollManifest(manifestFile);
+        manifest.open();
+        return manifest;
+    }
+
+    @Test
+    public void newManifestHasOnlyHeader() throws IOException {
+        manifest.open();
+        assertEquals(HEADER_SIZE, manifestFile.length());
+        assertFalse(manifest.isUnchanged(newImage("a.jpg", "a", 1000000)));
+    }
+
+    @Test
+    public void skipsRegisteredImagesAfterReopen() throws IOException {
+        File image = newImage("a.jpg", "a", 1000000);
+        manifest.open();
+        manifest.put(image, hashOf(image));
+
+        reopen();
+        assertTrue(manifest.isUnchanged(image));
+        // 只有修改时间变化时，内容相同仍然跳过，并更新修改时间
+        assertTrue(image.setLastModified(2000000));
+        assertFalse(manifest.isUnchanged(image));
+        assertTrue(manifest.isSameContent(image, hashOf(image)));
+        assertTrue(reopen().isUnchanged(image));
+    }
+
+    @Test
+    public void lastRecordOfEachNameWins() throws IOException {
+        File image = newImage("a.jpg", "old", 1000000);
+        byte[] oldHash = hashOf(image);
+        manifest.open();
+        manifest.put(image, oldHash);
+        image = newImage("a.jpg", "new content", 2000000);
+        byte[] newHash = hashOf(image);
+        manifest.put(image, newHash);
+
+        reopen();
+        assertTrue(manifest.isUnchanged(image));
+        assertFalse(manifest.isSameContent(image, oldHash));
+        assertTrue(manifest.isSameContent(image, newHash));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        File imageA = newImage("a.jpg", "a", 1000000);
+        File imageB = newImage("b.jpg", "b", 1000000);
+        manifest.open();
+        manifest.put(imageA, hashOf(imageA));
+        manifest.put(imageB, hashOf(imageB));
+        manifest.close();
+        long validLength = manifestFile.length();
+        // 文件名写入一半时异常退出
+        write(manifestFile, new byte[]{0, 5, 'c', '.'}, true);
+
+        reopen();
+        assertEquals(validLength, manifestFile.length());
+        assertTrue(manifest.isUnchanged(imageA));
+        assertTrue(manifest.isUnchanged(imageB));
+
+        File imageC = newImage("c.jpg", "c", 1000000);
+        manifest.put(imageC, hashOf(imageC));
+        reopen();
+        assertTrue(manifest.isUnchanged(imageA));
+        assertTrue(manifest.isUnchanged(imageC));
+    }
+
+    @Test
+    public void unknownFormatIsRewritten() throws IOException {
+        write(manifestFile, "not a manifest".getBytes("UTF-8"), false);
+        manifest.open();
+        assertEquals(HEADER_SIZE, manifestFile.length());
+        assertFalse(new File(manifestFile.getAbsolutePath() + ".tmp").exists());
+
+        File image = newImage("a.jpg", "a", 1000000);
+        manifest.put(image, hashOf(image));
+        assertTrue(reopen().isUnchanged(image));
+    }
+
+    @Test
+    public void overwrittenRecordsAreCompactedOnOpen() throws IOException {
+        File image = newImage("a.jpg", "a", 1000000);
+        byte[] hash = hashOf(image);
+        manifest.open();
+        manifest.put(image, hash);
+        long singleRecordLength = manifestFile.length();
+        // 记录数达到名字数的2倍加1000时压缩
+        for (int i = 0; i < 1001; i++) {
+            manifest.put(image, hash);
+        }
+        assertTrue(manifestFile.length() > singleRecordLength);
+
+        reopen();
+        assertEquals(singleRecordLength, manifestFile.length());
+        assertTrue(manifest.isUnchanged(image));
+    }
+
+    @Test
+    public void deleteRemovesFile() throws IOException {
+        File image = newImage("a.jpg", "a", 1000000);
+        manifest.open();
+        manifest.put(image, hashOf(image));
+        manifest.delete();
+        assertFalse(manifestFile.exists());
+        assertFalse(manifest.isUnchanged(image));
+    }
+}
@@ -0,0 +1,192 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.arcfacedemo.model.FaceRegisterInfo;
+import com.arcsoft.face.FaceFeature;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 特征库文件的加载、同名记录去重、尾部不完整记录的处理和压缩
+ */
+public class FaceFeatureStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File storeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = new File(temporaryFolder.newFolder(), "features.bin");
+    }
+
+    private static byte[] feature(int value) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        Arrays.fill(feature, (byte) value);
+        return feature;
+    }
+
+    private static long recordLength(String name) {
+        return FaceFeature.FEATURE_SIZE + 2 + name.getBytes(Charset.forName("UTF-8")).length;
+    }
+
+    /**
+     * 用新的实例加载，模拟重启后加载
+     *
+     * @param maxRecordCount 加载的记录数上限
+     * @return 名字及其特征的第一个字节
+     */
+    private Map<String, Byte> loadAgain(int maxRecordCount) throws IOException {
+        FeatureSlab featureSlab = new FeatureSlab();
+        new FaceFeatureStore(storeFile).load(featureSlab, maxRecordCount);
+        FeatureSlab.Snapshot snapshot = featureSlab.snapshot();
+        FeatureSlab.Reader reader = snapshot.newReader();
+        Map<String, Byte> featureMap = new HashMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            featureMap.put(snapshot.getName(i), reader.read(i)[0]);
+        }
+        assertEquals("duplicated names", snapshot.size(), featureMap.size());
+        return featureMap;
+    }
+
+    private void appendToFile(byte[] data) throws IOException {
+        FileOutputStream fos = new FileOutputStream(storeFile, true);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @Test
+    public void lastRecordOfEachNameWins() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        store.append("b", feature(2));
+        store.append("a", feature(3));
+
+        Map<String, Byte> featureMap = loadAgain(Integer.MAX_VALUE);
+        assertEquals(2, featureMap.size());
+        assertEquals(3, (byte) featureMap.get("a"));
+        assertEquals(2, (byte) featureMap.get("b"));
+
+        FaceFeatureStore reopened = new FaceFeatureStore(storeFile);
+        assertEquals(3, reopened.getRecordCount());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), reopened.getNames());
+        assertEquals(2, reopened.getNameCount());
+    }
+
+    @Test
+    public void loadStopsAtMaxRecordCount() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        store.append("b", feature(2));
+        store.append("a", feature(3));
+        store.append("c", feature(4));
+
+        FeatureSlab featureSlab = new FeatureSlab();
+        FaceFeatureStore reopened = new FaceFeatureStore(storeFile);
+        reopened.load(featureSlab, 2);
+        assertEquals(2, featureSlab.size());
+        assertEquals(1, featureSlab.snapshot().newReader().read(0)[0]);
+        // 名字数量包含上限之后的记录
+        assertEquals(3, reopened.getNameCount());
+    }
+
+    @Test
+    public void tornFeatureIsIgnoredAndOverwritten() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        store.append("b", feature(2));
+        long validLength = storeFile.length();
+        // 写入特征数据的一半时异常退出
+        appendToFile(Arrays.copyOf(feature(9), FaceFeature.FEATURE_SIZE / 2));
+
+        FaceFeatureStore reopened = new FaceFeatureStore(storeFile);
+        assertEquals(2, reopened.getRecordCount());
+        assertEquals(2, loadAgain(Integer.MAX_VALUE).size());
+
+        reopened.append("c", feature(3));
+        assertEquals(validLength + recordLength("c"), storeFile.length());
+        Map<String, Byte> featureMap = loadAgain(Integer.MAX_VALUE);
+        assertEquals(3, featureMap.size());
+        assertEquals(3, (byte) featureMap.get("c"));
+    }
+
+    @Test
+    public void tornNameIsIgnoredAndOverwritten() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        long validLength = storeFile.length();
+        // 特征和名字长度已写入，名字只写入一部分
+        ByteBuffer torn = ByteBuffer.allocate(FaceFeature.FEATURE_SIZE + 2 + 3);
+        torn.put(feature(9)).putShort((short) 10).put(new byte[]{'x', 'y', 'z'});
+        appendToFile(torn.array());
+
+        FaceFeatureStore reopened = new FaceFeatureStore(storeFile);
+        assertEquals(new HashSet<>(Arrays.asList("a")), reopened.getNames());
+        assertEquals(1, reopened.getRecordCount());
+
+        reopened.appendAll(Arrays.asList(new FaceRegisterInfo(feature(2), "b"),
+                new FaceRegisterInfo(feature(3), "c")));
+        assertEquals(validLength + recordLength("b") + recordLength("c"), storeFile.length());
+        Map<String, Byte> featureMap = loadAgain(Integer.MAX_VALUE);
+        assertEquals(3, featureMap.size());
+        assertEquals(2, (byte) featureMap.get("b"));
+        assertEquals(3, reopened.getNameCount());
+    }
+
+    @Test
+    public void compactKeepsOnlyLastRecords() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        store.append("b", feature(2));
+        store.append("a", feature(3));
+        store.append("a", feature(4));
+        // 加载前不知道有多少旧记录
+        assertFalse(store.needsCompaction(1));
+        store.getNames();
+        assertTrue(store.needsCompaction(2));
+        assertFalse(store.needsCompaction(3));
+
+        assertEquals(2, store.compact());
+        assertEquals(2, store.getRecordCount());
+        assertEquals(FaceFeatureStore.HEADER_SIZE + recordLength("a") + recordLength("b"), storeFile.length());
+        assertFalse(new File(storeFile.getAbsolutePath() + ".tmp").exists());
+        Map<String, Byte> featureMap = loadAgain(Integer.MAX_VALUE);
+        assertEquals(4, (byte) featureMap.get("a"));
+        assertEquals(2, (byte) featureMap.get("b"));
+        // 没有旧记录时不重写
+        assertEquals(0, store.compact());
+    }
+
+    @Test
+    public void deleteClearsRecords() throws IOException {
+        FaceFeatureStore store = new FaceFeatureStore(storeFile);
+        store.append("a", feature(1));
+        store.append("a", feature(2));
+        assertEquals(2, store.delete());
+        assertFalse(storeFile.exists());
+        assertEquals(0, store.getNameCount());
+
+        store.append("b", feature(3));
+        assertEquals(FaceFeatureStore.HEADER_SIZE + recordLength("b"), storeFile.length());
+        assertEquals(1, loadAgain(Integer.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IVF索引的保存和加载：按名字对应到当前的槽位，新增或特征变化的人脸增量加入
+ */
+public class FeatureIvfIndexTest {
+    private static final int FACE_COUNT = 400;
+    private static final int LIST_COUNT = 20;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File indexFile;
+    private Random random;
+
+    @Before
+    public void setUp() throws IOException {
+        indexFile = new File(temporaryFolder.newFolder(), "features.ivf");
+        random = new Random(2019);
+    }
+
+    private byte[] randomFeature() {
+        ByteBuffer buffer = ByteBuffer.allocate(FaceFeature.FEATURE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(FeatureIvfIndex.FEATURE_HEADER_SIZE);
+        for (int d = 0; d < FeatureIvfIndex.DIMENSION; d++) {
+            buffer.putFloat((float) random.nextGaussian());
+        }
+        return buffer.array();
+    }
+
+    private static boolean contains(int[] candidates, int slot) {
+        for (int candidate : candidates) {
+            if (candidate == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 每个人脸都在与其最接近的类中
+     */
+    private static void assertEveryFaceFound(FeatureIvfIndex index, FeatureSlab featureSlab) {
+        FeatureSlab.Snapshot snapshot = featureSlab.snapshot();
+        FeatureSlab.Reader reader = snapshot.newReader();
+        assertEquals(snapshot.size(), index.getVectorCount());
+        for (int slot = 0; slot < snapshot.size(); slot++) {
+            assertTrue("slot " + slot, contains(index.search(reader.read(slot), 1), slot));
+        }
+    }
+
+    @Test
+    public void missingFileLoadsNull() throws IOException {
+        assertNull(FeatureIvfIndex.load(indexFile, new FeatureSlab().snapshot()));
+    }
+
+    @Test
+    public void sameLayoutIsReused() throws IOException {
+        FeatureSlab featureSlab = new FeatureSlab(FACE_COUNT);
+        for (int i = 0; i < FACE_COUNT; i++) {
+            featureSlab.add("face" + i, randomFeature());
+        }
+        FeatureIvfIndex index = FeatureIvfIndex.train(featureSlab, FACE_COUNT, LIST_COUNT, 5, 0);
+        index.save(indexFile, featureSlab.snapshot());
+        assertFalse(index.isDirty());
+
+        FeatureIvfIndex loadedIndex = FeatureIvfIndex.load(indexFile, featureSlab.snapshot());
+        assertEquals(FACE_COUNT, loadedIndex.getTrainedCount());
+        assertEquals(LIST_COUNT, loadedIndex.getListCount());
+        assertFalse(loadedIndex.isDirty());
+        assertEveryFaceFound(loadedIndex, featureSlab);
+    }
+
+    /**
+     * 重复注册的人脸在重新加载特征库后移到新的槽位，其后的人脸都前移一个槽位
+     */
+    @Test
+    public void movedAndNewSlotsAreAddedIncrementally() throws IOException {
+        byte[][] features = new byte[FACE_COUNT][];
+        FeatureSlab featureSlab = new FeatureSlab(FACE_COUNT);
+        for (int i = 0; i < FACE_COUNT; i++) {
+            features[i] = randomFeature();
+            featureSlab.add("face" + i, features[i]);
+        }
+        FeatureIvfIndex index = FeatureIvfIndex.train(featureSlab, FACE_COUNT, LIST_COUNT, 5, 0);
+        // 保存前重复注册face0，内存中的人脸库同时有新旧两条
+        byte[] reregistered = randomFeature();
+        featureSlab.add("face0", reregistered);
+        index.add(FACE_COUNT, reregistered);
+        index.save(indexFile, featureSlab.snapshot());
+
+        // 重新加载后同名只保留最后一条；保存后又重复注册了face1并新注册了一个人脸
+        FeatureSlab reloadedSlab = new FeatureSlab(FACE_COUNT + 1);
+        for (int i = 2; i < FACE_COUNT; i++) {
+            reloadedSlab.add("face" + i, features[i]);
+        }
+        reloadedSlab.add("face0", reregistered);
+        reloadedSlab.add("face1", randomFeature());
+        reloadedSlab.add("newFace", randomFeature());
+
+        FeatureIvfIndex loadedIndex = FeatureIvfIndex.load(indexFile, reloadedSlab.snapshot());
+        // 没有重新训练
+        assertEquals(FACE_COUNT, loadedIndex.getTrainedCount());
+        // face1和newFace增量加入，尚未保存
+        assertTrue(loadedIndex.isDirty());
+        assertEveryFaceFound(loadedIndex, reloadedSlab);
+    }
+}
@@ -0,0 +1,203 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按人脸调度的去重、优先级、挤出、取消和任务异常
+ */
+public class FaceTaskSchedulerTest {
+    private FaceTaskScheduler scheduler;
+
+    /**
+     * 记录执行顺序的任务
+     */
+    private static class RecordingTask extends FaceTask {
+        private final List<Integer> runOrder;
+        private final CountDownLatch startLatch = new CountDownLatch(1);
+        private final CountDownLatch finishLatch = new CountDownLatch(1);
+        private CountDownLatch blockLatch;
+        private RuntimeException exception;
+        private volatile int discardCount;
+        private volatile boolean busy;
+
+        RecordingTask(int trackId, long faceArea, List<Integer> runOrder) {
+            super(trackId, faceArea);
+            this.runOrder = runOrder;
+        }
+
+        @Override
+        void onBusy() {
+            busy = true;
+        }
+
+        @Override
+        void discard() {
+            discardCount++;
+        }
+
+        @Override
+        public void run() {
+            startLatch.countDown();
+            try {
+                if (blockLatch != null) {
+                    blockLatch.await();
+                }
+                if (runOrder != null) {
+                    runOrder.add(trackId);
+                }
+                if (exception != null) {
+                    throw exception;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finishLatch.countDown();
+            }
+        }
+
+        boolean awaitFinish() throws InterruptedException {
+            return finishLatch.await(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 让唯一的工作线程阻塞在一个任务上，之后提交的任务都在队列中等待
+     *
+     * @return 阻塞任务等待的计数器，计数减为0后阻塞任务结束
+     */
+    private CountDownLatch blockWorker() throws InterruptedException {
+        CountDownLatch blockLatch = new CountDownLatch(1);
+        RecordingTask blocker = new RecordingTask(-1, 0, null);
+        blocker.blockLatch = blockLatch;
+        assertTrue(scheduler.submit(blocker));
+        assertTrue(blocker.startLatch.await(1, TimeUnit.SECONDS));
+        return blockLatch;
+    }
+
+    @Test
+    public void newTaskReplacesPendingTaskOfSameTrack() {
+        scheduler = new FaceTaskScheduler("test", 0, 4);
+        RecordingTask oldTask = new RecordingTask(1, 100, null);
+        RecordingTask newTask = new RecordingTask(1, 100, null);
+        assertTrue(scheduler.submit(oldTask));
+        assertTrue(scheduler.submit(newTask));
+        assertEquals(1, oldTask.discardCount);
+        assertFalse(oldTask.busy);
+        // 替换未执行的任务不计入请求次数
+        assertEquals(0, newTask.attempt);
+
+        scheduler.cancelTrack(1);
+        assertEquals(1, newTask.discardCount);
+    }
+
+    @Test
+    public void fullQueueEvictsLowestPriority() {
+        scheduler = new FaceTaskScheduler("test", 0, 2);
+        RecordingTask small = new RecordingTask(1, 10, null);
+        RecordingTask large = new RecordingTask(2, 20, null);
+        assertTrue(scheduler.submit(small));
+        assertTrue(scheduler.submit(large));
+
+        RecordingTask smaller = new RecordingTask(3, 5, null);
+        assertFalse(scheduler.submit(smaller));
+        assertEquals(0, smaller.discardCount);
+
+        RecordingTask largest = new RecordingTask(4, 30, null);
+        assertTrue(scheduler.submit(largest));
+        assertEquals(1, small.discardCount);
+        assertTrue(small.busy);
+        assertEquals(0, large.discardCount);
+    }
+
+    @Test
+    public void runsFirstRequestsBeforeRetriesAndLargeFacesFirst() throws InterruptedException {
+        scheduler = new FaceTaskScheduler("test", 1, 8);
+        List<Integer> runOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        // 人脸1先执行一次，再次提交时为重试
+        RecordingTask firstAttempt = new RecordingTask(1, 1000, runOrder);
+        assertTrue(scheduler.submit(firstAttempt));
+        assertTrue(firstAttempt.awaitFinish());
+        runOrder.clear();
+
+        CountDownLatch blockLatch = blockWorker();
+        RecordingTask retry = new RecordingTask(1, 1000, runOrder);
+        RecordingTask small = new RecordingTask(2, 10, runOrder);
+        RecordingTask large = new RecordingTask(3, 20, runOrder);
+        assertTrue(scheduler.submit(retry));
+        assertTrue(scheduler.submit(small));
+        assertTrue(scheduler.submit(large));
+        assertEquals(1, retry.attempt);
+        blockLatch.countDown();
+        assertTrue(retry.awaitFinish());
+        assertEquals(Integer.valueOf(3), runOrder.get(0));
+        assertEquals(Integer.valueOf(2), runOrder.get(1));
+        assertEquals(Integer.valueOf(1), runOrder.get(2));
+    }
+
+    @Test
+    public void cancelTrackDiscardsPendingTaskAndResetsAttempts() throws InterruptedException {
+        scheduler = new FaceTaskScheduler("test", 1, 8);
+        RecordingTask firstAttempt = new RecordingTask(1, 100, null);
+        assertTrue(scheduler.submit(firstAttempt));
+        assertTrue(firstAttempt.awaitFinish());
+
+        CountDownLatch blockLatch = blockWorker();
+        RecordingTask pending = new RecordingTask(1, 100, null);
+        assertTrue(scheduler.submit(pending));
+        scheduler.cancelTrack(1);
+        assertEquals(1, pending.discardCount);
+
+        // 同一trackId再次出现时按首次请求处理
+        RecordingTask again = new RecordingTask(1, 100, null);
+        assertTrue(scheduler.submit(again));
+        assertEquals(0, again.attempt);
+        blockLatch.countDown();
+        assertTrue(again.awaitFinish());
+        // 被取消的任务没有执行
+        assertEquals(1, pending.finishLatch.getCount());
+    }
+
+    @Test
+    public void workerSurvivesFailingTask() throws InterruptedException {
+        scheduler = new FaceTaskScheduler("test", 1, 8);
+        RecordingTask failing = new RecordingTask(1, 100, null);
+        failing.exception = new IllegalStateException("simulated failure");
+        assertTrue(scheduler.submit(failing));
+        assertTrue(failing.awaitFinish());
+
+        RecordingTask next = new RecordingTask(2, 100, null);
+        assertTrue(scheduler.submit(next));
+        assertTrue(next.awaitFinish());
+        // 失败的任务释放资源
+        assertEquals(1, failing.discardCount);
+        assertEquals(0, next.discardCount);
+    }
+
+    @Test
+    public void shutdownDiscardsPendingTasks() {
+        scheduler = new FaceTaskScheduler("test", 0, 4);
+        RecordingTask pending = new RecordingTask(1, 100, null);
+        assertTrue(scheduler.submit(pending));
+        scheduler.shutdownNow();
+        assertEquals(1, pending.discardCount);
+        assertFalse(scheduler.submit(new RecordingTask(2, 100, null)));
+    }
+}
@@ -0,0 +1,291 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.arcfacedemo.core.Engine;
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.FeatureGallery;
+import com.arcsoft.arcfacedemo.core.Frame;
+import com.arcsoft.arcfacedemo.core.GallerySearcher;
+import com.arcsoft.arcfacedemo.core.Match;
+import com.arcsoft.arcfacedemo.core.ShardedGallerySearcher;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedEngine;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedScene;
+import com.arcsoft.arcfacedemo.core.sim.SyntheticFeatures;
+import com.arcsoft.face.FaceInfo;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按线上的规模压测识别流程：10个人脸、30fps、10万人脸库
+ * <p>
+ * 相机线程检测人脸后由{@link TrackRegistry}刷新人脸状态，未识别的人脸提交到{@link FaceTaskScheduler}，
+ * 识别线程从引擎池中取出一个引擎提取特征，再用{@link ShardedGallerySearcher}在多个比对引擎上分片搜索人脸库，
+ * 与FaceHelper和FaceServer的流程相同，引擎换成core模块的{@link SimulatedEngine}。人脸离开画面时等待中的任务被取消。
+ * <p>
+ * 默认只检查识别结果，帧之间不等待。耗时预算依赖机器负载，只在系统属性{@value #TIMING_PROPERTY}为true时
+ * 按帧率发送预览帧，并检查相机线程的延迟帧数和每个人脸从提交到得到结果的耗时，超出预算说明吞吐量退化
+ */
+public class SimulatedLoadTest {
+    /**
+     * 为true时按帧率发送预览帧并检查耗时预算
+     */
+    private static final String TIMING_PROPERTY = "arcface.loadTest.timing";
+    private static final int FACE_COUNT = 10;
+    private static final int FPS = 30;
+    private static final int GALLERY_SIZE = 100000;
+    private static final int FRAME_COUNT = 90;
+    private static final int FR_THREAD_COUNT = 2;
+    private static final int SEARCH_ENGINE_COUNT = 2;
+    /**
+     * 相机线程允许延迟超过一帧的帧数
+     */
+    private static final int LATE_FRAME_BUDGET = FRAME_COUNT / 10;
+    /**
+     * 每个人脸从提交到得到识别结果的最长耗时。第0帧的10个人脸同时提交，排在最后的人脸要等待前面的人脸识别完成，
+     * 单核机器上约2s
+     */
+    private static final long TRACK_LATENCY_BUDGET_MILLIS = 5000;
+    /**
+     * 最后一帧之后等待所有任务结束的最长时间
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 60000;
+
+    private static SimulatedScene scene;
+    private static FeatureGallery gallery;
+
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final AtomicInteger ranCount = new AtomicInteger();
+    private final AtomicInteger discardedCount = new AtomicInteger();
+    private final AtomicInteger correctCount = new AtomicInteger();
+    private final AtomicInteger wrongCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicLong maxTrackLatency = new AtomicLong();
+    /**
+     * 引擎池：每个引擎同一时间只被一个识别线程使用
+     */
+    private final BlockingQueue<Engine> frEnginePool = new LinkedBlockingQueue<>();
+    private ExecutorService searchExecutor;
+    private ShardedGallerySearcher searcher;
+    private FeatureGallery.Snapshot snapshot;
+    private FaceTaskScheduler frScheduler;
+    private TrackRegistry trackRegistry;
+
+    /**
+     * 识别一个人脸，结果写入人脸状态
+     */
+    private class RecognizeTask extends FaceTask {
+        private final Frame frame;
+        private final FaceBox face;
+
+        RecognizeTask(int trackId, Frame frame, FaceBox face) {
+            super(trackId, (long) (face.getRight() - face.getLeft()) * (face.getBottom() - face.getTop()));
+            this.frame = frame;
+            this.face = face;
+        }
+
+        @Override
+        void onBusy() {
+            // 与FaceHelper相同，忙碌时下一帧重新提交
+            setFeatureStatus(trackId, RequestFeatureStatus.NONE);
+        }
+
+        @Override
+        void discard() {
+            discardedCount.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            try {
+                recognize();
+            } finally {
+                ranCount.incrementAndGet();
+            }
+        }
+
+        private void recognize() {
+            byte[] feature = new byte[SyntheticFeatures.FEATURE_SIZE];
+            Engine frEngine = frEnginePool.poll();
+            if (frEngine == null) {
+                failureCount.incrementAndGet();
+                return;
+            }
+            int code;
+            try {
+                code = frEngine.extract(frame, face, feature);
+            } finally {
+                frEnginePool.add(frEngine);
+            }
+            if (code != Engine.OK) {
+                failureCount.incrementAndGet();
+                return;
+            }
+            List<Match> matchList = searcher.search(feature, snapshot, null, 1, 0.8f, GallerySearcher.NO_CERTAIN_SIMILAR);
+            if (matchList == null) {
+                failureCount.incrementAndGet();
+                return;
+            }
+            updateMax(maxTrackLatency, System.nanoTime() - submitTime);
+            int identity = scene.identityOf(face.getFaceId());
+            String expected = identity == SimulatedScene.STRANGER ? null : SimulatedScene.nameOf(identity);
+            String actual = matchList.isEmpty() ? null : matchList.get(0).getName();
+            if (expected == null ? actual == null : expected.equals(actual)) {
+                correctCount.incrementAndGet();
+                setFeatureStatus(trackId, RequestFeatureStatus.SUCCEED);
+            } else {
+                wrongCount.incrementAndGet();
+                setFeatureStatus(trackId, RequestFeatureStatus.FAILED);
+            }
+        }
+    }
+
+    @BeforeClass
+    public static void setUpGallery() {
+        scene = new SimulatedScene.Builder()
+                .seed(2019)
+                .faceCount(FACE_COUNT)
+                .trackFrames(FPS * 3)
+                .identityCount(GALLERY_SIZE)
+                .strangerRate(0.1f)
+                .build();
+        gallery = new FeatureGallery(SyntheticFeatures.FEATURE_SIZE, GALLERY_SIZE);
+        scene.fillGallery(gallery, GALLERY_SIZE);
+    }
+
+    @AfterClass
+    public static void tearDownGallery() {
+        gallery = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (frScheduler != null) {
+            frScheduler.shutdownNow();
+        }
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void recognizeAtFrameRate() throws Exception {
+        boolean checkTiming = Boolean.getBoolean(TIMING_PROPERTY);
+        snapshot = gallery.snapshot();
+        for (int i = 0; i < FR_THREAD_COUNT; i++) {
+            frEnginePool.add(new SimulatedEngine.Builder()
+                    .scene(scene)
+                    .extractLatency(20, TimeUnit.MILLISECONDS)
+                    .build());
+        }
+        Engine[] searchEngines = new Engine[SEARCH_ENGINE_COUNT];
+        for (int i = 0; i < SEARCH_ENGINE_COUNT; i++) {
+            searchEngines[i] = new SimulatedEngine.Builder().scene(scene).build();
+        }
+        searchExecutor = Executors.newFixedThreadPool(SEARCH_ENGINE_COUNT - 1);
+        searcher = new ShardedGallerySearcher(searchEngines, searchExecutor, ShardedGallerySearcher.DEFAULT_MIN_FACES_PER_SHARD);
+        frScheduler = new FaceTaskScheduler("SimulatedLoadTest-fr", FR_THREAD_COUNT, FACE_COUNT);
+        trackRegistry = new TrackRegistry(null, frScheduler, null, null);
+        Engine detectEngine = new SimulatedEngine.Builder()
+                .scene(scene)
+                .detectLatency(5, TimeUnit.MILLISECONDS)
+                .build();
+
+        List<FaceBox> faceList = new ArrayList<>();
+        List<FaceInfo> faceInfoList = new ArrayList<>();
+        long frameInterval = TimeUnit.SECONDS.toNanos(1) / FPS;
+        long start = System.nanoTime();
+        int lateFrameCount = 0;
+        for (int frameIndex = 0; frameIndex < FRAME_COUNT; frameIndex++) {
+            if (checkTiming) {
+                long wait = start + frameIndex * frameInterval - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } else if (wait < -frameInterval) {
+                    lateFrameCount++;
+                }
+            }
+            Frame frame = scene.newFrame(frameIndex);
+            assertEquals(Engine.OK, detectEngine.detect(frame, faceList));
+            // TrackRegistry只使用faceId
+            faceInfoList.clear();
+            for (FaceBox face : faceList) {
+                FaceInfo faceInfo = new FaceInfo();
+                faceInfo.setFaceId(face.getFaceId());
+                faceInfoList.add(faceInfo);
+            }
+            int[] trackIds = trackRegistry.refresh(faceInfoList, 0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+            for (int i = 0; i < faceList.size(); i++) {
+                TrackState trackState = trackRegistry.get(trackIds[i]);
+                if (trackState.getFeatureStatus() != RequestFeatureStatus.NONE) {
+                    continue;
+                }
+                trackState.setFeatureStatus(RequestFeatureStatus.SEARCHING);
+                submittedCount.incrementAndGet();
+                if (!frScheduler.submit(new RecognizeTask(trackIds[i], frame, faceList.get(i)))) {
+                    submittedCount.decrementAndGet();
+                    trackState.setFeatureStatus(RequestFeatureStatus.NONE);
+                }
+            }
+        }
+        awaitTasks();
+
+        assertEquals(0, failureCount.get());
+        assertEquals(0, wrongCount.get());
+        assertEquals(ranCount.get(), correctCount.get());
+        // 离开画面前没有识别的人脸，任务被取消
+        assertEquals(submittedCount.get(), ranCount.get() + discardedCount.get());
+        // 最后一帧中的人脸都已识别
+        for (FaceBox face : faceList) {
+            TrackState trackState = trackRegistry.get(face.getFaceId());
+            assertNotNull(trackState);
+            assertEquals(RequestFeatureStatus.SUCCEED, trackState.getFeatureStatus());
+        }
+        if (checkTiming) {
+            assertTrue("late frames: " + lateFrameCount, lateFrameCount <= LATE_FRAME_BUDGET);
+            long maxTrackLatencyMillis = TimeUnit.NANOSECONDS.toMillis(maxTrackLatency.get());
+            assertTrue("max track latency: " + maxTrackLatencyMillis + "ms", maxTrackLatencyMillis <= TRACK_LATENCY_BUDGET_MILLIS);
+        }
+    }
+
+    /**
+     * 等待已提交的任务都执行完或被丢弃
+     */
+    private void awaitTasks() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+        while (ranCount.get() + discardedCount.get() < submittedCount.get()) {
+            assertTrue("tasks not finished", System.nanoTime() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void setFeatureStatus(int trackId, int featureStatus) {
+        // 人脸已离开画面时不再写入
+        TrackState trackState = trackRegistry.get(trackId);
+        if (trackState != null) {
+            trackState.setFeatureStatus(featureStatus);
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 人脸状态表的查找、扩容和删除，删除时前移后续元素，不能中断其他元素的探测链
+ */
+public class TrackStateTableTest {
+    private List<TrackState> removedList;
+    private TrackStateTable table;
+
+    @Before
+    public void setUp() {
+        removedList = new ArrayList<>();
+        table = new TrackStateTable(new TrackStateTable.OnTrackRemovedListener() {
+            @Override
+            public void onTrackRemoved(TrackState trackState) {
+                removedList.add(trackState);
+            }
+        });
+    }
+
+    @Test
+    public void obtainCreatesOnce() {
+        TrackState trackState = table.obtain(7, 100);
+        assertEquals(7, trackState.getTrackId());
+        assertEquals(100, trackState.getCreateTime());
+        assertSame(trackState, table.obtain(7, 200));
+        assertSame(trackState, table.get(7));
+        assertNull(table.get(8));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        for (int trackId = 0; trackId < 1000; trackId++) {
+            table.obtain(trackId, 0);
+        }
+        assertEquals(1000, table.size());
+        for (int trackId = 0; trackId < 1000; trackId++) {
+            assertEquals(trackId, table.get(trackId).getTrackId());
+        }
+        assertNull(table.get(1000));
+    }
+
+    /**
+     * 每帧随机出现一部分人脸，与HashMap的结果对比。trackId的范围较小，表的负载较高，删除时经常需要前移
+     */
+    @Test
+    public void removeStaleKeepsProbeChains() {
+        Random random = new Random(2019);
+        Map<Integer, TrackState> expectedMap = new HashMap<>();
+        for (long generation = 1; generation <= 2000; generation++) {
+            Map<Integer, TrackState> visibleMap = new HashMap<>();
+            for (int trackId = 0; trackId < 48; trackId++) {
+                if (random.nextInt(3) != 0) {
+                    continue;
+                }
+                TrackState trackState = table.obtain(trackId, generation);
+                trackState.generation = generation;
+                TrackState expected = expectedMap.get(trackId);
+                if (expected != null) {
+                    assertSame(expected, trackState);
+                }
+                visibleMap.put(trackId, trackState);
+            }
+            removedList.clear();
+            table.removeStale(generation);
+
+            int expectedRemovedCount = 0;
+            for (Map.Entry<Integer, TrackState> entry : expectedMap.entrySet()) {
+                if (!visibleMap.containsKey(entry.getKey())) {
+                    expectedRemovedCount++;
+                    assertTrue(removedList.contains(entry.getValue()));
+                }
+            }
+            assertEquals(expectedRemovedCount, removedList.size());
+            assertEquals(visibleMap.size(), table.size());
+            for (int trackId = 0; trackId < 48; trackId++) {
+                TrackState trackState = table.get(trackId);
+                if (visibleMap.containsKey(trackId)) {
+                    assertSame(visibleMap.get(trackId), trackState);
+                } else {
+                    assertNull(trackState);
+                }
+            }
+            expectedMap = visibleMap;
+        }
+    }
+
+    @Test
+    public void clearNotifiesAll() {
+        for (int trackId = 0; trackId < 10; trackId++) {
+            table.obtain(trackId, 0);
+        }
+        table.clear();
+        assertEquals(10, removedList.size());
+        assertEquals(0, table.size());
+        assertNull(table.get(0));
+    }
+}
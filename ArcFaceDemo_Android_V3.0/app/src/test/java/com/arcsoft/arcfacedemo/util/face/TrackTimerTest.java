@@ -0,0 +1,126 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 时间轮的到期、跨轮延时、取消和停止
+ */
+public class TrackTimerTest {
+    private static final long TICK_MS = 10;
+    /**
+     * 一轮只有80ms，较长的延时需要转多轮
+     */
+    private static final int WHEEL_SIZE = 8;
+
+    private TrackTimer trackTimer;
+
+    @Before
+    public void setUp() {
+        trackTimer = new TrackTimer("TrackTimerTest", TICK_MS, WHEEL_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        trackTimer.stop();
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private long runAndMeasure(long delayMs) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        assertNotNull(trackTimer.schedule(new TrackState(1, 0), delayMs, countDown(latch)));
+        assertTrue(latch.await(delayMs + 1000, TimeUnit.MILLISECONDS));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void runsNoEarlierThanDelay() throws InterruptedException {
+        // 计时精度为1ms
+        assertTrue(runAndMeasure(30) >= 30 - 1);
+    }
+
+    @Test
+    public void delayLongerThanWheelWaitsForItsRound() throws InterruptedException {
+        assertTrue(runAndMeasure(TICK_MS * WHEEL_SIZE * 2 + 5) >= TICK_MS * WHEEL_SIZE * 2 + 5 - 1);
+    }
+
+    @Test
+    public void canceledTaskDoesNotRun() throws InterruptedException {
+        final AtomicInteger runCount = new AtomicInteger();
+        TrackState trackState = new TrackState(1, 0);
+        TrackTimer.Timeout timeout = trackTimer.schedule(trackState, 20, new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+            }
+        });
+        trackTimer.cancel(timeout);
+        // 同一tick之后到期的任务执行时，被取消的任务早已到期
+        CountDownLatch latch = new CountDownLatch(1);
+        trackTimer.schedule(trackState, 60, countDown(latch));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(0, runCount.get());
+        // 重复取消无效果
+        trackTimer.cancel(timeout);
+    }
+
+    @Test
+    public void cancelAllCancelsTrackTasksOnly() throws InterruptedException {
+        final AtomicInteger runCount = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+            }
+        };
+        TrackState leftTrack = new TrackState(1, 0);
+        TrackState otherTrack = new TrackState(2, 0);
+        trackTimer.schedule(leftTrack, 20, task);
+        trackTimer.schedule(leftTrack, 30, task);
+        trackTimer.schedule(leftTrack, TICK_MS * WHEEL_SIZE + 20, task);
+        CountDownLatch latch = new CountDownLatch(1);
+        trackTimer.schedule(otherTrack, TICK_MS * WHEEL_SIZE + 30, countDown(latch));
+
+        trackTimer.cancelAll(leftTrack);
+        assertNull(leftTrack.timeoutHead);
+        // 已离开的人脸不能再添加任务
+        assertNull(trackTimer.schedule(leftTrack, 0, task));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(0, runCount.get());
+    }
+
+    @Test
+    public void stopDiscardsTasks() throws InterruptedException {
+        final AtomicInteger runCount = new AtomicInteger();
+        TrackState trackState = new TrackState(1, 0);
+        trackTimer.schedule(trackState, 20, new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+            }
+        });
+        trackTimer.stop();
+        assertNull(trackTimer.schedule(trackState, 0, countDown(new CountDownLatch(1))));
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(0, runCount.get());
+    }
+}
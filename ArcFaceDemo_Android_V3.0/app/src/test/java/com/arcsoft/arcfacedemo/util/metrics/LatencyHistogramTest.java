@@ -0,0 +1,75 @@
+package com.arcsoft.arcfacedemo.util.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 直方图的分桶边界和分位数
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void indexOfBucketBoundaries() {
+        assertEquals(0, LatencyHistogram.indexOf(0));
+        assertEquals(0, LatencyHistogram.indexOf(63));
+        // [64, 128)等分为4个桶
+        assertEquals(1, LatencyHistogram.indexOf(64));
+        assertEquals(1, LatencyHistogram.indexOf(79));
+        assertEquals(2, LatencyHistogram.indexOf(80));
+        assertEquals(4, LatencyHistogram.indexOf(127));
+        assertEquals(5, LatencyHistogram.indexOf(128));
+        assertEquals(5, LatencyHistogram.indexOf(159));
+        assertEquals(6, LatencyHistogram.indexOf(160));
+    }
+
+    @Test
+    public void valuesBeyondRangeGoToLastBucket() {
+        int lastIndex = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(lastIndex, LatencyHistogram.indexOf(1L << 22));
+        assertEquals(lastIndex - 1, LatencyHistogram.indexOf((1L << 22) - 1));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(lastIndex));
+    }
+
+    /**
+     * 每个值都落在上界不小于它、且前一个桶的上界小于它的桶中，桶的相对宽度不超过25%
+     */
+    @Test
+    public void indexOfMatchesUpperBounds() {
+        int previousIndex = 0;
+        for (long micros = 0; micros < (1L << 22); micros++) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertTrue(index == previousIndex || index == previousIndex + 1);
+            long upperBound = LatencyHistogram.upperBoundOf(index);
+            assertTrue(micros < upperBound);
+            if (index > 0) {
+                long lowerBound = LatencyHistogram.upperBoundOf(index - 1);
+                assertTrue(micros >= lowerBound);
+                assertTrue(upperBound - lowerBound <= lowerBound / 4);
+            }
+            previousIndex = index;
+        }
+    }
+
+    @Test
+    public void percentileIsUpperBoundCappedByMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500, histogram.getMean());
+        assertEquals(100000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 50000 && p50 <= 50000 * 5 / 4);
+        assertEquals(100000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroPercentile() {
+        new LatencyHistogram().getPercentile(0);
+    }
+}
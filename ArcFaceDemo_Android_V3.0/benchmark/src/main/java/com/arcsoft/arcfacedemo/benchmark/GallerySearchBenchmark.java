@@ -0,0 +1,133 @@
+package com.arcsoft.arcfacedemo.benchmark;
+
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.GallerySearcher;
+import com.arcsoft.arcfacedemo.core.Match;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedEngine;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedScene;
+import com.arcsoft.arcfacedemo.core.sim.SyntheticFeatures;
+import com.arcsoft.arcfacedemo.faceserver.FeatureIvfIndex;
+import com.arcsoft.arcfacedemo.faceserver.FeatureSlab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 人脸库搜索，与FaceServer.getTopOfFaceLib的单引擎路径相同：可选的IVF索引给出候选人脸，再由GallerySearcher精确比对
+ * <p>
+ * 比对使用{@link SimulatedEngine}的Java内积代替原生引擎，结果反映搜索本身的开销和人脸库规模的影响，
+ * 与设备上的绝对耗时不同。查询的人脸都在人脸库中
+ * <p>
+ * 提前停止的耗时取决于匹配的人脸在库中的位置，每次调用依次搜索所有查询，结果为每个查询的平均耗时，
+ * 不随每轮测量覆盖到的查询不同而波动。人脸库较大，固定堆大小，避免堆扩展带来的GC波动
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class GallerySearchBenchmark {
+    /**
+     * 与应用中的识别阈值相同
+     */
+    private static final float SIMILAR_THRESHOLD = 0.8f;
+    private static final int QUERY_COUNT = 16;
+    private static final int IVF_TRAIN_ITERATIONS = 10;
+    private static final int IVF_PROBE_COUNT = 16;
+
+    @Param({"1000", "10000", "100000"})
+    public int gallerySize;
+
+    private SimulatedEngine engine;
+    private FeatureSlab.Snapshot snapshot;
+    private FeatureIvfIndex ivfIndex;
+    private byte[][] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimulatedScene scene = new SimulatedScene.Builder()
+                .seed(2019)
+                .identityCount(gallerySize)
+                .build();
+        engine = new SimulatedEngine.Builder().scene(scene).build();
+        FeatureSlab featureSlab = new FeatureSlab(gallerySize);
+        scene.fillGallery(featureSlab, gallerySize);
+        snapshot = featureSlab.snapshot();
+        // 与FaceServer.rebuildIvfIndex的参数相同
+        ivfIndex = FeatureIvfIndex.train(featureSlab, gallerySize, (int) Math.sqrt(gallerySize), IVF_TRAIN_ITERATIONS, gallerySize);
+
+        queries = new byte[QUERY_COUNT][SyntheticFeatures.FEATURE_SIZE];
+        List<FaceBox> faceList = new ArrayList<>();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            long frameIndex = i * scene.getTrackFrames();
+            scene.getFaces(frameIndex, faceList);
+            engine.extract(scene.newFrame(frameIndex), faceList.get(i % faceList.size()), queries[i]);
+        }
+    }
+
+    /**
+     * 比对整个人脸库
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERY_COUNT)
+    public void fullScan(Blackhole blackhole) {
+        for (byte[] query : queries) {
+            blackhole.consume(GallerySearcher.search(engine, query, snapshot, 1, Float.MIN_VALUE, GallerySearcher.NO_CERTAIN_SIMILAR));
+        }
+    }
+
+    /**
+     * 找到相似度不低于识别阈值的人脸后停止，应用中的调用方式
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERY_COUNT)
+    public void earlyStop(Blackhole blackhole) {
+        for (byte[] query : queries) {
+            blackhole.consume(GallerySearcher.search(engine, query, snapshot, 1, Float.MIN_VALUE, SIMILAR_THRESHOLD));
+        }
+    }
+
+    /**
+     * 取相似度最高的5个人脸，不提前停止
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERY_COUNT)
+    public void fullScanTop5(Blackhole blackhole) {
+        for (byte[] query : queries) {
+            blackhole.consume(GallerySearcher.search(engine, query, snapshot, 5, Float.MIN_VALUE, GallerySearcher.NO_CERTAIN_SIMILAR));
+        }
+    }
+
+    /**
+     * IVF索引给出候选人脸后精确比对
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERY_COUNT)
+    public void ivf(Blackhole blackhole) {
+        for (byte[] query : queries) {
+            int[] candidateIndexes = ivfIndex.search(query, IVF_PROBE_COUNT);
+            PriorityQueue<Match> topKQueue = GallerySearcher.searchRange(engine, query, snapshot, candidateIndexes, 0, candidateIndexes.length,
+                    1, Float.MIN_VALUE, SIMILAR_THRESHOLD, new AtomicBoolean(false));
+            blackhole.consume(GallerySearcher.sortDescending(topKQueue));
+        }
+    }
+}
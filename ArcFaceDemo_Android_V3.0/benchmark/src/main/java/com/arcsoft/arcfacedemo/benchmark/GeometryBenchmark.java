@@ -0,0 +1,119 @@
+package com.arcsoft.arcfacedemo.benchmark;
+
+import android.graphics.Rect;
+import android.hardware.Camera;
+
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedScene;
+import com.arcsoft.arcfacedemo.util.DrawHelper;
+import com.arcsoft.arcfacedemo.util.NV21Util;
+import com.arcsoft.arcfacedemo.util.TrackUtil;
+import com.arcsoft.face.FaceInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧对每个人脸执行的几何计算：绘制前的人脸框变换、只保留最大人脸和计算裁剪区域
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Benchmark)
+public class GeometryBenchmark {
+    private static final int PREVIEW_WIDTH = 1280;
+    private static final int PREVIEW_HEIGHT = 720;
+    /**
+     * 预先生成的人脸框数
+     */
+    private static final int RECT_COUNT = 256;
+
+    private DrawHelper drawHelper;
+    private Rect[] rects;
+    private int rectIndex;
+
+    @State(Scope.Benchmark)
+    public static class FaceListState {
+        @Param({"10", "50"})
+        public int faceCount;
+
+        List<FaceInfo> faceInfos;
+        final List<FaceInfo> faceInfoList = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            faceInfos = new ArrayList<>(faceCount);
+            for (FaceBox face : newFaces(faceCount)) {
+                FaceInfo faceInfo = new FaceInfo(new Rect(face.getLeft(), face.getTop(), face.getRight(), face.getBottom()), face.getOrient());
+                faceInfo.setFaceId(face.getFaceId());
+                faceInfos.add(faceInfo);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 竖屏前置摄像头，应用中最常见的配置
+        drawHelper = new DrawHelper(PREVIEW_WIDTH, PREVIEW_HEIGHT, 1080, 1920, 90,
+                Camera.CameraInfo.CAMERA_FACING_FRONT, false, false, false);
+        rects = new Rect[RECT_COUNT];
+        List<FaceBox> faceList = newFaces(RECT_COUNT);
+        for (int i = 0; i < RECT_COUNT; i++) {
+            FaceBox face = faceList.get(i);
+            rects[i] = new Rect(face.getLeft(), face.getTop(), face.getRight(), face.getBottom());
+        }
+    }
+
+    private static List<FaceBox> newFaces(int faceCount) {
+        SimulatedScene scene = new SimulatedScene.Builder()
+                .seed(2019)
+                .frameSize(PREVIEW_WIDTH, PREVIEW_HEIGHT)
+                .faceCount(faceCount)
+                .build();
+        List<FaceBox> faceList = new ArrayList<>(faceCount);
+        scene.getFaces(0, faceList);
+        return faceList;
+    }
+
+    private Rect nextRect() {
+        rectIndex = (rectIndex + 1) % RECT_COUNT;
+        return rects[rectIndex];
+    }
+
+    @Benchmark
+    public Rect adjustRect() {
+        return drawHelper.adjustRect(nextRect());
+    }
+
+    @Benchmark
+    public Rect getFaceRoi() {
+        return NV21Util.getFaceRoi(PREVIEW_WIDTH, PREVIEW_HEIGHT, nextRect());
+    }
+
+    /**
+     * keepMaxFace会修改列表，每次调用前重新填充，填充的开销包含在结果中
+     */
+    @Benchmark
+    public List<FaceInfo> keepMaxFace(FaceListState state) {
+        state.faceInfoList.clear();
+        state.faceInfoList.addAll(state.faceInfos);
+        TrackUtil.keepMaxFace(state.faceInfoList);
+        return state.faceInfoList;
+    }
+}
@@ -0,0 +1,68 @@
+package com.arcsoft.arcfacedemo.benchmark;
+
+import android.graphics.Rect;
+
+import com.arcsoft.arcfacedemo.util.NV21Util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21人脸区域的裁剪和清晰度估算，特征提取和选帧时对每个人脸执行
+ * <p>
+ * 人脸框的高度为图像高度的1/4，位于图像中央
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Benchmark)
+public class Nv21Benchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String frameSize;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private Rect faceRect;
+    private Rect roi;
+    private byte[] roiData;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = frameSize.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        nv21 = new byte[width * height * 3 / 2];
+        new Random(2019).nextBytes(nv21);
+        int faceSize = height / 4;
+        faceRect = new Rect((width - faceSize) / 2, (height - faceSize) / 2, (width + faceSize) / 2, (height + faceSize) / 2);
+        roi = NV21Util.getFaceRoi(width, height, faceRect);
+        roiData = new byte[roi.width() * roi.height() * 3 / 2];
+    }
+
+    @Benchmark
+    public byte[] crop() {
+        NV21Util.crop(nv21, width, height, roi, roiData);
+        return roiData;
+    }
+
+    @Benchmark
+    public float getSharpness() {
+        return NV21Util.getSharpness(nv21, width, height, faceRect);
+    }
+}
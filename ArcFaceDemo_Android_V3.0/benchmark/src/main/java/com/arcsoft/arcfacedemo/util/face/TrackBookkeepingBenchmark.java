@@ -0,0 +1,124 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.sim.SimulatedScene;
+import com.arcsoft.face.FaceInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧的人脸状态维护，即FaceHelper.refreshTrackId调用的{@link TrackRegistry#refresh(List, int, long)}：
+ * 更新出现的人脸、删除已离开的人脸的状态，取消其延时任务、等待中的任务和候选帧，新出现的人脸提交一个特征提取任务
+ * <p>
+ * 调度器没有工作线程，任务一直等待，直到人脸离开后被取消，只测量维护的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Benchmark)
+public class TrackBookkeepingBenchmark {
+    /**
+     * 预先生成的帧数，是轨迹长度的整数倍
+     */
+    private static final int FRAME_COUNT = 300;
+
+    @Param({"10", "50", "200"})
+    public int faceCount;
+
+    private List<List<FaceInfo>> frameFaceLists;
+    private TrackTimer trackTimer;
+    private FaceTaskScheduler frScheduler;
+    private FaceTaskScheduler flScheduler;
+    private TrackRegistry trackRegistry;
+    private int frameIndex;
+
+    private static class NoopTask extends FaceTask {
+        NoopTask(int trackId, long faceArea) {
+            super(trackId, faceArea);
+        }
+
+        @Override
+        void onBusy() {
+        }
+
+        @Override
+        void discard() {
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 每个人脸持续30帧，每帧约有faceCount / 30个人脸离开和出现
+        SimulatedScene scene = new SimulatedScene.Builder()
+                .seed(2019)
+                .faceCount(faceCount)
+                .trackFrames(30)
+                .build();
+        frameFaceLists = new ArrayList<>(FRAME_COUNT);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            List<FaceBox> faceList = new ArrayList<>(faceCount);
+            scene.getFaces(i, faceList);
+            List<FaceInfo> faceInfoList = new ArrayList<>(faceCount);
+            for (FaceBox face : faceList) {
+                FaceInfo faceInfo = new FaceInfo(new Rect(face.getLeft(), face.getTop(), face.getRight(), face.getBottom()), face.getOrient());
+                faceInfo.setFaceId(face.getFaceId());
+                faceInfoList.add(faceInfo);
+            }
+            frameFaceLists.add(faceInfoList);
+        }
+        // 与FaceHelper相同的时间轮配置
+        trackTimer = new TrackTimer("TrackBookkeepingBenchmark-timer", 20, 128);
+        frScheduler = new FaceTaskScheduler("TrackBookkeepingBenchmark-fr", 0, faceCount);
+        flScheduler = new FaceTaskScheduler("TrackBookkeepingBenchmark-fl", 0, faceCount);
+        trackRegistry = new TrackRegistry(trackTimer, frScheduler, flScheduler, new FeatureFrameSelector(3));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        trackTimer.stop();
+        frScheduler.shutdownNow();
+        flScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public int refreshTrackId() {
+        // 回到第0帧时所有人脸一次性被替换，每FRAME_COUNT帧出现一次，对平均耗时的影响很小
+        List<FaceInfo> faceList = frameFaceLists.get(frameIndex);
+        frameIndex = (frameIndex + 1) % FRAME_COUNT;
+
+        int[] trackIds = trackRegistry.refresh(faceList, 0, System.currentTimeMillis());
+        for (int i = 0; i < faceList.size(); i++) {
+            TrackState trackState = trackRegistry.get(trackIds[i]);
+            if (trackState.getFeatureStatus() == RequestFeatureStatus.NONE) {
+                trackState.setFeatureStatus(RequestFeatureStatus.SEARCHING);
+                Rect rect = faceList.get(i).getRect();
+                frScheduler.submit(new NoopTask(trackIds[i], (long) rect.width() * rect.height()));
+            }
+        }
+        return trackRegistry.size();
+    }
+}
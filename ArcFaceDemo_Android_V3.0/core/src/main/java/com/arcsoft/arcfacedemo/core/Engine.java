@@ -0,0 +1,82 @@
+package com.arcsoft.arcfacedemo.core;
+
+import java.util.List;
+
+/**
+ * 人脸引擎的抽象：检测、特征提取、特征比对和活体检测
+ * <p>
+ * 与ArcSoft引擎的接口形式一致：返回错误码，结果写入调用方传入的对象，调用方复用这些对象时热路径上不分配内存。
+ * 实现不要求线程安全，多线程使用时每个线程一个实例或由调用方加锁
+ */
+public interface Engine {
+    /**
+     * 成功
+     */
+    int OK = 0;
+    /**
+     * 活体检测结果：未知
+     */
+    int LIVENESS_UNKNOWN = -1;
+    /**
+     * 活体检测结果：非活体
+     */
+    int LIVENESS_NOT_ALIVE = 0;
+    /**
+     * 活体检测结果：活体
+     */
+    int LIVENESS_ALIVE = 1;
+
+    /**
+     * 人脸检测
+     *
+     * @param frame    图像
+     * @param faceList 检测结果，调用前会被清空
+     * @return 错误码
+     */
+    int detect(Frame frame, List<FaceBox> faceList);
+
+    /**
+     * @return 特征数据的长度（字节）
+     */
+    int getFeatureSize();
+
+    /**
+     * 特征提取
+     *
+     * @param frame   图像
+     * @param face    人脸
+     * @param feature 特征数据，长度不小于{@link #getFeatureSize()}
+     * @return 错误码
+     */
+    int extract(Frame frame, FaceBox face, byte[] feature);
+
+    /**
+     * 特征比对
+     *
+     * @param feature1 特征数据
+     * @param feature2 特征数据
+     * @param similar  相似度，写入similar[0]
+     * @return 错误码
+     */
+    int compare(byte[] feature1, byte[] feature2, float[] similar);
+
+    /**
+     * RGB活体检测
+     *
+     * @param frame    图像
+     * @param face     人脸
+     * @param liveness 活体检测结果，写入liveness[0]，取值为LIVENESS_*
+     * @return 错误码
+     */
+    int liveness(Frame frame, FaceBox face, int[] liveness);
+
+    /**
+     * IR活体检测
+     *
+     * @param frame    IR图像
+     * @param face     人脸
+     * @param liveness 活体检测结果，写入liveness[0]，取值为LIVENESS_*
+     * @return 错误码
+     */
+    int irLiveness(Frame frame, FaceBox face, int[] liveness);
+}
@@ -0,0 +1,84 @@
+package com.arcsoft.arcfacedemo.core;
+
+/**
+ * 检测到的人脸：人脸框、角度和引擎分配的faceId，不依赖android.graphics.Rect
+ */
+public class FaceBox {
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private int orient;
+    private int faceId;
+
+    public FaceBox() {
+    }
+
+    /**
+     * @param left   人脸框左边界（包含）
+     * @param top    人脸框上边界（包含）
+     * @param right  人脸框右边界（不包含）
+     * @param bottom 人脸框下边界（不包含）
+     * @param orient 人脸角度，取值与引擎相同
+     * @param faceId 引擎分配的faceId，同一人脸在视频模式下保持不变
+     */
+    public FaceBox(int left, int top, int right, int bottom, int orient, int faceId) {
+        set(left, top, right, bottom, orient, faceId);
+    }
+
+    /**
+     * 设置全部字段，用于复用对象
+     */
+    public void set(int left, int top, int right, int bottom, int orient, int faceId) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.orient = orient;
+        this.faceId = faceId;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getOrient() {
+        return orient;
+    }
+
+    public int getFaceId() {
+        return faceId;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    /**
+     * @return 人脸框面积，人脸框为空时返回0
+     */
+    public long area() {
+        return width() <= 0 || height() <= 0 ? 0 : (long) width() * height();
+    }
+
+    @Override
+    public String toString() {
+        return "FaceBox{" + left + ", " + top + ", " + right + ", " + bottom + ", orient=" + orient + ", faceId=" + faceId + "}";
+    }
+}
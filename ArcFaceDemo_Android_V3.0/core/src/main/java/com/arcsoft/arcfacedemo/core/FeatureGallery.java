@@ -0,0 +1,206 @@
+package com.arcsoft.arcfacedemo.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 人脸库的特征数据，所有特征按槽位连续存放在同一块堆外内存中，名字另存于按槽位索引的数组中
+ * <p>
+ * 相比每个人脸一个byte[]，堆内只剩名字，搜索时顺序读取连续内存，也不会因大量特征数组引起GC。
+ * 写入方每追加一个人脸就发布一个新的{@link Snapshot}，读取方通过{@link #snapshot()}取得某一版本后无需加锁即可读取，
+ * 已发布的槽位不会再被修改，扩容时旧版本仍引用原来的内存，因此快照始终是一致的
+ * <p>
+ * 特征长度由构造时指定，不依赖具体的引擎
+ */
+public class FeatureGallery {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int featureSize;
+
+    /**
+     * 特征数据，槽位i的特征位于[i * featureSize, (i + 1) * featureSize)，只由写入方访问
+     */
+    private ByteBuffer buffer;
+    private String[] names;
+    /**
+     * 最新发布的版本
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param featureSize 特征数据的长度（字节）
+     */
+    public FeatureGallery(int featureSize) {
+        this(featureSize, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param featureSize 特征数据的长度（字节）
+     * @param capacity    初始容量，容量不足时自动扩容
+     */
+    public FeatureGallery(int featureSize, int capacity) {
+        if (featureSize <= 0) {
+            throw new IllegalArgumentException("invalid featureSize " + featureSize);
+        }
+        this.featureSize = featureSize;
+        capacity = Math.max(capacity, 1);
+        buffer = ByteBuffer.allocateDirect(capacity * featureSize);
+        names = new String[capacity];
+        snapshot = new Snapshot(buffer, names, 0, featureSize);
+    }
+
+    /**
+     * @return 特征数据的长度（字节）
+     */
+    public int getFeatureSize() {
+        return featureSize;
+    }
+
+    /**
+     * 获取最新发布的版本
+     *
+     * @return 人脸库快照
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return 最新版本中的人脸数
+     */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * 创建最新版本的读取器
+     *
+     * @return 读取器
+     */
+    public Reader newReader() {
+        return snapshot.newReader();
+    }
+
+    /**
+     * 追加一个人脸
+     *
+     * @param name    名字
+     * @param feature 特征数据
+     * @return 分配的槽位
+     */
+    public synchronized int add(String name, byte[] feature) {
+        return add(name, ByteBuffer.wrap(feature));
+    }
+
+    /**
+     * 追加一个人脸并发布新版本
+     *
+     * @param name    名字
+     * @param feature 特征数据，从position处读取{@link #getFeatureSize()}字节
+     * @return 分配的槽位
+     */
+    public synchronized int add(String name, ByteBuffer feature) {
+        if (feature.remaining() < featureSize) {
+            throw new IllegalArgumentException("invalid feature data, remaining " + feature.remaining());
+        }
+        int slot = snapshot.size;
+        ensureCapacity(slot + 1);
+        ByteBuffer src = feature.duplicate();
+        src.limit(src.position() + featureSize);
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(slot * featureSize);
+        dst.put(src);
+        names[slot] = name;
+        snapshot = new Snapshot(buffer, names, slot + 1, featureSize);
+        return slot;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, names.length * 2);
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity * featureSize);
+        ByteBuffer oldBuffer = buffer.duplicate();
+        oldBuffer.position(0).limit(snapshot.size * featureSize);
+        newBuffer.put(oldBuffer);
+        names = Arrays.copyOf(names, newCapacity);
+        buffer = newBuffer;
+    }
+
+    /**
+     * 人脸库某一版本的只读视图，包含发布时的前{@link #size()}个人脸
+     */
+    public static class Snapshot {
+        private final ByteBuffer buffer;
+        private final String[] names;
+        private final int size;
+        private final int featureSize;
+
+        private Snapshot(ByteBuffer buffer, String[] names, int size, int featureSize) {
+            this.buffer = buffer;
+            this.names = names;
+            this.size = size;
+            this.featureSize = featureSize;
+        }
+
+        /**
+         * @return 该版本中的人脸数
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 获取槽位对应的名字
+         *
+         * @param slot 槽位，需小于{@link #size()}
+         * @return 名字
+         */
+        public String getName(int slot) {
+            if (slot >= size) {
+                throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+            }
+            return names[slot];
+        }
+
+        /**
+         * 创建一个读取器，每个线程使用各自的读取器
+         *
+         * @return 读取器
+         */
+        public Reader newReader() {
+            return new Reader(this);
+        }
+    }
+
+    /**
+     * 特征读取器，将槽位中的特征数据复制到复用的数组中，读取过程不分配内存
+     */
+    public static class Reader {
+        private final Snapshot snapshot;
+        private final ByteBuffer view;
+        private final byte[] feature;
+
+        private Reader(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            this.view = snapshot.buffer.duplicate();
+            this.feature = new byte[snapshot.featureSize];
+        }
+
+        /**
+         * 读取特征数据，返回的数组在下次读取时会被覆盖
+         *
+         * @param slot 槽位，需小于快照的{@link Snapshot#size()}
+         * @return 特征数据
+         */
+        public byte[] read(int slot) {
+            if (slot >= snapshot.size) {
+                throw new IndexOutOfBoundsException("slot " + slot + ", size " + snapshot.size);
+            }
+            view.position(slot * feature.length);
+            view.get(feature);
+            return feature;
+        }
+    }
+}
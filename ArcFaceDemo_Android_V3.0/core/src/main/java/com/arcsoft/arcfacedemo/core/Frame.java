@@ -0,0 +1,58 @@
+package com.arcsoft.arcfacedemo.core;
+
+/**
+ * 一帧图像，不依赖Android的图像和相机类型
+ * <p>
+ * 图像格式的取值与ArcSoft引擎的CP_PAF_*常量相同，适配引擎时可直接传递
+ */
+public class Frame {
+    /**
+     * NV21格式
+     */
+    public static final int FORMAT_NV21 = 0x802;
+    /**
+     * BGR24格式
+     */
+    public static final int FORMAT_BGR24 = 0x201;
+    /**
+     * 灰度图，IR相机使用
+     */
+    public static final int FORMAT_GRAY = 0x701;
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int format;
+
+    /**
+     * @param data   图像数据，不复制
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param format 图像格式
+     */
+    public Frame(byte[] data, int width, int height, int format) {
+        if (data == null || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid frame " + width + "x" + height);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,113 @@
+package com.arcsoft.arcfacedemo.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 人脸库的TopK搜索，使用大小为K的最小堆保存候选结果
+ * <p>
+ * 搜索范围可以是整个人脸库、人脸库的一个分片或近似索引给出的候选人脸，
+ * 找到相似度不低于certainSimilar的人脸后立即停止，多个分片共享同一个停止标志
+ */
+public class GallerySearcher {
+    /**
+     * 不提前停止搜索
+     */
+    public static final float NO_CERTAIN_SIMILAR = Float.MAX_VALUE;
+
+    private GallerySearcher() {
+    }
+
+    /**
+     * 搜索整个人脸库
+     *
+     * @param engine         比对引擎
+     * @param feature        待搜索的特征数据
+     * @param snapshot       人脸库快照
+     * @param topK           最多返回的人脸数
+     * @param minSimilar     最低相似度，低于该值的人脸不会被返回
+     * @param certainSimilar 可确定为同一人的相似度，传入{@link #NO_CERTAIN_SIMILAR}则搜索整个人脸库
+     * @return 按相似度从高到低排列的结果
+     */
+    public static List<Match> search(Engine engine, byte[] feature, FeatureGallery.Snapshot snapshot,
+                                     int topK, float minSimilar, float certainSimilar) {
+        if (topK <= 0) {
+            return new ArrayList<>();
+        }
+        return sortDescending(searchRange(engine, feature, snapshot, null, 0, snapshot.size(),
+                topK, minSimilar, certainSimilar, new AtomicBoolean(false)));
+    }
+
+    /**
+     * 在人脸库的一个范围中搜索，不加锁，多线程使用同一个引擎时由调用方加锁
+     *
+     * @param engine           比对引擎
+     * @param feature          待搜索的特征数据
+     * @param snapshot         人脸库快照
+     * @param candidateIndexes 候选人脸的下标，为null时范围下标即人脸库下标
+     * @param from             范围起始下标（包含）
+     * @param to               范围结束下标（不包含）
+     * @param topK             最多保留的人脸数，需大于0
+     * @param minSimilar       最低相似度
+     * @param certainSimilar   可确定为同一人的相似度
+     * @param certainFound     共享的停止标志，已找到可确定的人脸时所有范围停止搜索
+     * @return 该范围中相似度最高的K个人脸，以最小堆的形式保存
+     */
+    public static PriorityQueue<Match> searchRange(Engine engine, byte[] feature, FeatureGallery.Snapshot snapshot,
+                                                   int[] candidateIndexes, int from, int to, int topK,
+                                                   float minSimilar, float certainSimilar, AtomicBoolean certainFound) {
+        PriorityQueue<Match> topKQueue = new PriorityQueue<>(topK, Match.SIMILAR_ASCENDING);
+        // 每次搜索只分配一次，比对过程中不再分配内存
+        FeatureGallery.Reader reader = snapshot.newReader();
+        float[] similar = new float[1];
+        int faceCount = snapshot.size();
+        for (int j = from; j < to && !certainFound.get(); j++) {
+            int i = candidateIndexes == null ? j : candidateIndexes[j];
+            if (i >= faceCount) {
+                continue;
+            }
+            if (engine.compare(feature, reader.read(i), similar) != Engine.OK) {
+                continue;
+            }
+            float score = similar[0];
+            // 剪枝：低于最低相似度或不会进入TopK的人脸，不创建结果
+            if (score < minSimilar || (topKQueue.size() >= topK && score <= topKQueue.peek().getSimilar())) {
+                continue;
+            }
+            offerToTopK(topKQueue, topK, new Match(i, snapshot.getName(i), score));
+            if (score >= certainSimilar) {
+                certainFound.set(true);
+            }
+        }
+        return topKQueue;
+    }
+
+    /**
+     * 将结果放入大小为K的最小堆，堆满时替换掉相似度最低的结果
+     *
+     * @param topKQueue 最小堆
+     * @param topK      堆的大小
+     * @param match     结果
+     */
+    public static void offerToTopK(PriorityQueue<Match> topKQueue, int topK, Match match) {
+        if (topKQueue.size() < topK) {
+            topKQueue.offer(match);
+        } else if (match.getSimilar() > topKQueue.peek().getSimilar()) {
+            topKQueue.poll();
+            topKQueue.offer(match);
+        }
+    }
+
+    /**
+     * @param topKQueue 最小堆
+     * @return 按相似度从高到低排列的结果
+     */
+    public static List<Match> sortDescending(PriorityQueue<Match> topKQueue) {
+        List<Match> matchList = new ArrayList<>(topKQueue);
+        Collections.sort(matchList, Collections.reverseOrder(Match.SIMILAR_ASCENDING));
+        return matchList;
+    }
+}
@@ -0,0 +1,50 @@
+package com.arcsoft.arcfacedemo.core;
+
+import java.util.Comparator;
+
+/**
+ * 人脸库搜索的一个结果
+ */
+public class Match {
+    /**
+     * 按相似度从低到高排序
+     */
+    public static final Comparator<Match> SIMILAR_ASCENDING = new Comparator<Match>() {
+        @Override
+        public int compare(Match o1, Match o2) {
+            return Float.compare(o1.similar, o2.similar);
+        }
+    };
+
+    private final int slot;
+    private final String name;
+    private final float similar;
+
+    /**
+     * @param slot    人脸在人脸库中的槽位
+     * @param name    名字
+     * @param similar 相似度
+     */
+    public Match(int slot, String name, float similar) {
+        this.slot = slot;
+        this.name = name;
+        this.similar = similar;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getSimilar() {
+        return similar;
+    }
+
+    @Override
+    public String toString() {
+        return "Match{" + slot + ", " + name + ", " + similar + "}";
+    }
+}
@@ -0,0 +1,157 @@
+package com.arcsoft.arcfacedemo.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分片并行的人脸库搜索：将搜索范围分成若干分片，每个分片使用一个独立的比对引擎，再合并各分片的TopK结果
+ * <p>
+ * 第0个分片在调用线程中执行，其余分片提交到线程池。每个引擎同一时间只处理一个分片，
+ * 多个调用方同时搜索时在引擎上排队等待。任一分片找到可确定的人脸后所有分片停止搜索
+ */
+public class ShardedGallerySearcher {
+    /**
+     * 每个分片默认至少包含的人脸数，人脸库较小时分片搜索的调度开销大于收益
+     */
+    public static final int DEFAULT_MIN_FACES_PER_SHARD = 500;
+
+    private final Engine[] engines;
+    private final ExecutorService executor;
+    private final int minFacesPerShard;
+
+    /**
+     * @param engines          各分片使用的比对引擎，由调用方负责销毁
+     * @param executor         执行第1个及之后分片的线程池，由调用方负责关闭，线程数不少于引擎数减1时各分片才能同时执行
+     * @param minFacesPerShard 每个分片至少包含的人脸数
+     */
+    public ShardedGallerySearcher(Engine[] engines, ExecutorService executor, int minFacesPerShard) {
+        if (engines == null || engines.length == 0) {
+            throw new IllegalArgumentException("engines must not be empty");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (minFacesPerShard <= 0) {
+            throw new IllegalArgumentException("minFacesPerShard must be positive");
+        }
+        this.engines = engines.clone();
+        this.executor = executor;
+        this.minFacesPerShard = minFacesPerShard;
+    }
+
+    /**
+     * @return 引擎数，即最大分片数
+     */
+    public int getEngineCount() {
+        return engines.length;
+    }
+
+    /**
+     * @param index 引擎下标
+     * @return 该分片使用的比对引擎，也是该分片搜索时加锁的对象
+     */
+    public Engine getEngine(int index) {
+        return engines[index];
+    }
+
+    /**
+     * @param faceCount 搜索范围内的人脸数
+     * @return 分片数，不超过引擎数，每个分片至少包含minFacesPerShard个人脸
+     */
+    public int getShardCount(int faceCount) {
+        int shardCount = Math.min(engines.length, (faceCount + minFacesPerShard - 1) / minFacesPerShard);
+        return Math.max(shardCount, 1);
+    }
+
+    /**
+     * 分片并行搜索
+     *
+     * @param feature          待搜索的特征数据
+     * @param snapshot         人脸库快照
+     * @param candidateIndexes 候选人脸的下标，为null时搜索整个人脸库
+     * @param topK             最多返回的人脸数，需大于0
+     * @param minSimilar       最低相似度
+     * @param certainSimilar   可确定为同一人的相似度，传入{@link GallerySearcher#NO_CERTAIN_SIMILAR}则搜索整个范围
+     * @return 按相似度从高到低排列的结果，线程池已关闭或等待时被中断则返回null
+     */
+    public List<Match> search(final byte[] feature, final FeatureGallery.Snapshot snapshot, final int[] candidateIndexes,
+                              final int topK, final float minSimilar, final float certainSimilar) {
+        final int faceCount = candidateIndexes == null ? snapshot.size() : candidateIndexes.length;
+        int shardCount = getShardCount(faceCount);
+        final int shardSize = (faceCount + shardCount - 1) / shardCount;
+        final AtomicBoolean certainFound = new AtomicBoolean(false);
+
+        List<Future<PriorityQueue<Match>>> futureList = new ArrayList<>(shardCount - 1);
+        for (int i = 1; i < shardCount; i++) {
+            final Engine engine = engines[i];
+            final int from = i * shardSize;
+            final int to = Math.min(from + shardSize, faceCount);
+            try {
+                futureList.add(executor.submit(new Callable<PriorityQueue<Match>>() {
+                    @Override
+                    public PriorityQueue<Match> call() {
+                        return searchShard(engine, feature, snapshot, candidateIndexes, from, to, topK, minSimilar, certainSimilar, certainFound);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭，已提交的分片看到停止标志后尽快结束
+                certainFound.set(true);
+                return null;
+            }
+        }
+        PriorityQueue<Match> topKQueue = searchShard(engines[0], feature, snapshot, candidateIndexes, 0, Math.min(shardSize, faceCount),
+                topK, minSimilar, certainSimilar, certainFound);
+        for (Future<PriorityQueue<Match>> future : futureList) {
+            try {
+                for (Match match : future.get()) {
+                    GallerySearcher.offerToTopK(topKQueue, topK, match);
+                }
+            } catch (ExecutionException e) {
+                onShardFailed(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return GallerySearcher.sortDescending(topKQueue);
+    }
+
+    /**
+     * 在一个分片中搜索，默认对引擎加锁后调用{@link GallerySearcher#searchRange}，子类可以覆盖以统计锁等待和搜索的耗时
+     *
+     * @param engine           该分片使用的比对引擎
+     * @param feature          待搜索的特征数据
+     * @param snapshot         人脸库快照
+     * @param candidateIndexes 候选人脸的下标，为null时分片下标即人脸库下标
+     * @param from             分片起始下标（包含）
+     * @param to               分片结束下标（不包含）
+     * @param topK             最多保留的人脸数
+     * @param minSimilar       最低相似度
+     * @param certainSimilar   可确定为同一人的相似度
+     * @param certainFound     各分片共享的停止标志
+     * @return 该分片中相似度最高的K个人脸，以最小堆的形式保存
+     */
+    protected PriorityQueue<Match> searchShard(Engine engine, byte[] feature, FeatureGallery.Snapshot snapshot,
+                                               int[] candidateIndexes, int from, int to, int topK,
+                                               float minSimilar, float certainSimilar, AtomicBoolean certainFound) {
+        synchronized (engine) {
+            return GallerySearcher.searchRange(engine, feature, snapshot, candidateIndexes, from, to,
+                    topK, minSimilar, certainSimilar, certainFound);
+        }
+    }
+
+    /**
+     * 某个分片搜索时抛出异常，该分片的结果被忽略，默认不做处理，子类可以覆盖以记录日志
+     *
+     * @param cause 分片抛出的异常
+     */
+    protected void onShardFailed(Throwable cause) {
+    }
+}
@@ -0,0 +1,250 @@
+package com.arcsoft.arcfacedemo.core.sim;
+
+import com.arcsoft.arcfacedemo.core.Engine;
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.Frame;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟的人脸引擎，用于没有设备和授权时的压测和性能测试
+ * <p>
+ * 检测结果来自{@link SimulatedScene}，特征由人脸的身份加上与帧序号相关的噪声生成，相似度为特征向量的内积。
+ * 每种调用可以配置耗时和失败率：耗时默认用忙等模拟，与原生引擎一样占用CPU；失败按失败率返回{@link #ERROR_SIMULATED}。
+ * <p>
+ * 与ArcSoft引擎一样不是线程安全的，每个线程一个实例。失败由实例自己的随机数决定，同一实例按相同顺序调用时结果相同
+ */
+public class SimulatedEngine implements Engine {
+    /**
+     * 模拟的失败，与ArcSoft引擎的MERR_UNKNOWN相同
+     */
+    public static final int ERROR_SIMULATED = 1;
+
+    private final SimulatedScene scene;
+    private final long detectLatency;
+    private final long extractLatency;
+    private final long compareLatency;
+    private final long livenessLatency;
+    private final float detectFailureRate;
+    private final float extractFailureRate;
+    private final float compareFailureRate;
+    private final float livenessFailureRate;
+    private final float extractNoise;
+    private final boolean busyWait;
+    private final Random failureRandom;
+
+    private SimulatedEngine(Builder builder) {
+        this.scene = builder.scene;
+        this.detectLatency = builder.detectLatency;
+        this.extractLatency = builder.extractLatency;
+        this.compareLatency = builder.compareLatency;
+        this.livenessLatency = builder.livenessLatency;
+        this.detectFailureRate = builder.detectFailureRate;
+        this.extractFailureRate = builder.extractFailureRate;
+        this.compareFailureRate = builder.compareFailureRate;
+        this.livenessFailureRate = builder.livenessFailureRate;
+        this.extractNoise = builder.extractNoise;
+        this.busyWait = builder.busyWait;
+        this.failureRandom = new Random(builder.failureSeed);
+    }
+
+    public SimulatedScene getScene() {
+        return scene;
+    }
+
+    @Override
+    public int detect(Frame frame, List<FaceBox> faceList) {
+        faceList.clear();
+        simulateLatency(detectLatency);
+        if (fail(detectFailureRate)) {
+            return ERROR_SIMULATED;
+        }
+        scene.getFaces(SimulatedScene.frameIndexOf(frame), faceList);
+        return OK;
+    }
+
+    @Override
+    public int getFeatureSize() {
+        return SyntheticFeatures.FEATURE_SIZE;
+    }
+
+    @Override
+    public int extract(Frame frame, FaceBox face, byte[] feature) {
+        simulateLatency(extractLatency);
+        if (fail(extractFailureRate) || face.getFaceId() < 0) {
+            return ERROR_SIMULATED;
+        }
+        int identity = scene.identityOf(face.getFaceId());
+        if (identity == SimulatedScene.STRANGER) {
+            // 陌生人使用人脸库之外的身份
+            identity = scene.getIdentityCount() + face.getFaceId();
+        }
+        // 噪声只与faceId和帧序号有关，同一帧重复提取得到相同的特征
+        long noiseSeed = SimulatedScene.mix(face.getFaceId(), SimulatedScene.frameIndexOf(frame));
+        SyntheticFeatures.write(scene.getSeed(), identity, extractNoise, noiseSeed, feature);
+        return OK;
+    }
+
+    @Override
+    public int compare(byte[] feature1, byte[] feature2, float[] similar) {
+        simulateLatency(compareLatency);
+        if (fail(compareFailureRate)) {
+            return ERROR_SIMULATED;
+        }
+        similar[0] = SyntheticFeatures.similarity(feature1, feature2);
+        return OK;
+    }
+
+    @Override
+    public int liveness(Frame frame, FaceBox face, int[] liveness) {
+        simulateLatency(livenessLatency);
+        if (fail(livenessFailureRate) || face.getFaceId() < 0) {
+            liveness[0] = LIVENESS_UNKNOWN;
+            return ERROR_SIMULATED;
+        }
+        liveness[0] = scene.isSpoof(face.getFaceId()) ? LIVENESS_NOT_ALIVE : LIVENESS_ALIVE;
+        return OK;
+    }
+
+    @Override
+    public int irLiveness(Frame frame, FaceBox face, int[] liveness) {
+        return liveness(frame, face, liveness);
+    }
+
+    private boolean fail(float failureRate) {
+        return failureRate > 0 && failureRandom.nextFloat() < failureRate;
+    }
+
+    private void simulateLatency(long latencyNanos) {
+        if (latencyNanos <= 0) {
+            return;
+        }
+        if (busyWait) {
+            long deadline = System.nanoTime() + latencyNanos;
+            while (System.nanoTime() - deadline < 0) {
+                // 忙等，模拟原生引擎占用CPU
+            }
+        } else {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    public static final class Builder {
+        private SimulatedScene scene;
+        private long detectLatency;
+        private long extractLatency;
+        private long compareLatency;
+        private long livenessLatency;
+        private float detectFailureRate;
+        private float extractFailureRate;
+        private float compareFailureRate;
+        private float livenessFailureRate;
+        private float extractNoise = 0.3f;
+        private boolean busyWait = true;
+        private long failureSeed;
+
+        public Builder() {
+        }
+
+        /**
+         * @param val 模拟的场景，必须设置
+         */
+        public Builder scene(SimulatedScene val) {
+            scene = val;
+            return this;
+        }
+
+        public Builder detectLatency(long time, TimeUnit unit) {
+            detectLatency = unit.toNanos(time);
+            return this;
+        }
+
+        public Builder extractLatency(long time, TimeUnit unit) {
+            extractLatency = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * 搜索人脸库时每个人脸比对一次，10万人脸库下微秒级的耗时即可累积为几十毫秒
+         */
+        public Builder compareLatency(long time, TimeUnit unit) {
+            compareLatency = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * RGB活体和IR活体使用相同的耗时
+         */
+        public Builder livenessLatency(long time, TimeUnit unit) {
+            livenessLatency = unit.toNanos(time);
+            return this;
+        }
+
+        public Builder detectFailureRate(float val) {
+            detectFailureRate = val;
+            return this;
+        }
+
+        public Builder extractFailureRate(float val) {
+            extractFailureRate = val;
+            return this;
+        }
+
+        public Builder compareFailureRate(float val) {
+            compareFailureRate = val;
+            return this;
+        }
+
+        public Builder livenessFailureRate(float val) {
+            livenessFailureRate = val;
+            return this;
+        }
+
+        /**
+         * @param val 提取特征时叠加的噪声，越大同一人的相似度越低，默认0.3时约为0.96
+         */
+        public Builder extractNoise(float val) {
+            extractNoise = val;
+            return this;
+        }
+
+        /**
+         * @param val true时用忙等模拟耗时，false时让出CPU，可在核数较少的电脑上模拟更多的引擎线程，默认为true
+         */
+        public Builder busyWait(boolean val) {
+            busyWait = val;
+            return this;
+        }
+
+        /**
+         * @param val 决定失败的随机数种子
+         */
+        public Builder failureSeed(long val) {
+            failureSeed = val;
+            return this;
+        }
+
+        public SimulatedEngine build() {
+            if (scene == null) {
+                throw new IllegalArgumentException("scene must not be null");
+            }
+            if (detectLatency < 0 || extractLatency < 0 || compareLatency < 0 || livenessLatency < 0) {
+                throw new IllegalArgumentException("latency must not be negative");
+            }
+            if (!isRate(detectFailureRate) || !isRate(extractFailureRate) || !isRate(compareFailureRate) || !isRate(livenessFailureRate)) {
+                throw new IllegalArgumentException("failure rate must be in [0, 1]");
+            }
+            if (extractNoise < 0) {
+                throw new IllegalArgumentException("extractNoise must not be negative");
+            }
+            return new SimulatedEngine(this);
+        }
+
+        private static boolean isRate(float rate) {
+            return rate >= 0 && rate <= 1;
+        }
+    }
+}
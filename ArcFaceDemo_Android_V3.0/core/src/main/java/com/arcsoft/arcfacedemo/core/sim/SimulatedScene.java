@@ -0,0 +1,293 @@
+package com.arcsoft.arcfacedemo.core.sim;
+
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.FeatureGallery;
+import com.arcsoft.arcfacedemo.core.Frame;
+
+import java.util.List;
+
+/**
+ * 可复现的模拟场景：画面中始终有固定数量的人脸，每个人脸轨迹持续一定帧数后离开，由新的人脸补上
+ * <p>
+ * 场景中的一切都由种子和帧序号决定：同一帧的人脸框、faceId、身份和是否为假体在任何线程、任何时候计算都相同，
+ * 因此多线程的压测可以复现。帧序号写在图像数据的前8个字节中，{@link SimulatedEngine}据此还原该帧的人脸
+ */
+public class SimulatedScene {
+    /**
+     * 身份：不在人脸库中的陌生人
+     */
+    public static final int STRANGER = -1;
+    /**
+     * 人脸角度，与ArcSoft引擎的ASF_OC_0相同
+     */
+    public static final int ORIENT_0 = 1;
+
+    private final long seed;
+    private final int width;
+    private final int height;
+    private final int faceCount;
+    private final int trackFrames;
+    private final int identityCount;
+    private final float strangerRate;
+    private final float spoofRate;
+    private final int minFaceSize;
+    private final int maxFaceSize;
+
+    private SimulatedScene(Builder builder) {
+        this.seed = builder.seed;
+        this.width = builder.width;
+        this.height = builder.height;
+        this.faceCount = builder.faceCount;
+        this.trackFrames = builder.trackFrames;
+        this.identityCount = builder.identityCount;
+        this.strangerRate = builder.strangerRate;
+        this.spoofRate = builder.spoofRate;
+        this.minFaceSize = Math.min(width, height) / 8;
+        this.maxFaceSize = Math.min(width, height) / 3;
+    }
+
+    /**
+     * 创建一帧NV21图像，图像数据只写入帧序号
+     *
+     * @param frameIndex 帧序号
+     * @return 图像
+     */
+    public Frame newFrame(long frameIndex) {
+        return newFrame(frameIndex, new byte[width * height * 3 / 2]);
+    }
+
+    /**
+     * 复用图像数据创建一帧NV21图像
+     *
+     * @param frameIndex 帧序号
+     * @param data       图像数据，长度不小于width * height * 3 / 2
+     * @return 图像
+     */
+    public Frame newFrame(long frameIndex, byte[] data) {
+        if (data.length < width * height * 3 / 2) {
+            throw new IllegalArgumentException("data is too short for " + width + "x" + height);
+        }
+        for (int i = 0; i < 8; i++) {
+            data[i] = (byte) (frameIndex >>> (i * 8));
+        }
+        return new Frame(data, width, height, Frame.FORMAT_NV21);
+    }
+
+    /**
+     * @param frame {@link #newFrame(long)}创建的图像
+     * @return 帧序号
+     */
+    public static long frameIndexOf(Frame frame) {
+        byte[] data = frame.getData();
+        long frameIndex = 0;
+        for (int i = 0; i < 8; i++) {
+            frameIndex |= (data[i] & 0xFFL) << (i * 8);
+        }
+        return frameIndex;
+    }
+
+    /**
+     * 获取某一帧中的人脸，按faceId所在的位置排列
+     *
+     * @param frameIndex 帧序号，不小于0
+     * @param faceList   人脸，调用前会被清空
+     */
+    public void getFaces(long frameIndex, List<FaceBox> faceList) {
+        faceList.clear();
+        for (int slot = 0; slot < faceCount; slot++) {
+            // 各位置的轨迹错开开始，避免所有人脸同时离开
+            long position = frameIndex + (long) slot * trackFrames / faceCount;
+            long track = position / trackFrames;
+            int faceId = (int) (track * faceCount + slot);
+            float progress = (float) (position % trackFrames) / trackFrames;
+            long hash = mix(seed, faceId);
+            int size = minFaceSize + (int) ((mix(hash, 1) >>> 1) % (maxFaceSize - minFaceSize + 1));
+            // 人脸从起点匀速移动到终点
+            float startX = unit(hash, 0) * (width - size);
+            float startY = unit(hash, 1) * (height - size);
+            float endX = unit(hash, 2) * (width - size);
+            float endY = unit(hash, 3) * (height - size);
+            int left = (int) (startX + (endX - startX) * progress);
+            int top = (int) (startY + (endY - startY) * progress);
+            faceList.add(new FaceBox(left, top, left + size, top + size, ORIENT_0, faceId));
+        }
+    }
+
+    /**
+     * @param faceId 人脸的faceId
+     * @return 人脸的身份，取值范围[0, identityCount)，陌生人为{@link #STRANGER}
+     */
+    public int identityOf(int faceId) {
+        long hash = mix(seed ^ 0x5DEECE66DL, faceId);
+        if (unit(hash, 0) < strangerRate) {
+            return STRANGER;
+        }
+        return (int) ((hash >>> 16) % identityCount);
+    }
+
+    /**
+     * @param faceId 人脸的faceId
+     * @return 该人脸是否为假体
+     */
+    public boolean isSpoof(int faceId) {
+        return unit(mix(seed ^ 0x2545F4914F6CDD1DL, faceId), 0) < spoofRate;
+    }
+
+    /**
+     * 生成某个身份注册到人脸库的特征
+     *
+     * @param identity 身份
+     * @param feature  特征数据，长度不小于{@link SyntheticFeatures#FEATURE_SIZE}
+     */
+    public void writeGalleryFeature(int identity, byte[] feature) {
+        SyntheticFeatures.write(seed, identity, 0, 0, feature);
+    }
+
+    /**
+     * @param identity 身份
+     * @return 该身份在人脸库中的名字
+     */
+    public static String nameOf(int identity) {
+        return "identity" + identity;
+    }
+
+    /**
+     * 将前count个身份注册到人脸库
+     *
+     * @param gallery 人脸库，特征长度需为{@link SyntheticFeatures#FEATURE_SIZE}
+     * @param count   注册的身份数
+     */
+    public void fillGallery(FeatureGallery gallery, int count) {
+        byte[] feature = new byte[SyntheticFeatures.FEATURE_SIZE];
+        for (int identity = 0; identity < count; identity++) {
+            writeGalleryFeature(identity, feature);
+            gallery.add(nameOf(identity), feature);
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    public int getTrackFrames() {
+        return trackFrames;
+    }
+
+    public int getIdentityCount() {
+        return identityCount;
+    }
+
+    /**
+     * SplitMix64，将种子和faceId混合为均匀分布的64位整数
+     */
+    static long mix(long seed, long value) {
+        long z = seed + value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 取hash中的第index个16位，映射到[0, 1)
+     */
+    private static float unit(long hash, int index) {
+        return ((hash >>> (index * 16)) & 0xFFFF) / 65536f;
+    }
+
+    public static final class Builder {
+        private long seed;
+        private int width = 640;
+        private int height = 480;
+        private int faceCount = 10;
+        private int trackFrames = 90;
+        private int identityCount = 100000;
+        private float strangerRate;
+        private float spoofRate;
+
+        public Builder() {
+        }
+
+        /**
+         * @param val 种子，相同的种子生成相同的场景
+         */
+        public Builder seed(long val) {
+            seed = val;
+            return this;
+        }
+
+        /**
+         * @param width  图像宽度
+         * @param height 图像高度
+         */
+        public Builder frameSize(int width, int height) {
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * @param val 每一帧中的人脸数
+         */
+        public Builder faceCount(int val) {
+            faceCount = val;
+            return this;
+        }
+
+        /**
+         * @param val 每个人脸轨迹持续的帧数
+         */
+        public Builder trackFrames(int val) {
+            trackFrames = val;
+            return this;
+        }
+
+        /**
+         * @param val 人脸库中的身份数，人脸的身份从中随机选取
+         */
+        public Builder identityCount(int val) {
+            identityCount = val;
+            return this;
+        }
+
+        /**
+         * @param val 陌生人的比例，取值范围[0, 1]
+         */
+        public Builder strangerRate(float val) {
+            strangerRate = val;
+            return this;
+        }
+
+        /**
+         * @param val 假体的比例，取值范围[0, 1]
+         */
+        public Builder spoofRate(float val) {
+            spoofRate = val;
+            return this;
+        }
+
+        public SimulatedScene build() {
+            if (width < 16 || height < 16) {
+                throw new IllegalArgumentException("frame size is too small: " + width + "x" + height);
+            }
+            if (faceCount <= 0 || trackFrames <= 0 || identityCount <= 0) {
+                throw new IllegalArgumentException("faceCount, trackFrames and identityCount must be greater than 0");
+            }
+            if (strangerRate < 0 || strangerRate > 1 || spoofRate < 0 || spoofRate > 1) {
+                throw new IllegalArgumentException("rate must be in [0, 1]");
+            }
+            return new SimulatedScene(this);
+        }
+    }
+}
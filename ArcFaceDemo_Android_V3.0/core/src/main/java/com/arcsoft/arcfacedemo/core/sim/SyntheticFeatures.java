@@ -0,0 +1,91 @@
+package com.arcsoft.arcfacedemo.core.sim;
+
+import java.util.Random;
+
+/**
+ * 合成的人脸特征，格式与ArcSoft引擎的特征相同：共{@link #FEATURE_SIZE}字节，
+ * 前{@link #HEADER_SIZE}字节为头部，其后为小端序的单位长度float向量
+ * <p>
+ * 同一身份的特征由身份的种子生成，再叠加可控的噪声，因此同一身份的两次提取相似度高，不同身份的相似度接近0。
+ * 相似度为两个向量的内积，小于0时取0
+ */
+public class SyntheticFeatures {
+    /**
+     * 特征长度，与FaceFeature.FEATURE_SIZE相同
+     */
+    public static final int FEATURE_SIZE = 1032;
+    public static final int HEADER_SIZE = 8;
+    public static final int DIMENSION = (FEATURE_SIZE - HEADER_SIZE) / 4;
+
+    private SyntheticFeatures() {
+    }
+
+    /**
+     * 生成特征
+     *
+     * @param seed      场景的种子
+     * @param identity  身份
+     * @param noise     噪声向量与身份向量的长度比，为0时即身份向量本身
+     * @param noiseSeed 噪声的种子，相同时生成相同的噪声
+     * @param feature   特征数据，长度不小于{@link #FEATURE_SIZE}
+     */
+    public static void write(long seed, int identity, float noise, long noiseSeed, byte[] feature) {
+        float[] vector = new float[DIMENSION];
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + identity);
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        normalize(vector);
+        if (noise > 0) {
+            Random noiseRandom = new Random(noiseSeed);
+            // 每一维的标准差为noise / sqrt(DIMENSION)，噪声向量的长度约为noise
+            float scale = noise / (float) Math.sqrt(DIMENSION);
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] += (float) noiseRandom.nextGaussian() * scale;
+            }
+            normalize(vector);
+        }
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            feature[i] = 0;
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            int bits = Float.floatToIntBits(vector[i]);
+            int offset = HEADER_SIZE + i * 4;
+            feature[offset] = (byte) bits;
+            feature[offset + 1] = (byte) (bits >> 8);
+            feature[offset + 2] = (byte) (bits >> 16);
+            feature[offset + 3] = (byte) (bits >> 24);
+        }
+    }
+
+    /**
+     * 计算相似度，不分配内存
+     *
+     * @param feature1 特征数据
+     * @param feature2 特征数据
+     * @return 相似度，取值范围[0, 1]
+     */
+    public static float similarity(byte[] feature1, byte[] feature2) {
+        float dot = 0;
+        for (int offset = HEADER_SIZE; offset < FEATURE_SIZE; offset += 4) {
+            dot += readFloat(feature1, offset) * readFloat(feature2, offset);
+        }
+        return Math.max(0f, Math.min(1f, dot));
+    }
+
+    private static float readFloat(byte[] data, int offset) {
+        return Float.intBitsToFloat((data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24);
+    }
+
+    private static void normalize(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        float scale = sum == 0 ? 0 : (float) (1 / Math.sqrt(sum));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.arcsoft.arcfacedemo.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 人脸库的追加、扩容和快照隔离
+ */
+public class FeatureGalleryTest {
+    private static final int FEATURE_SIZE = 16;
+
+    @Test
+    public void addAndRead() {
+        FeatureGallery gallery = new FeatureGallery(FEATURE_SIZE, 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, gallery.add("face" + i, feature(i)));
+        }
+        assertEquals(100, gallery.size());
+        FeatureGallery.Snapshot snapshot = gallery.snapshot();
+        FeatureGallery.Reader reader = snapshot.newReader();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("face" + i, snapshot.getName(i));
+            assertArrayEquals(feature(i), reader.read(i));
+        }
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterAdds() {
+        FeatureGallery gallery = new FeatureGallery(FEATURE_SIZE, 2);
+        gallery.add("a", feature(1));
+        gallery.add("b", feature(2));
+        FeatureGallery.Snapshot snapshot = gallery.snapshot();
+        // 触发扩容，旧快照仍引用原来的内存
+        for (int i = 0; i < 10; i++) {
+            gallery.add("c" + i, feature(10 + i));
+        }
+        assertEquals(2, snapshot.size());
+        assertArrayEquals(feature(2), snapshot.newReader().read(1));
+        assertEquals(12, gallery.snapshot().size());
+    }
+
+    @Test
+    public void addFromBufferPosition() {
+        FeatureGallery gallery = new FeatureGallery(FEATURE_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(FEATURE_SIZE * 2);
+        buffer.put(feature(1)).put(feature(2));
+        buffer.position(FEATURE_SIZE);
+        gallery.add("b", buffer);
+        assertEquals(FEATURE_SIZE, buffer.position());
+        assertArrayEquals(feature(2), gallery.newReader().read(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectShortFeature() {
+        new FeatureGallery(FEATURE_SIZE).add("a", new byte[FEATURE_SIZE - 1]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectUnpublishedSlot() {
+        FeatureGallery gallery = new FeatureGallery(FEATURE_SIZE);
+        gallery.add("a", feature(1));
+        gallery.newReader().read(1);
+    }
+
+    private static byte[] feature(int seed) {
+        byte[] feature = new byte[FEATURE_SIZE];
+        for (int i = 0; i < FEATURE_SIZE; i++) {
+            feature[i] = (byte) (seed * 31 + i);
+        }
+        return feature;
+    }
+}
@@ -0,0 +1,124 @@
+package com.arcsoft.arcfacedemo.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 人脸库TopK搜索的结果、剪枝和提前停止
+ */
+public class GallerySearcherTest {
+    private static final int FACE_COUNT = 200;
+
+    private FeatureGallery gallery;
+    private CountingEngine engine;
+
+    /**
+     * 特征只有1字节，相似度为1 - |a - b| / 255
+     */
+    private static class CountingEngine implements Engine {
+        private int compareCount;
+
+        @Override
+        public int detect(Frame frame, List<FaceBox> faceList) {
+            faceList.clear();
+            return OK;
+        }
+
+        @Override
+        public int getFeatureSize() {
+            return 1;
+        }
+
+        @Override
+        public int extract(Frame frame, FaceBox face, byte[] feature) {
+            feature[0] = 0;
+            return OK;
+        }
+
+        @Override
+        public int compare(byte[] feature1, byte[] feature2, float[] similar) {
+            compareCount++;
+            similar[0] = 1 - Math.abs((feature1[0] & 0xFF) - (feature2[0] & 0xFF)) / 255f;
+            return OK;
+        }
+
+        @Override
+        public int liveness(Frame frame, FaceBox face, int[] liveness) {
+            liveness[0] = LIVENESS_ALIVE;
+            return OK;
+        }
+
+        @Override
+        public int irLiveness(Frame frame, FaceBox face, int[] liveness) {
+            liveness[0] = LIVENESS_ALIVE;
+            return OK;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        gallery = new FeatureGallery(1);
+        for (int i = 0; i < FACE_COUNT; i++) {
+            gallery.add("face" + i, new byte[]{(byte) i});
+        }
+        engine = new CountingEngine();
+    }
+
+    @Test
+    public void topKIsSortedDescending() {
+        List<Match> matchList = GallerySearcher.search(engine, new byte[]{100}, gallery.snapshot(), 3, 0, GallerySearcher.NO_CERTAIN_SIMILAR);
+        assertEquals(3, matchList.size());
+        assertEquals("face100", matchList.get(0).getName());
+        assertEquals(100, matchList.get(0).getSlot());
+        assertEquals(1f, matchList.get(0).getSimilar(), 0);
+        // 99和101的相似度相同，顺序不确定
+        assertTrue(matchList.get(1).getSimilar() >= matchList.get(2).getSimilar());
+        assertEquals(1 - 1 / 255f, matchList.get(2).getSimilar(), 1e-6);
+        assertEquals(FACE_COUNT, engine.compareCount);
+    }
+
+    @Test
+    public void minSimilarFiltersResults() {
+        List<Match> matchList = GallerySearcher.search(engine, new byte[]{0}, gallery.snapshot(), 10, 1 - 2 / 255f - 1e-6f,
+                GallerySearcher.NO_CERTAIN_SIMILAR);
+        assertEquals(3, matchList.size());
+        assertEquals("face0", matchList.get(0).getName());
+        assertEquals("face2", matchList.get(2).getName());
+    }
+
+    @Test
+    public void stopsAtCertainSimilar() {
+        List<Match> matchList = GallerySearcher.search(engine, new byte[]{10}, gallery.snapshot(), 1, 0, 1f);
+        assertEquals("face10", matchList.get(0).getName());
+        assertEquals(11, engine.compareCount);
+    }
+
+    @Test
+    public void sharedFlagStopsOtherRanges() {
+        AtomicBoolean certainFound = new AtomicBoolean(true);
+        PriorityQueue<Match> topKQueue = GallerySearcher.searchRange(engine, new byte[]{10}, gallery.snapshot(), null, 0, FACE_COUNT,
+                1, 0, 1f, certainFound);
+        assertTrue(topKQueue.isEmpty());
+        assertEquals(0, engine.compareCount);
+    }
+
+    @Test
+    public void searchesOnlyCandidates() {
+        int[] candidateIndexes = {5, 50, 150, FACE_COUNT + 1};
+        PriorityQueue<Match> topKQueue = GallerySearcher.searchRange(engine, new byte[]{(byte) 140}, gallery.snapshot(), candidateIndexes,
+                0, candidateIndexes.length, 2, 0, GallerySearcher.NO_CERTAIN_SIMILAR, new AtomicBoolean(false));
+        List<Match> matchList = GallerySearcher.sortDescending(topKQueue);
+        assertEquals(2, matchList.size());
+        assertEquals(150, matchList.get(0).getSlot());
+        assertEquals(50, matchList.get(1).getSlot());
+        // 超出快照范围的候选被跳过
+        assertEquals(3, engine.compareCount);
+    }
+}
@@ -0,0 +1,166 @@
+package com.arcsoft.arcfacedemo.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分片搜索的分片数、结果合并和失败处理
+ */
+public class ShardedGallerySearcherTest {
+    private static final int FACE_COUNT = 200;
+    private static final int ENGINE_COUNT = 3;
+    private static final int MIN_FACES_PER_SHARD = 50;
+
+    private FeatureGallery gallery;
+    private CountingEngine[] engines;
+    private ExecutorService executor;
+
+    /**
+     * 特征只有1字节，相似度为1 - |a - b| / 255，failing为true时比对抛出异常
+     */
+    private static class CountingEngine implements Engine {
+        private volatile int compareCount;
+        private volatile boolean failing;
+
+        @Override
+        public int detect(Frame frame, List<FaceBox> faceList) {
+            faceList.clear();
+            return OK;
+        }
+
+        @Override
+        public int getFeatureSize() {
+            return 1;
+        }
+
+        @Override
+        public int extract(Frame frame, FaceBox face, byte[] feature) {
+            feature[0] = 0;
+            return OK;
+        }
+
+        @Override
+        public int compare(byte[] feature1, byte[] feature2, float[] similar) {
+            if (failing) {
+                throw new IllegalStateException("simulated failure");
+            }
+            compareCount++;
+            similar[0] = 1 - Math.abs((feature1[0] & 0xFF) - (feature2[0] & 0xFF)) / 255f;
+            return OK;
+        }
+
+        @Override
+        public int liveness(Frame frame, FaceBox face, int[] liveness) {
+            liveness[0] = LIVENESS_ALIVE;
+            return OK;
+        }
+
+        @Override
+        public int irLiveness(Frame frame, FaceBox face, int[] liveness) {
+            liveness[0] = LIVENESS_ALIVE;
+            return OK;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        gallery = new FeatureGallery(1);
+        for (int i = 0; i < FACE_COUNT; i++) {
+            gallery.add("face" + i, new byte[]{(byte) i});
+        }
+        engines = new CountingEngine[ENGINE_COUNT];
+        for (int i = 0; i < ENGINE_COUNT; i++) {
+            engines[i] = new CountingEngine();
+        }
+        executor = Executors.newFixedThreadPool(ENGINE_COUNT - 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shardCountIsLimitedByEnginesAndShardSize() {
+        ShardedGallerySearcher searcher = new ShardedGallerySearcher(engines, executor, MIN_FACES_PER_SHARD);
+        assertEquals(1, searcher.getShardCount(0));
+        assertEquals(1, searcher.getShardCount(MIN_FACES_PER_SHARD));
+        assertEquals(2, searcher.getShardCount(MIN_FACES_PER_SHARD + 1));
+        assertEquals(ENGINE_COUNT, searcher.getShardCount(FACE_COUNT));
+    }
+
+    @Test
+    public void mergesShardsLikeSingleSearch() {
+        ShardedGallerySearcher searcher = new ShardedGallerySearcher(engines, executor, MIN_FACES_PER_SHARD);
+        byte[] feature = {(byte) 120};
+        List<Match> matchList = searcher.search(feature, gallery.snapshot(), null, 5, 0, GallerySearcher.NO_CERTAIN_SIMILAR);
+        List<Match> expectedList = GallerySearcher.search(new CountingEngine(), feature, gallery.snapshot(), 5, 0,
+                GallerySearcher.NO_CERTAIN_SIMILAR);
+        // 相似度相同的人脸顺序不确定，只比较相似度
+        assertEquals(toSimilars(expectedList), toSimilars(matchList));
+        assertEquals(120, matchList.get(0).getSlot());
+        // 每个引擎比对一个分片
+        int compareCount = 0;
+        for (CountingEngine engine : engines) {
+            assertTrue(engine.compareCount > 0);
+            compareCount += engine.compareCount;
+        }
+        assertEquals(FACE_COUNT, compareCount);
+    }
+
+    @Test
+    public void searchesOnlyCandidates() {
+        ShardedGallerySearcher searcher = new ShardedGallerySearcher(engines, executor, 1);
+        int[] candidateIndexes = {5, 50, 150};
+        List<Match> matchList = searcher.search(new byte[]{(byte) 140}, gallery.snapshot(), candidateIndexes, 2, 0,
+                GallerySearcher.NO_CERTAIN_SIMILAR);
+        assertEquals(2, matchList.size());
+        assertEquals(150, matchList.get(0).getSlot());
+        assertEquals(50, matchList.get(1).getSlot());
+        for (CountingEngine engine : engines) {
+            assertEquals(1, engine.compareCount);
+        }
+    }
+
+    @Test
+    public void failedShardIsSkipped() {
+        final List<Throwable> failureList = new ArrayList<>();
+        ShardedGallerySearcher searcher = new ShardedGallerySearcher(engines, executor, MIN_FACES_PER_SHARD) {
+            @Override
+            protected void onShardFailed(Throwable cause) {
+                failureList.add(cause);
+            }
+        };
+        engines[1].failing = true;
+        List<Match> matchList = searcher.search(new byte[]{(byte) 199}, gallery.snapshot(), null, 1, 0,
+                GallerySearcher.NO_CERTAIN_SIMILAR);
+        assertEquals(1, failureList.size());
+        assertTrue(failureList.get(0) instanceof IllegalStateException);
+        assertEquals(199, matchList.get(0).getSlot());
+    }
+
+    @Test
+    public void returnsNullAfterShutdown() {
+        ShardedGallerySearcher searcher = new ShardedGallerySearcher(engines, executor, MIN_FACES_PER_SHARD);
+        executor.shutdown();
+        assertNull(searcher.search(new byte[]{0}, gallery.snapshot(), null, 1, 0, GallerySearcher.NO_CERTAIN_SIMILAR));
+    }
+
+    private static List<Float> toSimilars(List<Match> matchList) {
+        List<Float> similarList = new ArrayList<>(matchList.size());
+        for (Match match : matchList) {
+            similarList.add(match.getSimilar());
+        }
+        return similarList;
+    }
+}
@@ -0,0 +1,142 @@
+package com.arcsoft.arcfacedemo.core.sim;
+
+import com.arcsoft.arcfacedemo.core.Engine;
+import com.arcsoft.arcfacedemo.core.FaceBox;
+import com.arcsoft.arcfacedemo.core.Frame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 模拟引擎的可复现性、人脸轨迹、特征相似度和失败率
+ */
+public class SimulatedEngineTest {
+    private static final int FACE_COUNT = 10;
+    private static final int TRACK_FRAMES = 30;
+
+    private static SimulatedScene newScene(long seed) {
+        return new SimulatedScene.Builder()
+                .seed(seed)
+                .faceCount(FACE_COUNT)
+                .trackFrames(TRACK_FRAMES)
+                .identityCount(1000)
+                .build();
+    }
+
+    private static SimulatedEngine newEngine(SimulatedScene scene) {
+        return new SimulatedEngine.Builder().scene(scene).build();
+    }
+
+    @Test
+    public void sameSeedSameFaces() {
+        Engine engine1 = newEngine(newScene(42));
+        Engine engine2 = newEngine(newScene(42));
+        List<FaceBox> faceList1 = new ArrayList<>();
+        List<FaceBox> faceList2 = new ArrayList<>();
+        for (long frameIndex = 0; frameIndex < 100; frameIndex++) {
+            assertEquals(Engine.OK, engine1.detect(newScene(42).newFrame(frameIndex), faceList1));
+            assertEquals(Engine.OK, engine2.detect(newScene(42).newFrame(frameIndex), faceList2));
+            assertEquals(FACE_COUNT, faceList1.size());
+            assertEquals(faceList1.toString(), faceList2.toString());
+        }
+        newScene(43).getFaces(0, faceList2);
+        newScene(42).getFaces(0, faceList1);
+        assertNotEquals(faceList1.toString(), faceList2.toString());
+    }
+
+    @Test
+    public void faceIdIsStableWithinTrack() {
+        SimulatedScene scene = newScene(1);
+        List<FaceBox> previous = new ArrayList<>();
+        List<FaceBox> current = new ArrayList<>();
+        int changedCount = 0;
+        scene.getFaces(0, previous);
+        for (long frameIndex = 1; frameIndex <= TRACK_FRAMES * 3; frameIndex++) {
+            scene.getFaces(frameIndex, current);
+            for (int slot = 0; slot < FACE_COUNT; slot++) {
+                FaceBox face = current.get(slot);
+                assertTrue(face.getLeft() >= 0 && face.getRight() <= scene.getWidth());
+                assertTrue(face.getTop() >= 0 && face.getBottom() <= scene.getHeight());
+                if (face.getFaceId() != previous.get(slot).getFaceId()) {
+                    // 新人脸的faceId比离开的人脸大
+                    assertTrue(face.getFaceId() > previous.get(slot).getFaceId());
+                    changedCount++;
+                }
+            }
+            List<FaceBox> temp = previous;
+            previous = current;
+            current = temp;
+        }
+        // 每个位置每TRACK_FRAMES帧换一次人脸
+        assertEquals(FACE_COUNT * 3, changedCount);
+    }
+
+    @Test
+    public void genuineScoresHigherThanImpostor() {
+        SimulatedScene scene = newScene(7);
+        Engine engine = newEngine(scene);
+        List<FaceBox> faceList = new ArrayList<>();
+        scene.getFaces(5, faceList);
+        Frame frame = scene.newFrame(5);
+        FaceBox face = faceList.get(0);
+        int identity = scene.identityOf(face.getFaceId());
+
+        byte[] feature = new byte[engine.getFeatureSize()];
+        assertEquals(Engine.OK, engine.extract(frame, face, feature));
+        byte[] again = new byte[engine.getFeatureSize()];
+        engine.extract(scene.newFrame(5), face, again);
+        assertArrayEquals(feature, again);
+
+        byte[] galleryFeature = new byte[SyntheticFeatures.FEATURE_SIZE];
+        float[] similar = new float[1];
+        scene.writeGalleryFeature(identity, galleryFeature);
+        assertEquals(Engine.OK, engine.compare(feature, galleryFeature, similar));
+        assertTrue("genuine " + similar[0], similar[0] > 0.9f);
+        for (int other = 0; other < 100; other++) {
+            if (other == identity) {
+                continue;
+            }
+            scene.writeGalleryFeature(other, galleryFeature);
+            engine.compare(feature, galleryFeature, similar);
+            assertTrue("impostor " + similar[0], similar[0] < 0.5f);
+        }
+    }
+
+    @Test
+    public void failureRateIsApplied() {
+        SimulatedScene scene = newScene(3);
+        SimulatedEngine engine = new SimulatedEngine.Builder()
+                .scene(scene)
+                .extractFailureRate(0.2f)
+                .failureSeed(11)
+                .build();
+        List<FaceBox> faceList = new ArrayList<>();
+        scene.getFaces(0, faceList);
+        Frame frame = scene.newFrame(0);
+        byte[] feature = new byte[engine.getFeatureSize()];
+        int failureCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (engine.extract(frame, faceList.get(i % FACE_COUNT), feature) == SimulatedEngine.ERROR_SIMULATED) {
+                failureCount++;
+            }
+        }
+        assertTrue("failureCount " + failureCount, failureCount > 1800 && failureCount < 2200);
+    }
+
+    @Test
+    public void spoofTracksAreNotAlive() {
+        SimulatedScene scene = new SimulatedScene.Builder().seed(5).spoofRate(1).build();
+        List<FaceBox> faceList = new ArrayList<>();
+        scene.getFaces(0, faceList);
+        int[] liveness = new int[1];
+        assertEquals(Engine.OK, newEngine(scene).liveness(scene.newFrame(0), faceList.get(0), liveness));
+        assertEquals(Engine.LIVENESS_NOT_ALIVE, liveness[0]);
+    }
+}